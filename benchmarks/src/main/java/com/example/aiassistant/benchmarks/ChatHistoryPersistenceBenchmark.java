@@ -0,0 +1,77 @@
+package com.example.aiassistant.benchmarks;
+
+import com.example.aiassistant.model.ChatMessage;
+import com.example.aiassistant.service.ChatHistoryService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Сохранение и загрузка chat_history.bin. Приложение переписывает историю целиком после
+// каждого ответа, поэтому saveChatHistory на длинной истории - стоимость одного сообщения.
+// Скорость выделения памяти - профилировщик JMH: -prof gc.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChatHistoryPersistenceBenchmark {
+
+    @Param({"50", "1000", "10000"})
+    public int messages;
+
+    // Символов в ответе ассистента; вопросы в четыре раза короче
+    @Param({"200", "2000"})
+    public int messageLength;
+
+    @Param({"42"})
+    public long seed;
+
+    private Path directory;
+    private Path historyFile;
+    private ChatHistoryService chatHistory;
+    private List<ChatMessage> history;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = TempFiles.createDirectory("bench-chat");
+        historyFile = directory.resolve("chat_history.bin");
+        chatHistory = new ChatHistoryService(historyFile.toString());
+        history = SyntheticCorpus.chat(messages, messageLength, seed);
+        // Файл для loadChatHistory
+        chatHistory.saveChatHistory(history);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        long fileSize = Files.size(historyFile);
+        System.out.printf("%nФайл истории %d байт, %d байт на сообщение%n", fileSize, fileSize / messages);
+        TempFiles.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public void saveChatHistory() {
+        chatHistory.saveChatHistory(history);
+    }
+
+    @Benchmark
+    public List<ChatMessage> loadChatHistory() {
+        return chatHistory.loadChatHistory();
+    }
+}
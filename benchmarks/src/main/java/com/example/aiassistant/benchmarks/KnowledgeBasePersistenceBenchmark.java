@@ -0,0 +1,113 @@
+package com.example.aiassistant.benchmarks;
+
+import com.example.aiassistant.model.KnowledgeDocument;
+import com.example.aiassistant.service.VectorDBService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Запись и загрузка knowledge_base.bin на базе из documents синтетических документов.
+// Каждая операция переписывает или читает весь файл, поэтому замер - одиночный вызов
+// (SingleShotTime): после итерации добавленные документы удаляются, и следующая итерация
+// снова работает с базой исходного размера.
+//   insertWithAutosave - addDocument: один документ и полная перезапись файла
+//   flushBatch         - addDocuments на BATCH документов и один flush(), как конвейер загрузки
+//   load               - конструктор VectorDBService: чтение файла целиком (loadFromDisk)
+// Байты на вставку печатаются после каждой итерации; скорость выделения памяти - профилировщик
+// JMH: -prof gc (gc.alloc.rate и gc.alloc.rate.norm - байт на операцию).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+public class KnowledgeBasePersistenceBenchmark {
+    private static final int BATCH = 100;
+    private static final String ADDED_PREFIX = "added-";
+
+    @Param({"1000", "10000", "100000"})
+    public int documents;
+
+    @Param({"384", "768"})
+    public int dimension;
+
+    // Символов текста в документе - порядок размера фрагмента при загрузке файлов
+    @Param({"1000"})
+    public int contentLength;
+
+    @Param({"42"})
+    public long seed;
+
+    private Path directory;
+    private String basePath;
+    private VectorDBService vectorDB;
+    private List<KnowledgeDocument> extra;
+    private int nextExtra;
+    private int inserted;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = TempFiles.createDirectory("bench-persistence");
+        basePath = directory.resolve("knowledge_base.bin").toString();
+        VectorDBService.writeKnowledgeBase(basePath,
+                SyntheticCorpus.documents(documents, dimension, contentLength, seed, "doc-"));
+
+        vectorDB = new VectorDBService(basePath);
+        vectorDB.setAnnSearchEnabled(false);
+        // Документы для вставки готовятся заранее: генерация текста и векторов не попадает в замер
+        extra = SyntheticCorpus.documents(BATCH, dimension, contentLength, seed + 1, ADDED_PREFIX);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        TempFiles.deleteRecursively(directory);
+    }
+
+    // База и файл возвращаются к исходному размеру - вне замера
+    @TearDown(Level.Iteration)
+    public void afterIteration() throws IOException {
+        if (inserted > 0) {
+            long fileSize = Files.size(Path.of(basePath));
+            System.out.printf("%nФайл %d байт, записано на одну вставку: %d байт%n", fileSize, fileSize / inserted);
+        }
+        vectorDB.removeDocuments(document -> document.getId().startsWith(ADDED_PREFIX));
+        vectorDB.flush();
+        nextExtra = 0;
+        inserted = 0;
+    }
+
+    @Benchmark
+    public int insertWithAutosave() {
+        KnowledgeDocument document = extra.get(nextExtra++ % BATCH);
+        vectorDB.addDocument(document, document.getEmbedding());
+        inserted = 1;
+        return vectorDB.getDocumentCount();
+    }
+
+    @Benchmark
+    public boolean flushBatch() {
+        inserted = vectorDB.addDocuments(extra);
+        return vectorDB.flush();
+    }
+
+    @Benchmark
+    public VectorDBService load() {
+        return new VectorDBService(basePath);
+    }
+}
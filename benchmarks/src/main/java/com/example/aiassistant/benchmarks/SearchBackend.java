@@ -0,0 +1,116 @@
+package com.example.aiassistant.benchmarks;
+
+import com.example.aiassistant.index.IvfIndex;
+import com.example.aiassistant.model.KnowledgeDocument;
+import com.example.aiassistant.service.VectorDBService;
+import com.example.aiassistant.service.VectorStore;
+import com.example.aiassistant.service.VectorStoreRegistry;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+// Способ поиска ближайших векторов. Новый индекс добавляется реализацией и именем в forName() -
+// после этого его можно выбрать параметром backend в VectorSearchBenchmark.
+interface SearchBackend extends AutoCloseable {
+
+    // Загрузка корпуса - вне измерения
+    void load(double[][] vectors) throws IOException;
+
+    // Результат возвращается, чтобы JMH не выбросил поиск как мертвый код
+    List<?> search(double[] query, int topK, double threshold);
+
+    @Override
+    void close() throws IOException;
+
+    static SearchBackend forName(String name) {
+        switch (name) {
+            case "vectordb": return new VectorDbBackend("brute");
+            case "quantized": return new VectorDbBackend("quantized");
+            case "ivf": return new IvfBackend();
+            default: throw new IllegalArgumentException("Неизвестный способ поиска: " + name);
+        }
+    }
+
+    static String id(int i) {
+        return "doc-" + i;
+    }
+
+    // Способ поиска базы из VectorStoreRegistry поверх VectorDBService: brute - полный перебор,
+    // как в приложении без индекса, quantized - перебор по квантованным векторам
+    class VectorDbBackend implements SearchBackend {
+        private final String storeBackend;
+        private Path directory;
+        private VectorStore store;
+
+        VectorDbBackend(String storeBackend) {
+            this.storeBackend = storeBackend;
+        }
+
+        @Override
+        public void load(double[][] vectors) throws IOException {
+            // Своя база во временном каталоге: рабочая knowledge_base.bin не затрагивается
+            directory = TempFiles.createDirectory("bench-vectordb");
+            VectorDBService vectorDB = new VectorDBService(directory.resolve("knowledge_base.bin").toString());
+            vectorDB.setAnnSearchEnabled(false);
+
+            List<KnowledgeDocument> batch = new ArrayList<>(vectors.length);
+            for (int i = 0; i < vectors.length; i++) {
+                KnowledgeDocument document = new KnowledgeDocument("Документ " + i, "benchmark");
+                document.setId(id(i));
+                document.setEmbedding(vectors[i]);
+                batch.add(document);
+            }
+            vectorDB.addDocuments(batch);
+
+            VectorStoreRegistry.Config config = new VectorStoreRegistry.Config();
+            config.backend = storeBackend;
+            store = VectorStoreRegistry.create("benchmark", vectorDB, config);
+        }
+
+        @Override
+        public List<?> search(double[] query, int topK, double threshold) {
+            return store.searchSimilar(query, topK, threshold);
+        }
+
+        @Override
+        public void close() throws IOException {
+            TempFiles.deleteRecursively(directory);
+        }
+    }
+
+    // Приближенный индекс IVF (index.IvfIndex) с числом списков и проб по умолчанию
+    class IvfBackend implements SearchBackend {
+        private static final int PROBES = 16;
+        private IvfIndex index;
+
+        @Override
+        public void load(double[][] vectors) {
+            List<String> ids = new ArrayList<>(vectors.length);
+            for (int i = 0; i < vectors.length; i++) {
+                ids.add(id(i));
+            }
+            index = IvfIndex.build(ids, Arrays.asList(vectors), IvfIndex.defaultListCount(vectors.length),
+                    ForkJoinPool.commonPool());
+        }
+
+        @Override
+        public List<?> search(double[] query, int topK, double threshold) {
+            List<IvfIndex.Result> results = index.search(query, topK, PROBES);
+            // Порог применяется так же, как в VectorDBService при поиске по индексу
+            int end = 0;
+            while (end < results.size() && results.get(end).score >= threshold) {
+                end++;
+            }
+            return results.subList(0, end);
+        }
+
+        @Override
+        public void close() {
+            index = null;
+        }
+    }
+}
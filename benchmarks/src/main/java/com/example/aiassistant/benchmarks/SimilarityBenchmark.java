@@ -0,0 +1,53 @@
+package com.example.aiassistant.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Один вызов косинусной схожести. Пары перебираются по кругу из 1024 векторов (8 МБ при
+// размерности 1024 - больше L2), чтобы JIT не свернул вычисление в константу, а данные
+// приходили из памяти, как при настоящем поиске.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+public class SimilarityBenchmark {
+    private static final int VECTORS = 1024;
+
+    @Param({"384", "768", "1024"})
+    public int dimension;
+
+    @Param({"embedding-vector", "raw-loop"})
+    public String kernel;
+
+    @Param({"42"})
+    public long seed;
+
+    private SimilarityKernel similarity;
+    private int left;
+
+    @Setup
+    public void setUp() {
+        similarity = SimilarityKernel.forName(kernel);
+        similarity.load(SyntheticVectors.generate(VECTORS, dimension, seed));
+    }
+
+    @Benchmark
+    public double cosineSimilarity() {
+        int i = left;
+        left = (i + 1) & (VECTORS - 1);
+        return similarity.similarity(i, (i + VECTORS / 2) & (VECTORS - 1));
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.aiassistant.benchmarks;
+
+import com.example.aiassistant.model.EmbeddingVector;
+
+// Ядро косинусной схожести. Новое ядро добавляется реализацией и именем в forName() -
+// после этого его можно выбрать параметром kernel в SimilarityBenchmark.
+interface SimilarityKernel {
+
+    // Подготовка векторов (нормы, другое представление) - вне измерения
+    void load(double[][] vectors);
+
+    double similarity(int left, int right);
+
+    static SimilarityKernel forName(String name) {
+        switch (name) {
+            case "embedding-vector": return new EmbeddingVectorKernel();
+            case "raw-loop": return new RawLoopKernel();
+            default: throw new IllegalArgumentException("Неизвестное ядро: " + name);
+        }
+    }
+
+    // То, что использует VectorDBService: EmbeddingVector с заранее посчитанной нормой
+    class EmbeddingVectorKernel implements SimilarityKernel {
+        private EmbeddingVector[] vectors;
+
+        @Override
+        public void load(double[][] data) {
+            vectors = new EmbeddingVector[data.length];
+            for (int i = 0; i < data.length; i++) {
+                vectors[i] = new EmbeddingVector("v" + i, data[i]);
+            }
+        }
+
+        @Override
+        public double similarity(int left, int right) {
+            return vectors[left].cosineSimilarity(vectors[right]);
+        }
+    }
+
+    // Базовая линия: скалярное произведение и обе нормы на каждом вызове
+    class RawLoopKernel implements SimilarityKernel {
+        private double[][] vectors;
+
+        @Override
+        public void load(double[][] data) {
+            vectors = data;
+        }
+
+        @Override
+        public double similarity(int left, int right) {
+            double[] a = vectors[left];
+            double[] b = vectors[right];
+            double dot = 0;
+            double normA = 0;
+            double normB = 0;
+            for (int i = 0; i < a.length; i++) {
+                dot += a[i] * b[i];
+                normA += a[i] * a[i];
+                normB += b[i] * b[i];
+            }
+            return dot / (Math.sqrt(normA) * Math.sqrt(normB));
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.aiassistant.benchmarks;
+
+import com.example.aiassistant.model.ChatMessage;
+import com.example.aiassistant.model.KnowledgeDocument;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+// Детерминированные синтетические документы и история чата заданного размера.
+// Текст - кириллица и латиница вперемешку: в UTF-8 это 1-2 байта на символ, как в настоящей базе.
+final class SyntheticCorpus {
+    private static final String[] WORDS = {
+            "вектор", "поиск", "модель", "ответ", "контекст", "документ", "запрос", "индекс",
+            "embedding", "token", "cache", "Java", "OLLAMA", "база", "знаний", "история"
+    };
+
+    private SyntheticCorpus() {
+    }
+
+    static String text(SplittableRandom random, int length) {
+        StringBuilder text = new StringBuilder(length + 16);
+        while (text.length() < length) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        text.setLength(length);
+        return text.toString();
+    }
+
+    static List<KnowledgeDocument> documents(int count, int dimension, int contentLength, long seed, String idPrefix) {
+        double[][] vectors = SyntheticVectors.generate(count, dimension, seed);
+        SplittableRandom random = new SplittableRandom(seed);
+        List<KnowledgeDocument> documents = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            KnowledgeDocument document = new KnowledgeDocument(text(random, contentLength), "benchmark/" + (i % 100));
+            document.setId(idPrefix + i);
+            document.setEmbedding(vectors[i]);
+            documents.add(document);
+        }
+        return documents;
+    }
+
+    // Системное сообщение и чередующиеся вопросы и ответы - как в AssistantService
+    static List<ChatMessage> chat(int messages, int messageLength, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        List<ChatMessage> history = new ArrayList<>(messages);
+        history.add(new ChatMessage(ChatMessage.Role.SYSTEM, text(random, 200)));
+        for (int i = 1; i < messages; i++) {
+            ChatMessage.Role role = i % 2 == 1 ? ChatMessage.Role.USER : ChatMessage.Role.ASSISTANT;
+            // Вопросы короче ответов
+            int length = role == ChatMessage.Role.USER ? Math.max(16, messageLength / 4) : messageLength;
+            history.add(new ChatMessage(role, text(random, length)));
+        }
+        return history;
+    }
+}
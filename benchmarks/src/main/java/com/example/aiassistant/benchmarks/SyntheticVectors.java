@@ -0,0 +1,64 @@
+package com.example.aiassistant.benchmarks;
+
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+// Детерминированные синтетические эмбеддинги. Каждая строка строится из своего генератора
+// (seed + номер строки), поэтому данные одинаковы при любом числе потоков и в любом прогоне.
+// Векторы группируются вокруг случайных центров, как тематические кластеры настоящих
+// эмбеддингов - иначе приближенные индексы ведут себя нереалистично.
+final class SyntheticVectors {
+    private static final int CLUSTERS = 256;
+    private static final double NOISE = 0.6;
+
+    private SyntheticVectors() {
+    }
+
+    static double[][] generate(int count, int dimension, long seed) {
+        return rows(count, centers(dimension, seed), seed * 1_000_003L);
+    }
+
+    // Запросы - из тех же кластеров, но со своими генераторами строк: среди данных их нет
+    static double[][] queries(int count, int dimension, long seed) {
+        return rows(count, centers(dimension, seed), ~(seed * 1_000_003L));
+    }
+
+    private static double[][] rows(int count, double[][] centers, long rowSeed) {
+        int dimension = centers[0].length;
+        double[][] vectors = new double[count][];
+        IntStream.range(0, count).parallel().forEach(i -> {
+            SplittableRandom random = new SplittableRandom(rowSeed + i);
+            double[] center = centers[random.nextInt(CLUSTERS)];
+            double[] vector = new double[dimension];
+            for (int d = 0; d < dimension; d++) {
+                vector[d] = center[d] + NOISE * random.nextGaussian() / Math.sqrt(dimension);
+            }
+            vectors[i] = normalize(vector);
+        });
+        return vectors;
+    }
+
+    private static double[][] centers(int dimension, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        double[][] centers = new double[CLUSTERS][dimension];
+        for (double[] center : centers) {
+            for (int d = 0; d < dimension; d++) {
+                center[d] = random.nextGaussian();
+            }
+            normalize(center);
+        }
+        return centers;
+    }
+
+    private static double[] normalize(double[] vector) {
+        double sum = 0;
+        for (double v : vector) {
+            sum += v * v;
+        }
+        double norm = Math.sqrt(sum);
+        for (int d = 0; d < vector.length; d++) {
+            vector[d] /= norm;
+        }
+        return vector;
+    }
+}
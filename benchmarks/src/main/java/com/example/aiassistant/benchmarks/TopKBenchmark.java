@@ -0,0 +1,57 @@
+package com.example.aiassistant.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// Отбор topK из candidates оценок схожести - последний шаг поиска полным перебором
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(value = 3, jvmArgsAppend = {"-Xmx4g"})
+public class TopKBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int candidates;
+
+    @Param({"5", "50", "500"})
+    public int topK;
+
+    @Param({"sort", "heap"})
+    public String selector;
+
+    @Param({"42"})
+    public long seed;
+
+    private TopKSelector topKSelector;
+    private double[] scores;
+
+    @Setup
+    public void setUp() {
+        topKSelector = TopKSelector.forName(selector);
+        // Оценки в диапазоне косинусной схожести
+        SplittableRandom random = new SplittableRandom(seed);
+        scores = new double[candidates];
+        for (int i = 0; i < candidates; i++) {
+            scores[i] = random.nextDouble(-1, 1);
+        }
+    }
+
+    @Benchmark
+    public int[] select() {
+        return topKSelector.select(scores, topK);
+    }
+}
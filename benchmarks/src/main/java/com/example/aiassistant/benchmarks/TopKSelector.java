@@ -0,0 +1,71 @@
+package com.example.aiassistant.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.Collectors;
+
+// Отбор topK лучших из посчитанных схожестей. Новая стратегия добавляется реализацией
+// и именем в forName() - после этого ее можно выбрать параметром selector в TopKBenchmark.
+interface TopKSelector {
+
+    // Индексы лучших k оценок по убыванию
+    int[] select(double[] scores, int k);
+
+    static TopKSelector forName(String name) {
+        switch (name) {
+            case "sort": return new SortSelector();
+            case "heap": return new HeapSelector();
+            default: throw new IllegalArgumentException("Неизвестный способ отбора: " + name);
+        }
+    }
+
+    // Как в VectorDBService.searchSimilar: все кандидаты в список, полная сортировка, limit(k)
+    class SortSelector implements TopKSelector {
+        @Override
+        public int[] select(double[] scores, int k) {
+            List<Candidate> candidates = new ArrayList<>(scores.length);
+            for (int i = 0; i < scores.length; i++) {
+                candidates.add(new Candidate(i, scores[i]));
+            }
+            candidates.sort((a, b) -> Double.compare(b.score, a.score));
+            List<Candidate> top = candidates.stream().limit(k).collect(Collectors.toList());
+            int[] result = new int[top.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = top.get(i).index;
+            }
+            return result;
+        }
+    }
+
+    // Куча из k элементов с худшим в вершине: O(n log k) и без списка на весь корпус
+    class HeapSelector implements TopKSelector {
+        @Override
+        public int[] select(double[] scores, int k) {
+            PriorityQueue<Candidate> heap = new PriorityQueue<>(k + 1, (a, b) -> Double.compare(a.score, b.score));
+            for (int i = 0; i < scores.length; i++) {
+                if (heap.size() < k) {
+                    heap.add(new Candidate(i, scores[i]));
+                } else if (scores[i] > heap.peek().score) {
+                    heap.poll();
+                    heap.add(new Candidate(i, scores[i]));
+                }
+            }
+            int[] result = new int[heap.size()];
+            for (int i = result.length - 1; i >= 0; i--) {
+                result[i] = heap.poll().index;
+            }
+            return result;
+        }
+    }
+
+    final class Candidate {
+        final int index;
+        final double score;
+
+        Candidate(int index, double score) {
+            this.index = index;
+            this.score = score;
+        }
+    }
+}
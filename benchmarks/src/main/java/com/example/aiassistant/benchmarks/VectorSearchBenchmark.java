@@ -0,0 +1,75 @@
+package com.example.aiassistant.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Один поисковый запрос к корпусу из size синтетических векторов. Корпус строится один раз
+// на форк; запросы (64 штуки, свой seed) перебираются по кругу.
+// Память: векторы хранятся в double[], 1 000 000 x 1024 - около 8 ГБ, поэтому форку дается
+// 16 ГБ кучи. На машине с меньшей памятью крупные наборы исключаются: -p size=10000,100000
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 2, jvmArgsAppend = {"-Xmx16g"})
+public class VectorSearchBenchmark {
+    private static final int QUERIES = 64;
+
+    @Param({"10000", "100000", "1000000"})
+    public int size;
+
+    @Param({"384", "768", "1024"})
+    public int dimension;
+
+    @Param({"vectordb", "quantized", "ivf"})
+    public String backend;
+
+    @Param({"5"})
+    public int topK;
+
+    // 0.5 - порог RAG в приложении; -1 пропускает все документы и нагружает сортировку
+    @Param({"0.5", "-1"})
+    public double threshold;
+
+    @Param({"42"})
+    public long seed;
+
+    private SearchBackend search;
+    private double[][] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        search = SearchBackend.forName(backend);
+        search.load(SyntheticVectors.generate(size, dimension, seed));
+        queries = SyntheticVectors.queries(QUERIES, dimension, seed);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        search.close();
+    }
+
+    @Benchmark
+    public List<?> searchSimilar() {
+        double[] query = queries[next];
+        next = (next + 1) % QUERIES;
+        return search.search(query, topK, threshold);
+    }
+}
@@ -1,27 +1,66 @@
 package com.example.aiassistant;
 
+import com.example.aiassistant.model.KnowledgeDocument;
 import com.example.aiassistant.service.AssistantService;
-import com.example.aiassistant.service.VectorDBService;
+import com.example.aiassistant.service.IngestionJob;
+import com.example.aiassistant.service.VectorStore;
+import com.example.aiassistant.service.VectorStoreRegistry;
+import com.example.aiassistant.tools.AnnEvaluator;
+import com.example.aiassistant.tools.IndexBuilder;
+import com.example.aiassistant.tools.LoadGenerator;
+import com.example.aiassistant.tools.MockOllamaServer;
+import com.example.aiassistant.tools.VectorExporter;
 import com.example.aiassistant.web.WebServer;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
 
 public class Main {
     private static WebServer webServer;
 
     public static void main(String[] args) {
+        // Офлайн-режим сборки базы знаний из JSONL (без веб-сервера и меню)
+        if (args.length > 0 && args[0].equals("build-index")) {
+            IndexBuilder.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        // Оценка качества и скорости приближенного поиска
+        if (args.length > 0 && args[0].equals("eval-ann")) {
+            AnnEvaluator.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        // Выгрузка эмбеддингов в .fvecs/.npy
+        if (args.length > 0 && args[0].equals("export-vectors")) {
+            VectorExporter.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        // Имитация OLLAMA для нагрузочных тестов
+        if (args.length > 0 && args[0].equals("mock-ollama")) {
+            MockOllamaServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        // Нагрузочный тест /api/ask и /api/chat_stream
+        if (args.length > 0 && args[0].equals("load-test")) {
+            LoadGenerator.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         System.out.println("=== Локальный AI Ассистент с RAG ===");
         System.out.println("Версия с веб-интерфейсом и консолью");
         System.out.println("Инициализация...\n");
 
         try {
             // Инициализация сервисов
-            VectorDBService vectorDB = VectorDBService.getInstance();
-            AssistantService assistant = new AssistantService(vectorDB);
+            VectorStore vectorStore = VectorStoreRegistry.getStore();
+            AssistantService assistant = new AssistantService(vectorStore);
+            // Выход не через меню (Ctrl+C, SIGTERM): незаписанные данные конвейера загрузки сохраняются
+            Runtime.getRuntime().addShutdownHook(new Thread(assistant::shutdown, "assistant-shutdown"));
 
             System.out.println("✓ База знаний загружена в память");
-            System.out.println("✓ Документов в базе: " + vectorDB.getDocumentCount());
+            System.out.println("✓ Документов в базе: " + vectorStore.getDocumentCount());
             System.out.println("✓ Текущая модель: " + assistant.getCurrentModel());
             System.out.println("✓ Модель для эмбеддингов: " + assistant.getEmbeddingModel());
             System.out.println("✓ Режим работы: " + (assistant.isUseChatMode() ? "ЧАТ" : "ГЕНЕРАЦИЯ"));
@@ -34,7 +73,7 @@ public class Main {
 
             // Запуск веб-сервера
             int webPort = 8080;
-            webServer = new WebServer(webPort, assistant, vectorDB);
+            webServer = new WebServer(webPort, assistant, vectorStore);
             new Thread(() -> webServer.start()).start();
 
             Scanner scanner = new Scanner(System.in);
@@ -46,7 +85,7 @@ public class Main {
             boolean running = true;
             while (running) {
                 printMenu();
-                System.out.print("Выберите действие (1-19): ");
+                System.out.print("Выберите действие (1-20): ");
 
                 String choice = scanner.nextLine().trim();
 
@@ -106,11 +145,15 @@ public class Main {
                         showWebInterfaceInfo(webPort);
                         break;
                     case "19":
+                        importDirectory(scanner, assistant);
+                        break;
+                    case "20":
                         System.out.println("\nВыход из программы...");
                         running = false;
                         if (webServer != null) {
                             webServer.stop();
                         }
+                        assistant.shutdown();
                         break;
                     default:
                         System.out.println("Неверный выбор. Попробуйте снова.");
@@ -145,7 +188,8 @@ public class Main {
         System.out.println("16. Редактировать текущий промпт");
         System.out.println("17. Показать текущий промпт");
         System.out.println("18. Информация о веб-интерфейсе");
-        System.out.println("19. Выход");
+        System.out.println("19. Импорт каталога с файлами в базу знаний");
+        System.out.println("20. Выход");
         System.out.println("=".repeat(30));
     }
 
@@ -212,7 +256,12 @@ public class Main {
 
         System.out.println("\n" + "=".repeat(60));
         System.out.println("Отправка запроса...");
-        String answer = assistant.askQuestion(finalQuestion);
+        try {
+            assistant.askQuestion(finalQuestion);
+        } catch (RuntimeException e) {
+            System.err.println("Ошибка получения ответа: " + e.getMessage());
+            return;
+        }
         System.out.println("\n" + "=".repeat(60));
         System.out.println("\n✓ Ответ получен и сохранен в истории");
     }
@@ -240,13 +289,45 @@ public class Main {
 
         String finalContent = content.toString().trim();
         if (finalContent.length() > 0) {
-            assistant.addKnowledge(finalContent, source);
-            System.out.println("✓ Знания успешно добавлены и сохранены в файл");
+            try {
+                assistant.addKnowledge(finalContent, source);
+                System.out.println("✓ Знания успешно добавлены и сохранены в файл");
+            } catch (RuntimeException e) {
+                System.err.println("Знания не добавлены: " + e.getMessage());
+            }
         } else {
             System.out.println("Текст не был введен.");
         }
     }
 
+    private static void importDirectory(Scanner scanner, AssistantService assistant) {
+        System.out.println("\n=== Импорт каталога в базу знаний ===");
+        System.out.println("Поддерживаются текстовые, markdown и исходные файлы");
+        System.out.print("Введите путь к каталогу: ");
+        String directory = scanner.nextLine().trim();
+
+        if (directory.isEmpty()) {
+            System.out.println("Путь не указан.");
+            return;
+        }
+
+        System.out.print("Следить за изменениями в каталоге? (да/нет): ");
+        String answer = scanner.nextLine().trim().toLowerCase();
+        boolean watch = answer.equals("да") || answer.equals("yes") || answer.equals("y");
+
+        try {
+            IngestionJob job = assistant.importDirectory(directory, watch);
+            System.out.println("Идет индексация...");
+            job.completion().join();
+            System.out.println("✓ Импорт завершен: " + job.getChunksPersisted() + " чанков сохранено");
+            if (watch) {
+                System.out.println("✓ Изменения в каталоге будут загружаться автоматически");
+            }
+        } catch (Exception e) {
+            System.out.println("✗ Ошибка импорта каталога: " + e.getMessage());
+        }
+    }
+
     private static void showStatistics(AssistantService assistant) {
         System.out.println("\n=== Статистика системы ===");
 
@@ -351,7 +432,11 @@ public class Main {
         String query = scanner.nextLine().trim();
 
         if (!query.isEmpty()) {
-            assistant.searchKnowledgeBase(query);
+            try {
+                assistant.searchKnowledgeBase(query);
+            } catch (RuntimeException e) {
+                System.err.println("Ошибка поиска: " + e.getMessage());
+            }
         }
     }
 
@@ -958,11 +1043,26 @@ public class Main {
                     "Эмбеддинг - это представление текста в виде числового вектора для машинного обучения."
             };
 
-            for (int i = 0; i < initialKnowledge.length; i++) {
-                assistant.addKnowledge(initialKnowledge[i], "начальная база знаний");
+            List<KnowledgeDocument> documents = new ArrayList<>();
+            for (String fact : initialKnowledge) {
+                documents.add(new KnowledgeDocument(fact, "начальная база знаний"));
+            }
+
+            IngestionJob job;
+            try {
+                // Загрузка через конвейер: эмбеддинги запрашиваются пакетами, файл пишется один раз
+                job = assistant.addKnowledgeBulk("initial_knowledge", documents).completion().join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
             }
 
-            System.out.println("✓ Загружено " + initialKnowledge.length + " начальных фактов\n");
+            if (job.getChunksFailed() > 0) {
+                System.err.println("Начальные знания загружены не полностью: ошибок " + job.getChunksFailed() +
+                        " (OLLAMA недоступна?)\n");
+            } else {
+                System.out.println("✓ Загружено " + initialKnowledge.length + " начальных фактов\n");
+            }
         }
     }
 }
\ No newline at end of file
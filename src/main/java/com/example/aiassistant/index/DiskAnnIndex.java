@@ -0,0 +1,1067 @@
+package com.example.aiassistant.index;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+// Индекс DiskANN (граф Vamana) для корпусов, которые не помещаются в оперативную память.
+// На диске, в отображенном в память файле, - нормализованные векторы float32 и списки соседей:
+// узел целиком лежит в одном секторе 4 КБ (или в нескольких подряд), поэтому чтение узла - одна
+// страница. В куче - только коды PQ (несколько байт на вектор) и кодовые книги.
+// Поиск - лучевой обход графа от медоида: кандидаты ранжируются по кодам PQ, за шаг читается
+// до beamWidth лучших нераскрытых узлов, их схожесть уточняется по полным векторам с диска.
+// Число чтений узлов на запрос ограничено maxReads.
+// Индекс неизменяемый: строится целиком (build) и пересобирается при заметных изменениях корпуса.
+public class DiskAnnIndex implements AutoCloseable {
+    private static final int MAGIC_NUMBER = 0x44414E31; // "DAN1"
+    private static final int VERSION = 3;
+    private static final int SECTOR_SIZE = 4096;
+    private static final int PQ_CENTROIDS = 256;
+    private static final int PQ_TRAINING_SAMPLES = PQ_CENTROIDS * 32;
+    private static final int PQ_ITERATIONS = 8;
+    private static final long MAX_SEGMENT_BYTES = 1L << 30;
+    private static final int LOCK_STRIPES = 4096;
+    // При построении список соседей может вырасти до R * GRAPH_SLACK, прежде чем его разрежут
+    private static final float GRAPH_SLACK = 1.3f;
+
+    public static final int DEFAULT_SEARCH_LIST = 64;
+    public static final int DEFAULT_BEAM_WIDTH = 4;
+
+    // Параметры построения
+    public static class BuildParams {
+        public int maxDegree = 32;        // R - соседей у узла
+        public int buildListSize = 64;    // L при построении - шире список, точнее граф
+        public float alpha = 1.2f;        // разрежение соседей во втором проходе
+        public int pqSubspaces = 0;       // байт кода PQ на вектор; 0 - размерность / 8
+        public long seed = 42;
+    }
+
+    private final Path path;
+    private final FileChannel channel;
+    private final int dimension;
+    private final int size;
+    private final int maxDegree;
+    private final int medoid;
+    private final int nodeBytes;
+    private final int nodesPerStride;
+    private final int strideBytes;
+    private final int nodesPerSegment;
+    private final MappedByteBuffer[] segments;
+    private final long idOffsetsPosition;
+    private final long idDataPosition;
+    // Пары (хеш id, номер узла), отсортированные по хешу
+    private final LongBuffer sortedIdHashes;
+    // Время построения (мс от эпохи): документы базы, созданные позже, в индекс не попали
+    private final long builtAt;
+    // PQ: границы подпространств, центроиды [подпространство][центроид][компонента], коды
+    private final int[] subspaceStart;
+    private final float[][] codebooks;
+    private final byte[] codes;
+    private final int subspaces;
+
+    private final LongAdder searches = new LongAdder();
+    private final LongAdder nodeReads = new LongAdder();
+
+    private DiskAnnIndex(Path path, FileChannel channel, ByteBuffer header) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        if (header.getInt() != MAGIC_NUMBER) {
+            throw new IOException("Файл " + path + " не является индексом DiskANN");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("Неподдерживаемая версия индекса DiskANN: " + version);
+        }
+        this.dimension = header.getInt();
+        this.size = header.getInt();
+        this.maxDegree = header.getInt();
+        this.medoid = header.getInt();
+        this.subspaces = header.getInt();
+        long pqPosition = header.getLong();
+        this.idOffsetsPosition = header.getLong();
+        this.idDataPosition = header.getLong();
+        long hashesPosition = header.getLong();
+        this.builtAt = header.getLong();
+
+        this.nodeBytes = nodeBytes(dimension, maxDegree);
+        this.nodesPerStride = Math.max(1, SECTOR_SIZE / nodeBytes);
+        this.strideBytes = nodeBytes <= SECTOR_SIZE ? SECTOR_SIZE : sectorsFor(nodeBytes) * SECTOR_SIZE;
+        this.nodesPerSegment = (int) Math.min(Integer.MAX_VALUE, (MAX_SEGMENT_BYTES / strideBytes) * nodesPerStride);
+        int segmentCount = size == 0 ? 0 : (size - 1) / nodesPerSegment + 1;
+        this.segments = new MappedByteBuffer[segmentCount];
+        for (int s = 0; s < segmentCount; s++) {
+            long firstNode = (long) s * nodesPerSegment;
+            long nodes = Math.min(nodesPerSegment, size - firstNode);
+            long strides = (nodes + nodesPerStride - 1) / nodesPerStride;
+            segments[s] = channel.map(FileChannel.MapMode.READ_ONLY,
+                    SECTOR_SIZE + firstNode / nodesPerStride * strideBytes, strides * strideBytes);
+            segments[s].order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        // Коды PQ и кодовые книги - в кучу
+        this.subspaceStart = subspaceBounds(dimension, subspaces);
+        ByteBuffer codebookBuffer = ByteBuffer.allocate(PQ_CENTROIDS * dimension * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, codebookBuffer, pqPosition);
+        codebookBuffer.flip();
+        this.codebooks = new float[subspaces][];
+        for (int m = 0; m < subspaces; m++) {
+            int width = subspaceStart[m + 1] - subspaceStart[m];
+            codebooks[m] = new float[PQ_CENTROIDS * width];
+            codebookBuffer.asFloatBuffer().get(codebooks[m]);
+            codebookBuffer.position(codebookBuffer.position() + codebooks[m].length * Float.BYTES);
+        }
+        long codesLength = (long) size * subspaces;
+        if (codesLength > Integer.MAX_VALUE - 8) {
+            throw new IOException("Слишком много векторов для кодов PQ в памяти: " + size);
+        }
+        this.codes = new byte[(int) codesLength];
+        readFully(channel, ByteBuffer.wrap(codes), pqPosition + (long) PQ_CENTROIDS * dimension * Float.BYTES);
+
+        // Отсортированные хеши id с номерами узлов - для поиска узла по id без таблицы id в куче
+        this.sortedIdHashes = channel.map(FileChannel.MapMode.READ_ONLY, hashesPosition, 2L * size * Long.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+    }
+
+    public static DiskAnnIndex open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(SECTOR_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header, 0);
+            header.flip();
+            return new DiskAnnIndex(path, channel, header);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // --- Поиск ---
+
+    public List<IvfIndex.Result> search(double[] query, int topK) {
+        int searchList = Math.max(DEFAULT_SEARCH_LIST, topK);
+        return search(query, topK, searchList, DEFAULT_BEAM_WIDTH, searchList * 2);
+    }
+
+    // topK ближайших по косинусной схожести; searchList - размер списка кандидатов (точность),
+    // beamWidth - узлов, читаемых за шаг, maxReads - предел чтений узлов на запрос
+    public List<IvfIndex.Result> search(double[] query, int topK, int searchList, int beamWidth, int maxReads) {
+        if (query.length != dimension || topK <= 0 || size == 0) {
+            return Collections.emptyList();
+        }
+        float[] q = normalize(query, dimension);
+        float[] table = distanceTable(q);
+
+        CandidateList candidates = new CandidateList(Math.max(searchList, topK));
+        IntSet seen = new IntSet(Math.max(64, searchList * maxDegree));
+        PriorityQueue<Scored> best = new PriorityQueue<>(topK + 1, (a, b) -> Float.compare(a.score, b.score));
+        seen.add(medoid);
+        candidates.insert(medoid, pqScore(table, medoid));
+
+        int[] beam = new int[Math.max(1, beamWidth)];
+        int reads = 0;
+        while (reads < maxReads) {
+            int beamSize = candidates.takeUnexpanded(beam, Math.min(beam.length, maxReads - reads));
+            if (beamSize == 0) {
+                break;
+            }
+            for (int b = 0; b < beamSize; b++) {
+                int node = beam[b];
+                ByteBuffer segment = segments[node / nodesPerSegment];
+                int offset = nodeOffset(node);
+                reads++;
+
+                // Точная схожесть по полному вектору узла
+                float score = 0f;
+                for (int d = 0; d < dimension; d++) {
+                    score += q[d] * segment.getFloat(offset + d * Float.BYTES);
+                }
+                if (best.size() < topK) {
+                    best.add(new Scored(node, score));
+                } else if (score > best.peek().score) {
+                    best.poll();
+                    best.add(new Scored(node, score));
+                }
+
+                int neighborsOffset = offset + dimension * Float.BYTES;
+                int degree = segment.getInt(neighborsOffset);
+                for (int i = 0; i < degree; i++) {
+                    int neighbor = segment.getInt(neighborsOffset + Integer.BYTES * (i + 1));
+                    if (seen.add(neighbor)) {
+                        candidates.insert(neighbor, pqScore(table, neighbor));
+                    }
+                }
+            }
+        }
+        searches.increment();
+        nodeReads.add(reads);
+
+        List<IvfIndex.Result> results = new ArrayList<>(best.size());
+        // id читаются из файла только для итоговых результатов
+        for (Scored entry : best) {
+            results.add(new IvfIndex.Result(readId(entry.node), entry.score));
+        }
+        results.sort((a, b) -> Float.compare(b.score, a.score));
+        return results;
+    }
+
+    public boolean contains(String id) {
+        return findNode(id) >= 0;
+    }
+
+    // Вектор документа из индекса (нормализованный) или null, если документа в индексе нет
+    public double[] getVector(String id) {
+        int node = findNode(id);
+        if (node < 0) {
+            return null;
+        }
+        ByteBuffer segment = segments[node / nodesPerSegment];
+        int offset = nodeOffset(node);
+        double[] vector = new double[dimension];
+        for (int d = 0; d < dimension; d++) {
+            vector[d] = segment.getFloat(offset + d * Float.BYTES);
+        }
+        return vector;
+    }
+
+    // Узел документа: двоичный поиск по хешам id в файле, совпавшие хеши проверяются по самому id
+    private int findNode(String id) {
+        long hash = idHash(id);
+        int low = 0;
+        int high = size - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortedIdHashes.get(2 * mid) < hash) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        for (int i = low; i < size && sortedIdHashes.get(2 * i) == hash; i++) {
+            int node = (int) sortedIdHashes.get(2 * i + 1);
+            if (readId(node).equals(id)) {
+                return node;
+            }
+        }
+        return -1;
+    }
+
+    private float[] distanceTable(float[] q) {
+        float[] table = new float[subspaces * PQ_CENTROIDS];
+        for (int m = 0; m < subspaces; m++) {
+            int start = subspaceStart[m];
+            int width = subspaceStart[m + 1] - start;
+            float[] codebook = codebooks[m];
+            for (int c = 0; c < PQ_CENTROIDS; c++) {
+                float sum = 0f;
+                for (int d = 0; d < width; d++) {
+                    sum += q[start + d] * codebook[c * width + d];
+                }
+                table[m * PQ_CENTROIDS + c] = sum;
+            }
+        }
+        return table;
+    }
+
+    private float pqScore(float[] table, int node) {
+        int offset = node * subspaces;
+        float sum = 0f;
+        for (int m = 0; m < subspaces; m++) {
+            sum += table[m * PQ_CENTROIDS + (codes[offset + m] & 0xFF)];
+        }
+        return sum;
+    }
+
+    private int nodeOffset(int node) {
+        int local = node % nodesPerSegment;
+        return (local / nodesPerStride) * strideBytes + (local % nodesPerStride) * nodeBytes;
+    }
+
+    private String readId(int node) {
+        try {
+            ByteBuffer offsets = ByteBuffer.allocate(2 * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, offsets, idOffsetsPosition + (long) node * Long.BYTES);
+            long start = offsets.getLong(0);
+            long end = offsets.getLong(Long.BYTES);
+            ByteBuffer bytes = ByteBuffer.allocate((int) (end - start));
+            readFully(channel, bytes, idDataPosition + start);
+            return new String(bytes.array(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalStateException("Ошибка чтения индекса " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    // Все id индекса - последовательным чтением раздела id, без обращения к узлам
+    public Set<String> getIds() throws IOException {
+        Set<String> ids = new HashSet<>(size * 4 / 3 + 1);
+        try (DataInputStream offsets = openStream(idOffsetsPosition);
+             DataInputStream data = openStream(idDataPosition)) {
+            long start = Long.reverseBytes(offsets.readLong());
+            for (int node = 0; node < size; node++) {
+                long end = Long.reverseBytes(offsets.readLong());
+                byte[] bytes = new byte[(int) (end - start)];
+                data.readFully(bytes);
+                ids.add(new String(bytes, StandardCharsets.UTF_8));
+                start = end;
+            }
+        }
+        return ids;
+    }
+
+    private DataInputStream openStream(long position) throws IOException {
+        FileChannel stream = FileChannel.open(path, StandardOpenOption.READ);
+        stream.position(position);
+        return new DataInputStream(new BufferedInputStream(Channels.newInputStream(stream), 1 << 16));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getBuildTime() {
+        return builtAt;
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public int getMaxDegree() {
+        return maxDegree;
+    }
+
+    public int getPqSubspaces() {
+        return subspaces;
+    }
+
+    // Память в куче: коды PQ и кодовые книги
+    public long getHeapBytes() {
+        return codes.length + (long) PQ_CENTROIDS * dimension * Float.BYTES;
+    }
+
+    public long getFileBytes() {
+        try {
+            return channel.size();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    // Среднее число прочитанных узлов (страниц) на запрос
+    public double getAverageReads() {
+        long count = searches.sum();
+        return count == 0 ? 0 : (double) nodeReads.sum() / count;
+    }
+
+    public long getNodeReads() {
+        return nodeReads.sum();
+    }
+
+    public long getSearchCount() {
+        return searches.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // --- Построение ---
+
+    // Граф строится в памяти двумя проходами Vamana (alpha = 1, затем params.alpha) и записывается
+    // в файл через временный, чтобы не оставить поврежденный индекс
+    public static void build(List<String> ids, List<double[]> vectors, BuildParams params, Path path,
+                             ForkJoinPool pool) throws IOException {
+        long builtAt = System.currentTimeMillis();
+        int n = vectors.size();
+        if (n == 0) {
+            throw new IllegalArgumentException("Нет векторов для индекса");
+        }
+        int dimension = vectors.get(0).length;
+        float[] data = new float[n * dimension];
+        runParallel(pool, () -> IntStream.range(0, n).parallel().forEach(i -> {
+            double[] vector = vectors.get(i);
+            if (vector.length != dimension) {
+                throw new IllegalArgumentException("Разная размерность векторов: " + vector.length + " и " + dimension);
+            }
+            System.arraycopy(normalize(vector, dimension), 0, data, i * dimension, dimension);
+        }));
+
+        Builder builder = new Builder(data, n, dimension, params);
+        long start = System.currentTimeMillis();
+        builder.buildGraph(pool);
+        System.out.println("Граф Vamana построен: " + n + " узлов, средняя степень " +
+                String.format("%.1f", builder.averageDegree()) + " (" + (System.currentTimeMillis() - start) + " мс)");
+
+        start = System.currentTimeMillis();
+        int subspaces = params.pqSubspaces > 0 ? Math.min(params.pqSubspaces, dimension)
+                : Math.max(1, Math.min(dimension, dimension / 8));
+        int[] bounds = subspaceBounds(dimension, subspaces);
+        float[][] codebooks = trainCodebooks(data, n, dimension, bounds, params.seed, pool);
+        byte[] codes = encode(data, n, dimension, bounds, codebooks, pool);
+        System.out.println("Коды PQ: " + subspaces + " байт на вектор (" + (System.currentTimeMillis() - start) + " мс)");
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        writeFile(tmp, ids, data, dimension, builder, bounds, codebooks, codes, builtAt);
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeFile(Path file, List<String> ids, float[] data, int dimension, Builder builder,
+                                  int[] bounds, float[][] codebooks, byte[] codes, long builtAt) throws IOException {
+        int n = builder.n;
+        int maxDegree = builder.maxDegree;
+        int nodeBytes = nodeBytes(dimension, maxDegree);
+        int nodesPerStride = Math.max(1, SECTOR_SIZE / nodeBytes);
+        int strideBytes = nodeBytes <= SECTOR_SIZE ? SECTOR_SIZE : sectorsFor(nodeBytes) * SECTOR_SIZE;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ChannelWriter out = new ChannelWriter(channel);
+            out.padTo(SECTOR_SIZE);
+
+            // Узлы: вектор, степень, соседи; группа узлов дополняется до границы сектора
+            for (int i = 0; i < n; i++) {
+                if (i % nodesPerStride == 0) {
+                    out.padTo(SECTOR_SIZE + (long) (i / nodesPerStride) * strideBytes);
+                }
+                for (int d = 0; d < dimension; d++) {
+                    out.putFloat(data[i * dimension + d]);
+                }
+                int[] neighbors = builder.graph[i];
+                out.putInt(neighbors.length);
+                for (int r = 0; r < maxDegree; r++) {
+                    out.putInt(r < neighbors.length ? neighbors[r] : -1);
+                }
+            }
+            out.padTo(SECTOR_SIZE + (long) ((n + nodesPerStride - 1) / nodesPerStride) * strideBytes);
+
+            long pqPosition = out.position();
+            for (float[] codebook : codebooks) {
+                for (float value : codebook) {
+                    out.putFloat(value);
+                }
+            }
+            out.put(codes);
+
+            // id узлов: смещения (n + 1) и строки UTF-8
+            byte[][] idBytes = new byte[n][];
+            for (int i = 0; i < n; i++) {
+                idBytes[i] = ids.get(i).getBytes(StandardCharsets.UTF_8);
+            }
+            long idOffsetsPosition = out.position();
+            long offset = 0;
+            for (int i = 0; i <= n; i++) {
+                out.putLong(offset);
+                if (i < n) {
+                    offset += idBytes[i].length;
+                }
+            }
+            long idDataPosition = out.position();
+            for (byte[] id : idBytes) {
+                out.put(id);
+            }
+
+            long[] hashes = new long[n];
+            for (int i = 0; i < n; i++) {
+                hashes[i] = idHash(ids.get(i));
+            }
+            int[] byHash = IntStream.range(0, n).boxed()
+                    .sorted((a, b) -> Long.compare(hashes[a], hashes[b]))
+                    .mapToInt(Integer::intValue).toArray();
+            long hashesPosition = out.position();
+            for (int node : byHash) {
+                out.putLong(hashes[node]);
+                out.putLong(node);
+            }
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(SECTOR_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC_NUMBER).putInt(VERSION).putInt(dimension).putInt(n).putInt(maxDegree)
+                    .putInt(builder.medoid).putInt(bounds.length - 1)
+                    .putLong(pqPosition).putLong(idOffsetsPosition).putLong(idDataPosition).putLong(hashesPosition)
+                    .putLong(builtAt);
+            header.clear();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+        }
+    }
+
+    // Граф Vamana в памяти: списки соседей заменяются целиком под блокировкой полосы узлов
+    private static class Builder {
+        final float[] data;
+        final int n;
+        final int dimension;
+        final int maxDegree;
+        final int slackDegree;
+        final int listSize;
+        final BuildParams params;
+        final int[][] graph;
+        final Object[] locks = new Object[LOCK_STRIPES];
+        final ThreadLocal<int[]> seenMarks;
+        final ThreadLocal<int[]> generations = ThreadLocal.withInitial(() -> new int[1]);
+        int medoid;
+
+        Builder(float[] data, int n, int dimension, BuildParams params) {
+            this.data = data;
+            this.n = n;
+            this.dimension = dimension;
+            this.maxDegree = Math.max(1, Math.min(params.maxDegree, n - 1));
+            this.slackDegree = Math.max(maxDegree, (int) (maxDegree * GRAPH_SLACK));
+            this.listSize = Math.max(params.buildListSize, maxDegree);
+            this.params = params;
+            this.graph = new int[n][];
+            for (int i = 0; i < locks.length; i++) {
+                locks[i] = new Object();
+            }
+            this.seenMarks = ThreadLocal.withInitial(() -> new int[n]);
+        }
+
+        void buildGraph(ForkJoinPool pool) {
+            medoid = findMedoid(pool);
+            // Начальный граф - случайные соседи
+            SplittableRandom random = new SplittableRandom(params.seed);
+            for (int i = 0; i < n; i++) {
+                int degree = n > 1 ? Math.min(maxDegree, n - 1) : 0;
+                int[] neighbors = new int[degree];
+                for (int r = 0; r < degree; r++) {
+                    int candidate;
+                    do {
+                        candidate = random.nextInt(n);
+                    } while (candidate == i);
+                    neighbors[r] = candidate;
+                }
+                graph[i] = neighbors;
+            }
+            if (n == 1) {
+                return;
+            }
+
+            int[] order = IntStream.range(0, n).toArray();
+            for (int i = n - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int swap = order[i];
+                order[i] = order[j];
+                order[j] = swap;
+            }
+            float[] alphas = {1.0f, Math.max(1.0f, params.alpha)};
+            for (float alpha : alphas) {
+                runParallel(pool, () -> Arrays.stream(order).parallel().forEach(p -> insert(p, alpha)));
+            }
+            // Списки, выросшие с запасом, - до R соседей (размер записи узла в файле)
+            float alpha = alphas[1];
+            runParallel(pool, () -> IntStream.range(0, n).parallel().forEach(p -> {
+                int[] neighbors = graph[p];
+                if (neighbors.length > maxDegree) {
+                    List<Integer> candidates = new ArrayList<>(neighbors.length);
+                    for (int neighbor : neighbors) {
+                        candidates.add(neighbor);
+                    }
+                    graph[p] = robustPrune(p, candidates, alpha);
+                }
+            }));
+        }
+
+        private int findMedoid(ForkJoinPool pool) {
+            double[] mean = new double[dimension];
+            for (int i = 0; i < n; i++) {
+                for (int d = 0; d < dimension; d++) {
+                    mean[d] += data[i * dimension + d];
+                }
+            }
+            float[] center = normalize(mean, dimension);
+            int best = 0;
+            float bestScore = Float.NEGATIVE_INFINITY;
+            for (int i = 0; i < n; i++) {
+                float score = dot(center, 0, data, i * dimension, dimension);
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = i;
+                }
+            }
+            return best;
+        }
+
+        private void insert(int p, float alpha) {
+            List<Integer> visited = greedySearch(p);
+            int[] current = neighborsOf(p);
+            for (int neighbor : current) {
+                visited.add(neighbor);
+            }
+            int[] pruned = robustPrune(p, visited, alpha);
+            synchronized (lockFor(p)) {
+                graph[p] = pruned;
+            }
+
+            // Обратные ребра; переполненный список соседа разрежается заново
+            for (int j : pruned) {
+                synchronized (lockFor(j)) {
+                    int[] neighbors = graph[j];
+                    boolean present = false;
+                    for (int neighbor : neighbors) {
+                        if (neighbor == p) {
+                            present = true;
+                            break;
+                        }
+                    }
+                    if (present) {
+                        continue;
+                    }
+                    if (neighbors.length < slackDegree) {
+                        int[] extended = Arrays.copyOf(neighbors, neighbors.length + 1);
+                        extended[neighbors.length] = p;
+                        graph[j] = extended;
+                    } else {
+                        List<Integer> candidates = new ArrayList<>(neighbors.length + 1);
+                        for (int neighbor : neighbors) {
+                            candidates.add(neighbor);
+                        }
+                        candidates.add(p);
+                        graph[j] = robustPrune(j, candidates, alpha);
+                    }
+                }
+            }
+        }
+
+        // Жадный поиск от медоида к вектору p; возвращает раскрытые узлы
+        private List<Integer> greedySearch(int p) {
+            int[] marks = seenMarks.get();
+            int[] generation = generations.get();
+            if (++generation[0] == 0) {
+                Arrays.fill(marks, 0);
+                generation[0] = 1;
+            }
+            int mark = generation[0];
+
+            CandidateList list = new CandidateList(listSize);
+            List<Integer> expanded = new ArrayList<>(listSize * 2);
+            marks[medoid] = mark;
+            marks[p] = mark;
+            list.insert(medoid, dot(data, p * dimension, data, medoid * dimension, dimension));
+            int[] next = new int[1];
+            while (list.takeUnexpanded(next, 1) == 1) {
+                int node = next[0];
+                expanded.add(node);
+                for (int neighbor : neighborsOf(node)) {
+                    if (marks[neighbor] != mark) {
+                        marks[neighbor] = mark;
+                        list.insert(neighbor, dot(data, p * dimension, data, neighbor * dimension, dimension));
+                    }
+                }
+            }
+            return expanded;
+        }
+
+        // Robust prune: ближайший кандидат становится соседом и вытесняет тех, к кому он ближе
+        // (с запасом alpha), чем p - остаются ребра в разных направлениях
+        private int[] robustPrune(int p, List<Integer> candidates, float alpha) {
+            int count = 0;
+            int[] nodes = new int[candidates.size()];
+            float[] distances = new float[candidates.size()];
+            for (int candidate : candidates) {
+                if (candidate == p) {
+                    continue;
+                }
+                boolean duplicate = false;
+                for (int i = 0; i < count; i++) {
+                    if (nodes[i] == candidate) {
+                        duplicate = true;
+                        break;
+                    }
+                }
+                if (!duplicate) {
+                    nodes[count] = candidate;
+                    distances[count] = 1f - dot(data, p * dimension, data, candidate * dimension, dimension);
+                    count++;
+                }
+            }
+            Integer[] order = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            float[] sortKeys = distances;
+            Arrays.sort(order, (a, b) -> Float.compare(sortKeys[a], sortKeys[b]));
+
+            boolean[] removed = new boolean[count];
+            int[] result = new int[Math.min(maxDegree, count)];
+            int resultSize = 0;
+            for (int i = 0; i < count && resultSize < result.length; i++) {
+                int chosen = order[i];
+                if (removed[chosen]) {
+                    continue;
+                }
+                result[resultSize++] = nodes[chosen];
+                for (int j = i + 1; j < count; j++) {
+                    int other = order[j];
+                    if (!removed[other]) {
+                        float between = 1f - dot(data, nodes[chosen] * dimension, data, nodes[other] * dimension, dimension);
+                        if (alpha * between <= distances[other]) {
+                            removed[other] = true;
+                        }
+                    }
+                }
+            }
+            return resultSize == result.length ? result : Arrays.copyOf(result, resultSize);
+        }
+
+        private int[] neighborsOf(int node) {
+            synchronized (lockFor(node)) {
+                return graph[node];
+            }
+        }
+
+        private Object lockFor(int node) {
+            return locks[node % LOCK_STRIPES];
+        }
+
+        double averageDegree() {
+            long total = 0;
+            for (int[] neighbors : graph) {
+                total += neighbors.length;
+            }
+            return (double) total / n;
+        }
+    }
+
+    // --- PQ ---
+
+    // Границы подпространств: размерность делится на части почти поровну
+    private static int[] subspaceBounds(int dimension, int subspaces) {
+        int[] bounds = new int[subspaces + 1];
+        for (int m = 0; m <= subspaces; m++) {
+            bounds[m] = (int) ((long) m * dimension / subspaces);
+        }
+        return bounds;
+    }
+
+    // k-means по выборке отдельно в каждом подпространстве
+    private static float[][] trainCodebooks(float[] data, int n, int dimension, int[] bounds, long seed,
+                                            ForkJoinPool pool) {
+        int subspaces = bounds.length - 1;
+        SplittableRandom random = new SplittableRandom(seed);
+        int samples = Math.min(n, PQ_TRAINING_SAMPLES);
+        int[] sample = new int[samples];
+        for (int i = 0; i < samples; i++) {
+            sample[i] = samples == n ? i : random.nextInt(n);
+        }
+
+        float[][] codebooks = new float[subspaces][];
+        runParallel(pool, () -> IntStream.range(0, subspaces).parallel().forEach(m -> {
+            int start = bounds[m];
+            int width = bounds[m + 1] - start;
+            float[] centroids = new float[PQ_CENTROIDS * width];
+            SplittableRandom local = new SplittableRandom(seed + m);
+            for (int c = 0; c < PQ_CENTROIDS; c++) {
+                int source = sample[local.nextInt(samples)];
+                System.arraycopy(data, source * dimension + start, centroids, c * width, width);
+            }
+            int[] assignment = new int[samples];
+            for (int iteration = 0; iteration < PQ_ITERATIONS; iteration++) {
+                double[] sums = new double[PQ_CENTROIDS * width];
+                int[] counts = new int[PQ_CENTROIDS];
+                for (int s = 0; s < samples; s++) {
+                    int c = nearestCentroid(data, sample[s] * dimension + start, centroids, width);
+                    assignment[s] = c;
+                    counts[c]++;
+                    for (int d = 0; d < width; d++) {
+                        sums[c * width + d] += data[sample[s] * dimension + start + d];
+                    }
+                }
+                for (int c = 0; c < PQ_CENTROIDS; c++) {
+                    if (counts[c] == 0) {
+                        // Пустой центроид - на случайную точку выборки
+                        int source = sample[local.nextInt(samples)];
+                        System.arraycopy(data, source * dimension + start, centroids, c * width, width);
+                        continue;
+                    }
+                    for (int d = 0; d < width; d++) {
+                        centroids[c * width + d] = (float) (sums[c * width + d] / counts[c]);
+                    }
+                }
+            }
+            codebooks[m] = centroids;
+        }));
+        return codebooks;
+    }
+
+    private static byte[] encode(float[] data, int n, int dimension, int[] bounds, float[][] codebooks,
+                                 ForkJoinPool pool) {
+        int subspaces = bounds.length - 1;
+        byte[] codes = new byte[n * subspaces];
+        runParallel(pool, () -> IntStream.range(0, n).parallel().forEach(i -> {
+            for (int m = 0; m < subspaces; m++) {
+                int width = bounds[m + 1] - bounds[m];
+                codes[i * subspaces + m] = (byte) nearestCentroid(data, i * dimension + bounds[m], codebooks[m], width);
+            }
+        }));
+        return codes;
+    }
+
+    private static int nearestCentroid(float[] data, int offset, float[] centroids, int width) {
+        int best = 0;
+        float bestDistance = Float.POSITIVE_INFINITY;
+        for (int c = 0; c < PQ_CENTROIDS; c++) {
+            float distance = 0f;
+            for (int d = 0; d < width; d++) {
+                float diff = data[offset + d] - centroids[c * width + d];
+                distance += diff * diff;
+            }
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    // --- Общее ---
+
+    private static int nodeBytes(int dimension, int maxDegree) {
+        return dimension * Float.BYTES + Integer.BYTES + maxDegree * Integer.BYTES;
+    }
+
+    private static int sectorsFor(int bytes) {
+        return (bytes + SECTOR_SIZE - 1) / SECTOR_SIZE;
+    }
+
+    // FNV-1a, 64 бита
+    private static long idHash(String id) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static float dot(float[] a, int aOffset, float[] b, int bOffset, int dimension) {
+        float sum = 0f;
+        for (int d = 0; d < dimension; d++) {
+            sum += a[aOffset + d] * b[bOffset + d];
+        }
+        return sum;
+    }
+
+    private static float[] normalize(double[] vector, int dimension) {
+        double norm = 0.0;
+        for (int d = 0; d < dimension; d++) {
+            norm += vector[d] * vector[d];
+        }
+        norm = Math.sqrt(norm);
+        float[] result = new float[dimension];
+        if (norm > 0) {
+            for (int d = 0; d < dimension; d++) {
+                result[d] = (float) (vector[d] / norm);
+            }
+        }
+        return result;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Неожиданный конец файла индекса");
+            }
+        }
+    }
+
+    private static void runParallel(ForkJoinPool pool, Runnable task) {
+        try {
+            pool.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Построение индекса прервано", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Ошибка построения индекса: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private static class Scored {
+        final int node;
+        final float score;
+
+        Scored(int node, float score) {
+            this.node = node;
+            this.score = score;
+        }
+    }
+
+    // Список кандидатов, упорядоченный по убыванию оценки, не длиннее capacity
+    private static class CandidateList {
+        final int[] nodes;
+        final float[] scores;
+        final boolean[] expanded;
+        int size;
+        int firstUnexpanded;
+
+        CandidateList(int capacity) {
+            nodes = new int[capacity];
+            scores = new float[capacity];
+            expanded = new boolean[capacity];
+        }
+
+        void insert(int node, float score) {
+            if (size == nodes.length && score <= scores[size - 1]) {
+                return;
+            }
+            int position = size == nodes.length ? size - 1 : size;
+            while (position > 0 && scores[position - 1] < score) {
+                if (position < nodes.length) {
+                    nodes[position] = nodes[position - 1];
+                    scores[position] = scores[position - 1];
+                    expanded[position] = expanded[position - 1];
+                }
+                position--;
+            }
+            nodes[position] = node;
+            scores[position] = score;
+            expanded[position] = false;
+            if (size < nodes.length) {
+                size++;
+            }
+            if (position < firstUnexpanded) {
+                firstUnexpanded = position;
+            }
+        }
+
+        // До limit лучших нераскрытых узлов в out; они помечаются раскрытыми
+        int takeUnexpanded(int[] out, int limit) {
+            int taken = 0;
+            for (int i = firstUnexpanded; i < size && taken < limit; i++) {
+                if (!expanded[i]) {
+                    expanded[i] = true;
+                    out[taken++] = nodes[i];
+                }
+            }
+            while (firstUnexpanded < size && expanded[firstUnexpanded]) {
+                firstUnexpanded++;
+            }
+            return taken;
+        }
+    }
+
+    // Множество int с открытой адресацией - посещенные узлы одного запроса
+    private static class IntSet {
+        private int[] table;
+        private int count;
+
+        IntSet(int expected) {
+            table = new int[Integer.highestOneBit(Math.max(16, expected * 2) - 1) << 1];
+            Arrays.fill(table, -1);
+        }
+
+        boolean add(int value) {
+            if (count * 2 >= table.length) {
+                int[] old = table;
+                table = new int[old.length * 2];
+                Arrays.fill(table, -1);
+                count = 0;
+                for (int v : old) {
+                    if (v >= 0) {
+                        add(v);
+                    }
+                }
+            }
+            int mask = table.length - 1;
+            int slot = (value * 0x9E3779B9) >>> 1 & mask;
+            while (table[slot] >= 0) {
+                if (table[slot] == value) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = value;
+            count++;
+            return true;
+        }
+    }
+
+    // Буферизованная запись в канал с учетом позиции (файл может быть больше 2 ГБ)
+    private static class ChannelWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        private long flushed;
+
+        ChannelWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        long position() {
+            return flushed + buffer.position();
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(Integer.BYTES);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(Long.BYTES);
+            buffer.putLong(value);
+        }
+
+        void putFloat(float value) throws IOException {
+            ensure(Float.BYTES);
+            buffer.putFloat(value);
+        }
+
+        void put(byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                ensure(1);
+                int length = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, length);
+                offset += length;
+            }
+        }
+
+        // Дополнение нулями до позиции
+        void padTo(long target) throws IOException {
+            while (position() < target) {
+                ensure(1);
+                int length = (int) Math.min(buffer.remaining(), target - position());
+                for (int i = 0; i < length; i++) {
+                    buffer.put((byte) 0);
+                }
+            }
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                flushed += channel.write(buffer, flushed);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package com.example.aiassistant.index;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+// Приближенный индекс IVF-Flat: векторы разбиты k-means на списки вокруг центроидов,
+// поиск просматривает только nprobe ближайших списков.
+// Векторы хранятся нормализованными во float, поэтому косинусная схожесть = скалярное произведение.
+public class IvfIndex {
+    private static final int MAGIC_NUMBER = 0x49564631; // "IVF1"
+    private static final int VERSION = 1;
+    private static final int TRAINING_SAMPLES_PER_LIST = 64;
+    private static final int KMEANS_ITERATIONS = 12;
+
+    private final int dimension;
+    private final float[][] centroids;
+    private final InvertedList[] lists;
+    private int size;
+
+    private IvfIndex(int dimension, float[][] centroids) {
+        this.dimension = dimension;
+        this.centroids = centroids;
+        this.lists = new InvertedList[centroids.length];
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = new InvertedList(dimension);
+        }
+    }
+
+    // Рекомендуемое число списков для корпуса заданного размера
+    public static int defaultListCount(int vectorCount) {
+        return Math.max(1, Math.min(65536, (int) Math.sqrt(vectorCount)));
+    }
+
+    // Построение индекса: обучение k-means на выборке и распределение всех векторов по спискам.
+    // Тяжелые шаги выполняются параллельно в переданном пуле.
+    public static IvfIndex build(List<String> ids, List<double[]> vectors, int listCount, ForkJoinPool pool) {
+        if (ids.size() != vectors.size()) {
+            throw new IllegalArgumentException("Количество id и векторов не совпадает");
+        }
+        if (vectors.isEmpty()) {
+            throw new IllegalArgumentException("Нельзя построить индекс по пустому набору векторов");
+        }
+
+        int dimension = vectors.get(0).length;
+        int n = vectors.size();
+        float[][] normalized = new float[n][];
+        runParallel(pool, () -> IntStream.range(0, n).parallel()
+                .forEach(i -> normalized[i] = normalize(vectors.get(i), dimension)));
+
+        int k = Math.max(1, Math.min(listCount, n));
+        float[][] centroids = trainCentroids(normalized, k, pool);
+
+        IvfIndex index = new IvfIndex(dimension, centroids);
+        int[] assignment = new int[n];
+        runParallel(pool, () -> IntStream.range(0, n).parallel()
+                .forEach(i -> assignment[i] = index.nearestCentroid(normalized[i])));
+
+        for (int i = 0; i < n; i++) {
+            index.lists[assignment[i]].add(ids.get(i), normalized[i]);
+        }
+        index.size = n;
+        return index;
+    }
+
+    private static float[][] trainCentroids(float[][] data, int k, ForkJoinPool pool) {
+        Random random = new Random(42);
+        int sampleSize = Math.min(data.length, k * TRAINING_SAMPLES_PER_LIST);
+
+        // Случайная выборка для обучения
+        int[] order = IntStream.range(0, data.length).toArray();
+        for (int i = 0; i < sampleSize; i++) {
+            int j = i + random.nextInt(data.length - i);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+        float[][] sample = new float[sampleSize][];
+        for (int i = 0; i < sampleSize; i++) {
+            sample[i] = data[order[i]];
+        }
+
+        int dimension = data[0].length;
+        float[][] centroids = new float[k][];
+        for (int c = 0; c < k; c++) {
+            centroids[c] = sample[c].clone();
+        }
+
+        int[] assignment = new int[sampleSize];
+        for (int iteration = 0; iteration < KMEANS_ITERATIONS; iteration++) {
+            float[][] current = centroids;
+            runParallel(pool, () -> IntStream.range(0, sampleSize).parallel()
+                    .forEach(i -> assignment[i] = nearest(current, sample[i])));
+
+            double[][] sums = new double[k][dimension];
+            int[] counts = new int[k];
+            for (int i = 0; i < sampleSize; i++) {
+                int c = assignment[i];
+                counts[c]++;
+                float[] v = sample[i];
+                double[] sum = sums[c];
+                for (int d = 0; d < dimension; d++) {
+                    sum[d] += v[d];
+                }
+            }
+
+            float[][] next = new float[k][];
+            for (int c = 0; c < k; c++) {
+                if (counts[c] == 0) {
+                    // Пустой кластер - переносим центроид в случайную точку
+                    next[c] = sample[random.nextInt(sampleSize)].clone();
+                    continue;
+                }
+                double[] mean = new double[dimension];
+                for (int d = 0; d < dimension; d++) {
+                    mean[d] = sums[c][d] / counts[c];
+                }
+                next[c] = normalize(mean, dimension);
+            }
+            centroids = next;
+        }
+        return centroids;
+    }
+
+    // Добавление вектора в уже построенный индекс (в ближайший список)
+    public synchronized void add(String id, double[] vector) {
+        if (vector.length != dimension) {
+            return;
+        }
+        float[] normalized = normalize(vector, dimension);
+        lists[nearestCentroid(normalized)].add(id, normalized);
+        size++;
+    }
+
+    // Удаление записей, не удовлетворяющих условию (компактизация списков)
+    public synchronized void retain(Predicate<String> keep) {
+        int total = 0;
+        for (InvertedList list : lists) {
+            list.retain(keep);
+            total += list.size;
+        }
+        size = total;
+    }
+
+    // Повторные id (остается первая запись) - в файл индекса каждый id попадает один раз
+    private void removeDuplicates() {
+        Set<String> seen = new HashSet<>(size * 2);
+        retain(seen::add);
+    }
+
+    public synchronized Set<String> getIds() {
+        Set<String> ids = new HashSet<>(size * 2);
+        for (InvertedList list : lists) {
+            ids.addAll(Arrays.asList(list.ids).subList(0, list.size));
+        }
+        return ids;
+    }
+
+    // Поиск topK ближайших по косинусной схожести в nprobe ближайших списках
+    public List<Result> search(double[] query, int topK, int nprobe) {
+        if (query.length != dimension || topK <= 0) {
+            return Collections.emptyList();
+        }
+        float[] q = normalize(query, dimension);
+
+        // Выбор ближайших списков
+        int probes = Math.max(1, Math.min(nprobe, centroids.length));
+        float[] centroidScores = new float[centroids.length];
+        PriorityQueue<Integer> nearestLists = new PriorityQueue<>(probes,
+                (a, b) -> Float.compare(centroidScores[a], centroidScores[b]));
+        for (int c = 0; c < centroids.length; c++) {
+            centroidScores[c] = dot(q, centroids[c], 0);
+            if (nearestLists.size() < probes) {
+                nearestLists.add(c);
+            } else if (centroidScores[c] > centroidScores[nearestLists.peek()]) {
+                nearestLists.poll();
+                nearestLists.add(c);
+            }
+        }
+
+        PriorityQueue<Result> best = new PriorityQueue<>(topK + 1, (a, b) -> Float.compare(a.score, b.score));
+        synchronized (this) {
+            for (int listIndex : nearestLists) {
+                InvertedList list = lists[listIndex];
+                for (int i = 0; i < list.size; i++) {
+                    float score = dot(q, list.vectors, i * dimension);
+                    if (best.size() < topK) {
+                        best.add(new Result(list.ids[i], score));
+                    } else if (score > best.peek().score) {
+                        best.poll();
+                        best.add(new Result(list.ids[i], score));
+                    }
+                }
+            }
+        }
+
+        List<Result> results = new ArrayList<>(best);
+        results.sort((a, b) -> Double.compare(b.score, a.score));
+        return results;
+    }
+
+    private int nearestCentroid(float[] vector) {
+        return nearest(centroids, vector);
+    }
+
+    private static int nearest(float[][] centroids, float[] vector) {
+        int best = 0;
+        float bestScore = Float.NEGATIVE_INFINITY;
+        for (int c = 0; c < centroids.length; c++) {
+            float score = dot(vector, centroids[c], 0);
+            if (score > bestScore) {
+                bestScore = score;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    private static float dot(float[] q, float[] data, int offset) {
+        float sum = 0f;
+        for (int d = 0; d < q.length; d++) {
+            sum += q[d] * data[offset + d];
+        }
+        return sum;
+    }
+
+    private static float[] normalize(double[] vector, int dimension) {
+        double norm = 0.0;
+        for (int d = 0; d < dimension; d++) {
+            norm += vector[d] * vector[d];
+        }
+        norm = Math.sqrt(norm);
+        float[] result = new float[dimension];
+        if (norm > 0) {
+            for (int d = 0; d < dimension; d++) {
+                result[d] = (float) (vector[d] / norm);
+            }
+        }
+        return result;
+    }
+
+    private static void runParallel(ForkJoinPool pool, Runnable task) {
+        try {
+            pool.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Построение индекса прервано", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Ошибка построения индекса: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    // Запись индекса (через временный файл, чтобы не оставить поврежденный индекс)
+    public synchronized void writeTo(Path path) throws IOException {
+        removeDuplicates();
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 20))) {
+            out.writeInt(MAGIC_NUMBER);
+            out.writeInt(VERSION);
+            out.writeInt(dimension);
+            out.writeInt(centroids.length);
+            out.writeInt(size);
+            for (float[] centroid : centroids) {
+                writeFloats(out, centroid, centroid.length);
+            }
+            for (InvertedList list : lists) {
+                out.writeInt(list.size);
+                for (int i = 0; i < list.size; i++) {
+                    out.writeUTF(list.ids[i]);
+                }
+                writeFloats(out, list.vectors, list.size * dimension);
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static IvfIndex readFrom(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 20))) {
+            if (in.readInt() != MAGIC_NUMBER) {
+                throw new IOException("Неверный формат файла индекса: " + path);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Неподдерживаемая версия индекса: " + version);
+            }
+            int dimension = in.readInt();
+            int listCount = in.readInt();
+            int size = in.readInt();
+
+            float[][] centroids = new float[listCount][];
+            for (int c = 0; c < listCount; c++) {
+                centroids[c] = readFloats(in, dimension);
+            }
+
+            IvfIndex index = new IvfIndex(dimension, centroids);
+            for (InvertedList list : index.lists) {
+                int listSize = in.readInt();
+                String[] ids = new String[Math.max(1, listSize)];
+                for (int i = 0; i < listSize; i++) {
+                    ids[i] = in.readUTF();
+                }
+                list.ids = ids;
+                list.vectors = readFloats(in, Math.max(1, listSize) * dimension);
+                list.size = listSize;
+            }
+            index.size = size;
+            index.removeDuplicates();
+            return index;
+        }
+    }
+
+    private static void writeFloats(DataOutputStream out, float[] values, int count) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(count * 4);
+        buffer.asFloatBuffer().put(values, 0, count);
+        out.write(buffer.array());
+    }
+
+    private static float[] readFloats(DataInputStream in, int count) throws IOException {
+        byte[] bytes = new byte[count * 4];
+        in.readFully(bytes);
+        float[] values = new float[count];
+        ByteBuffer.wrap(bytes).asFloatBuffer().get(values);
+        return values;
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public int getListCount() {
+        return centroids.length;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    // Результат поиска: id документа и косинусная схожесть
+    public static class Result {
+        public final String id;
+        public final float score;
+
+        public Result(String id, float score) {
+            this.id = id;
+            this.score = score;
+        }
+    }
+
+    // Список векторов одного кластера в непрерывном массиве
+    private static class InvertedList {
+        final int dimension;
+        String[] ids = new String[4];
+        float[] vectors;
+        int size;
+
+        InvertedList(int dimension) {
+            this.dimension = dimension;
+            this.vectors = new float[4 * dimension];
+        }
+
+        void add(String id, float[] vector) {
+            if (size == ids.length) {
+                int capacity = ids.length * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                vectors = Arrays.copyOf(vectors, capacity * dimension);
+            }
+            ids[size] = id;
+            System.arraycopy(vector, 0, vectors, size * dimension, dimension);
+            size++;
+        }
+
+        void retain(Predicate<String> keep) {
+            int write = 0;
+            for (int read = 0; read < size; read++) {
+                if (keep.test(ids[read])) {
+                    if (write != read) {
+                        ids[write] = ids[read];
+                        System.arraycopy(vectors, read * dimension, vectors, write * dimension, dimension);
+                    }
+                    write++;
+                }
+            }
+            for (int i = write; i < size; i++) {
+                ids[i] = null;
+            }
+            size = write;
+        }
+    }
+}
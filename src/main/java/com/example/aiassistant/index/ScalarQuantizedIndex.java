@@ -0,0 +1,186 @@
+package com.example.aiassistant.index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Перебор по квантованным векторам (SQ8): нормализованный вектор хранится байтами со своим
+// масштабом - в 4 раза компактнее float и в 8 раз компактнее double, поэтому перебор упирается
+// в пропускную способность памяти заметно позже. Схожесть приближенная: лучшие кандидаты
+// уточняются вызывающим кодом по исходным векторам.
+// Поиск не берет блокировок: читает опубликованный снимок массивов, а запись дописывает векторы
+// за его границу и публикует новый снимок. Удаление помечает запись пустым id (поиск ее пропускает),
+// место освобождается уплотнением в новые массивы, когда удаленных набирается четверть.
+public class ScalarQuantizedIndex {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int dimension;
+    // Запись (add/remove) - под блокировкой; номера записей знает только пишущий
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Map<String, Integer> slots = new HashMap<>();
+    private volatile Snapshot snapshot;
+
+    // Записи [0, size) неизменны, кроме обнуления id при удалении
+    private static final class Snapshot {
+        final String[] ids;
+        final byte[] codes;
+        final float[] scales;
+        final int size;
+        final int live;
+
+        Snapshot(String[] ids, byte[] codes, float[] scales, int size, int live) {
+            this.ids = ids;
+            this.codes = codes;
+            this.scales = scales;
+            this.size = size;
+            this.live = live;
+        }
+    }
+
+    public ScalarQuantizedIndex(int dimension) {
+        this.dimension = dimension;
+        this.snapshot = new Snapshot(new String[INITIAL_CAPACITY], new byte[INITIAL_CAPACITY * dimension],
+                new float[INITIAL_CAPACITY], 0, 0);
+    }
+
+    // Вектор другой размерности или уже добавленный id пропускается
+    public void add(String id, double[] vector) {
+        if (vector.length != dimension) {
+            return;
+        }
+        writeLock.lock();
+        try {
+            if (slots.containsKey(id)) {
+                return;
+            }
+            Snapshot current = snapshot;
+            if (current.size == current.ids.length) {
+                current = compact(current, Math.max(INITIAL_CAPACITY, current.live * 2));
+            }
+
+            double norm = 0.0;
+            double maxAbs = 0.0;
+            for (double value : vector) {
+                norm += value * value;
+                maxAbs = Math.max(maxAbs, Math.abs(value));
+            }
+            norm = Math.sqrt(norm);
+            // Масштаб выбирается так, чтобы наибольшая по модулю компонента заняла весь диапазон байта
+            double scale = norm > 0 ? maxAbs / norm / 127.0 : 0.0;
+            int slot = current.size;
+            int offset = slot * dimension;
+            for (int d = 0; d < dimension; d++) {
+                current.codes[offset + d] = scale > 0 ? (byte) Math.round(vector[d] / norm / scale) : 0;
+            }
+            current.scales[slot] = (float) scale;
+            current.ids[slot] = id;
+            slots.put(id, slot);
+            snapshot = new Snapshot(current.ids, current.codes, current.scales, slot + 1, current.live + 1);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public void remove(String id) {
+        writeLock.lock();
+        try {
+            Integer slot = slots.remove(id);
+            if (slot == null) {
+                return;
+            }
+            Snapshot current = snapshot;
+            // Поиск, уже читающий этот снимок, может еще увидеть id - документ отсеет вызывающий код
+            current.ids[slot] = null;
+            current = new Snapshot(current.ids, current.codes, current.scales, current.size, current.live - 1);
+            if (current.size - current.live > current.size / 4) {
+                current = compact(current, Math.max(INITIAL_CAPACITY, current.ids.length));
+            }
+            snapshot = current;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Живые записи переносятся в новые массивы; старые остаются у поисков, которые их читают
+    private Snapshot compact(Snapshot current, int capacity) {
+        String[] ids = new String[capacity];
+        byte[] codes = new byte[capacity * dimension];
+        float[] scales = new float[capacity];
+        int size = 0;
+        for (int i = 0; i < current.size; i++) {
+            String id = current.ids[i];
+            if (id == null) {
+                continue;
+            }
+            ids[size] = id;
+            scales[size] = current.scales[i];
+            System.arraycopy(current.codes, i * dimension, codes, size * dimension, dimension);
+            slots.put(id, size);
+            size++;
+        }
+        return new Snapshot(ids, codes, scales, size, size);
+    }
+
+    // topK кандидатов с наибольшей приближенной косинусной схожестью
+    public List<IvfIndex.Result> search(double[] query, int topK) {
+        if (query.length != dimension || topK <= 0) {
+            return Collections.emptyList();
+        }
+        double norm = 0.0;
+        for (double value : query) {
+            norm += value * value;
+        }
+        norm = Math.sqrt(norm);
+        float[] q = new float[dimension];
+        if (norm > 0) {
+            for (int d = 0; d < dimension; d++) {
+                q[d] = (float) (query[d] / norm);
+            }
+        }
+
+        Snapshot current = snapshot;
+        String[] ids = current.ids;
+        byte[] codes = current.codes;
+        float[] scales = current.scales;
+        PriorityQueue<IvfIndex.Result> best = new PriorityQueue<>(topK + 1, (a, b) -> Float.compare(a.score, b.score));
+        for (int i = 0; i < current.size; i++) {
+            String id = ids[i];
+            if (id == null) {
+                continue;
+            }
+            int offset = i * dimension;
+            float sum = 0f;
+            for (int d = 0; d < dimension; d++) {
+                sum += q[d] * codes[offset + d];
+            }
+            float score = sum * scales[i];
+            if (best.size() < topK) {
+                best.add(new IvfIndex.Result(id, score));
+            } else if (score > best.peek().score) {
+                best.poll();
+                best.add(new IvfIndex.Result(id, score));
+            }
+        }
+
+        List<IvfIndex.Result> results = new ArrayList<>(best);
+        results.sort((a, b) -> Float.compare(b.score, a.score));
+        return results;
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public int size() {
+        return snapshot.live;
+    }
+
+    // Байт на квантованные векторы и масштабы (с учетом запаса массивов)
+    public long getMemoryBytes() {
+        return (long) snapshot.ids.length * (dimension + Float.BYTES);
+    }
+}
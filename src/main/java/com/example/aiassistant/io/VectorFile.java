@@ -0,0 +1,281 @@
+package com.example.aiassistant.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Чтение наборов векторов в стандартных форматах ANN-бенчмарков (SIFT, GloVe и т.п.):
+//   .fvecs / .ivecs - строки вида [int32 размерность][размерность x float32 / int32], little-endian
+//   .npy            - двумерный массив NumPy float32, float64 или int32, порядок C
+// Файл отображается в память (mmap) сегментами из целых строк, строка читается по номеру без
+// загрузки файла в кучу - набор из миллиона векторов не создает всплеска памяти.
+public final class VectorFile implements AutoCloseable {
+
+    public enum Format {
+        FVECS, IVECS, NPY;
+
+        public static Format forPath(Path path) {
+            String name = path.getFileName().toString().toLowerCase();
+            if (name.endsWith(".fvecs")) {
+                return FVECS;
+            }
+            if (name.endsWith(".ivecs")) {
+                return IVECS;
+            }
+            if (name.endsWith(".npy")) {
+                return NPY;
+            }
+            throw new IllegalArgumentException("Неизвестный формат набора векторов: " + path +
+                    " (поддерживаются .fvecs, .ivecs, .npy)");
+        }
+
+        public static boolean isSupported(Path path) {
+            String name = path.getFileName().toString().toLowerCase();
+            return name.endsWith(".fvecs") || name.endsWith(".ivecs") || name.endsWith(".npy");
+        }
+    }
+
+    // Тип элементов в файле
+    enum ElementType {
+        FLOAT32(4), FLOAT64(8), INT32(4);
+
+        final int bytes;
+
+        ElementType(int bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    static final byte[] NPY_MAGIC = {(byte) 0x93, 'N', 'U', 'M', 'P', 'Y'};
+    private static final Pattern NPY_DESCR = Pattern.compile("'descr':\\s*'([<>|=])([fi])(\\d)'");
+    private static final Pattern NPY_FORTRAN = Pattern.compile("'fortran_order':\\s*(True|False)");
+    private static final Pattern NPY_SHAPE = Pattern.compile("'shape':\\s*\\((\\d+),\\s*(\\d+)\\s*,?\\s*\\)");
+    // Сегмент отображения - не больше 1 ГБ (MappedByteBuffer адресуется int)
+    private static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+    private final Path path;
+    private final Format format;
+    private final ElementType elementType;
+    private final ByteOrder order;
+    private final FileChannel channel;
+    private final int rows;
+    private final int dimension;
+    // Для .fvecs/.ivecs - вместе с префиксом размерности
+    private final int rowBytes;
+    private final int rowHeaderBytes;
+    private final MappedByteBuffer[] segments;
+    private final int rowsPerSegment;
+
+    private VectorFile(Path path, Format format, ElementType elementType, ByteOrder order, FileChannel channel,
+                       long dataOffset, int rows, int dimension, int rowHeaderBytes) throws IOException {
+        this.path = path;
+        this.format = format;
+        this.elementType = elementType;
+        this.order = order;
+        this.channel = channel;
+        this.rows = rows;
+        this.dimension = dimension;
+        this.rowHeaderBytes = rowHeaderBytes;
+        this.rowBytes = rowHeaderBytes + dimension * elementType.bytes;
+
+        this.rowsPerSegment = (int) Math.max(1, MAX_SEGMENT_BYTES / rowBytes);
+        int segmentCount = rows == 0 ? 0 : (rows - 1) / rowsPerSegment + 1;
+        this.segments = new MappedByteBuffer[segmentCount];
+        for (int s = 0; s < segmentCount; s++) {
+            long firstRow = (long) s * rowsPerSegment;
+            long segmentRows = Math.min(rowsPerSegment, rows - firstRow);
+            segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + firstRow * rowBytes,
+                    segmentRows * rowBytes);
+            segments[s].order(order);
+        }
+    }
+
+    public static VectorFile open(Path path) throws IOException {
+        Format format = Format.forPath(path);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return format == Format.NPY ? openNpy(path, channel) : openVecs(path, format, channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Размерность берется из первой строки; все строки должны быть одной длины
+    private static VectorFile openVecs(Path path, Format format, FileChannel channel) throws IOException {
+        long size = channel.size();
+        ElementType type = format == Format.FVECS ? ElementType.FLOAT32 : ElementType.INT32;
+        if (size == 0) {
+            return new VectorFile(path, format, type, ByteOrder.LITTLE_ENDIAN, channel, 0, 0, 0, 4);
+        }
+        ByteBuffer first = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, first, 0);
+        int dimension = first.getInt(0);
+        long rowBytes = 4 + (long) dimension * type.bytes;
+        if (dimension <= 0 || size % rowBytes != 0) {
+            throw new IOException("Файл " + path + " не в формате " + format.name().toLowerCase() +
+                    " (размерность " + dimension + ", размер " + size + " байт)");
+        }
+        long rows = size / rowBytes;
+        if (rows > Integer.MAX_VALUE) {
+            throw new IOException("Слишком много строк в " + path + ": " + rows);
+        }
+        return new VectorFile(path, format, type, ByteOrder.LITTLE_ENDIAN, channel, 0, (int) rows, dimension, 4);
+    }
+
+    private static VectorFile openNpy(Path path, FileChannel channel) throws IOException {
+        ByteBuffer preamble = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, preamble, 0);
+        for (int i = 0; i < NPY_MAGIC.length; i++) {
+            if (preamble.get(i) != NPY_MAGIC[i]) {
+                throw new IOException("Файл " + path + " не в формате .npy");
+            }
+        }
+        int major = preamble.get(6);
+        long headerLength;
+        int headerStart;
+        if (major == 1) {
+            headerLength = preamble.getShort(8) & 0xFFFF;
+            headerStart = 10;
+        } else {
+            headerLength = preamble.getInt(8) & 0xFFFFFFFFL;
+            headerStart = 12;
+        }
+        ByteBuffer headerBuffer = ByteBuffer.allocate((int) headerLength);
+        readFully(channel, headerBuffer, headerStart);
+        String header = new String(headerBuffer.array(), StandardCharsets.ISO_8859_1);
+
+        Matcher descr = NPY_DESCR.matcher(header);
+        Matcher fortran = NPY_FORTRAN.matcher(header);
+        Matcher shape = NPY_SHAPE.matcher(header);
+        if (!descr.find() || !shape.find()) {
+            throw new IOException("Поддерживаются только двумерные массивы .npy float32/float64/int32: " + header.trim());
+        }
+        if (fortran.find() && fortran.group(1).equals("True")) {
+            throw new IOException("Массивы .npy в порядке Fortran не поддерживаются: " + path);
+        }
+
+        String kind = descr.group(2) + descr.group(3);
+        ElementType type;
+        switch (kind) {
+            case "f4": type = ElementType.FLOAT32; break;
+            case "f8": type = ElementType.FLOAT64; break;
+            case "i4": type = ElementType.INT32; break;
+            default: throw new IOException("Неподдерживаемый тип элементов .npy: " + kind);
+        }
+        ByteOrder order = descr.group(1).equals(">") ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+
+        long rows = Long.parseLong(shape.group(1));
+        long dimension = Long.parseLong(shape.group(2));
+        long dataOffset = headerStart + headerLength;
+        if (rows > Integer.MAX_VALUE || dimension > Integer.MAX_VALUE / type.bytes ||
+                dataOffset + rows * dimension * type.bytes > channel.size()) {
+            throw new IOException("Размер .npy не соответствует заголовку: " + path);
+        }
+        return new VectorFile(path, Format.NPY, type, order, channel, dataOffset, (int) rows, (int) dimension, 0);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Неожиданный конец файла");
+            }
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public int size() {
+        return rows;
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public boolean isInteger() {
+        return elementType == ElementType.INT32;
+    }
+
+    // Строка как double[] - так векторы хранит VectorDBService
+    public double[] readDoubles(int row) {
+        double[] values = new double[dimension];
+        ByteBuffer segment = segmentFor(row);
+        int offset = dataOffsetOf(row);
+        for (int i = 0; i < dimension; i++) {
+            values[i] = readElement(segment, offset + i * elementType.bytes);
+        }
+        return values;
+    }
+
+    public float[] readFloats(int row) {
+        float[] values = new float[dimension];
+        ByteBuffer segment = segmentFor(row);
+        int offset = dataOffsetOf(row);
+        for (int i = 0; i < dimension; i++) {
+            values[i] = (float) readElement(segment, offset + i * elementType.bytes);
+        }
+        return values;
+    }
+
+    // Для .ivecs и целочисленных .npy - например, эталонные соседи (groundtruth.ivecs)
+    public int[] readInts(int row) {
+        if (elementType != ElementType.INT32) {
+            throw new IllegalStateException("В файле " + path + " не целые числа");
+        }
+        int[] values = new int[dimension];
+        ByteBuffer segment = segmentFor(row);
+        int offset = dataOffsetOf(row);
+        for (int i = 0; i < dimension; i++) {
+            values[i] = segment.getInt(offset + i * 4);
+        }
+        return values;
+    }
+
+    private double readElement(ByteBuffer segment, int offset) {
+        switch (elementType) {
+            case FLOAT32: return segment.getFloat(offset);
+            case FLOAT64: return segment.getDouble(offset);
+            default: return segment.getInt(offset);
+        }
+    }
+
+    private ByteBuffer segmentFor(int row) {
+        if (row < 0 || row >= rows) {
+            throw new IndexOutOfBoundsException("Строка " + row + " вне набора из " + rows);
+        }
+        return segments[row / rowsPerSegment];
+    }
+
+    // Смещение данных строки в ее сегменте; у .fvecs/.ivecs проверяется префикс размерности
+    private int dataOffsetOf(int row) {
+        int offset = (row % rowsPerSegment) * rowBytes;
+        if (rowHeaderBytes > 0) {
+            int rowDimension = segments[row / rowsPerSegment].getInt(offset);
+            if (rowDimension != dimension) {
+                throw new IllegalStateException("Строка " + row + " в " + path + " имеет размерность " +
+                        rowDimension + " вместо " + dimension);
+            }
+        }
+        return offset + rowHeaderBytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.aiassistant.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Потоковая запись наборов векторов в .fvecs (float32), .ivecs (int32) или .npy (float32).
+// Строки копятся в прямом буфере и пишутся в канал крупными блоками; в памяти не хранится
+// ничего, кроме буфера. Число строк .npy заранее неизвестно: заголовок фиксированной длины
+// переписывается при close().
+public final class VectorFileWriter implements AutoCloseable {
+    private static final int BUFFER_SIZE = 1 << 20;
+    // Длина заголовка .npy вместе с сигнатурой; кратна 64, как требует формат
+    private static final int NPY_HEADER_SIZE = 128;
+
+    private final Path path;
+    private final VectorFile.Format format;
+    private final int dimension;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private int rows;
+
+    private VectorFileWriter(Path path, VectorFile.Format format, int dimension, FileChannel channel) {
+        this.path = path;
+        this.format = format;
+        this.dimension = dimension;
+        this.channel = channel;
+        int rowBytes = (format == VectorFile.Format.NPY ? 0 : 4) + dimension * 4;
+        this.buffer = ByteBuffer.allocateDirect(Math.max(BUFFER_SIZE, rowBytes)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // Формат определяется расширением файла
+    public static VectorFileWriter create(Path path, int dimension) throws IOException {
+        if (dimension <= 0) {
+            throw new IllegalArgumentException("Размерность должна быть больше нуля");
+        }
+        VectorFile.Format format = VectorFile.Format.forPath(path);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        VectorFileWriter writer = new VectorFileWriter(path, format, dimension, channel);
+        if (format == VectorFile.Format.NPY) {
+            channel.write(writer.npyHeader(), 0);
+            channel.position(NPY_HEADER_SIZE);
+        }
+        return writer;
+    }
+
+    public void write(double[] vector) throws IOException {
+        beginRow(vector.length, false);
+        for (double value : vector) {
+            buffer.putFloat((float) value);
+        }
+    }
+
+    public void write(float[] vector) throws IOException {
+        beginRow(vector.length, false);
+        for (float value : vector) {
+            buffer.putFloat(value);
+        }
+    }
+
+    public void write(int[] vector) throws IOException {
+        beginRow(vector.length, true);
+        for (int value : vector) {
+            buffer.putInt(value);
+        }
+    }
+
+    public int getRowCount() {
+        return rows;
+    }
+
+    private void beginRow(int length, boolean integer) throws IOException {
+        if (length != dimension) {
+            throw new IllegalArgumentException("Размерность строки " + length + " вместо " + dimension);
+        }
+        if (integer != (format == VectorFile.Format.IVECS)) {
+            throw new IllegalArgumentException("Тип значений не соответствует формату " + path);
+        }
+        int rowBytes = (format == VectorFile.Format.NPY ? 0 : 4) + dimension * 4;
+        if (buffer.remaining() < rowBytes) {
+            flushBuffer();
+        }
+        if (format != VectorFile.Format.NPY) {
+            buffer.putInt(dimension);
+        }
+        rows++;
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private ByteBuffer npyHeader() {
+        String dictionary = "{'descr': '<f4', 'fortran_order': False, 'shape': (" + rows + ", " + dimension + "), }";
+        int dictionaryLength = NPY_HEADER_SIZE - VectorFile.NPY_MAGIC.length - 4;
+        StringBuilder header = new StringBuilder(dictionary);
+        while (header.length() < dictionaryLength - 1) {
+            header.append(' ');
+        }
+        header.append('\n');
+
+        ByteBuffer bytes = ByteBuffer.allocate(NPY_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.put(VectorFile.NPY_MAGIC);
+        bytes.put((byte) 1).put((byte) 0);
+        bytes.putShort((short) dictionaryLength);
+        bytes.put(header.toString().getBytes(StandardCharsets.ISO_8859_1));
+        bytes.flip();
+        return bytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+            if (format == VectorFile.Format.NPY) {
+                channel.write(npyHeader(), 0);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+}
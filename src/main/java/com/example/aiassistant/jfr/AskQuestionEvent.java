@@ -0,0 +1,25 @@
+package com.example.aiassistant.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// Вопрос целиком: от AssistantService.askQuestion до сохранения истории
+@Name("com.example.aiassistant.AskQuestion")
+@Label("Вопрос ассистенту")
+@Description("Полный путь ответа на вопрос: RAG, генерация и сохранение истории")
+@Category({"AI Assistant", "Запрос"})
+@StackTrace(false)
+public class AskQuestionEvent extends Event {
+    @Label("Длина вопроса")
+    public int questionLength;
+
+    @Label("Длина ответа")
+    public int answerLength;
+
+    @Label("Сообщений в истории")
+    public int historyMessages;
+}
@@ -0,0 +1,24 @@
+package com.example.aiassistant.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// ChatHistoryService.saveChatHistory
+@Name("com.example.aiassistant.ChatHistorySave")
+@Label("Сохранение истории чата")
+@Description("Запись истории чата в бинарный файл")
+@Category({"AI Assistant", "Хранение"})
+@StackTrace(false)
+public class ChatHistorySaveEvent extends Event {
+    @Label("Сообщений")
+    public int messageCount;
+
+    @Label("Размер файла")
+    @DataAmount
+    public long fileSize;
+}
@@ -0,0 +1,36 @@
+package com.example.aiassistant.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// Запрос эмбеддингов к OLLAMA - одиночный или пакетный
+@Name("com.example.aiassistant.Embedding")
+@Label("Эмбеддинг")
+@Description("Запрос эмбеддингов к OLLAMA")
+@Category({"AI Assistant", "OLLAMA"})
+@StackTrace(false)
+public class EmbeddingEvent extends Event {
+    @Label("Модель")
+    public String model;
+
+    @Label("Текстов")
+    public int textCount;
+
+    @Label("Символов")
+    public long textLength;
+
+    @Label("Размерность")
+    public int dimension;
+
+    @Label("Пакетный запрос")
+    public boolean batched;
+
+    @Label("Размер ответа")
+    @DataAmount
+    public long responseSize;
+}
@@ -0,0 +1,45 @@
+package com.example.aiassistant.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+// OllamaService.sendRequest: сборка промпта и генерация
+@Name("com.example.aiassistant.LlmRequest")
+@Label("Запрос к LLM")
+@Description("Сборка промпта и генерация ответа моделью OLLAMA")
+@Category({"AI Assistant", "OLLAMA"})
+@StackTrace(false)
+public class LlmRequestEvent extends Event {
+    @Label("Модель")
+    public String model;
+
+    @Label("Режим чата")
+    public boolean chatMode;
+
+    @Label("Потоковый ответ")
+    public boolean stream;
+
+    @Label("Длина промпта")
+    public int promptLength;
+
+    @Label("Длина контекста")
+    public int contextLength;
+
+    @Label("Длина истории")
+    public int historyLength;
+
+    @Label("Токенов ответа")
+    public int tokenCount;
+
+    @Label("Длина ответа")
+    public int responseLength;
+
+    @Label("Время до первого токена")
+    @Timespan(Timespan.NANOSECONDS)
+    public long timeToFirstToken;
+}
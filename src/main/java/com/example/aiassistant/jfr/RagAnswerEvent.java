@@ -0,0 +1,34 @@
+package com.example.aiassistant.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// RAGService.getAnswerWithRAGAndHistory: поиск контекста и генерация ответа
+@Name("com.example.aiassistant.RagAnswer")
+@Label("Ответ с RAG")
+@Description("Эмбеддинг вопроса, поиск источников, сборка контекста и генерация")
+@Category({"AI Assistant", "Запрос"})
+@StackTrace(false)
+public class RagAnswerEvent extends Event {
+    @Label("Найдено источников")
+    public int sourceCount;
+
+    @Label("Длина контекста")
+    public int contextLength;
+
+    @Label("Длина истории")
+    public int historyLength;
+
+    @Label("Токенов ответа")
+    public int tokenCount;
+
+    @Label("Длина ответа")
+    public int answerLength;
+
+    @Label("Озвучка")
+    public boolean speech;
+}
@@ -0,0 +1,204 @@
+package com.example.aiassistant.jfr;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.List;
+
+// Управление записями Java Flight Recorder из приложения: постоянная фоновая запись
+// с ограничением по времени и объему, запуск и остановка записей по запросу и выгрузка
+// записи в файл .jfr, который открывается в JDK Mission Control.
+public final class RecordingManager {
+    public static final String CONTINUOUS_RECORDING = "ai-assistant-continuous";
+
+    // События приложения; пишутся всегда, без порога длительности
+    private static final List<Class<? extends Event>> APPLICATION_EVENTS = List.of(
+            AskQuestionEvent.class,
+            RagAnswerEvent.class,
+            EmbeddingEvent.class,
+            VectorSearchEvent.class,
+            LlmRequestEvent.class,
+            ChatHistorySaveEvent.class
+    );
+
+    // События JDK, раскрывающие окружение процесса (ключи API в переменных, пароли в -D):
+    // записи выгружаются через /api/jfr/dump, поэтому эти события не пишутся никогда
+    private static final List<String> SENSITIVE_EVENTS = List.of(
+            "jdk.InitialEnvironmentVariable",
+            "jdk.InitialSystemProperty",
+            "jdk.JVMInformation"
+    );
+
+    // Ограничения записей по запросу: без них запись по умолчанию хранит все с момента запуска
+    public static final Duration DEFAULT_MAX_AGE = Duration.ofMinutes(10);
+    public static final Duration MAX_MAX_AGE = Duration.ofHours(1);
+    public static final long DEFAULT_MAX_SIZE_BYTES = 64L * 1024 * 1024;
+    public static final long MAX_MAX_SIZE_BYTES = 256L * 1024 * 1024;
+    // Одновременно открытых записей по запросу (фоновая не считается); остановленная
+    // запись держит файл на диске до close()
+    public static final int MAX_OPEN_RECORDINGS = 3;
+
+    private RecordingManager() {
+    }
+
+    public static boolean isAvailable() {
+        return FlightRecorder.isAvailable();
+    }
+
+    // Фоновая запись с настройками "default" (накладные расходы около 1%): хранит последние
+    // maxAge и не больше maxSizeBytes, при выгрузке отдает именно это окно
+    public static synchronized Recording startContinuous(Duration maxAge, long maxSizeBytes) {
+        Recording existing = find(CONTINUOUS_RECORDING);
+        if (existing != null) {
+            return existing;
+        }
+        try {
+            Recording recording = open(CONTINUOUS_RECORDING, "default", maxAge, maxSizeBytes);
+            System.out.println("Запущена фоновая запись JFR (последние " + maxAge.toMinutes() + " мин.)");
+            return recording;
+        } catch (IOException | ParseException | IllegalStateException e) {
+            System.err.println("Не удалось запустить фоновую запись JFR: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Запись по запросу. settings - имя конфигурации JDK: "default" или "profile" (подробнее, дороже).
+    // maxAge и maxSizeBytes не больше MAX_*; null или 0 - значения по умолчанию.
+    // IllegalStateException - уже открыто MAX_OPEN_RECORDINGS записей.
+    public static synchronized Recording start(String name, String settings, Duration maxAge, long maxSizeBytes)
+            throws IOException, ParseException {
+        if (CONTINUOUS_RECORDING.equals(name)) {
+            throw new IllegalArgumentException("Имя " + name + " занято фоновой записью");
+        }
+        int open = 0;
+        for (Recording recording : FlightRecorder.getFlightRecorder().getRecordings()) {
+            if (recording.getState() != RecordingState.CLOSED && !CONTINUOUS_RECORDING.equals(recording.getName())) {
+                open++;
+            }
+        }
+        if (open >= MAX_OPEN_RECORDINGS) {
+            throw new IllegalStateException("Уже открыто " + open + " записей JFR, " +
+                    "закройте ненужные (/api/jfr/stop с close)");
+        }
+        Duration age = maxAge == null || maxAge.isZero() || maxAge.isNegative() ? DEFAULT_MAX_AGE
+                : maxAge.compareTo(MAX_MAX_AGE) > 0 ? MAX_MAX_AGE : maxAge;
+        long size = maxSizeBytes <= 0 ? DEFAULT_MAX_SIZE_BYTES : Math.min(maxSizeBytes, MAX_MAX_SIZE_BYTES);
+        return open(name, settings, age, size);
+    }
+
+    private static Recording open(String name, String settings, Duration maxAge, long maxSizeBytes)
+            throws IOException, ParseException {
+        Recording recording = new Recording(Configuration.getConfiguration(settings));
+        recording.setName(name);
+        recording.setToDisk(true);
+        recording.setMaxAge(maxAge);
+        recording.setMaxSize(maxSizeBytes);
+        for (Class<? extends Event> eventClass : APPLICATION_EVENTS) {
+            recording.enable(eventClass).withThreshold(Duration.ZERO);
+        }
+        for (String event : SENSITIVE_EVENTS) {
+            recording.disable(event);
+        }
+        recording.start();
+        return recording;
+    }
+
+    // id фоновой записи; -1, если она не запущена
+    public static long getContinuousId() {
+        Recording recording = find(CONTINUOUS_RECORDING);
+        return recording != null ? recording.getId() : -1;
+    }
+
+    // Остановленная запись остается доступной для выгрузки до close()
+    public static boolean stop(long id) {
+        Recording recording = find(id);
+        if (recording == null || recording.getState() != RecordingState.RUNNING) {
+            return false;
+        }
+        return recording.stop();
+    }
+
+    public static boolean close(long id) {
+        Recording recording = find(id);
+        if (recording == null) {
+            return false;
+        }
+        recording.close();
+        return true;
+    }
+
+    // Выгрузка записи во временный файл; null - записи нет или в ней еще нет данных
+    public static Path dump(long id) throws IOException {
+        Recording recording = find(id);
+        if (recording == null || recording.getState() == RecordingState.NEW ||
+                recording.getState() == RecordingState.CLOSED) {
+            return null;
+        }
+        Path file = Files.createTempFile("ai-assistant-" + id + "-", ".jfr");
+        recording.dump(file);
+        return file;
+    }
+
+    public static JSONObject getStatus() {
+        JSONObject status = new JSONObject();
+        status.put("available", isAvailable());
+        JSONArray recordings = new JSONArray();
+        if (isAvailable()) {
+            for (Recording recording : FlightRecorder.getFlightRecorder().getRecordings()) {
+                recordings.put(toJSON(recording));
+            }
+        }
+        status.put("recordings", recordings);
+        return status;
+    }
+
+    public static JSONObject toJSON(Recording recording) {
+        JSONObject json = new JSONObject();
+        json.put("id", recording.getId());
+        json.put("name", recording.getName());
+        json.put("state", recording.getState().name().toLowerCase());
+        if (recording.getStartTime() != null) {
+            json.put("start_time", recording.getStartTime().toEpochMilli());
+        }
+        if (recording.getMaxAge() != null) {
+            json.put("max_age_seconds", recording.getMaxAge().getSeconds());
+        }
+        json.put("max_size_bytes", recording.getMaxSize());
+        json.put("size_bytes", recording.getSize());
+        return json;
+    }
+
+    private static Recording find(long id) {
+        if (!isAvailable()) {
+            return null;
+        }
+        for (Recording recording : FlightRecorder.getFlightRecorder().getRecordings()) {
+            if (recording.getId() == id) {
+                return recording;
+            }
+        }
+        return null;
+    }
+
+    private static Recording find(String name) {
+        if (!isAvailable()) {
+            return null;
+        }
+        for (Recording recording : FlightRecorder.getFlightRecorder().getRecordings()) {
+            if (name.equals(recording.getName()) && recording.getState() != RecordingState.CLOSED) {
+                return recording;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.aiassistant.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// VectorStore.searchSimilar
+@Name("com.example.aiassistant.VectorSearch")
+@Label("Поиск в базе знаний")
+@Description("Поиск похожих документов - полный перебор, по индексу IVF или по квантованным векторам")
+@Category({"AI Assistant", "База знаний"})
+@StackTrace(false)
+public class VectorSearchEvent extends Event {
+    @Label("Документов в базе")
+    public int documentCount;
+
+    @Label("Найдено")
+    public int resultCount;
+
+    @Label("Top-K")
+    public int topK;
+
+    @Label("Порог схожести")
+    public double threshold;
+
+    @Label("Индекс IVF")
+    public boolean annIndex;
+
+    @Label("Способ поиска")
+    public String backend;
+}
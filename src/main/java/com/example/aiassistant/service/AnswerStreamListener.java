@@ -0,0 +1,17 @@
+package com.example.aiassistant.service;
+
+import java.util.List;
+
+// Получатель промежуточных результатов генерации ответа: найденные в базе знаний источники
+// и токены ответа по мере их поступления от модели
+public interface AnswerStreamListener {
+    default void onSources(List<VectorStore.SearchResult> sources) {
+    }
+
+    void onToken(String token);
+
+    // Клиент отказался от ответа: генерация прерывается на ближайшем токене
+    default boolean isCancelled() {
+        return false;
+    }
+}
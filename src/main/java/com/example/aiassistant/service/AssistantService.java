@@ -1,11 +1,18 @@
 package com.example.aiassistant.service;
 
+import com.example.aiassistant.jfr.AskQuestionEvent;
 import com.example.aiassistant.model.ChatMessage;
+import com.example.aiassistant.model.KnowledgeDocument;
 import com.example.aiassistant.util.SpeakToText;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class AssistantService {
     private final RAGService ragService;
@@ -15,20 +22,29 @@ public class AssistantService {
     private final ChatHistoryService chatHistoryService;
     private final SpeakToText speakToText;
     private final PromptService promptService;
+    private final VectorStore vectorStore;
+    private final Map<Path, DirectoryImporter> directoryImporters = new ConcurrentHashMap<>();
     private boolean speechEnabled = false;
 
     // Конфигурация
     private static final String DEFAULT_MODEL = "deepseek-coder-v2:16b";
     private static final String DEFAULT_EMBEDDING_MODEL = "all-minilm:22m";
-    private static final String OLLAMA_HOST = "http://192.168.15.7:11434";
+    // Адрес OLLAMA можно переопределить: -Dollama.host=http://localhost:11434
+    public static final String OLLAMA_HOST = System.getProperty("ollama.host", "http://192.168.15.7:11434");
 
-    public AssistantService(VectorDBService vectorDB) {
+    public AssistantService(VectorStore vectorStore) {
+        this(vectorStore, OLLAMA_HOST, new ChatHistoryService());
+    }
+
+    // Другой сервер OLLAMA и своя история чата - для нагрузочного теста с имитацией OLLAMA
+    public AssistantService(VectorStore vectorStore, String ollamaHost, ChatHistoryService chatHistoryService) {
         // Инициализация сервисов
-        this.embeddingService = new EmbeddingService(OLLAMA_HOST, DEFAULT_EMBEDDING_MODEL);
-        this.ollamaService = new OllamaService(OLLAMA_HOST, DEFAULT_MODEL);
-        this.ragService = new RAGService(vectorDB, embeddingService, ollamaService);
+        this.vectorStore = vectorStore;
+        this.embeddingService = new EmbeddingService(ollamaHost, DEFAULT_EMBEDDING_MODEL);
+        this.ollamaService = new OllamaService(ollamaHost, DEFAULT_MODEL);
+        this.ragService = new RAGService(vectorStore, embeddingService, ollamaService);
         this.chatHistory = new ArrayList<>();
-        this.chatHistoryService = new ChatHistoryService();
+        this.chatHistoryService = chatHistoryService;
         this.speakToText = new SpeakToText();
         this.promptService = new PromptService();
 
@@ -78,17 +94,25 @@ public class AssistantService {
 
     // Основной метод для вопросов с учетом истории и озвучкой
     public String askQuestion(String question) {
+        return askQuestion(question, null);
+    }
+
+    // Вопрос с потоковой выдачей источников и токенов ответа слушателю
+    public String askQuestion(String question, AnswerStreamListener listener) {
         System.out.println("\n=== Вопрос: " + question + " ===");
         System.out.println("Используемая модель: " + getCurrentModel());
         System.out.println("Режим работы: " + (ollamaService.isUseChatMode() ? "ЧАТ" : "ГЕНЕРАЦИЯ"));
         System.out.println("Кэш: " + (ollamaService.isUseCache() ? "ВКЛ" : "ВЫКЛ"));
 
+        AskQuestionEvent event = new AskQuestionEvent();
+        event.begin();
+
         // Добавляем вопрос в историю
         ChatMessage userMsg = new ChatMessage(ChatMessage.Role.USER, question);
         chatHistory.add(userMsg);
 
         // Получаем ответ с использованием RAG и истории чата
-        String answer = ragService.getAnswerWithRAGAndHistory(question, chatHistory, speechEnabled);
+        String answer = ragService.getAnswerWithRAGAndHistory(question, chatHistory, speechEnabled, listener);
 
         // Добавляем ответ в историю
         ChatMessage assistantMsg = new ChatMessage(ChatMessage.Role.ASSISTANT, answer);
@@ -107,6 +131,13 @@ public class AssistantService {
             chatHistory.clear();
             chatHistory.addAll(newHistory);
         }
+
+        if (event.shouldCommit()) {
+            event.questionLength = question.length();
+            event.answerLength = answer.length();
+            event.historyMessages = chatHistory.size();
+            event.commit();
+        }
         return answer;
     }
 
@@ -155,6 +186,57 @@ public class AssistantService {
         ragService.addKnowledge(content, source);
     }
 
+    // Массовое добавление знаний через конвейер загрузки
+    public IngestionJob addKnowledgeBulk(String jobName, List<KnowledgeDocument> documents) throws InterruptedException {
+        return ragService.addKnowledgeBulk(jobName, documents);
+    }
+
+    public IngestionPipeline getIngestionPipeline() {
+        return ragService.getIngestionPipeline();
+    }
+
+    // Импорт каталога с файлами в базу знаний (повторный вызов загружает только изменения)
+    public IngestionJob importDirectory(String directory, boolean watch) throws IOException, InterruptedException {
+        Path root = Paths.get(directory).toAbsolutePath().normalize();
+        DirectoryImporter importer = directoryImporters.computeIfAbsent(root,
+                r -> new DirectoryImporter(r, ragService.getIngestionPipeline(), vectorStore));
+
+        IngestionJob job = importer.startImport();
+        if (watch) {
+            importer.startWatching();
+        }
+        return job;
+    }
+
+    // Отключение наблюдения за каталогом
+    public boolean stopWatchingDirectory(String directory) {
+        DirectoryImporter importer = directoryImporters.get(Paths.get(directory).toAbsolutePath().normalize());
+        if (importer == null || !importer.isWatching()) {
+            return false;
+        }
+        importer.stopWatching();
+        return true;
+    }
+
+    // Завершение работы: наблюдение за каталогами останавливается, конвейер загрузки
+    // дорабатывает принятые документы и записывает их на диск
+    public void shutdown() {
+        for (DirectoryImporter importer : directoryImporters.values()) {
+            if (importer.isWatching()) {
+                importer.stopWatching();
+            }
+        }
+        ragService.shutdown();
+    }
+
+    public JSONArray getDirectoryImports() {
+        JSONArray imports = new JSONArray();
+        for (DirectoryImporter importer : directoryImporters.values()) {
+            imports.put(importer.toJSON());
+        }
+        return imports;
+    }
+
     // Смена модели для ответов
     public boolean switchModel(String modelName) {
         try {
@@ -249,9 +331,15 @@ public class AssistantService {
 
     // Поиск в базе знаний
     public void searchKnowledgeBase(String query) {
+        searchKnowledgeBase(query, null);
+    }
+
+    // sourcePrefix - только документы, источник которых начинается с него (null - все)
+    public void searchKnowledgeBase(String query, String sourcePrefix) {
         System.out.println("\n[Поиск в базе знаний: '" + query + "']");
 
-        List<VectorDBService.SearchResult> results = ragService.searchKnowledge(query, 3);
+        List<VectorStore.SearchResult> results = ragService.searchKnowledge(query, 3, sourcePrefix == null ? null
+                : document -> document.getSource() != null && document.getSource().startsWith(sourcePrefix));
 
         if (results.isEmpty()) {
             System.out.println("По вашему запросу ничего не найдено.");
@@ -260,7 +348,7 @@ public class AssistantService {
             System.out.println("---");
 
             for (int i = 0; i < results.size(); i++) {
-                VectorDBService.SearchResult result = results.get(i);
+                VectorStore.SearchResult result = results.get(i);
                 System.out.println("\nРезультат " + (i + 1) + ":");
                 System.out.println("Схожесть: " + String.format("%.3f", result.similarity));
                 System.out.println("Источник: " + result.document.getSource());
@@ -0,0 +1,109 @@
+package com.example.aiassistant.service;
+
+import com.example.aiassistant.model.KnowledgeDocument;
+import org.json.JSONObject;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+// Способ поиска auto: выбирается по числу документов и пересматривается, когда база растет.
+// Новый способ строится в фоне, пока поиск идет старым, затем заменяет его. При уменьшении базы
+// способ не меняется (иначе удаления на границе правила перестраивали бы индекс туда и обратно).
+class AutoVectorStore extends VectorStoreView {
+    private final String collection;
+    private final String autoRules;
+    private final Function<String, VectorStore> factory;
+    private final AtomicBoolean switching = new AtomicBoolean();
+    private volatile String backend;
+    private volatile VectorStore current;
+    // Способ, который не удалось построить: повторно не пробуется до перезапуска
+    private volatile String failedBackend;
+
+    AutoVectorStore(String collection, VectorDBService storage, String autoRules, String backend,
+                    VectorStore store, Function<String, VectorStore> factory) {
+        super(storage);
+        this.collection = collection;
+        this.autoRules = autoRules;
+        this.backend = backend;
+        this.current = store;
+        this.factory = factory;
+    }
+
+    @Override
+    public void addDocument(KnowledgeDocument document, double[] embedding) {
+        super.addDocument(document, embedding);
+        reevaluate();
+    }
+
+    @Override
+    public int addDocuments(List<KnowledgeDocument> batch) {
+        int added = super.addDocuments(batch);
+        if (added > 0) {
+            reevaluate();
+        }
+        return added;
+    }
+
+    private void reevaluate() {
+        String resolved = VectorStoreRegistry.resolve(VectorStoreRegistry.AUTO_BACKEND, autoRules,
+                storage.getDocumentCount());
+        if (rank(resolved) <= rank(backend) || resolved.equals(failedBackend)
+                || !switching.compareAndSet(false, true)) {
+            return;
+        }
+        Thread builder = new Thread(() -> switchTo(resolved), "vector-store-auto-" + collection);
+        builder.setDaemon(true);
+        builder.start();
+    }
+
+    // Номер правила со способом: правила идут от малых баз к большим
+    private int rank(String candidate) {
+        String[] rules = autoRules.split(",");
+        for (int i = 0; i < rules.length; i++) {
+            if (rules[i].trim().split(":")[0].trim().equals(candidate)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void switchTo(String resolved) {
+        try {
+            long start = System.nanoTime();
+            VectorStore replacement = factory.apply(resolved);
+            VectorStore previous = current;
+            String previousBackend = backend;
+            current = replacement;
+            backend = resolved;
+            if (previous instanceof VectorStoreView) {
+                ((VectorStoreView) previous).release();
+            }
+            System.out.println("Коллекция " + collection + ": поиск " + previousBackend + " -> " + resolved +
+                    " (" + storage.getDocumentCount() + " документов, " +
+                    (System.nanoTime() - start) / 1_000_000 + " мс)");
+        } catch (RuntimeException e) {
+            failedBackend = resolved;
+            System.err.println("Ошибка смены способа поиска " + collection + " на " + resolved + ": " +
+                    e.getMessage());
+        } finally {
+            switching.set(false);
+        }
+        // База могла вырасти, пока строился новый способ
+        reevaluate();
+    }
+
+    @Override
+    public List<SearchResult> searchSimilar(double[] queryEmbedding, int topK, double threshold,
+                                            Predicate<KnowledgeDocument> filter) {
+        return current.searchSimilar(queryEmbedding, topK, threshold, filter);
+    }
+
+    @Override
+    public JSONObject getStats() {
+        JSONObject stats = current.getStats();
+        stats.put("auto_rules", autoRules);
+        return stats;
+    }
+}
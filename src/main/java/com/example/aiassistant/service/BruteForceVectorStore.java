@@ -0,0 +1,29 @@
+package com.example.aiassistant.service;
+
+import com.example.aiassistant.model.KnowledgeDocument;
+import org.json.JSONObject;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+// Полный перебор независимо от индекса IVF - точный результат, эталон для сравнения
+class BruteForceVectorStore extends VectorStoreView {
+
+    BruteForceVectorStore(VectorDBService storage) {
+        super(storage);
+    }
+
+    @Override
+    public List<SearchResult> searchSimilar(double[] queryEmbedding, int topK, double threshold,
+                                            Predicate<KnowledgeDocument> filter) {
+        return storage.searchExact(queryEmbedding, topK, threshold, filter);
+    }
+
+    @Override
+    public JSONObject getStats() {
+        JSONObject stats = new JSONObject();
+        stats.put("type", "brute_force");
+        stats.put("documents", storage.getDocumentCount());
+        return stats;
+    }
+}
@@ -1,6 +1,8 @@
 package com.example.aiassistant.service;
 
+import com.example.aiassistant.jfr.ChatHistorySaveEvent;
 import com.example.aiassistant.model.ChatMessage;
+import com.example.aiassistant.util.Metrics;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import java.io.*;
@@ -11,14 +13,26 @@ import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class ChatHistoryService {
-    private static final String CHAT_HISTORY_FILE = "chat_history.bin";
+    private static final String DEFAULT_CHAT_HISTORY_FILE = "chat_history.bin";
     private static final int MAGIC_NUMBER = 0x43484154; // "CHAT"
     private static final int VERSION = 1;
     private static final int HEADER_SIZE = 16;
 
+    private final String chatHistoryFile;
+    // Запись идет на виртуальных потоках RequestScheduler: ReentrantLock вместо synchronized,
+    // чтобы ожидание не закрепляло поток-носитель
+    private final ReentrantLock fileLock = new ReentrantLock();
+
     public ChatHistoryService() {
+        this(DEFAULT_CHAT_HISTORY_FILE);
+    }
+
+    // История в указанном файле - для инструментов и бенчмарков
+    public ChatHistoryService(String chatHistoryFile) {
+        this.chatHistoryFile = chatHistoryFile;
         // Создаем директорию если не существует
         try {
             Files.createDirectories(Paths.get("."));
@@ -28,88 +42,108 @@ public class ChatHistoryService {
     }
 
     // Сохранение истории чата в бинарный файл
-    public synchronized void saveChatHistory(List<ChatMessage> chatHistory) {
-        try (RandomAccessFile file = new RandomAccessFile(CHAT_HISTORY_FILE, "rw");
-             FileChannel channel = file.getChannel()) {
-
-            // Очищаем файл
-            channel.truncate(0);
-
-            // Пишем заголовок
-            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
-            header.putInt(MAGIC_NUMBER);
-            header.putInt(VERSION);
-            header.putInt(chatHistory.size());
-            header.putInt(0); // reserved
-            header.flip();
-            channel.write(header);
-
-            // Сохраняем каждое сообщение
-            for (ChatMessage message : chatHistory) {
-                saveMessage(channel, message);
-            }
+    public void saveChatHistory(List<ChatMessage> chatHistory) {
+        fileLock.lock();
+        try {
+            ChatHistorySaveEvent event = new ChatHistorySaveEvent();
+            event.begin();
+            long start = System.nanoTime();
+            try (RandomAccessFile file = new RandomAccessFile(chatHistoryFile, "rw");
+                 FileChannel channel = file.getChannel()) {
+
+                // Очищаем файл
+                channel.truncate(0);
+
+                // Пишем заголовок
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC_NUMBER);
+                header.putInt(VERSION);
+                header.putInt(chatHistory.size());
+                header.putInt(0); // reserved
+                header.flip();
+                channel.write(header);
+
+                // Сохраняем каждое сообщение
+                for (ChatMessage message : chatHistory) {
+                    saveMessage(channel, message);
+                }
 
-            System.out.println("История чата сохранена в файл: " + CHAT_HISTORY_FILE);
+                System.out.println("История чата сохранена в файл: " + chatHistoryFile);
 
-        } catch (IOException e) {
-            System.err.println("Ошибка сохранения истории чата: " + e.getMessage());
+                if (event.shouldCommit()) {
+                    event.messageCount = chatHistory.size();
+                    event.fileSize = channel.size();
+                    event.commit();
+                }
+
+            } catch (IOException e) {
+                System.err.println("Ошибка сохранения истории чата: " + e.getMessage());
+            }
+            Metrics.recordStage(Metrics.Stage.PERSISTENCE, start);
+        } finally {
+            fileLock.unlock();
         }
     }
 
     // Загрузка истории чата из бинарного файла
-    public synchronized List<ChatMessage> loadChatHistory() {
-        List<ChatMessage> history = new ArrayList<>();
-
-        File file = new File(CHAT_HISTORY_FILE);
-        if (!file.exists() || file.length() == 0) {
-            System.out.println("Файл истории чата не найден или пуст");
-            return history;
-        }
-
-        try (RandomAccessFile raf = new RandomAccessFile(CHAT_HISTORY_FILE, "r");
-             FileChannel channel = raf.getChannel()) {
+    public List<ChatMessage> loadChatHistory() {
+        fileLock.lock();
+        try {
+            List<ChatMessage> history = new ArrayList<>();
 
-            // Читаем заголовок
-            if (channel.size() < HEADER_SIZE) {
-                System.err.println("Файл истории чата поврежден (слишком маленький)");
+            File file = new File(chatHistoryFile);
+            if (!file.exists() || file.length() == 0) {
+                System.out.println("Файл истории чата не найден или пуст");
                 return history;
             }
 
-            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
-            channel.read(header);
-            header.flip();
+            try (RandomAccessFile raf = new RandomAccessFile(chatHistoryFile, "r");
+                 FileChannel channel = raf.getChannel()) {
 
-            int magic = header.getInt();
-            int version = header.getInt();
-            int messageCount = header.getInt();
-            int reserved = header.getInt();
+                // Читаем заголовок
+                if (channel.size() < HEADER_SIZE) {
+                    System.err.println("Файл истории чата поврежден (слишком маленький)");
+                    return history;
+                }
 
-            if (magic != MAGIC_NUMBER) {
-                System.err.println("Неверный формат файла истории чата");
-                return history;
-            }
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                channel.read(header);
+                header.flip();
+
+                int magic = header.getInt();
+                int version = header.getInt();
+                int messageCount = header.getInt();
+                int reserved = header.getInt();
 
-            System.out.println("Загрузка истории чата: " + messageCount + " сообщений");
+                if (magic != MAGIC_NUMBER) {
+                    System.err.println("Неверный формат файла истории чата");
+                    return history;
+                }
 
-            // Читаем сообщения
-            for (int i = 0; i < messageCount; i++) {
-                try {
-                    ChatMessage message = loadMessage(channel);
-                    if (message != null) {
-                        history.add(message);
+                System.out.println("Загрузка истории чата: " + messageCount + " сообщений");
+
+                // Читаем сообщения
+                for (int i = 0; i < messageCount; i++) {
+                    try {
+                        ChatMessage message = loadMessage(channel);
+                        if (message != null) {
+                            history.add(message);
+                        }
+                    } catch (Exception e) {
+                        System.err.println("Ошибка загрузки сообщения " + i + ": " + e.getMessage());
                     }
-                } catch (Exception e) {
-                    System.err.println("Ошибка загрузки сообщения " + i + ": " + e.getMessage());
                 }
-            }
 
-            System.out.println("Загружено " + history.size() + " сообщений из истории чата");
+                System.out.println("Загружено " + history.size() + " сообщений из истории чата");
 
-        } catch (IOException e) {
-            System.err.println("Ошибка чтения файла истории чата: " + e.getMessage());
-        }
+            } catch (IOException e) {
+                System.err.println("Ошибка чтения файла истории чата: " + e.getMessage());
+            }
 
-        return history;
+            return history;
+        } finally {
+            fileLock.unlock();
+        }
     }
 
     private void saveMessage(FileChannel channel, ChatMessage message) throws IOException {
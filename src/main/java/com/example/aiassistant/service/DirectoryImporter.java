@@ -0,0 +1,575 @@
+package com.example.aiassistant.service;
+
+import com.example.aiassistant.model.KnowledgeDocument;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Импорт каталога с текстовыми файлами в базу знаний и зеркалирование изменений.
+// Для каждого файла хранится размер, время изменения и SHA-256 содержимого
+// (в метаданных документов), поэтому неизмененные файлы повторно не обрабатываются,
+// в том числе после перезапуска.
+public class DirectoryImporter {
+    public static final Set<String> DEFAULT_EXTENSIONS = Set.of(
+            "txt", "md", "markdown", "rst", "adoc",
+            "java", "kt", "py", "js", "ts", "go", "rs", "c", "cpp", "h", "hpp", "cs", "rb", "php",
+            "sql", "sh", "yaml", "yml", "json", "xml", "html", "css", "properties"
+    );
+    private static final Set<String> SKIPPED_DIRECTORIES = Set.of(
+            ".git", ".idea", ".svn", "node_modules", "target", "build", ".gradle"
+    );
+    private static final long MAX_FILE_SIZE = 10L * 1024 * 1024; // 10 МБ
+    private static final long WATCH_DEBOUNCE_MS = 500;
+
+    // Ключи метаданных документов, полученных из файлов
+    static final String META_FILE_PATH = "file_path";
+    static final String META_FILE_HASH = "file_hash";
+    static final String META_FILE_SIZE = "file_size";
+    static final String META_FILE_MODIFIED = "file_modified";
+
+    private final Path root;
+    private final IngestionPipeline pipeline;
+    private final VectorStore vectorStore;
+    private final Set<String> extensions;
+    private final Map<Path, FileState> fileStates = new ConcurrentHashMap<>();
+
+    private WatchService watchService;
+    private Thread watchThread;
+    private volatile boolean watching = false;
+
+    // Статистика
+    private final AtomicLong filesIndexed = new AtomicLong();
+    private final AtomicLong filesUnchanged = new AtomicLong();
+    private final AtomicLong filesRemoved = new AtomicLong();
+    private final AtomicLong filesSkipped = new AtomicLong();
+    private volatile IngestionJob lastJob;
+
+    public DirectoryImporter(Path root, IngestionPipeline pipeline, VectorStore vectorStore, Set<String> extensions) {
+        this.root = root.toAbsolutePath().normalize();
+        this.pipeline = pipeline;
+        this.vectorStore = vectorStore;
+        this.extensions = extensions;
+        restoreStateFromIndex();
+    }
+
+    public DirectoryImporter(Path root, IngestionPipeline pipeline, VectorStore vectorStore) {
+        this(root, pipeline, vectorStore, DEFAULT_EXTENSIONS);
+    }
+
+    // Восстановление состояния файлов по метаданным уже загруженных документов
+    private void restoreStateFromIndex() {
+        for (KnowledgeDocument document : vectorStore.getAllDocuments()) {
+            JSONObject metadata = document.getMetadata();
+            String filePath = metadata.optString(META_FILE_PATH, null);
+            // Сравнение по элементам пути: /a/docs2 не лежит внутри /a/docs
+            if (filePath == null || !Paths.get(filePath).startsWith(root)) {
+                continue;
+            }
+            fileStates.putIfAbsent(Paths.get(filePath), new FileState(
+                    metadata.optLong(META_FILE_SIZE, -1),
+                    metadata.optLong(META_FILE_MODIFIED, -1),
+                    metadata.optString(META_FILE_HASH, "")
+            ));
+        }
+        if (!fileStates.isEmpty()) {
+            System.out.println("Каталог " + root + ": в базе уже есть " + fileStates.size() + " файлов");
+        }
+    }
+
+    // Импорт в фоне: задание создается и возвращается сразу, обход каталога, подача файлов
+    // и замена старых версий идут в отдельном потоке
+    public IngestionJob startImport() throws IOException {
+        if (!Files.isDirectory(root)) {
+            throw new NoSuchFileException(root.toString());
+        }
+        IngestionJob job = pipeline.createJob("import:" + root);
+        Thread importThread = new Thread(() -> {
+            try {
+                importAll(job);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                System.err.println("Ошибка импорта каталога " + root + ": " + e.getMessage());
+            }
+        }, "directory-import");
+        importThread.setDaemon(true);
+        importThread.start();
+        return job;
+    }
+
+    // Полная синхронизация каталога: новые и измененные файлы загружаются, удаленные - удаляются из базы
+    public IngestionJob importAll() throws IOException, InterruptedException {
+        return importAll(pipeline.createJob("import:" + root));
+    }
+
+    private IngestionJob importAll(IngestionJob job) throws IOException, InterruptedException {
+        if (!Files.isDirectory(root)) {
+            job.fail("Каталог не найден: " + root);
+            pipeline.close(job);
+            throw new NoSuchFileException(root.toString());
+        }
+
+        List<Path> files = new ArrayList<>();
+        try {
+            walkFiles(files);
+        } catch (IOException e) {
+            job.fail("Ошибка обхода каталога: " + e.getMessage());
+            pipeline.close(job);
+            throw e;
+        }
+
+        System.out.println("Каталог " + root + ": найдено файлов для импорта: " + files.size());
+
+        // Файлы, которых больше нет на диске
+        Set<Path> existing = new HashSet<>(files);
+        List<Path> removed = new ArrayList<>();
+        for (Path known : fileStates.keySet()) {
+            if (!existing.contains(known)) {
+                removed.add(known);
+            }
+        }
+        removeFiles(removed);
+
+        return syncFiles(files, job);
+    }
+
+    private void walkFiles(List<Path> files) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                return !dir.equals(root) && isSkippedDirectory(dir)
+                        ? FileVisitResult.SKIP_SUBTREE
+                        : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && isSupported(file)) {
+                    files.add(file.toAbsolutePath().normalize());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                filesSkipped.incrementAndGet();
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    // Загрузка новых/измененных файлов: чтение, хэширование и подача в конвейер идут параллельно
+    // на всех ядрах; при заполненном конвейере читатели ждут (backpressure).
+    // Возвращается после того, как задание завершено и старые версии файлов заменены.
+    private IngestionJob syncFiles(Collection<Path> files, IngestionJob job) throws InterruptedException {
+        lastJob = job;
+
+        // Поданные файлы: прежнее и новое состояние - для замены версий после завершения задания
+        Map<Path, FileVersion> versions = new ConcurrentHashMap<>();
+        AtomicLong submitted = new AtomicLong();
+        ExecutorService readers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Path file : files) {
+                futures.add(readers.submit(() -> {
+                    PreparedFile prepared = prepare(file);
+                    if (prepared == null) {
+                        return null;
+                    }
+                    pipeline.submit(job, prepared.content, root.relativize(file).toString(), prepared.metadata());
+                    versions.put(file, new FileVersion(fileStates.put(file, prepared.state), prepared.state));
+                    filesIndexed.incrementAndGet();
+                    submitted.incrementAndGet();
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    System.err.println("Ошибка импорта файла: " + e.getCause().getMessage());
+                    filesSkipped.incrementAndGet();
+                }
+            }
+        } finally {
+            readers.shutdown();
+            pipeline.close(job);
+        }
+
+        if (submitted.get() > 0) {
+            System.out.println("Каталог " + root + ": отправлено на индексацию " + submitted.get() + " файлов");
+        }
+        try {
+            job.completion().get();
+        } catch (ExecutionException e) {
+            // Задание завершается только нормально; ошибки чанков видны в его счетчиках
+        }
+        replaceVersions(versions);
+        return job;
+    }
+
+    // Старая версия файла удаляется, только когда все чанки новой дошли до базы; иначе удаляется
+    // неполная новая, старая остается, а файл будет загружен заново при следующей синхронизации.
+    // Версии отличаются хэшем в метаданных. Два прохода по базе на все файлы задания.
+    private void replaceVersions(Map<Path, FileVersion> versions) {
+        if (versions.isEmpty()) {
+            return;
+        }
+        Map<String, FileVersion> byPath = new HashMap<>();
+        for (Map.Entry<Path, FileVersion> entry : versions.entrySet()) {
+            byPath.put(entry.getKey().toString(), entry.getValue());
+        }
+        Map<String, Integer> stored = new HashMap<>();
+        Map<String, Integer> expected = new HashMap<>();
+        for (KnowledgeDocument document : vectorStore.getAllDocuments()) {
+            JSONObject metadata = document.getMetadata();
+            String path = metadata.optString(META_FILE_PATH, "");
+            FileVersion version = byPath.get(path);
+            if (version != null && version.current.hash.equals(metadata.optString(META_FILE_HASH, ""))) {
+                stored.merge(path, 1, Integer::sum);
+                expected.put(path, metadata.optInt("chunk_count", 1));
+            }
+        }
+
+        Set<String> complete = new HashSet<>();
+        int incomplete = 0;
+        for (Map.Entry<String, FileVersion> entry : byPath.entrySet()) {
+            String path = entry.getKey();
+            Integer count = stored.get(path);
+            if (count != null && count.equals(expected.get(path))) {
+                complete.add(path);
+                continue;
+            }
+            incomplete++;
+            Path file = Paths.get(path);
+            FileVersion version = entry.getValue();
+            if (version.previous != null) {
+                fileStates.replace(file, version.current, version.previous);
+            } else {
+                fileStates.remove(file, version.current);
+            }
+        }
+
+        int removedDocs = vectorStore.removeDocuments(document -> {
+            JSONObject metadata = document.getMetadata();
+            String path = metadata.optString(META_FILE_PATH, "");
+            FileVersion version = byPath.get(path);
+            if (version == null) {
+                return false;
+            }
+            boolean isCurrent = version.current.hash.equals(metadata.optString(META_FILE_HASH, ""));
+            return complete.contains(path) != isCurrent;
+        });
+        if (removedDocs > 0) {
+            vectorStore.flush();
+        }
+        if (incomplete > 0) {
+            System.err.println("Каталог " + root + ": " + incomplete + " файлов загружены не полностью, " +
+                    "в базе оставлены прежние версии");
+        }
+    }
+
+    // Чтение файла, если он новый или изменился. null - файл не требует обработки.
+    private PreparedFile prepare(Path file) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            long size = attrs.size();
+            long modified = attrs.lastModifiedTime().toMillis();
+
+            FileState known = fileStates.get(file);
+            if (known != null && known.size == size && known.modified == modified) {
+                filesUnchanged.incrementAndGet();
+                return null;
+            }
+            if (size > MAX_FILE_SIZE) {
+                filesSkipped.incrementAndGet();
+                return null;
+            }
+
+            byte[] bytes = Files.readAllBytes(file);
+            if (looksBinary(bytes)) {
+                filesSkipped.incrementAndGet();
+                return null;
+            }
+
+            String hash = sha256(bytes);
+            FileState state = new FileState(size, modified, hash);
+            if (known != null && known.hash.equals(hash)) {
+                // Изменилось только время модификации - содержимое то же
+                fileStates.put(file, state);
+                filesUnchanged.incrementAndGet();
+                return null;
+            }
+
+            String content = new String(bytes, StandardCharsets.UTF_8);
+            if (content.isBlank()) {
+                filesSkipped.incrementAndGet();
+                return null;
+            }
+            return new PreparedFile(file, content, state);
+
+        } catch (IOException e) {
+            System.err.println("Ошибка чтения файла " + file + ": " + e.getMessage());
+            filesSkipped.incrementAndGet();
+            return null;
+        }
+    }
+
+    private void removeFiles(Collection<Path> files) {
+        if (files.isEmpty()) {
+            return;
+        }
+        Set<String> paths = new HashSet<>();
+        for (Path file : files) {
+            paths.add(file.toString());
+            fileStates.remove(file);
+        }
+
+        int removedDocs = vectorStore.removeDocuments(document ->
+                paths.contains(document.getMetadata().optString(META_FILE_PATH, null)));
+        vectorStore.flush();
+        filesRemoved.addAndGet(files.size());
+        System.out.println("Каталог " + root + ": удалено файлов: " + files.size() + " (документов: " + removedDocs + ")");
+    }
+
+    // Режим наблюдения: переиндексация только созданных, измененных и удаленных файлов
+    public synchronized void startWatching() throws IOException {
+        if (watching) {
+            return;
+        }
+        watchService = root.getFileSystem().newWatchService();
+        registerRecursive(root);
+        watching = true;
+
+        watchThread = new Thread(this::watchLoop, "directory-watch");
+        watchThread.setDaemon(true);
+        watchThread.start();
+        System.out.println("Наблюдение за каталогом включено: " + root);
+    }
+
+    public synchronized void stopWatching() {
+        if (!watching) {
+            return;
+        }
+        watching = false;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            // Игнорируем ошибку закрытия
+        }
+        watchThread.interrupt();
+        System.out.println("Наблюдение за каталогом выключено: " + root);
+    }
+
+    private void registerRecursive(Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (!dir.equals(root) && isSkippedDirectory(dir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                dir.register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void watchLoop() {
+        while (watching) {
+            try {
+                WatchKey key = watchService.take();
+                Set<Path> touched = new HashSet<>();
+                boolean overflow = collectEvents(key, touched);
+
+                // Редакторы пишут файл несколькими операциями - собираем события за короткое окно
+                long deadline = System.currentTimeMillis() + WATCH_DEBOUNCE_MS;
+                long remaining;
+                while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+                    WatchKey next = watchService.poll(remaining, TimeUnit.MILLISECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    overflow |= collectEvents(next, touched);
+                }
+
+                if (overflow) {
+                    importAll();
+                } else {
+                    applyChanges(touched);
+                }
+
+            } catch (ClosedWatchServiceException | InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                System.err.println("Ошибка наблюдения за каталогом " + root + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private boolean collectEvents(WatchKey key, Set<Path> touched) throws IOException {
+        boolean overflow = false;
+        Path dir = (Path) key.watchable();
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context()).toAbsolutePath().normalize();
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)
+                    && !isSkippedDirectory(path)) {
+                // Новый подкаталог: наблюдаем за ним и забираем уже появившиеся в нем файлы
+                registerRecursive(path);
+                try (var stream = Files.walk(path)) {
+                    stream.filter(Files::isRegularFile).forEach(p -> touched.add(p.toAbsolutePath().normalize()));
+                }
+            } else {
+                touched.add(path);
+            }
+        }
+        key.reset();
+        return overflow;
+    }
+
+    private void applyChanges(Set<Path> touched) throws InterruptedException {
+        List<Path> updated = new ArrayList<>();
+        List<Path> deleted = new ArrayList<>();
+
+        for (Path path : touched) {
+            if (Files.isRegularFile(path)) {
+                if (isSupported(path)) {
+                    updated.add(path);
+                }
+            } else if (!Files.exists(path)) {
+                // Удален файл или целый каталог
+                String prefix = path + path.getFileSystem().getSeparator();
+                for (Path known : fileStates.keySet()) {
+                    if (known.equals(path) || known.toString().startsWith(prefix)) {
+                        deleted.add(known);
+                    }
+                }
+            }
+        }
+
+        removeFiles(deleted);
+        if (!updated.isEmpty()) {
+            syncFiles(updated, pipeline.createJob("watch:" + root));
+        }
+    }
+
+    private boolean isSupported(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 && extensions.contains(name.substring(dot + 1).toLowerCase());
+    }
+
+    private static boolean isSkippedDirectory(Path dir) {
+        Path name = dir.getFileName();
+        return name != null && SKIPPED_DIRECTORIES.contains(name.toString());
+    }
+
+    private static boolean looksBinary(byte[] bytes) {
+        int limit = Math.min(bytes.length, 8192);
+        for (int i = 0; i < limit; i++) {
+            if (bytes[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public boolean isWatching() {
+        return watching;
+    }
+
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("path", root.toString());
+        json.put("watching", watching);
+        json.put("files_tracked", fileStates.size());
+        json.put("files_indexed", filesIndexed.get());
+        json.put("files_unchanged", filesUnchanged.get());
+        json.put("files_removed", filesRemoved.get());
+        json.put("files_skipped", filesSkipped.get());
+        if (lastJob != null) {
+            json.put("last_job", lastJob.toJSON());
+        }
+        return json;
+    }
+
+    private static class FileState {
+        final long size;
+        final long modified;
+        final String hash;
+
+        FileState(long size, long modified, String hash) {
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+        }
+    }
+
+    private static class FileVersion {
+        final FileState previous;
+        final FileState current;
+
+        FileVersion(FileState previous, FileState current) {
+            this.previous = previous;
+            this.current = current;
+        }
+    }
+
+    private static class PreparedFile {
+        final Path path;
+        final String content;
+        final FileState state;
+
+        PreparedFile(Path path, String content, FileState state) {
+            this.path = path;
+            this.content = content;
+            this.state = state;
+        }
+
+        JSONObject metadata() {
+            JSONObject metadata = new JSONObject();
+            metadata.put(META_FILE_PATH, path.toString());
+            metadata.put(META_FILE_HASH, state.hash);
+            metadata.put(META_FILE_SIZE, state.size);
+            metadata.put(META_FILE_MODIFIED, state.modified);
+            return metadata;
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package com.example.aiassistant.service;
+
+import com.example.aiassistant.index.DiskAnnIndex;
+import com.example.aiassistant.index.IvfIndex;
+import com.example.aiassistant.jfr.VectorSearchEvent;
+import com.example.aiassistant.model.EmbeddingVector;
+import com.example.aiassistant.model.KnowledgeDocument;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+// Поиск по дисковому индексу DiskANN (файл <база>.diskann, tools.IndexBuilder --index diskann).
+// Индекс неизменяемый: документы, добавленные после построения, ищутся перебором в небольшой
+// дельте, удаленные и замененные отсеиваются. Когда дельта разрастается - индекс пора пересобрать;
+// пересобранный файл подхватывается без перезапуска, дельта при этом считается заново.
+// Размер списка кандидатов: -Dvector.store.disk.list=64 (больше - точнее и больше чтений с диска).
+// База для этого способа загружается с векторами на диске (VectorStoreRegistry): векторы результатов
+// и уточнение схожести берутся из индекса, полные векторы в памяти - только у документов дельты.
+class DiskAnnVectorStore extends VectorStoreView {
+    private static final int FILTER_OVERFETCH = 4;
+    private static final int MAX_REMOVED_OVERFETCH = 64;
+    private static final long RELOAD_CHECK_INTERVAL_MS = 5000;
+
+    private final Path indexPath;
+    private final int searchList;
+    // Поиски читают индекс под блокировкой чтения; замена индекса после пересборки - под блокировкой записи
+    private final ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
+    private final ReentrantLock reloadLock = new ReentrantLock();
+    private volatile IndexState state;
+    private volatile long nextReloadCheck;
+    private volatile boolean released;
+
+    DiskAnnVectorStore(VectorDBService storage) {
+        super(storage);
+        this.indexPath = storage.getIndexPath(VectorDBService.DISKANN_FILE_EXTENSION);
+        this.searchList = Integer.getInteger("vector.store.disk.list", DiskAnnIndex.DEFAULT_SEARCH_LIST);
+        if (!Files.exists(indexPath)) {
+            System.err.println("Индекс DiskANN " + indexPath + " не найден (tools.IndexBuilder --index diskann), " +
+                    "используется полный перебор");
+        }
+        this.state = openState();
+        this.nextReloadCheck = System.currentTimeMillis() + RELOAD_CHECK_INTERVAL_MS;
+    }
+
+    // Индекс и все, что посчитано относительно него: дельта и отсеиваемые узлы
+    private class IndexState implements VectorDBService.ChangeListener {
+        final DiskAnnIndex index;
+        final FileTime modified;
+        // Документы вне индекса с их векторами
+        final Map<String, EmbeddingVector> delta = new ConcurrentHashMap<>();
+        // id узлов индекса, чей вектор больше не действует: документ удален или добавлен заново
+        final Set<String> stale = ConcurrentHashMap.newKeySet();
+        // Узлы индекса, которых не было в базе при открытии
+        final int missing;
+        private final LocalDateTime builtAt;
+        // id узлов индекса - только на время подписки, пока раскладываются документы базы
+        private volatile Set<String> indexedIds;
+        private int indexedAtOpen;
+
+        IndexState(DiskAnnIndex index, FileTime modified, Set<String> indexedIds) {
+            this.index = index;
+            this.modified = modified;
+            if (index == null) {
+                this.missing = 0;
+                this.builtAt = null;
+                return;
+            }
+            this.builtAt = LocalDateTime.ofInstant(Instant.ofEpochMilli(index.getBuildTime()), ZoneId.systemDefault());
+            this.indexedIds = indexedIds;
+            // Подписка сразу передает текущие документы: они либо в индексе, либо в дельте
+            storage.addChangeListener(this);
+            this.indexedIds = null;
+            this.missing = Math.max(0, index.size() - indexedAtOpen - stale.size());
+        }
+
+        @Override
+        public void documentsAdded(List<KnowledgeDocument> added) {
+            Set<String> opening = indexedIds;
+            for (KnowledgeDocument document : added) {
+                String id = document.getId();
+                boolean indexed = opening != null ? opening.contains(id) : index.contains(id);
+                // Документ базы, созданный до построения индекса, - тот, что в индексе. Созданный позже
+                // добавлен после построения или заменен (новый документ с тем же id) и ищется в дельте
+                if (opening != null && indexed && !document.getCreatedAt().isAfter(builtAt)) {
+                    indexedAtOpen++;
+                    continue;
+                }
+                EmbeddingVector vector = storage.getEmbeddingVector(id);
+                if (vector != null) {
+                    delta.put(id, vector);
+                }
+                if (indexed) {
+                    stale.add(id);
+                }
+            }
+        }
+
+        @Override
+        public void documentsRemoved(List<String> removedIds) {
+            for (String id : removedIds) {
+                delta.remove(id);
+                if (index.contains(id)) {
+                    stale.add(id);
+                }
+            }
+        }
+
+        int excluded() {
+            return missing + stale.size();
+        }
+
+        void close() {
+            if (index == null) {
+                return;
+            }
+            storage.removeChangeListener(this);
+            try {
+                index.close();
+            } catch (IOException e) {
+                System.err.println("Ошибка закрытия индекса " + indexPath + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private IndexState openState() {
+        if (!Files.exists(indexPath)) {
+            return new IndexState(null, null, null);
+        }
+        DiskAnnIndex index = null;
+        try {
+            FileTime modified = Files.getLastModifiedTime(indexPath);
+            index = DiskAnnIndex.open(indexPath);
+            IndexState opened = new IndexState(index, modified, index.getIds());
+            System.out.println("Загружен индекс DiskANN: " + opened.index.size() + " векторов, в памяти " +
+                    opened.index.getHeapBytes() / 1024 + " КБ, на диске " +
+                    opened.index.getFileBytes() / (1024 * 1024) + " МБ, вне индекса " + opened.delta.size() +
+                    " документов");
+            return opened;
+        } catch (IOException e) {
+            System.err.println("Ошибка загрузки индекса " + indexPath + ": " + e.getMessage());
+            if (index != null) {
+                try {
+                    index.close();
+                } catch (IOException ignored) {
+                }
+            }
+            return new IndexState(null, null, null);
+        }
+    }
+
+    // Пересобранный файл индекса (IndexBuilder пишет его через временный и переименовывает)
+    // открывается заново; старый закрывается, когда его поиски завершатся
+    private void reloadIfRebuilt() {
+        long now = System.currentTimeMillis();
+        if (released || now < nextReloadCheck || !reloadLock.tryLock()) {
+            return;
+        }
+        try {
+            nextReloadCheck = now + RELOAD_CHECK_INTERVAL_MS;
+            FileTime modified = Files.exists(indexPath) ? Files.getLastModifiedTime(indexPath) : null;
+            IndexState current = state;
+            if (modified == null || modified.equals(current.modified)) {
+                return;
+            }
+            IndexState reloaded = openState();
+            if (reloaded.index == null) {
+                return;
+            }
+            indexLock.writeLock().lock();
+            try {
+                state = reloaded;
+                current.close();
+            } finally {
+                indexLock.writeLock().unlock();
+            }
+        } catch (IOException e) {
+            System.err.println("Ошибка проверки индекса " + indexPath + ": " + e.getMessage());
+        } finally {
+            reloadLock.unlock();
+        }
+    }
+
+    @Override
+    public List<SearchResult> searchSimilar(double[] queryEmbedding, int topK, double threshold,
+                                            Predicate<KnowledgeDocument> filter) {
+        reloadIfRebuilt();
+        indexLock.readLock().lock();
+        try {
+            IndexState current = state;
+            if (current.index == null || current.index.getDimension() != queryEmbedding.length) {
+                return storage.searchExact(queryEmbedding, topK, threshold, filter);
+            }
+            return search(current, queryEmbedding, topK, threshold, filter);
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    private List<SearchResult> search(IndexState current, double[] queryEmbedding, int topK, double threshold,
+                                      Predicate<KnowledgeDocument> filter) {
+        VectorSearchEvent event = new VectorSearchEvent();
+        event.begin();
+        DiskAnnIndex index = current.index;
+
+        int candidates = topK + Math.min(current.excluded(), MAX_REMOVED_OVERFETCH);
+        if (filter != null) {
+            candidates *= FILTER_OVERFETCH;
+        }
+        int list = Math.max(searchList, candidates);
+        List<IvfIndex.Result> found = index.search(queryEmbedding, candidates, list,
+                DiskAnnIndex.DEFAULT_BEAM_WIDTH, list * 2);
+
+        List<SearchResult> results = new ArrayList<>();
+        boolean filtered = false;
+        for (IvfIndex.Result candidate : found) {
+            if (current.stale.contains(candidate.id)) {
+                continue;
+            }
+            KnowledgeDocument document = storage.getDocument(candidate.id);
+            if (document == null) {
+                continue;
+            }
+            if (filter != null && !filter.test(document)) {
+                filtered = true;
+                continue;
+            }
+            // Схожесть из индекса точная - по полным векторам с диска; вектор результата тоже оттуда
+            if (candidate.score >= threshold) {
+                results.add(new SearchResult(document,
+                        new EmbeddingVector(candidate.id, index.getVector(candidate.id)), candidate.score));
+            }
+        }
+        EmbeddingVector queryVector = new EmbeddingVector("query", queryEmbedding);
+        if (filtered && results.size() < topK && found.size() == candidates) {
+            // Фильтр отсеял часть кандидатов, а подходящие документы могут быть дальше по графу:
+            // перебор документов, прошедших фильтр, по векторам из индекса и дельты
+            results = scanFiltered(current, queryVector, threshold, filter);
+        } else {
+            // Документы, добавленные после построения индекса
+            for (Map.Entry<String, EmbeddingVector> entry : current.delta.entrySet()) {
+                KnowledgeDocument document = storage.getDocument(entry.getKey());
+                if (document == null || (filter != null && !filter.test(document))) {
+                    continue;
+                }
+                double similarity = queryVector.cosineSimilarity(entry.getValue());
+                if (similarity >= threshold) {
+                    results.add(new SearchResult(document, entry.getValue(), similarity));
+                }
+            }
+        }
+
+        results.sort((a, b) -> Double.compare(b.similarity, a.similarity));
+        List<SearchResult> top = results.size() > topK ? new ArrayList<>(results.subList(0, topK)) : results;
+        if (event.shouldCommit()) {
+            event.documentCount = storage.getDocumentCount();
+            event.resultCount = top.size();
+            event.topK = topK;
+            event.threshold = threshold;
+            event.backend = "disk";
+            event.commit();
+        }
+        return top;
+    }
+
+    private List<SearchResult> scanFiltered(IndexState current, EmbeddingVector queryVector, double threshold,
+                                            Predicate<KnowledgeDocument> filter) {
+        List<SearchResult> results = new ArrayList<>();
+        for (KnowledgeDocument document : storage.getAllDocuments()) {
+            if (!filter.test(document)) {
+                continue;
+            }
+            String id = document.getId();
+            EmbeddingVector vector = current.delta.get(id);
+            if (vector == null && !current.stale.contains(id)) {
+                double[] indexed = current.index.getVector(id);
+                vector = indexed != null ? new EmbeddingVector(id, indexed) : null;
+            }
+            if (vector == null) {
+                continue;
+            }
+            double similarity = queryVector.cosineSimilarity(vector);
+            if (similarity >= threshold) {
+                results.add(new SearchResult(document, vector, similarity));
+            }
+        }
+        return results;
+    }
+
+    @Override
+    void release() {
+        released = true;
+        indexLock.writeLock().lock();
+        try {
+            state.close();
+            state = new IndexState(null, null, null);
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public JSONObject getStats() {
+        JSONObject stats = new JSONObject();
+        stats.put("type", "disk");
+        stats.put("documents", storage.getDocumentCount());
+        stats.put("index_file", indexPath.toString());
+        IndexState current = state;
+        if (current.index != null) {
+            DiskAnnIndex index = current.index;
+            stats.put("vectors", index.size());
+            stats.put("dimension", index.getDimension());
+            stats.put("max_degree", index.getMaxDegree());
+            stats.put("pq_bytes", index.getPqSubspaces());
+            stats.put("heap_bytes", index.getHeapBytes());
+            stats.put("file_bytes", index.getFileBytes());
+            stats.put("search_list", searchList);
+            stats.put("avg_node_reads", index.getAverageReads());
+            stats.put("delta_documents", current.delta.size());
+            stats.put("removed_documents", current.excluded());
+        }
+        return stats;
+    }
+}
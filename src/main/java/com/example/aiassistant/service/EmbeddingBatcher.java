@@ -0,0 +1,150 @@
+package com.example.aiassistant.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// Адаптивный микро-батчер: объединяет одиночные запросы эмбеддингов,
+// пришедшие в течение нескольких миллисекунд, в один вызов /api/embed.
+// Если к OLLAMA нет запросов "в полете", запрос уходит сразу (без ожидания окна),
+// иначе батчер копит запросы до конца окна или до заполнения пакета.
+public class EmbeddingBatcher {
+    public static final long DEFAULT_WINDOW_MS = 5;
+    private static final int MAX_IN_FLIGHT = 4;
+
+    private final EmbeddingService embeddingService;
+    private final BlockingQueue<PendingEmbedding> queue;
+    private final long windowNanos;
+    private volatile int maxBatchSize;
+    private final Semaphore inFlight;
+    private final ExecutorService dispatcher;
+    private final Thread collector;
+    private volatile boolean running = true;
+
+    public EmbeddingBatcher(EmbeddingService embeddingService, long windowMs, int maxBatchSize) {
+        this.embeddingService = embeddingService;
+        this.queue = new LinkedBlockingQueue<>();
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, windowMs));
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.inFlight = new Semaphore(MAX_IN_FLIGHT);
+        this.dispatcher = Executors.newFixedThreadPool(MAX_IN_FLIGHT, r -> {
+            Thread thread = new Thread(r, "embedding-batch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.collector = new Thread(this::collectLoop, "embedding-batcher");
+        this.collector.setDaemon(true);
+    }
+
+    // Поток сборки пакетов запускается отдельно от конструктора, когда батчер уже построен
+    public void start() {
+        collector.start();
+    }
+
+    // Новый размер действует со следующего собираемого пакета
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+    }
+
+    public CompletableFuture<double[]> submit(String text) {
+        CompletableFuture<double[]> future = new CompletableFuture<>();
+        if (!running) {
+            future.completeExceptionally(new IllegalStateException("Батчер эмбеддингов остановлен"));
+            return future;
+        }
+        queue.add(new PendingEmbedding(text, future));
+        return future;
+    }
+
+    private void collectLoop() {
+        while (running) {
+            try {
+                PendingEmbedding first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                List<PendingEmbedding> batch = new ArrayList<>();
+                batch.add(first);
+
+                // Ждем окно только если OLLAMA уже занята другими пакетами
+                boolean backendBusy = inFlight.availablePermits() < MAX_IN_FLIGHT;
+                long deadline = System.nanoTime() + (backendBusy ? windowNanos : 0);
+
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingEmbedding next = remaining > 0
+                            ? queue.poll(remaining, TimeUnit.NANOSECONDS)
+                            : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                inFlight.acquire();
+                dispatcher.execute(() -> {
+                    try {
+                        dispatch(batch);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        // Завершаем оставшиеся запросы
+        PendingEmbedding pending;
+        while ((pending = queue.poll()) != null) {
+            pending.future.completeExceptionally(new IllegalStateException("Батчер эмбеддингов остановлен"));
+        }
+    }
+
+    private void dispatch(List<PendingEmbedding> batch) {
+        try {
+            List<String> texts = new ArrayList<>(batch.size());
+            for (PendingEmbedding pending : batch) {
+                texts.add(pending.text);
+            }
+
+            List<double[]> embeddings = embeddingService.getEmbeddings(texts);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future.complete(embeddings.get(i));
+            }
+        } catch (Exception e) {
+            for (PendingEmbedding pending : batch) {
+                pending.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+        collector.interrupt();
+        dispatcher.shutdown();
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    private static class PendingEmbedding {
+        final String text;
+        final CompletableFuture<double[]> future;
+
+        PendingEmbedding(String text, CompletableFuture<double[]> future) {
+            this.text = text;
+            this.future = future;
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.example.aiassistant.service;
 
+import com.example.aiassistant.jfr.EmbeddingEvent;
+import com.example.aiassistant.util.Metrics;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import java.net.URI;
@@ -10,9 +12,14 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class EmbeddingService {
+    // Размер пакета для /api/embed по умолчанию
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
     private final HttpClient httpClient;
     private String ollamaHost;
     private String embeddingModel;
+    private volatile int batchSize = DEFAULT_BATCH_SIZE;
+    private volatile EmbeddingBatcher batcher;
 
     public EmbeddingService(String ollamaHost, String embeddingModel) {
         this.httpClient = HttpClient.newBuilder()
@@ -24,6 +31,8 @@ public class EmbeddingService {
     }
 
     public double[] getEmbedding(String text) {
+        EmbeddingEvent event = new EmbeddingEvent();
+        event.begin();
         try {
             // Подготовка JSON запроса
             JSONObject requestJson = new JSONObject();
@@ -53,6 +62,14 @@ public class EmbeddingService {
                     embedding[i] = embeddingArray.getDouble(i);
                 }
 
+                if (event.shouldCommit()) {
+                    event.model = embeddingModel;
+                    event.textCount = 1;
+                    event.textLength = text.length();
+                    event.dimension = embedding.length;
+                    event.responseSize = response.body().length();
+                    event.commit();
+                }
                 return embedding;
 
             } else {
@@ -60,17 +77,117 @@ public class EmbeddingService {
                         " - " + response.body());
             }
 
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Получение эмбеддинга прервано", e);
         } catch (Exception e) {
-            System.err.println("Ошибка получения эмбеддинга: " + e.getMessage());
+            // Без псевдо-вектора: он попал бы в базу и испортил поиск, а задача загрузки
+            // не узнала бы об ошибке
+            throw new RuntimeException("Ошибка получения эмбеддинга: " + e.getMessage(), e);
+        }
+    }
+
+    // Пакетное получение эмбеддингов через /api/embed (порядок результатов совпадает с порядком текстов)
+    public List<double[]> getEmbeddings(List<String> texts) {
+        List<double[]> result = new ArrayList<>(texts.size());
+        String model = embeddingModel;
+        int size = Math.max(1, batchSize);
+
+        for (int from = 0; from < texts.size(); from += size) {
+            List<String> batch = texts.subList(from, Math.min(from + size, texts.size()));
+            try {
+                result.addAll(requestBatch(model, batch));
+            } catch (Exception e) {
+                // Поштучный режим - для серверов без /api/embed; его ошибки уходят вызывающему
+                System.err.println("Ошибка пакетного получения эмбеддингов (" + batch.size() +
+                        " текстов), переход на поштучный режим: " + e.getMessage());
+                for (String text : batch) {
+                    result.add(getEmbedding(text));
+                }
+            }
+        }
+
+        return result;
+    }
+
+    // Эмбеддинг через микро-батчер: одновременные запросы из разных потоков объединяются в пакеты
+    public double[] getEmbeddingBatched(String text) {
+        return getBatcher().submit(text).join();
+    }
+
+    private List<double[]> requestBatch(String model, List<String> batch) throws Exception {
+        EmbeddingEvent event = new EmbeddingEvent();
+        event.begin();
+        JSONObject requestJson = new JSONObject();
+        requestJson.put("model", model);
+        requestJson.put("input", new JSONArray(batch));
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(ollamaHost + "/api/embed"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(requestJson.toString()))
+                .build();
+
+        HttpResponse<String> response = httpClient.send(
+                request,
+                HttpResponse.BodyHandlers.ofString()
+        );
+
+        if (response.statusCode() != 200) {
+            throw new RuntimeException("HTTP ошибка: " + response.statusCode() +
+                    " - " + response.body());
+        }
 
-            // Возвращаем случайный эмбеддинг в случае ошибки (для отладки)
-            if (text == null || text.trim().isEmpty()) {
-                return new double[384]; // Размер по умолчанию
+        JSONArray embeddingsArray = new JSONObject(response.body()).getJSONArray("embeddings");
+        if (embeddingsArray.length() != batch.size()) {
+            throw new RuntimeException("Ожидалось " + batch.size() + " эмбеддингов, получено " +
+                    embeddingsArray.length());
+        }
+
+        List<double[]> embeddings = new ArrayList<>(batch.size());
+        for (int i = 0; i < embeddingsArray.length(); i++) {
+            JSONArray embeddingArray = embeddingsArray.getJSONArray(i);
+            double[] embedding = new double[embeddingArray.length()];
+            for (int j = 0; j < embeddingArray.length(); j++) {
+                embedding[j] = embeddingArray.getDouble(j);
             }
+            embeddings.add(embedding);
+        }
 
-            // Простой хэш-эмбеддинг для резервного варианта
-            return createSimpleEmbedding(text);
+        if (event.shouldCommit()) {
+            long textLength = 0;
+            for (String text : batch) {
+                textLength += text.length();
+            }
+            event.model = model;
+            event.textCount = batch.size();
+            event.textLength = textLength;
+            event.dimension = embeddings.isEmpty() ? 0 : embeddings.get(0).length;
+            event.batched = true;
+            event.responseSize = response.body().length();
+            event.commit();
         }
+        return embeddings;
+    }
+
+    // Тексты, ожидающие отправки в OLLAMA
+    public int getPendingEmbeddings() {
+        EmbeddingBatcher current = batcher;
+        return current != null ? current.getQueueDepth() : 0;
+    }
+
+    // Батчер и метрика его очереди создаются при первом запросе, а не в конструкторе
+    private synchronized EmbeddingBatcher getBatcher() {
+        if (batcher == null) {
+            EmbeddingBatcher created = new EmbeddingBatcher(this, EmbeddingBatcher.DEFAULT_WINDOW_MS, batchSize);
+            created.start();
+            batcher = created;
+            Metrics.gauge("ai_embedding_queue_depth", "", "Текстов в очереди микро-батчера эмбеддингов",
+                    this::getPendingEmbeddings);
+        }
+        return batcher;
     }
 
     // Новый метод для получения списка моделей, поддерживающих эмбеддинги
@@ -139,39 +256,34 @@ public class EmbeddingService {
         }
     }
 
-    private double[] createSimpleEmbedding(String text) {
-        // Простой метод создания эмбеддинга на основе хэша
-        // Используется только при недоступности OLLAMA
-        int dimension = 384;
-        double[] embedding = new double[dimension];
+    public void setEmbeddingModel(String modelName) {
+        this.embeddingModel = modelName;
+        System.out.println("Модель для эмбеддингов изменена на: " + modelName);
+    }
 
-        for (int i = 0; i < dimension; i++) {
-            String seed = text + i;
-            embedding[i] = (seed.hashCode() % 1000) / 1000.0;
-        }
+    public String getEmbeddingModel() {
+        return embeddingModel;
+    }
 
-        // Нормализация
-        double norm = 0.0;
-        for (double v : embedding) {
-            norm += v * v;
+    // Действует и на пакетные запросы, и на уже работающий микро-батчер
+    public synchronized void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Размер пакета должен быть положительным");
         }
-        norm = Math.sqrt(norm);
-
-        if (norm > 0) {
-            for (int i = 0; i < dimension; i++) {
-                embedding[i] /= norm;
-            }
+        this.batchSize = batchSize;
+        if (batcher != null) {
+            batcher.setMaxBatchSize(batchSize);
         }
-
-        return embedding;
     }
 
-    public void setEmbeddingModel(String modelName) {
-        this.embeddingModel = modelName;
-        System.out.println("Модель для эмбеддингов изменена на: " + modelName);
+    public int getBatchSize() {
+        return batchSize;
     }
 
-    public String getEmbeddingModel() {
-        return embeddingModel;
+    public synchronized void shutdown() {
+        if (batcher != null) {
+            batcher.shutdown();
+            batcher = null;
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,122 @@
+package com.example.aiassistant.service;
+
+import com.example.aiassistant.model.KnowledgeDocument;
+import com.example.aiassistant.util.LatencyHistogram;
+import com.example.aiassistant.util.Metrics;
+import org.json.JSONObject;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+
+// Сравнение двух способов поиска на рабочем трафике: заданный процент запросов уходит в
+// кандидата, остальные - в основной. Оба работают поверх одной базы, изменения идут через основной.
+// Задержки каждого пишутся в свою гистограмму (getStats) и в метрики ai_vector_search_*.
+class ExperimentVectorStore implements VectorStore {
+    private final VectorStore primary;
+    private final VectorStore candidate;
+    private final String primaryName;
+    private final String candidateName;
+    private final int candidatePercent;
+    private final LatencyHistogram primaryLatency = new LatencyHistogram();
+    private final LatencyHistogram candidateLatency = new LatencyHistogram();
+    private final Metrics.Counter primarySearches;
+    private final Metrics.Counter candidateSearches;
+    private final Metrics.Counter primarySeconds;
+    private final Metrics.Counter candidateSeconds;
+
+    ExperimentVectorStore(VectorStore primary, String primaryName, VectorStore candidate, String candidateName,
+                          int candidatePercent) {
+        this.primary = primary;
+        this.candidate = candidate;
+        this.primaryName = primaryName;
+        this.candidateName = candidateName;
+        this.candidatePercent = candidatePercent;
+        String primaryLabel = "backend=\"" + primaryName + "\"";
+        String candidateLabel = "backend=\"" + candidateName + "\"";
+        this.primarySearches = Metrics.counter("ai_vector_search_total", primaryLabel, "Поисков в базе знаний");
+        this.candidateSearches = Metrics.counter("ai_vector_search_total", candidateLabel, "Поисков в базе знаний");
+        this.primarySeconds = Metrics.counter("ai_vector_search_seconds_total", primaryLabel,
+                "Суммарное время поиска в базе знаний, с");
+        this.candidateSeconds = Metrics.counter("ai_vector_search_seconds_total", candidateLabel,
+                "Суммарное время поиска в базе знаний, с");
+    }
+
+    @Override
+    public List<SearchResult> searchSimilar(double[] queryEmbedding, int topK, double threshold,
+                                            Predicate<KnowledgeDocument> filter) {
+        boolean useCandidate = ThreadLocalRandom.current().nextInt(100) < candidatePercent;
+        long start = System.nanoTime();
+        List<SearchResult> results = (useCandidate ? candidate : primary)
+                .searchSimilar(queryEmbedding, topK, threshold, filter);
+        long nanos = System.nanoTime() - start;
+        if (useCandidate) {
+            candidateLatency.recordNanos(nanos);
+            candidateSearches.increment();
+            candidateSeconds.add(nanos / 1_000_000_000.0);
+        } else {
+            primaryLatency.recordNanos(nanos);
+            primarySearches.increment();
+            primarySeconds.add(nanos / 1_000_000_000.0);
+        }
+        return results;
+    }
+
+    @Override
+    public void addDocument(KnowledgeDocument document, double[] embedding) {
+        primary.addDocument(document, embedding);
+    }
+
+    @Override
+    public int addDocuments(List<KnowledgeDocument> batch) {
+        return primary.addDocuments(batch);
+    }
+
+    @Override
+    public int removeDocuments(Predicate<KnowledgeDocument> condition) {
+        return primary.removeDocuments(condition);
+    }
+
+    @Override
+    public boolean flush() {
+        return primary.flush();
+    }
+
+    @Override
+    public Collection<KnowledgeDocument> getAllDocuments() {
+        return primary.getAllDocuments();
+    }
+
+    @Override
+    public int getDocumentCount() {
+        return primary.getDocumentCount();
+    }
+
+    @Override
+    public double getMemoryUsagePercentage() {
+        return primary.getMemoryUsagePercentage();
+    }
+
+    @Override
+    public JSONObject getStats() {
+        JSONObject stats = primary.getStats();
+        JSONObject experiment = new JSONObject();
+        experiment.put("candidate", candidate.getStats());
+        experiment.put("candidate_percent", candidatePercent);
+        JSONObject latency = new JSONObject();
+        latency.put(primaryName, latencyJSON(primaryLatency));
+        latency.put(candidateName, latencyJSON(candidateLatency));
+        experiment.put("latency", latency);
+        stats.put("experiment", experiment);
+        return stats;
+    }
+
+    private static JSONObject latencyJSON(LatencyHistogram histogram) {
+        JSONObject json = new JSONObject();
+        json.put("count", histogram.getCount());
+        json.put("p50_ms", histogram.percentileMicros(0.5) / 1000.0);
+        json.put("p99_ms", histogram.percentileMicros(0.99) / 1000.0);
+        return json;
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.aiassistant.service;
+
+import org.json.JSONObject;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Задание загрузки знаний: счетчики прохождения документов по стадиям конвейера
+public class IngestionJob {
+    public enum Status {
+        RUNNING,
+        COMPLETED,
+        FAILED
+    }
+
+    // Минимальный интервал между уведомлениями слушателей о прогрессе
+    private static final long PROGRESS_INTERVAL_MS = 250;
+
+    private final String id;
+    private final String name;
+    private final long startedAt;
+    private volatile long finishedAt;
+    private volatile Status status = Status.RUNNING;
+    private volatile boolean closed = false;
+    private volatile String lastError;
+
+    final AtomicLong documentsSubmitted = new AtomicLong();
+    final AtomicLong documentsChunked = new AtomicLong();
+    final AtomicLong chunksCreated = new AtomicLong();
+    final AtomicLong chunksEmbedded = new AtomicLong();
+    final AtomicLong chunksIndexed = new AtomicLong();
+    final AtomicLong chunksPersisted = new AtomicLong();
+    final AtomicLong chunksFailed = new AtomicLong();
+
+    private final List<Consumer<IngestionJob>> listeners = new CopyOnWriteArrayList<>();
+    private final CompletableFuture<IngestionJob> completion = new CompletableFuture<>();
+    private final AtomicLong lastNotification = new AtomicLong();
+
+    IngestionJob(String name) {
+        this.id = UUID.randomUUID().toString();
+        this.name = name;
+        this.startedAt = System.currentTimeMillis();
+    }
+
+    public void addListener(Consumer<IngestionJob> listener) {
+        listeners.add(listener);
+    }
+
+    // Ожидание завершения задания (все чанки записаны на диск)
+    public CompletableFuture<IngestionJob> completion() {
+        return completion;
+    }
+
+    void close() {
+        closed = true;
+        checkCompletion();
+    }
+
+    void fail(String error) {
+        lastError = error;
+    }
+
+    // Вызывается стадиями конвейера после изменения счетчиков
+    void progressChanged() {
+        if (!checkCompletion()) {
+            long now = System.currentTimeMillis();
+            long last = lastNotification.get();
+            if (now - last >= PROGRESS_INTERVAL_MS && lastNotification.compareAndSet(last, now)) {
+                notifyListeners();
+            }
+        }
+    }
+
+    private boolean checkCompletion() {
+        if (status != Status.RUNNING || !closed) {
+            return status != Status.RUNNING;
+        }
+        if (documentsChunked.get() < documentsSubmitted.get()) {
+            return false;
+        }
+        if (chunksPersisted.get() + chunksFailed.get() < chunksCreated.get()) {
+            return false;
+        }
+
+        synchronized (this) {
+            if (status != Status.RUNNING) {
+                return true;
+            }
+            boolean nothingStored = chunksCreated.get() > 0 && chunksFailed.get() == chunksCreated.get();
+            status = nothingStored ? Status.FAILED : Status.COMPLETED;
+            finishedAt = System.currentTimeMillis();
+        }
+
+        notifyListeners();
+        completion.complete(this);
+        return true;
+    }
+
+    private void notifyListeners() {
+        for (Consumer<IngestionJob> listener : listeners) {
+            try {
+                listener.accept(this);
+            } catch (Exception e) {
+                System.err.println("Ошибка в обработчике прогресса загрузки: " + e.getMessage());
+            }
+        }
+    }
+
+    // Геттеры
+    public String getId() { return id; }
+    public String getName() { return name; }
+    public Status getStatus() { return status; }
+    public long getStartedAt() { return startedAt; }
+    public boolean isClosed() { return closed; }
+    public long getDocumentsSubmitted() { return documentsSubmitted.get(); }
+    public long getChunksCreated() { return chunksCreated.get(); }
+    public long getChunksPersisted() { return chunksPersisted.get(); }
+    public long getChunksFailed() { return chunksFailed.get(); }
+
+    public JSONObject toJSON() {
+        long now = finishedAt > 0 ? finishedAt : System.currentTimeMillis();
+        double elapsedSec = Math.max(1, now - startedAt) / 1000.0;
+
+        JSONObject json = new JSONObject();
+        json.put("job_id", id);
+        json.put("name", name);
+        json.put("status", status.name().toLowerCase());
+        json.put("closed", closed);
+        json.put("documents_submitted", documentsSubmitted.get());
+        json.put("documents_chunked", documentsChunked.get());
+        json.put("chunks_created", chunksCreated.get());
+        json.put("chunks_embedded", chunksEmbedded.get());
+        json.put("chunks_indexed", chunksIndexed.get());
+        json.put("chunks_persisted", chunksPersisted.get());
+        json.put("chunks_failed", chunksFailed.get());
+        json.put("chunks_per_second", Math.round(chunksIndexed.get() / elapsedSec * 10) / 10.0);
+        json.put("started_at", startedAt);
+        if (finishedAt > 0) {
+            json.put("finished_at", finishedAt);
+        }
+        if (lastError != null) {
+            json.put("last_error", lastError);
+        }
+        return json;
+    }
+}
@@ -0,0 +1,468 @@
+package com.example.aiassistant.service;
+
+import com.example.aiassistant.model.KnowledgeDocument;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Конвейер массовой загрузки знаний: чанкинг -> эмбеддинги -> индекс -> запись на диск.
+// Стадии связаны ограниченными очередями, поэтому при перегрузке submit() блокирует
+// вызывающий поток (backpressure), а OLLAMA и локальные ядра заняты одновременно.
+public class IngestionPipeline {
+
+    // Параметры конвейера
+    public static class Config {
+        public int chunkWorkers = 2;
+        public int embedWorkers = 4;
+        public int indexWorkers = 2;
+        public int queueCapacity = 1024;
+        public int embedBatchSize = EmbeddingService.DEFAULT_BATCH_SIZE;
+        public int chunkSize = TextChunker.DEFAULT_CHUNK_SIZE;
+        public int chunkOverlap = TextChunker.DEFAULT_CHUNK_OVERLAP;
+        public int persistBatchSize = 5000;      // Запись на диск после стольких новых чанков
+        public long persistIntervalMs = 5000;    // ...или не реже этого интервала
+
+        public JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            json.put("chunk_workers", chunkWorkers);
+            json.put("embed_workers", embedWorkers);
+            json.put("index_workers", indexWorkers);
+            json.put("queue_capacity", queueCapacity);
+            json.put("embed_batch_size", embedBatchSize);
+            json.put("chunk_size", chunkSize);
+            json.put("chunk_overlap", chunkOverlap);
+            json.put("persist_batch_size", persistBatchSize);
+            json.put("persist_interval_ms", persistIntervalMs);
+            return json;
+        }
+    }
+
+    // Максимальное число заданий, хранимых для просмотра через API
+    private static final int MAX_FINISHED_JOBS = 100;
+    // Сколько shutdown() ждет, пока документы в очередях дойдут до индекса
+    private static final long SHUTDOWN_DRAIN_TIMEOUT_MS = 30000;
+
+    private final VectorStore vectorStore;
+    private final EmbeddingService embeddingService;
+    private final Config config;
+    private final TextChunker chunker;
+
+    private final BlockingQueue<SourceDocument> chunkQueue;
+    private final BlockingQueue<Chunk> embedQueue;
+    private final BlockingQueue<List<Chunk>> indexQueue;
+    private final BlockingQueue<Boolean> persistSignal;
+
+    private final Map<String, IngestionJob> jobs = new ConcurrentHashMap<>();
+    private final Map<IngestionJob, AtomicLong> unpersisted = new ConcurrentHashMap<>();
+    private final AtomicLong unpersistedTotal = new AtomicLong();
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running = true;
+    private volatile boolean accepting = true;
+    private final AtomicBoolean stopped = new AtomicBoolean();
+    // Документы и чанки внутри конвейера - от submit() до индекса или ошибки
+    private final AtomicLong inFlight = new AtomicLong();
+
+    public IngestionPipeline(VectorStore vectorStore, EmbeddingService embeddingService, Config config) {
+        this.vectorStore = vectorStore;
+        this.embeddingService = embeddingService;
+        this.config = config;
+        this.chunker = new TextChunker(config.chunkSize, config.chunkOverlap);
+
+        this.chunkQueue = new ArrayBlockingQueue<>(config.queueCapacity);
+        this.embedQueue = new ArrayBlockingQueue<>(config.queueCapacity);
+        this.indexQueue = new ArrayBlockingQueue<>(Math.max(1, config.queueCapacity / Math.max(1, config.embedBatchSize)) + config.embedWorkers);
+        this.persistSignal = new ArrayBlockingQueue<>(1);
+
+        startWorkers("ingest-chunk", config.chunkWorkers, this::chunkLoop);
+        startWorkers("ingest-embed", config.embedWorkers, this::embedLoop);
+        startWorkers("ingest-index", config.indexWorkers, this::indexLoop);
+        startWorkers("ingest-persist", 1, this::persistLoop);
+    }
+
+    public IngestionPipeline(VectorStore vectorStore, EmbeddingService embeddingService) {
+        this(vectorStore, embeddingService, new Config());
+    }
+
+    private void startWorkers(String name, int count, Runnable loop) {
+        for (int i = 0; i < Math.max(1, count); i++) {
+            Thread thread = new Thread(loop, name + "-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            workers.add(thread);
+        }
+    }
+
+    // Создание нового задания загрузки
+    public IngestionJob createJob(String name) {
+        IngestionJob job = new IngestionJob(name);
+        jobs.put(job.getId(), job);
+        unpersisted.put(job, new AtomicLong());
+        job.addListener(this::onJobProgress);
+        evictFinishedJobs();
+        return job;
+    }
+
+    // Добавление документа в задание. Блокирует вызывающий поток, если конвейер заполнен.
+    public void submit(IngestionJob job, String content, String source, JSONObject metadata) throws InterruptedException {
+        if (!accepting) {
+            throw new IllegalStateException("Конвейер загрузки остановлен");
+        }
+        if (job.isClosed()) {
+            throw new IllegalStateException("Задание " + job.getId() + " уже закрыто");
+        }
+        job.documentsSubmitted.incrementAndGet();
+        inFlight.incrementAndGet();
+        try {
+            chunkQueue.put(new SourceDocument(job, content, source, metadata));
+        } catch (InterruptedException e) {
+            inFlight.decrementAndGet();
+            throw e;
+        }
+    }
+
+    // Закрытие задания: новых документов больше не будет
+    public void close(IngestionJob job) {
+        job.close();
+        signalPersist();
+    }
+
+    // Загрузка списка документов одним заданием
+    public IngestionJob ingest(String name, List<KnowledgeDocument> documents) throws InterruptedException {
+        IngestionJob job = createJob(name);
+        for (KnowledgeDocument document : documents) {
+            submit(job, document.getContent(), document.getSource(), document.getMetadata());
+        }
+        close(job);
+        return job;
+    }
+
+    // Стадия 1: разбиение на чанки
+    private void chunkLoop() {
+        while (running) {
+            SourceDocument source;
+            try {
+                source = chunkQueue.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (source == null) {
+                continue;
+            }
+
+            IngestionJob job = source.job;
+            int created = 0;
+            int sent = 0;
+            try {
+                List<String> parts = chunker.split(source.content);
+                String parentId = parts.size() > 1 ? UUID.randomUUID().toString() : null;
+                created = parts.size();
+                job.chunksCreated.addAndGet(created);
+
+                for (int i = 0; i < parts.size(); i++) {
+                    JSONObject metadata = source.metadata != null
+                            ? new JSONObject(source.metadata.toString())
+                            : new JSONObject();
+                    if (parentId != null) {
+                        metadata.put("parent_id", parentId);
+                        metadata.put("chunk_index", i);
+                        metadata.put("chunk_count", parts.size());
+                    }
+                    metadata.put("ingest_job", job.getId());
+
+                    KnowledgeDocument document = new KnowledgeDocument(parts.get(i), source.source, metadata);
+                    inFlight.incrementAndGet();
+                    try {
+                        embedQueue.put(new Chunk(job, document));
+                    } catch (InterruptedException e) {
+                        inFlight.decrementAndGet();
+                        throw e;
+                    }
+                    sent++;
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                job.fail("Ошибка чанкинга: " + e.getMessage());
+                job.chunksFailed.addAndGet(created - sent);
+            } finally {
+                inFlight.decrementAndGet();
+                job.documentsChunked.incrementAndGet();
+                job.progressChanged();
+            }
+        }
+    }
+
+    // Стадия 2: пакетное получение эмбеддингов
+    private void embedLoop() {
+        while (running) {
+            List<Chunk> batch = new ArrayList<>(config.embedBatchSize);
+            try {
+                Chunk first = embedQueue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                embedQueue.drainTo(batch, config.embedBatchSize - 1);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            List<double[]> vectors;
+            try {
+                List<String> texts = new ArrayList<>(batch.size());
+                for (Chunk chunk : batch) {
+                    texts.add(chunk.document.getContent());
+                }
+                vectors = embeddingService.getEmbeddings(texts);
+                if (vectors.size() != batch.size()) {
+                    throw new IllegalStateException("получено " + vectors.size() + " эмбеддингов на " +
+                            batch.size() + " текстов");
+                }
+            } catch (Exception e) {
+                for (Chunk chunk : batch) {
+                    markFailed(chunk.job, 1, "Ошибка получения эмбеддингов: " + e.getMessage());
+                }
+                inFlight.addAndGet(-batch.size());
+                continue;
+            }
+
+            List<Chunk> embedded = new ArrayList<>(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                Chunk chunk = batch.get(i);
+                double[] vector = vectors.get(i);
+                if (vector == null || vector.length == 0) {
+                    markFailed(chunk.job, 1, "Пустой эмбеддинг");
+                    inFlight.decrementAndGet();
+                    continue;
+                }
+                chunk.document.setEmbedding(vector);
+                chunk.job.chunksEmbedded.incrementAndGet();
+                embedded.add(chunk);
+            }
+
+            try {
+                if (!embedded.isEmpty()) {
+                    indexQueue.put(embedded);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    // Стадия 3: вставка в индекс в памяти
+    private void indexLoop() {
+        while (running) {
+            List<Chunk> batch;
+            try {
+                batch = indexQueue.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (batch == null) {
+                continue;
+            }
+
+            List<KnowledgeDocument> documents = new ArrayList<>(batch.size());
+            for (Chunk chunk : batch) {
+                documents.add(chunk.document);
+            }
+
+            try {
+                vectorStore.addDocuments(documents);
+                for (Chunk chunk : batch) {
+                    chunk.job.chunksIndexed.incrementAndGet();
+                    unpersisted.computeIfAbsent(chunk.job, j -> new AtomicLong()).incrementAndGet();
+                }
+                if (unpersistedTotal.addAndGet(batch.size()) >= config.persistBatchSize) {
+                    signalPersist();
+                }
+            } catch (Exception e) {
+                for (Chunk chunk : batch) {
+                    markFailed(chunk.job, 1, "Ошибка индексации: " + e.getMessage());
+                }
+            } finally {
+                inFlight.addAndGet(-batch.size());
+            }
+
+            for (Chunk chunk : batch) {
+                if (chunk.job.isClosed()) {
+                    signalPersist();
+                    break;
+                }
+            }
+        }
+    }
+
+    // Стадия 4: запись на диск пачками, а не после каждого документа
+    private void persistLoop() {
+        while (running) {
+            try {
+                persistSignal.poll(config.persistIntervalMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                persistPending();
+                return;
+            }
+            persistPending();
+        }
+    }
+
+    private void persistPending() {
+        // Снимок до записи: все, что проиндексировано до него, попадет в файл
+        Map<IngestionJob, Long> snapshot = new HashMap<>();
+        for (Map.Entry<IngestionJob, AtomicLong> entry : unpersisted.entrySet()) {
+            long count = entry.getValue().getAndSet(0);
+            if (count > 0) {
+                snapshot.put(entry.getKey(), count);
+            }
+        }
+        if (snapshot.isEmpty()) {
+            // Отложенные изменения вне конвейера (например, удаления) тоже попадают на диск
+            vectorStore.flush();
+            return;
+        }
+
+        long total = 0;
+        for (long count : snapshot.values()) {
+            total += count;
+        }
+        unpersistedTotal.addAndGet(-total);
+
+        try {
+            vectorStore.flush();
+            for (Map.Entry<IngestionJob, Long> entry : snapshot.entrySet()) {
+                entry.getKey().chunksPersisted.addAndGet(entry.getValue());
+                entry.getKey().progressChanged();
+            }
+        } catch (Exception e) {
+            for (Map.Entry<IngestionJob, Long> entry : snapshot.entrySet()) {
+                markFailed(entry.getKey(), entry.getValue(), "Ошибка записи на диск: " + e.getMessage());
+            }
+        }
+    }
+
+    private void signalPersist() {
+        persistSignal.offer(Boolean.TRUE);
+    }
+
+    private void markFailed(IngestionJob job, long count, String error) {
+        job.fail(error);
+        job.chunksFailed.addAndGet(count);
+        job.progressChanged();
+    }
+
+    private void onJobProgress(IngestionJob job) {
+        if (job.getStatus() != IngestionJob.Status.RUNNING) {
+            unpersisted.remove(job);
+            System.out.println("[Загрузка " + job.getName() + " завершена: " +
+                    job.getChunksPersisted() + " чанков сохранено, " +
+                    job.getChunksFailed() + " с ошибками]");
+        }
+    }
+
+    private void evictFinishedJobs() {
+        if (jobs.size() <= MAX_FINISHED_JOBS) {
+            return;
+        }
+        jobs.values().stream()
+                .filter(job -> job.getStatus() != IngestionJob.Status.RUNNING)
+                .sorted((a, b) -> Long.compare(a.getStartedAt(), b.getStartedAt()))
+                .limit(jobs.size() - MAX_FINISHED_JOBS)
+                .forEach(job -> jobs.remove(job.getId()));
+    }
+
+    public IngestionJob getJob(String jobId) {
+        return jobs.get(jobId);
+    }
+
+    public JSONObject getStatus() {
+        JSONObject status = new JSONObject();
+        status.put("running", running);
+        status.put("config", config.toJSON());
+
+        JSONObject queues = new JSONObject();
+        queues.put("chunk", chunkQueue.size());
+        queues.put("embed", embedQueue.size());
+        queues.put("index", indexQueue.size());
+        queues.put("unpersisted", unpersistedTotal.get());
+        status.put("queues", queues);
+
+        JSONArray jobsArray = new JSONArray();
+        for (IngestionJob job : jobs.values()) {
+            jobsArray.put(job.toJSON());
+        }
+        status.put("jobs", jobsArray);
+        return status;
+    }
+
+    // Остановка конвейера: новые документы не принимаются, принятые доходят до индекса
+    // (не дольше SHUTDOWN_DRAIN_TIMEOUT_MS), затем все проиндексированное записывается на диск.
+    // Возвращается после записи; повторный вызов ничего не делает.
+    public void shutdown() {
+        if (!stopped.compareAndSet(false, true)) {
+            return;
+        }
+        accepting = false;
+        long deadline = System.currentTimeMillis() + SHUTDOWN_DRAIN_TIMEOUT_MS;
+        try {
+            while (inFlight.get() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (inFlight.get() > 0) {
+            System.err.println("Конвейер загрузки остановлен до обработки " + inFlight.get() +
+                    " документов и чанков");
+        }
+
+        running = false;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        persistPending();
+    }
+
+    private static class SourceDocument {
+        final IngestionJob job;
+        final String content;
+        final String source;
+        final JSONObject metadata;
+
+        SourceDocument(IngestionJob job, String content, String source, JSONObject metadata) {
+            this.job = job;
+            this.content = content;
+            this.source = source;
+            this.metadata = metadata;
+        }
+    }
+
+    private static class Chunk {
+        final IngestionJob job;
+        final KnowledgeDocument document;
+
+        Chunk(IngestionJob job, KnowledgeDocument document) {
+            this.job = job;
+            this.document = document;
+        }
+    }
+}
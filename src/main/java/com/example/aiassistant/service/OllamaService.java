@@ -1,6 +1,9 @@
 package com.example.aiassistant.service;
 
+import com.example.aiassistant.jfr.LlmRequestEvent;
+import com.example.aiassistant.util.Metrics;
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 import java.net.URI;
 import java.net.http.HttpClient;
@@ -8,11 +11,13 @@ import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 public class OllamaService {
     private final HttpClient httpClient;
@@ -72,6 +77,11 @@ public class OllamaService {
 
     // Метод для чата с потоковой передачей и поддержкой кэша
     public String sendChatRequest(List<JSONObject> messages, boolean stream) {
+        return sendChatRequest(messages, stream, streamingCallback);
+    }
+
+    // tokenCallback получает токены только этого запроса - одновременные запросы не мешают друг другу
+    public String sendChatRequest(List<JSONObject> messages, boolean stream, Consumer<String> tokenCallback) {
         try {
             JSONObject requestJson = new JSONObject();
             requestJson.put("model", modelName);
@@ -86,7 +96,7 @@ public class OllamaService {
                     .build();
 
             if (stream) {
-                return sendStreamingRequest(request, true);
+                return sendStreamingRequest(request, true, tokenCallback);
             } else {
                 return sendBlockingRequest(request);
             }
@@ -99,6 +109,10 @@ public class OllamaService {
 
     // Метод для генерации (без истории) с потоковой передачей и поддержкой кэша
     public String sendGenerateRequest(String prompt, boolean stream) {
+        return sendGenerateRequest(prompt, stream, streamingCallback);
+    }
+
+    public String sendGenerateRequest(String prompt, boolean stream, Consumer<String> tokenCallback) {
         try {
             JSONObject requestJson = new JSONObject();
             requestJson.put("model", modelName);
@@ -113,7 +127,7 @@ public class OllamaService {
                     .build();
 
             if (stream) {
-                return sendStreamingRequest(request, false);
+                return sendStreamingRequest(request, false, tokenCallback);
             } else {
                 return sendBlockingRequest(request);
             }
@@ -126,22 +140,58 @@ public class OllamaService {
 
     // Универсальный метод для отправки запроса с выбором режима и подстановкой промпта
     public String sendRequest(String query, String context, String history, boolean stream) {
+        return sendRequest(query, context, history, stream, streamingCallback);
+    }
+
+    public String sendRequest(String query, String context, String history, boolean stream,
+                              Consumer<String> tokenCallback) {
+        LlmRequestEvent event = new LlmRequestEvent();
+        event.begin();
+        long buildStart = System.nanoTime();
+        String prompt;
         if (useChatMode) {
             // Используем режим чата
-            String prompt = chatPromptTemplate
+            prompt = chatPromptTemplate
                     .replace("{query}", query)
                     .replace("{context}", context != null ? context : "")
                     .replace("{history}", history != null ? history : "");
-
-            return sendGenerateRequest(prompt, stream);
         } else {
             // Используем режим генерации
-            String prompt = generationPromptTemplate
+            prompt = generationPromptTemplate
                     .replace("{query}", query)
                     .replace("{context}", context != null ? context : "");
+        }
+        Metrics.recordStage(Metrics.Stage.PROMPT_BUILD, buildStart);
+
+        if (!event.isEnabled()) {
+            return sendGenerateRequest(prompt, stream, tokenCallback);
+        }
 
-            return sendGenerateRequest(prompt, stream);
+        // Токены считаются, только когда событие записывается
+        int[] tokenCount = {0};
+        long requestStart = System.nanoTime();
+        Consumer<String> countingCallback = token -> {
+            if (tokenCount[0]++ == 0) {
+                event.timeToFirstToken = System.nanoTime() - requestStart;
+            }
+            if (tokenCallback != null) {
+                tokenCallback.accept(token);
+            }
+        };
+        String response = sendGenerateRequest(prompt, stream, countingCallback);
+
+        if (event.shouldCommit()) {
+            event.model = modelName;
+            event.chatMode = useChatMode;
+            event.stream = stream;
+            event.promptLength = prompt.length();
+            event.contextLength = context != null ? context.length() : 0;
+            event.historyLength = history != null ? history.length() : 0;
+            event.tokenCount = tokenCount[0];
+            event.responseLength = response != null ? response.length() : 0;
+            event.commit();
         }
+        return response;
     }
 
     // Метод для очистки кэша модели
@@ -232,41 +282,45 @@ public class OllamaService {
         }
     }
 
-    private String sendStreamingRequest(HttpRequest request, boolean isChat) throws Exception {
+    private String sendStreamingRequest(HttpRequest request, boolean isChat, Consumer<String> tokenCallback) throws Exception {
         StringBuilder fullResponse = new StringBuilder();
 
         CompletableFuture<Void> future = httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofLines())
                 .thenAccept(response -> {
                     if (response.statusCode() == 200) {
-                        response.body().forEach(line -> {
-                            if (!line.trim().isEmpty()) {
-                                try {
-                                    JSONObject json = new JSONObject(line);
-                                    String content = null;
-
-                                    if (isChat && json.has("message")) {
-                                        content = json.getJSONObject("message").getString("content");
-                                    } else if (json.has("response")) {
-                                        content = json.getString("response");
-                                    } else if (json.has("message") && json.getJSONObject("message").has("content")) {
-                                        content = json.getJSONObject("message").getString("content");
-                                    }
+                        // Закрытие потока строк разрывает соединение с OLLAMA - так прерывается
+                        // генерация, если обработчик токенов бросил исключение (отмена клиентом)
+                        try (Stream<String> lines = response.body()) {
+                            lines.forEach(line -> {
+                                if (!line.trim().isEmpty()) {
+                                    try {
+                                        JSONObject json = new JSONObject(line);
+                                        String content = null;
+
+                                        if (isChat && json.has("message")) {
+                                            content = json.getJSONObject("message").getString("content");
+                                        } else if (json.has("response")) {
+                                            content = json.getString("response");
+                                        } else if (json.has("message") && json.getJSONObject("message").has("content")) {
+                                            content = json.getJSONObject("message").getString("content");
+                                        }
 
-                                    if (content != null && !content.isEmpty()) {
-                                        // Вызываем callback, если он установлен
-                                        if (streamingCallback != null) {
-                                            streamingCallback.accept(content);
-                                        } else {
-                                            System.out.print(content);
+                                        if (content != null && !content.isEmpty()) {
+                                            // Вызываем callback, если он установлен
+                                            if (tokenCallback != null) {
+                                                tokenCallback.accept(content);
+                                            } else {
+                                                System.out.print(content);
+                                            }
+                                            fullResponse.append(content);
                                         }
-                                        fullResponse.append(content);
-                                    }
 
-                                } catch (Exception e) {
-                                    // Пропускаем ошибки парсинга для потоковых данных
+                                    } catch (JSONException e) {
+                                        // Пропускаем ошибки парсинга для потоковых данных
+                                    }
                                 }
-                            }
-                        });
+                            });
+                        }
                     } else {
                         System.err.println("HTTP ошибка: " + response.statusCode());
                     }
@@ -278,7 +332,13 @@ public class OllamaService {
         } catch (TimeoutException e) {
             System.err.println("Таймаут при получении потокового ответа");
             future.cancel(true);
-        } catch (InterruptedException | ExecutionException e) {
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CancellationException) {
+                System.out.println("\n[Генерация прервана: " + e.getCause().getMessage() + "]");
+            } else {
+                System.err.println("Ошибка при получении потокового ответа: " + e.getMessage());
+            }
+        } catch (InterruptedException e) {
             System.err.println("Ошибка при получении потокового ответа: " + e.getMessage());
         }
 
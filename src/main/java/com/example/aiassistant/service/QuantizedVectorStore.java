@@ -0,0 +1,131 @@
+package com.example.aiassistant.service;
+
+import com.example.aiassistant.index.IvfIndex;
+import com.example.aiassistant.index.ScalarQuantizedIndex;
+import com.example.aiassistant.jfr.VectorSearchEvent;
+import com.example.aiassistant.model.EmbeddingVector;
+import com.example.aiassistant.model.KnowledgeDocument;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+// Поиск перебором по квантованным векторам (ScalarQuantizedIndex) с уточнением лучших кандидатов
+// по исходным векторам базы. Индекс строится при создании и дальше следует за изменениями базы.
+class QuantizedVectorStore extends VectorStoreView {
+    // Кандидатов на один результат для уточнения по точной схожести
+    private static final int RESCORE_FACTOR = 4;
+    private static final int MIN_CANDIDATES = 32;
+
+    private volatile ScalarQuantizedIndex quantized;
+    private final VectorDBService.ChangeListener listener;
+
+    QuantizedVectorStore(VectorDBService storage) {
+        super(storage);
+        long start = System.nanoTime();
+        listener = new VectorDBService.ChangeListener() {
+            @Override
+            public void documentsAdded(List<KnowledgeDocument> added) {
+                for (KnowledgeDocument document : added) {
+                    // Из базы, а не из документа: с векторами на диске у документа вектора нет
+                    EmbeddingVector vector = storage.getEmbeddingVector(document.getId());
+                    if (vector == null) {
+                        continue;
+                    }
+                    double[] embedding = vector.getVector();
+                    // Размерность - по первому документу, как у индекса IVF
+                    if (quantized == null) {
+                        quantized = new ScalarQuantizedIndex(embedding.length);
+                    }
+                    quantized.add(document.getId(), embedding);
+                }
+            }
+
+            @Override
+            public void documentsRemoved(List<String> removedIds) {
+                ScalarQuantizedIndex index = quantized;
+                if (index != null) {
+                    for (String id : removedIds) {
+                        index.remove(id);
+                    }
+                }
+            }
+        };
+        storage.addChangeListener(listener);
+        ScalarQuantizedIndex index = quantized;
+        if (index != null) {
+            System.out.println("Квантованный индекс построен: " + index.size() + " векторов за " +
+                    (System.nanoTime() - start) / 1_000_000 + " мс");
+        }
+    }
+
+    @Override
+    public List<SearchResult> searchSimilar(double[] queryEmbedding, int topK, double threshold,
+                                            Predicate<KnowledgeDocument> filter) {
+        ScalarQuantizedIndex index = quantized;
+        if (index == null || index.getDimension() != queryEmbedding.length) {
+            return storage.searchExact(queryEmbedding, topK, threshold, filter);
+        }
+        VectorSearchEvent event = new VectorSearchEvent();
+        event.begin();
+
+        int candidates = Math.max(MIN_CANDIDATES, topK * RESCORE_FACTOR);
+        List<IvfIndex.Result> found = index.search(queryEmbedding, candidates);
+        EmbeddingVector queryVector = new EmbeddingVector("query", queryEmbedding);
+        List<SearchResult> results = new ArrayList<>();
+        boolean filtered = false;
+        for (IvfIndex.Result candidate : found) {
+            KnowledgeDocument document = storage.getDocument(candidate.id);
+            EmbeddingVector vector = storage.getEmbeddingVector(candidate.id);
+            if (document == null || vector == null) {
+                continue;
+            }
+            if (filter != null && !filter.test(document)) {
+                filtered = true;
+                continue;
+            }
+            double similarity = queryVector.cosineSimilarity(vector);
+            if (similarity >= threshold) {
+                results.add(new SearchResult(document, vector, similarity));
+            }
+        }
+        // Фильтр отсеял часть кандидатов, а подходящие документы могут быть дальше - точный перебор
+        if (filtered && results.size() < topK && found.size() == candidates) {
+            return storage.searchExact(queryEmbedding, topK, threshold, filter);
+        }
+
+        results.sort((a, b) -> Double.compare(b.similarity, a.similarity));
+        List<SearchResult> top = results.size() > topK ? new ArrayList<>(results.subList(0, topK)) : results;
+        if (event.shouldCommit()) {
+            event.documentCount = storage.getDocumentCount();
+            event.resultCount = top.size();
+            event.topK = topK;
+            event.threshold = threshold;
+            event.backend = "quantized";
+            event.commit();
+        }
+        return top;
+    }
+
+    @Override
+    void release() {
+        storage.removeChangeListener(listener);
+        quantized = null;
+    }
+
+    @Override
+    public JSONObject getStats() {
+        JSONObject stats = new JSONObject();
+        stats.put("type", "quantized");
+        stats.put("documents", storage.getDocumentCount());
+        ScalarQuantizedIndex index = quantized;
+        if (index != null) {
+            stats.put("vectors", index.size());
+            stats.put("dimension", index.getDimension());
+            stats.put("index_bytes", index.getMemoryBytes());
+        }
+        stats.put("rescore_factor", RESCORE_FACTOR);
+        return stats;
+    }
+}
@@ -1,23 +1,28 @@
 package com.example.aiassistant.service;
 
+import com.example.aiassistant.jfr.RagAnswerEvent;
 import com.example.aiassistant.model.ChatMessage;
 import com.example.aiassistant.model.KnowledgeDocument;
+import com.example.aiassistant.util.Metrics;
 import com.example.aiassistant.util.SpeakToText;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 public class RAGService {
-    private final VectorDBService vectorDB;
+    private final VectorStore vectorStore;
     private final EmbeddingService embeddingService;
     private final OllamaService ollamaService;
     private final SpeakToText speakToText;
-    private boolean inCodeBlock = false;
+    private IngestionPipeline ingestionPipeline;
 
-    public RAGService(VectorDBService vectorDB,
+    public RAGService(VectorStore vectorStore,
                       EmbeddingService embeddingService,
                       OllamaService ollamaService) {
-        this.vectorDB = vectorDB;
+        this.vectorStore = vectorStore;
         this.embeddingService = embeddingService;
         this.ollamaService = ollamaService;
         this.speakToText = new SpeakToText();
@@ -25,21 +30,38 @@ public class RAGService {
 
     // Основной метод получения ответа с RAG и историей
     public String getAnswerWithRAGAndHistory(String question, List<ChatMessage> chatHistory, boolean speechEnabled) {
+        return getAnswerWithRAGAndHistory(question, chatHistory, speechEnabled, null);
+    }
+
+    // listener получает найденные источники и токены ответа по мере генерации (может быть null)
+    public String getAnswerWithRAGAndHistory(String question, List<ChatMessage> chatHistory, boolean speechEnabled,
+                                             AnswerStreamListener listener) {
         System.out.println("\n[Поиск релевантной информации в базе знаний...]");
         System.out.println("Модель для эмбеддингов: " + embeddingService.getEmbeddingModel());
         System.out.println("Режим работы: " + (ollamaService.isUseChatMode() ? "ЧАТ" : "ГЕНЕРАЦИЯ"));
         System.out.println("Кэш: " + (ollamaService.isUseCache() ? "ВКЛ" : "ВЫКЛ"));
 
-        // Получаем эмбеддинг вопроса
-        double[] queryEmbedding = embeddingService.getEmbedding(question);
+        RagAnswerEvent event = new RagAnswerEvent();
+        event.begin();
+
+        // Получаем эмбеддинг вопроса (одновременные вопросы объединяются в один запрос к OLLAMA)
+        long stageStart = System.nanoTime();
+        double[] queryEmbedding = embeddingService.getEmbeddingBatched(question);
+        Metrics.recordStage(Metrics.Stage.QUERY_EMBEDDING, stageStart);
 
         // Ищем релевантные документы
-        String context = vectorDB.getContextForQuery(
-                question, queryEmbedding, 5, 0.5
-        );
+        stageStart = System.nanoTime();
+        List<VectorStore.SearchResult> sources = vectorStore.searchSimilar(queryEmbedding, 5, 0.5);
+        Metrics.recordStage(Metrics.Stage.VECTOR_SEARCH, stageStart);
 
+        stageStart = System.nanoTime();
+        String context = VectorStore.formatContext(sources);
         // Формируем историю диалога (исключая системное сообщение и текущий вопрос)
         String historyText = formatChatHistory(chatHistory);
+        Metrics.recordStage(Metrics.Stage.CONTEXT_ASSEMBLY, stageStart);
+        if (listener != null) {
+            listener.onSources(sources);
+        }
 
         // Отправляем запрос к LLM с потоковой передачей
         System.out.println("\n[Генерация ответа...]");
@@ -48,32 +70,58 @@ public class RAGService {
 
         StringBuilder fullResponse = new StringBuilder();
         StringBuilder currentSentence = new StringBuilder();
+        boolean[] inCodeBlock = {false};
+        int[] tokenCount = {0};
+        long generationStart = System.nanoTime();
+
+        // Обработчик потокового вывода - свой у каждого запроса
+        Consumer<String> tokenCallback = token -> {
+            if (listener != null && listener.isCancelled()) {
+                throw new CancellationException("Генерация отменена клиентом");
+            }
+            if (tokenCount[0]++ == 0) {
+                Metrics.recordStage(Metrics.Stage.TIME_TO_FIRST_TOKEN, generationStart);
+            }
 
-        // Создаем обработчик для потокового вывода
-        ollamaService.setStreamingCallback(token -> {
             // Обработка токенов для определения блоков кода
             if (token.contains("```")) {
-                inCodeBlock = !inCodeBlock;
+                inCodeBlock[0] = !inCodeBlock[0];
             }
 
             // Выводим только если не внутри блока кода
-            if (!inCodeBlock) {
+            if (!inCodeBlock[0]) {
                 System.out.print(token);
                 fullResponse.append(token);
                 currentSentence.append(token);
+                if (listener != null) {
+                    listener.onToken(token);
+                }
 
                 // Если включена озвучка, проверяем конец предложения
                 if (speechEnabled) {
                     processSentenceForSpeech(currentSentence, token);
                 }
             }
-        });
+        };
 
         // Получаем ответ с использованием подходящего промпта
-        String answer = ollamaService.sendRequest(question, context, historyText, true);
+        ollamaService.sendRequest(question, context, historyText, true, tokenCallback);
+        long generationNanos = System.nanoTime() - generationStart;
+        Metrics.Stage.GENERATION.getHistogram().recordNanos(generationNanos);
+        Metrics.recordGeneration(tokenCount[0], generationNanos);
 
         System.out.println("\n" + "-".repeat(50));
 
+        if (event.shouldCommit()) {
+            event.sourceCount = sources.size();
+            event.contextLength = context != null ? context.length() : 0;
+            event.historyLength = historyText != null ? historyText.length() : 0;
+            event.tokenCount = tokenCount[0];
+            event.answerLength = fullResponse.length();
+            event.speech = speechEnabled;
+            event.commit();
+        }
+
         return fullResponse.toString();
     }
 
@@ -139,18 +187,46 @@ public class RAGService {
         double[] embedding = embeddingService.getEmbedding(content);
 
         // Добавляем в векторную БД (которая сама сохраняет в файл)
-        vectorDB.addDocument(document, embedding);
+        vectorStore.addDocument(document, embedding);
 
         System.out.println("[Знания успешно добавлены. ID: " + document.getId() + "]");
     }
 
+    // Конвейер массовой загрузки (создается при первом обращении)
+    public synchronized IngestionPipeline getIngestionPipeline() {
+        if (ingestionPipeline == null) {
+            ingestionPipeline = new IngestionPipeline(vectorStore, embeddingService);
+        }
+        return ingestionPipeline;
+    }
+
+    // Остановка конвейера загрузки, если он создавался: принятые документы записываются на диск
+    public void shutdown() {
+        IngestionPipeline pipeline;
+        synchronized (this) {
+            pipeline = ingestionPipeline;
+        }
+        if (pipeline != null) {
+            pipeline.shutdown();
+        }
+    }
+
+    // Массовое добавление знаний через конвейер. Блокирует, пока конвейер заполнен.
+    public IngestionJob addKnowledgeBulk(String jobName, List<KnowledgeDocument> documents) throws InterruptedException {
+        System.out.println("\n[Массовая загрузка: " + documents.size() + " документов, модель эмбеддингов: " +
+                embeddingService.getEmbeddingModel() + "]");
+        return getIngestionPipeline().ingest(jobName, documents);
+    }
+
     // Получение статистики с информацией о кэше
     public JSONObject getStatistics() {
         JSONObject stats = new JSONObject();
-        stats.put("total_documents", vectorDB.getDocumentCount());
+        stats.put("total_documents", vectorStore.getDocumentCount());
         stats.put("memory_usage_percent",
-                String.format("%.2f%%", vectorDB.getMemoryUsagePercentage()));
+                String.format("%.2f%%", vectorStore.getMemoryUsagePercentage()));
         stats.put("embedding_model", embeddingService.getEmbeddingModel());
+        stats.put("embedding_batch_size", embeddingService.getBatchSize());
+        stats.put("vector_index", vectorStore.getStats());
         stats.put("llm_model", ollamaService.getModel());
         stats.put("use_chat_mode", ollamaService.isUseChatMode());
         stats.put("use_cache", ollamaService.isUseCache());
@@ -219,8 +295,13 @@ public class RAGService {
     }
 
     // Поиск в базе знаний
-    public List<VectorDBService.SearchResult> searchKnowledge(String query, int topK) {
-        double[] queryEmbedding = embeddingService.getEmbedding(query);
-        return vectorDB.searchSimilar(queryEmbedding, topK, 0.3);
+    public List<VectorStore.SearchResult> searchKnowledge(String query, int topK) {
+        return searchKnowledge(query, topK, null);
+    }
+
+    // filter - условие на документ, например источник; null - по всей базе
+    public List<VectorStore.SearchResult> searchKnowledge(String query, int topK, Predicate<KnowledgeDocument> filter) {
+        double[] queryEmbedding = embeddingService.getEmbeddingBatched(query);
+        return vectorStore.searchSimilar(queryEmbedding, topK, 0.3, filter);
     }
 }
\ No newline at end of file
@@ -0,0 +1,95 @@
+package com.example.aiassistant.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Разбиение длинных текстов на чанки для эмбеддингов.
+// Граница чанка ищется по абзацу, затем по концу предложения, затем по пробелу.
+public class TextChunker {
+    public static final int DEFAULT_CHUNK_SIZE = 1500;
+    public static final int DEFAULT_CHUNK_OVERLAP = 150;
+
+    private final int chunkSize;
+    private final int overlap;
+
+    public TextChunker(int chunkSize, int overlap) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Размер чанка должен быть положительным");
+        }
+        this.chunkSize = chunkSize;
+        this.overlap = Math.max(0, Math.min(overlap, chunkSize / 2));
+    }
+
+    public TextChunker() {
+        this(DEFAULT_CHUNK_SIZE, DEFAULT_CHUNK_OVERLAP);
+    }
+
+    public List<String> split(String text) {
+        List<String> chunks = new ArrayList<>();
+        if (text == null) {
+            return chunks;
+        }
+
+        String trimmed = text.trim();
+        if (trimmed.length() <= chunkSize) {
+            if (!trimmed.isEmpty()) {
+                chunks.add(trimmed);
+            }
+            return chunks;
+        }
+
+        int start = 0;
+        int length = trimmed.length();
+        while (start < length) {
+            int end = Math.min(start + chunkSize, length);
+            if (end < length) {
+                end = findBoundary(trimmed, start, end);
+            }
+
+            String chunk = trimmed.substring(start, end).trim();
+            if (!chunk.isEmpty()) {
+                chunks.add(chunk);
+            }
+            if (end >= length) {
+                break;
+            }
+
+            // Следующий чанк начинается с перекрытием, но всегда продвигается вперед
+            start = Math.max(end - overlap, start + 1);
+        }
+
+        return chunks;
+    }
+
+    private int findBoundary(String text, int start, int end) {
+        int minEnd = start + chunkSize / 2;
+
+        int paragraph = text.lastIndexOf("\n\n", end);
+        if (paragraph >= minEnd) {
+            return paragraph + 2;
+        }
+
+        for (int i = end - 1; i >= minEnd; i--) {
+            char c = text.charAt(i);
+            if ((c == '.' || c == '!' || c == '?' || c == '\n') &&
+                    i + 1 < text.length() && Character.isWhitespace(text.charAt(i + 1))) {
+                return i + 1;
+            }
+        }
+
+        int space = text.lastIndexOf(' ', end);
+        if (space >= minEnd) {
+            return space + 1;
+        }
+
+        return end;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getOverlap() {
+        return overlap;
+    }
+}
@@ -1,22 +1,35 @@
 package com.example.aiassistant.service;
 
+import com.example.aiassistant.index.IvfIndex;
+import com.example.aiassistant.io.VectorFile;
+import com.example.aiassistant.io.VectorFileWriter;
+import com.example.aiassistant.jfr.VectorSearchEvent;
 import com.example.aiassistant.model.EmbeddingVector;
 import com.example.aiassistant.model.KnowledgeDocument;
+import com.example.aiassistant.util.Metrics;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-public class VectorDBService {
+public final class VectorDBService implements VectorStore {
     private static VectorDBService instance;
 
     // Хранилища в оперативной памяти
@@ -24,72 +37,347 @@ public class VectorDBService {
     private final Map<String, EmbeddingVector> embeddings;
     private final List<String> index; // Для быстрого поиска
 
+    // Векторы на диске (способ поиска disk): векторы документов из файла не держатся в памяти,
+    // а читаются из него по смещению; в памяти - только векторы, еще не записанные в файл
+    private final boolean vectorsOnDisk;
+    private volatile Map<String, Long> embeddingOffsets = new ConcurrentHashMap<>();
+    private FileChannel vectorFile;
+    // Чтения векторов - под блокировкой чтения; замена файла после сохранения - под блокировкой записи
+    private final ReentrantReadWriteLock vectorFileLock = new ReentrantReadWriteLock();
+
     // Настройки
     private final String dataFilePath;
     private final long maxMemoryBytes = 70L * 1024 * 1024 * 1024; // 70 ГБ
+    private boolean dirty = false; // Есть изменения, не записанные на диск
+    // Изменения и запись на диск. ReentrantLock, а не synchronized: запись файла идет на виртуальных
+    // потоках RequestScheduler, а ожидание монитора на JDK 21 закрепляет поток-носитель
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    // Приближенный индекс (IVF), если рядом с базой лежит заранее построенный файл индекса
+    public static final String INDEX_FILE_EXTENSION = ".ivf";
+    // Дисковый индекс DiskANN (см. DiskAnnVectorStore)
+    public static final String DISKANN_FILE_EXTENSION = ".diskann";
+    private static final int DEFAULT_ANN_PROBES = 16;
+    // Файл индекса перезаписывается не при каждом сохранении базы, а после стольких изменений;
+    // при загрузке индекс догоняет базу (loadAnnIndex)
+    private static final int ANN_CHECKPOINT_CHANGES = 10000;
+    private volatile IvfIndex annIndex;
+    private int annChanges; // Изменений индекса после последней записи файла; под writeLock
+    private volatile boolean annSearchEnabled = true;
+    private volatile int annProbes = DEFAULT_ANN_PROBES;
+    // С фильтром из индекса берется больше кандидатов: часть отсеется условием
+    private static final int FILTERED_ANN_OVERFETCH = 4;
+
+    // Индексы других способов поиска поверх этой базы (см. VectorStoreRegistry)
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
 
     // Константы для бинарного формата
     private static final int MAGIC_NUMBER = 0x56444231; // "VDB1"
     private static final int VERSION = 1;
     private static final int HEADER_SIZE = 16; // magic(4) + version(4) + docCount(4) + reserved(4)
 
-    private VectorDBService() {
+    // Наборы векторов (.fvecs/.npy): список id рядом с набором и размер пакета при загрузке
+    public static final String IDS_FILE_EXTENSION = ".ids";
+    private static final int IMPORT_BATCH_SIZE = 10000;
+
+    // Отдельная база в указанном файле - для инструментов и бенчмарков; приложение использует getInstance()
+    public VectorDBService(String dataFilePath) {
+        this(dataFilePath, false);
+    }
+
+    public VectorDBService(String dataFilePath, boolean vectorsOnDisk) {
         this.documents = new ConcurrentHashMap<>();
         this.embeddings = new ConcurrentHashMap<>();
         this.index = new CopyOnWriteArrayList<>();
-        this.dataFilePath = "knowledge_base.bin"; // Изменено с .json на .bin
+        this.dataFilePath = dataFilePath;
+        this.vectorsOnDisk = vectorsOnDisk;
 
         loadFromDisk();
-        System.out.println("Векторная БД инициализирована в памяти");
+        System.out.println("Векторная БД инициализирована в памяти" + (vectorsOnDisk ? " (векторы на диске)" : ""));
         System.out.println("Документов: " + documents.size());
-        System.out.println("Эмбеддингов: " + embeddings.size());
+        System.out.println("Эмбеддингов: " + getEmbeddingCount());
         System.out.println("Выделено памяти: " + (maxMemoryBytes / (1024*1024*1024)) + " ГБ");
     }
 
     public static synchronized VectorDBService getInstance() {
+        return getInstance(false);
+    }
+
+    // Режим векторов учитывается при первом обращении, когда база загружается
+    public static synchronized VectorDBService getInstance(boolean vectorsOnDisk) {
         if (instance == null) {
-            instance = new VectorDBService();
+            instance = new VectorDBService("knowledge_base.bin", vectorsOnDisk);
         }
         return instance;
     }
 
     // Добавление документа с эмбеддингом
-    public synchronized void addDocument(KnowledgeDocument document, double[] embedding) {
-        if (documents.containsKey(document.getId())) {
-            System.out.println("Документ уже существует: " + document.getId());
-            return;
+    @Override
+    public void addDocument(KnowledgeDocument document, double[] embedding) {
+        writeLock.lock();
+        try {
+            if (documents.containsKey(document.getId())) {
+                System.out.println("Документ уже существует: " + document.getId());
+                return;
+            }
+
+            insertDocument(document, embedding);
+
+            // Автосохранение
+            saveToDisk();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Пакетное добавление без записи на диск (эмбеддинг берется из документа).
+    // Сохранение выполняется отдельно через flush() - используется конвейером загрузки.
+    @Override
+    public int addDocuments(List<KnowledgeDocument> batch) {
+        writeLock.lock();
+        try {
+            int added = 0;
+            List<String> newIds = new ArrayList<>(batch.size());
+            List<KnowledgeDocument> addedDocuments = new ArrayList<>(batch.size());
+
+            for (KnowledgeDocument document : batch) {
+                if (documents.containsKey(document.getId()) || document.getEmbedding() == null) {
+                    continue;
+                }
+                documents.put(document.getId(), document);
+                embeddings.put(document.getId(), new EmbeddingVector(document.getId(), document.getEmbedding()));
+                newIds.add(document.getId());
+                addedDocuments.add(document);
+                added++;
+
+                IvfIndex ann = annIndex;
+                if (ann != null) {
+                    ann.add(document.getId(), document.getEmbedding());
+                    annChanges++;
+                }
+            }
+
+            // Одна операция копирования CopyOnWriteArrayList на весь пакет
+            index.addAll(newIds);
+
+            if (added > 0) {
+                dirty = true;
+                for (ChangeListener listener : listeners) {
+                    listener.documentsAdded(addedDocuments);
+                }
+                if (getCurrentMemoryUsage() > maxMemoryBytes) {
+                    System.out.println("Предупреждение: Близко к лимиту памяти. Рассмотрите очистку старых документов.");
+                }
+            }
+            return added;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Загрузка набора векторов (.fvecs/.npy) прямо в базу, без JSON и текстов: строки читаются
+    // из отображенного в память файла и добавляются пакетами через addDocuments. Документ получает
+    // id из файла <набор>.ids (по строке на вектор, пишется exportVectors), а без него - idPrefix
+    // и номер строки, как в эталонных соседях groundtruth.ivecs. Файл .ids должен содержать ровно
+    // по строке на вектор, иначе загрузка отклоняется. Запись на диск - через flush().
+    public int importVectors(VectorFile file, String idPrefix) throws IOException {
+        if (file.isInteger()) {
+            throw new IllegalArgumentException("Файл " + file.getPath() + " содержит целые числа, а не векторы");
+        }
+        String source = file.getPath().getFileName().toString();
+        String created = LocalDateTime.now().toString();
+
+        Path idsPath = Paths.get(file.getPath() + IDS_FILE_EXTENSION);
+        if (Files.exists(idsPath)) {
+            long idCount;
+            try (Stream<String> lines = Files.lines(idsPath, StandardCharsets.UTF_8)) {
+                idCount = lines.count();
+            }
+            if (idCount != file.size()) {
+                throw new IllegalArgumentException("В " + idsPath + " " + idCount + " id, а в наборе " +
+                        file.size() + " векторов");
+            }
+        }
+        BufferedReader ids = Files.exists(idsPath) ? Files.newBufferedReader(idsPath, StandardCharsets.UTF_8) : null;
+        int added = 0;
+        try {
+            List<KnowledgeDocument> batch = new ArrayList<>(IMPORT_BATCH_SIZE);
+            for (int row = 0; row < file.size(); row++) {
+                // У каждого документа свои метаданные: их можно менять, не затрагивая остальные
+                JSONObject metadata = new JSONObject();
+                metadata.put("source", source);
+                metadata.put("created", created);
+                metadata.put("dataset_rows", file.size());
+                KnowledgeDocument document = new KnowledgeDocument("", source, metadata);
+                document.setId(ids != null ? ids.readLine() : idPrefix + row);
+                document.setEmbedding(file.readDoubles(row));
+                batch.add(document);
+                if (batch.size() == IMPORT_BATCH_SIZE) {
+                    added += addDocuments(batch);
+                    batch.clear();
+                }
+            }
+            added += addDocuments(batch);
+        } finally {
+            if (ids != null) {
+                ids.close();
+            }
+        }
+        return added;
+    }
+
+    // Выгрузка эмбеддингов в .fvecs/.npy (float32) в порядке базы; id документов - построчно
+    // в <файл>.ids рядом. Документы другой размерности, чем первый, пропускаются.
+    public int exportVectors(Path path) throws IOException {
+        List<String> ids = new ArrayList<>(index);
+        int dimension = 0;
+        for (String id : ids) {
+            EmbeddingVector embedding = getEmbeddingVector(id);
+            if (embedding != null) {
+                dimension = embedding.getVector().length;
+                break;
+            }
+        }
+        if (dimension == 0) {
+            throw new IllegalStateException("В базе нет эмбеддингов для выгрузки");
         }
 
+        int written = 0;
+        try (VectorFileWriter writer = VectorFileWriter.create(path, dimension);
+             BufferedWriter idsOut = Files.newBufferedWriter(Paths.get(path + IDS_FILE_EXTENSION),
+                     StandardCharsets.UTF_8)) {
+            for (String id : ids) {
+                EmbeddingVector embedding = getEmbeddingVector(id);
+                if (embedding == null || embedding.getVector().length != dimension) {
+                    continue;
+                }
+                writer.write(embedding.getVector());
+                idsOut.write(id);
+                idsOut.newLine();
+                written++;
+            }
+        }
+        return written;
+    }
+
+    // Удаление документов по условию (один проход по базе). Запись на диск - через flush().
+    @Override
+    public int removeDocuments(Predicate<KnowledgeDocument> condition) {
+        writeLock.lock();
+        try {
+            List<String> removedIds = new ArrayList<>();
+            for (KnowledgeDocument document : documents.values()) {
+                if (condition.test(document)) {
+                    removedIds.add(document.getId());
+                }
+            }
+
+            for (String id : removedIds) {
+                documents.remove(id);
+                embeddings.remove(id);
+                embeddingOffsets.remove(id);
+            }
+            if (!removedIds.isEmpty()) {
+                Set<String> removed = new HashSet<>(removedIds);
+                index.removeAll(removed);
+                IvfIndex ann = annIndex;
+                if (ann != null) {
+                    ann.retain(id -> !removed.contains(id));
+                    annChanges += removed.size();
+                }
+                dirty = true;
+                for (ChangeListener listener : listeners) {
+                    listener.documentsRemoved(removedIds);
+                }
+            }
+            return removedIds.size();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Только для чтения: все документы базы
+    @Override
+    public Collection<KnowledgeDocument> getAllDocuments() {
+        return Collections.unmodifiableCollection(documents.values());
+    }
+
+    // Запись на диск, если были несохраненные изменения
+    @Override
+    public boolean flush() {
+        writeLock.lock();
+        try {
+            if (!dirty) {
+                return false;
+            }
+            saveToDisk();
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void insertDocument(KnowledgeDocument document, double[] embedding) {
         // Проверка памяти
         long estimatedSize = estimateMemoryUsage(document, embedding);
         if (getCurrentMemoryUsage() + estimatedSize > maxMemoryBytes) {
             System.out.println("Предупреждение: Близко к лимиту памяти. Рассмотрите очистку старых документов.");
         }
 
+        document.setEmbedding(embedding);
         documents.put(document.getId(), document);
         embeddings.put(document.getId(), new EmbeddingVector(document.getId(), embedding));
         index.add(document.getId());
 
-        // Автосохранение
-        saveToDisk();
+        IvfIndex ann = annIndex;
+        if (ann != null) {
+            ann.add(document.getId(), embedding);
+            annChanges++;
+        }
+        for (ChangeListener listener : listeners) {
+            listener.documentsAdded(List.of(document));
+        }
+    }
+
+    // Поиск похожих документов: по индексу IVF, если он загружен и включен, иначе полным перебором
+    @Override
+    public List<SearchResult> searchSimilar(double[] queryEmbedding, int topK, double threshold,
+                                            Predicate<KnowledgeDocument> filter) {
+        return search(queryEmbedding, topK, threshold, filter, annSearchEnabled);
     }
 
-    // Поиск похожих документов
-    public List<SearchResult> searchSimilar(double[] queryEmbedding, int topK, double threshold) {
+    // Всегда полный перебор - точный результат независимо от индекса
+    public List<SearchResult> searchExact(double[] queryEmbedding, int topK, double threshold,
+                                          Predicate<KnowledgeDocument> filter) {
+        return search(queryEmbedding, topK, threshold, filter, false);
+    }
+
+    private List<SearchResult> search(double[] queryEmbedding, int topK, double threshold,
+                                      Predicate<KnowledgeDocument> filter, boolean useAnn) {
+        VectorSearchEvent event = new VectorSearchEvent();
+        event.begin();
+        IvfIndex ann = annIndex;
+        if (ann != null && useAnn && ann.getDimension() == queryEmbedding.length) {
+            List<SearchResult> results = searchWithAnnIndex(ann, queryEmbedding, topK, threshold, filter);
+            if (results != null) {
+                commitSearchEvent(event, results.size(), topK, threshold, true);
+                return results;
+            }
+        }
+
         List<SearchResult> results = new ArrayList<>();
         EmbeddingVector queryVector = new EmbeddingVector("query", queryEmbedding);
 
         for (String docId : index) {
-            EmbeddingVector docVector = embeddings.get(docId);
+            EmbeddingVector docVector = getEmbeddingVector(docId);
             if (docVector != null) {
                 double similarity = queryVector.cosineSimilarity(docVector);
 
                 if (similarity >= threshold) {
-                    results.add(new SearchResult(
-                            documents.get(docId),
-                            docVector,
-                            similarity
-                    ));
+                    KnowledgeDocument document = documents.get(docId);
+                    if (document != null && (filter == null || filter.test(document))) {
+                        results.add(new SearchResult(document, docVector, similarity));
+                    }
                 }
             }
         }
@@ -98,36 +386,217 @@ public class VectorDBService {
         results.sort((a, b) -> Double.compare(b.similarity, a.similarity));
 
         // Возвращаем топ-K результатов
-        return results.stream().limit(topK).collect(Collectors.toList());
+        List<SearchResult> top = results.stream().limit(topK).collect(Collectors.toList());
+        commitSearchEvent(event, top.size(), topK, threshold, false);
+        return top;
     }
 
-    // Получение контекста для RAG
-    public String getContextForQuery(String query, double[] queryEmbedding, int topK, double threshold) {
-        List<SearchResult> similarDocs = searchSimilar(queryEmbedding, topK, threshold);
+    private void commitSearchEvent(VectorSearchEvent event, int resultCount, int topK, double threshold,
+                                   boolean annIndex) {
+        if (event.shouldCommit()) {
+            event.documentCount = documents.size();
+            event.resultCount = resultCount;
+            event.topK = topK;
+            event.threshold = threshold;
+            event.annIndex = annIndex;
+            event.backend = annIndex ? "ivf" : "brute_force";
+            event.commit();
+        }
+    }
 
-        if (similarDocs.isEmpty()) {
+    // Приближенный поиск: просматриваются только ближайшие списки IVF-индекса.
+    // null - фильтр отсеял кандидатов, а за ними могут быть подходящие: нужен полный перебор.
+    private List<SearchResult> searchWithAnnIndex(IvfIndex ann, double[] queryEmbedding, int topK, double threshold,
+                                                  Predicate<KnowledgeDocument> filter) {
+        int candidates = filter == null ? topK : topK * FILTERED_ANN_OVERFETCH;
+        List<IvfIndex.Result> found = ann.search(queryEmbedding, candidates, annProbes);
+        List<SearchResult> results = new ArrayList<>();
+        for (IvfIndex.Result candidate : found) {
+            if (candidate.score < threshold || results.size() == topK) {
+                break;
+            }
+            KnowledgeDocument document = documents.get(candidate.id);
+            EmbeddingVector vector = getEmbeddingVector(candidate.id);
+            if (document != null && vector != null && (filter == null || filter.test(document))) {
+                results.add(new SearchResult(document, vector, candidate.score));
+            }
+        }
+        if (filter != null && results.size() < topK && found.size() == candidates &&
+                found.get(found.size() - 1).score >= threshold) {
             return null;
         }
+        return results;
+    }
+
+    // Документ и эмбеддинг по id - для индексов других способов поиска
+    KnowledgeDocument getDocument(String id) {
+        return documents.get(id);
+    }
+
+    EmbeddingVector getEmbeddingVector(String id) {
+        EmbeddingVector embedding = embeddings.get(id);
+        if (embedding != null || !vectorsOnDisk) {
+            return embedding;
+        }
+        return readEmbedding(id);
+    }
+
+    // Вектор документа из файла базы (режим векторов на диске)
+    private EmbeddingVector readEmbedding(String id) {
+        vectorFileLock.readLock().lock();
+        try {
+            Long offset = embeddingOffsets.get(id);
+            if (offset == null) {
+                return null;
+            }
+            ByteBuffer length = ByteBuffer.allocate(4);
+            readFully(vectorFile, length, offset);
+            ByteBuffer data = ByteBuffer.allocate(length.getInt(0) * 8);
+            readFully(vectorFile, data, offset + 4);
+            double[] vector = new double[data.capacity() / 8];
+            data.flip();
+            data.asDoubleBuffer().get(vector);
+            return new EmbeddingVector(id, vector);
+        } catch (IOException e) {
+            throw new IllegalStateException("Ошибка чтения вектора " + id + " из " + dataFilePath + ": " +
+                    e.getMessage(), e);
+        } finally {
+            vectorFileLock.readLock().unlock();
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Неожиданный конец файла базы");
+            }
+        }
+    }
+
+    // Подписка индекса на изменения базы; текущие документы передаются сразу, под той же блокировкой,
+    // поэтому индекс не пропустит изменений между построением и подпиской
+    void addChangeListener(ChangeListener listener) {
+        writeLock.lock();
+        try {
+            listener.documentsAdded(new ArrayList<>(documents.values()));
+            listeners.add(listener);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    void removeChangeListener(ChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    // Файл индекса рядом с базой: <база без .bin><расширение>
+    Path getIndexPath(String extension) {
+        String base = dataFilePath.endsWith(".bin")
+                ? dataFilePath.substring(0, dataFilePath.length() - 4)
+                : dataFilePath;
+        return Paths.get(base + extension);
+    }
+
+    // Загрузка заранее построенного индекса (см. tools.IndexBuilder)
+    private void loadAnnIndex() {
+        Path indexPath = getIndexPath(INDEX_FILE_EXTENSION);
+        if (!Files.exists(indexPath)) {
+            return;
+        }
+        try {
+            IvfIndex loaded = IvfIndex.readFrom(indexPath);
+            // Файл мог отстать от базы (записывается по ANN_CHECKPOINT_CHANGES): удаленные с тех пор
+            // документы убираются, добавленные раскладываются по спискам
+            Set<String> indexed = loaded.getIds();
+            int stale = 0;
+            for (String id : indexed) {
+                if (!documents.containsKey(id)) {
+                    stale++;
+                }
+            }
+            if (stale > 0) {
+                loaded.retain(documents::containsKey);
+            }
+            int added = 0;
+            for (String id : index) {
+                if (indexed.contains(id)) {
+                    continue;
+                }
+                EmbeddingVector embedding = getEmbeddingVector(id);
+                if (embedding == null) {
+                    continue;
+                }
+                if (embedding.getVector().length != loaded.getDimension()) {
+                    System.err.println("Индекс " + indexPath + " другой размерности (" + loaded.getDimension() +
+                            ") и не будет использован");
+                    return;
+                }
+                loaded.add(id, embedding.getVector());
+                added++;
+            }
+            annChanges = stale + added;
+            annIndex = loaded;
+            System.out.println("Загружен приближенный индекс IVF: " + loaded.getListCount() + " списков, " +
+                    loaded.size() + " векторов");
+            if (stale + added > 0) {
+                System.out.println("Индекс дополнен по базе: добавлено " + added + ", удалено " + stale +
+                        (stale + added > documents.size() / 2 ? " - рекомендуется пересобрать (build-index)" : ""));
+            }
+        } catch (IOException e) {
+            System.err.println("Ошибка загрузки индекса " + indexPath + ": " + e.getMessage());
+        }
+    }
+
+    private void saveAnnIndex() {
+        IvfIndex ann = annIndex;
+        if (ann == null) {
+            return;
+        }
+        try {
+            ann.retain(documents::containsKey);
+            ann.writeTo(getIndexPath(INDEX_FILE_EXTENSION));
+            annChanges = 0;
+        } catch (IOException e) {
+            System.err.println("Ошибка сохранения индекса: " + e.getMessage());
+        }
+    }
 
-        StringBuilder context = new StringBuilder();
-        context.append("Релевантная информация из базы знаний:\n\n");
+    public void setAnnSearchEnabled(boolean enabled) {
+        this.annSearchEnabled = enabled;
+    }
+
+    public void setAnnProbes(int probes) {
+        this.annProbes = Math.max(1, probes);
+    }
 
-        for (SearchResult result : similarDocs) {
-            context.append("=== Документ из ").append(result.document.getSource()).append(" ===\n");
-            context.append("Схожесть: ").append(String.format("%.3f", result.similarity)).append("\n");
-            context.append(result.document.getContent()).append("\n\n");
+    @Override
+    public JSONObject getStats() {
+        JSONObject info = new JSONObject();
+        IvfIndex ann = annIndex;
+        info.put("type", ann != null && annSearchEnabled ? "ivf" : "brute_force");
+        info.put("documents", documents.size());
+        if (ann != null) {
+            info.put("lists", ann.getListCount());
+            info.put("probes", annProbes);
+            info.put("vectors", ann.size());
         }
+        return info;
+    }
 
-        return context.toString();
+    // Получение контекста для RAG
+    public String getContextForQuery(String query, double[] queryEmbedding, int topK, double threshold) {
+        return VectorStore.formatContext(searchSimilar(queryEmbedding, topK, threshold));
     }
 
     // Утилиты
+    @Override
     public int getDocumentCount() {
         return documents.size();
     }
 
+    // В режиме векторов на диске в памяти только еще не сохраненные векторы, остальные - в файле
     public int getEmbeddingCount() {
-        return embeddings.size();
+        return embeddings.size() + embeddingOffsets.size();
     }
 
     public long getCurrentMemoryUsage() {
@@ -137,6 +606,7 @@ public class VectorDBService {
         return docMemory + embedMemory;
     }
 
+    @Override
     public double getMemoryUsagePercentage() {
         long currentUsage = getCurrentMemoryUsage();
         if (currentUsage == 0 || maxMemoryBytes == 0) {
@@ -145,11 +615,19 @@ public class VectorDBService {
         return (double) currentUsage / maxMemoryBytes * 100;
     }
 
-    // Сохранение в бинарный формат
+    // Сохранение в бинарный формат. С векторами на диске они читаются из прежнего файла, поэтому
+    // база пишется во временный файл, который затем заменяет прежний
     private void saveToDisk() {
-        try (RandomAccessFile file = new RandomAccessFile(dataFilePath, "rw");
+        long start = System.nanoTime();
+        Path target = Paths.get(dataFilePath);
+        Path written = vectorsOnDisk ? target.resolveSibling(target.getFileName() + ".tmp") : target;
+        Map<String, Long> offsets = new ConcurrentHashMap<>();
+        try (RandomAccessFile file = new RandomAccessFile(written.toFile(), "rw");
              FileChannel channel = file.getChannel()) {
 
+            // Очищаем файл (после удалений новая база может быть короче старой)
+            channel.truncate(0);
+
             ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
             header.putInt(MAGIC_NUMBER);
             header.putInt(VERSION);
@@ -161,20 +639,76 @@ public class VectorDBService {
 
             // Сохраняем документы
             for (KnowledgeDocument doc : documents.values()) {
-                saveDocument(channel, doc);
+                EmbeddingVector embedding = getEmbeddingVector(doc.getId());
+                long offset = writeDocument(channel, doc, (embedding != null) ? embedding.getVector() : new double[0]);
+                if (vectorsOnDisk) {
+                    offsets.put(doc.getId(), offset);
+                }
+            }
+            if (vectorsOnDisk) {
+                channel.force(false);
+                replaceVectorFile(written, target, offsets);
             }
 
+            dirty = false;
             System.out.println("База знаний сохранена в бинарный файл: " + dataFilePath);
 
         } catch (IOException e) {
             System.err.println("Ошибка сохранения базы знаний: " + e.getMessage());
         }
+
+        if (annChanges >= ANN_CHECKPOINT_CHANGES) {
+            saveAnnIndex();
+        }
+        Metrics.recordStage(Metrics.Stage.PERSISTENCE, start);
     }
 
-    private void saveDocument(FileChannel channel, KnowledgeDocument doc) throws IOException {
-        // Получаем эмбеддинг
-        EmbeddingVector embedding = embeddings.get(doc.getId());
-        double[] embeddingArray = (embedding != null) ? embedding.getVector() : new double[0];
+    // Записанный файл заменяет прежний; векторы, которые теперь в нем, из памяти убираются
+    private void replaceVectorFile(Path written, Path target, Map<String, Long> offsets) throws IOException {
+        vectorFileLock.writeLock().lock();
+        try {
+            Files.move(written, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (vectorFile != null) {
+                vectorFile.close();
+            }
+            vectorFile = FileChannel.open(target, StandardOpenOption.READ);
+            embeddingOffsets = offsets;
+            for (String id : offsets.keySet()) {
+                KnowledgeDocument document = documents.get(id);
+                if (document != null) {
+                    document.setEmbedding(null);
+                }
+                embeddings.remove(id);
+            }
+        } finally {
+            vectorFileLock.writeLock().unlock();
+        }
+    }
+
+    // Запись готового файла базы знаний (формат VDB1) без загрузки сервиса - для офлайн-сборки.
+    // Эмбеддинги берутся из самих документов.
+    public static void writeKnowledgeBase(String path, Collection<KnowledgeDocument> docs) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw");
+             FileChannel channel = file.getChannel()) {
+
+            channel.truncate(0);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC_NUMBER);
+            header.putInt(VERSION);
+            header.putInt(docs.size());
+            header.putInt(0); // reserved
+            header.flip();
+            channel.write(header);
+
+            for (KnowledgeDocument doc : docs) {
+                writeDocument(channel, doc, doc.getEmbedding() != null ? doc.getEmbedding() : new double[0]);
+            }
+        }
+    }
+
+    // Возвращает смещение вектора в файле (поле длины перед ним)
+    private static long writeDocument(FileChannel channel, KnowledgeDocument doc, double[] embeddingArray) throws IOException {
 
         // Подготавливаем данные
         byte[] idBytes = doc.getId().getBytes("UTF-8");
@@ -209,6 +743,7 @@ public class VectorDBService {
         buffer.put(metadataBytes);
         buffer.putInt(createdAtBytes.length);
         buffer.put(createdAtBytes);
+        long embeddingOffset = channel.position() + buffer.position();
         buffer.putInt(embeddingArray.length);
         for (double value : embeddingArray) {
             buffer.putDouble(value);
@@ -216,6 +751,7 @@ public class VectorDBService {
 
         buffer.flip();
         channel.write(buffer);
+        return embeddingOffset;
     }
 
     // Загрузка из бинарного формата
@@ -268,6 +804,12 @@ public class VectorDBService {
             }
 
             System.out.println("Загружено " + documents.size() + " документов из бинарного файла");
+            if (vectorsOnDisk) {
+                // Индекс IVF держит все векторы в памяти - с векторами на диске он не загружается
+                vectorFile = FileChannel.open(Paths.get(dataFilePath), StandardOpenOption.READ);
+            } else {
+                loadAnnIndex();
+            }
 
         } catch (IOException e) {
             System.err.println("Ошибка чтения файла базы знаний: " + e.getMessage());
@@ -277,6 +819,7 @@ public class VectorDBService {
     }
 
     private KnowledgeDocument loadDocument(FileChannel channel) throws IOException {
+        long recordStart = channel.position();
         // Читаем размер записи
         ByteBuffer sizeBuffer = ByteBuffer.allocate(4);
         if (channel.read(sizeBuffer) != 4) {
@@ -327,10 +870,11 @@ public class VectorDBService {
         recordBuffer.get(createdAtBytes);
         String createdAtStr = new String(createdAtBytes, "UTF-8");
 
-        // Читаем embedding
+        // Читаем embedding (с векторами на диске запоминается только его смещение)
+        long embeddingOffset = recordStart + 4 + recordBuffer.position();
         int embeddingLength = recordBuffer.getInt();
-        double[] embedding = new double[embeddingLength];
-        for (int i = 0; i < embeddingLength; i++) {
+        double[] embedding = vectorsOnDisk ? null : new double[embeddingLength];
+        for (int i = 0; embedding != null && i < embeddingLength; i++) {
             embedding[i] = recordBuffer.getDouble();
         }
 
@@ -344,8 +888,12 @@ public class VectorDBService {
             idField.set(doc, id);
 
             // Устанавливаем embedding
-            doc.setEmbedding(embedding);
-            embeddings.put(id, new EmbeddingVector(id, embedding));
+            if (embedding != null) {
+                doc.setEmbedding(embedding);
+                embeddings.put(id, new EmbeddingVector(id, embedding));
+            } else {
+                embeddingOffsets.put(id, embeddingOffset);
+            }
 
             // Устанавливаем createdAt (если нужно)
             java.lang.reflect.Field createdAtField = KnowledgeDocument.class.getDeclaredField("createdAt");
@@ -376,16 +924,10 @@ public class VectorDBService {
         return size;
     }
 
-    // Внутренний класс для результатов поиска
-    public static class SearchResult {
-        public final KnowledgeDocument document;
-        public final EmbeddingVector embedding;
-        public final double similarity;
+    // Изменения состава базы; вызываются под блокировкой базы
+    interface ChangeListener {
+        void documentsAdded(List<KnowledgeDocument> added);
 
-        public SearchResult(KnowledgeDocument document, EmbeddingVector embedding, double similarity) {
-            this.document = document;
-            this.embedding = embedding;
-            this.similarity = similarity;
-        }
+        void documentsRemoved(List<String> removedIds);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,76 @@
+package com.example.aiassistant.service;
+
+import com.example.aiassistant.model.EmbeddingVector;
+import com.example.aiassistant.model.KnowledgeDocument;
+import org.json.JSONObject;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Predicate;
+
+// Хранилище векторов базы знаний: добавление и удаление документов, поиск похожих, статистика.
+// Основная реализация - VectorDBService; способ поиска (полный перебор, IVF, квантованные векторы)
+// выбирается конфигурацией в VectorStoreRegistry, вызывающий код от него не зависит.
+public interface VectorStore {
+
+    // Добавление документа с эмбеддингом и записью на диск
+    void addDocument(KnowledgeDocument document, double[] embedding);
+
+    // Пакетное добавление без записи на диск (эмбеддинг берется из документа); возвращает число добавленных
+    int addDocuments(List<KnowledgeDocument> batch);
+
+    // Удаление документов по условию без записи на диск; возвращает число удаленных
+    int removeDocuments(Predicate<KnowledgeDocument> condition);
+
+    // Запись на диск, если были несохраненные изменения
+    boolean flush();
+
+    default List<SearchResult> searchSimilar(double[] queryEmbedding, int topK, double threshold) {
+        return searchSimilar(queryEmbedding, topK, threshold, null);
+    }
+
+    // Поиск похожих документов среди удовлетворяющих filter (null - среди всех)
+    List<SearchResult> searchSimilar(double[] queryEmbedding, int topK, double threshold,
+                                     Predicate<KnowledgeDocument> filter);
+
+    // Только для чтения: все документы базы
+    Collection<KnowledgeDocument> getAllDocuments();
+
+    int getDocumentCount();
+
+    double getMemoryUsagePercentage();
+
+    // Способ поиска и его параметры - для /api/statistics
+    JSONObject getStats();
+
+    // Текст контекста для промпта из найденных документов
+    static String formatContext(List<SearchResult> similarDocs) {
+        if (similarDocs.isEmpty()) {
+            return null;
+        }
+
+        StringBuilder context = new StringBuilder();
+        context.append("Релевантная информация из базы знаний:\n\n");
+
+        for (SearchResult result : similarDocs) {
+            context.append("=== Документ из ").append(result.document.getSource()).append(" ===\n");
+            context.append("Схожесть: ").append(String.format("%.3f", result.similarity)).append("\n");
+            context.append(result.document.getContent()).append("\n\n");
+        }
+
+        return context.toString();
+    }
+
+    // Результат поиска
+    class SearchResult {
+        public final KnowledgeDocument document;
+        public final EmbeddingVector embedding;
+        public final double similarity;
+
+        public SearchResult(KnowledgeDocument document, EmbeddingVector embedding, double similarity) {
+            this.document = document;
+            this.embedding = embedding;
+            this.similarity = similarity;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.aiassistant.service;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+// Выбор способа поиска для коллекции (базы знаний) по конфигурации:
+//   -Dvector.store=<способ>               для всех коллекций, по умолчанию ivf
+//   -Dvector.store.<коллекция>=<способ>   для одной коллекции
+//   -Dvector.store.auto=brute:20000,quantized:1000000,ivf
+//                                         правила для способа auto: первый, чей предел больше числа документов;
+//                                         пересматриваются по мере роста базы
+//   -Dvector.store.experiment=quantized:10
+//                                         процент поисков, который уходит в другой способ (сравнение)
+// Способы:
+//   brute     - полный перебор
+//   ivf       - индекс IVF, если рядом с базой есть файл индекса (tools.IndexBuilder), иначе полный перебор
+//   quantized - перебор по квантованным векторам (SQ8) с уточнением лучших кандидатов
+//   disk      - граф DiskANN: векторы и соседи индекса в файле на диске, в памяти только коды PQ
+//               (файл индекса - tools.IndexBuilder --index diskann); база загружается без векторов в памяти
+// Все способы коллекции работают поверх одного VectorDBService - одни и те же документы и файл.
+public final class VectorStoreRegistry {
+    public static final String DEFAULT_COLLECTION = "knowledge_base";
+    public static final String DEFAULT_BACKEND = "ivf";
+    public static final String AUTO_BACKEND = "auto";
+    public static final String DEFAULT_AUTO_RULES = "brute:20000,quantized:1000000,ivf";
+
+    private static final Map<String, Function<VectorDBService, VectorStore>> backends = new LinkedHashMap<>();
+    private static final Map<String, VectorStore> collections = new ConcurrentHashMap<>();
+
+    static {
+        register("brute", BruteForceVectorStore::new);
+        register("ivf", storage -> storage);
+        register("quantized", QuantizedVectorStore::new);
+        register("disk", DiskAnnVectorStore::new);
+    }
+
+    private VectorStoreRegistry() {
+    }
+
+    // Новый способ поиска; фабрика получает базу коллекции
+    public static synchronized void register(String backend, Function<VectorDBService, VectorStore> factory) {
+        backends.put(backend, factory);
+    }
+
+    public static synchronized Set<String> getBackends() {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(backends.keySet()));
+    }
+
+    // Основная база знаний приложения
+    public static VectorStore getStore() {
+        return getStore(DEFAULT_COLLECTION);
+    }
+
+    // Коллекция хранится в файле <коллекция>.bin; способ поиска - из системных свойств
+    public static VectorStore getStore(String collection) {
+        return collections.computeIfAbsent(collection, name -> {
+            Config config = Config.fromSystemProperties(name);
+            // Способу disk векторы базы в памяти не нужны - они в индексе на диске
+            boolean vectorsOnDisk = config.backend.equals("disk");
+            VectorDBService storage = name.equals(DEFAULT_COLLECTION)
+                    ? VectorDBService.getInstance(vectorsOnDisk)
+                    : new VectorDBService(name + ".bin", vectorsOnDisk);
+            return create(name, storage, config);
+        });
+    }
+
+    public static VectorStore create(String collection, VectorDBService storage, Config config) {
+        String backend = resolve(config.backend, config.autoRules, storage.getDocumentCount());
+        VectorStore store = factory(backend).apply(storage);
+        System.out.println("Коллекция " + collection + ": поиск " + backend + " (" +
+                storage.getDocumentCount() + " документов)");
+        if (config.backend.equals(AUTO_BACKEND)) {
+            store = new AutoVectorStore(collection, storage, config.autoRules, backend, store,
+                    resolved -> factory(resolved).apply(storage));
+        }
+        if (config.experimentBackend == null || config.experimentPercent <= 0) {
+            return store;
+        }
+
+        String candidateBackend = resolve(config.experimentBackend, config.autoRules, storage.getDocumentCount());
+        if (candidateBackend.equals(backend)) {
+            // При auto это бывает на базе, где правила выбирают тот же способ, - настройка не ошибочна,
+            // коллекция просто работает без сравнения
+            System.err.println("Коллекция " + collection + ": способ для сравнения совпадает с основным (" +
+                    backend + "), сравнение отключено");
+            return store;
+        }
+        VectorStore candidate = factory(candidateBackend).apply(storage);
+        System.out.println("Коллекция " + collection + ": " + config.experimentPercent + "% поисков - " +
+                candidateBackend);
+        return new ExperimentVectorStore(store, backend, candidate, candidateBackend,
+                Math.min(100, config.experimentPercent));
+    }
+
+    private static synchronized Function<VectorDBService, VectorStore> factory(String backend) {
+        Function<VectorDBService, VectorStore> factory = backends.get(backend);
+        if (factory == null) {
+            throw new IllegalArgumentException("Неизвестный способ поиска: " + backend +
+                    " (доступны: " + String.join(", ", backends.keySet()) + ", " + AUTO_BACKEND + ")");
+        }
+        return factory;
+    }
+
+    // auto - по правилам "способ:предел,...,способ": первый, чей предел больше числа документов
+    static String resolve(String backend, String autoRules, int documentCount) {
+        if (!backend.equals(AUTO_BACKEND)) {
+            return backend;
+        }
+        String last = DEFAULT_BACKEND;
+        for (String rule : autoRules.split(",")) {
+            String[] parts = rule.trim().split(":");
+            last = parts[0].trim();
+            if (parts.length == 1) {
+                return last;
+            }
+            try {
+                if (documentCount < Long.parseLong(parts[1].trim())) {
+                    return last;
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Некорректное правило выбора способа поиска: " + rule);
+            }
+        }
+        return last;
+    }
+
+    public static class Config {
+        public String backend = DEFAULT_BACKEND;
+        public String autoRules = DEFAULT_AUTO_RULES;
+        public String experimentBackend;
+        public int experimentPercent;
+
+        public static Config fromSystemProperties(String collection) {
+            Config config = new Config();
+            config.backend = System.getProperty("vector.store." + collection,
+                    System.getProperty("vector.store", DEFAULT_BACKEND));
+            config.autoRules = System.getProperty("vector.store.auto", DEFAULT_AUTO_RULES);
+            String experiment = System.getProperty("vector.store.experiment");
+            if (experiment != null && !experiment.isBlank()) {
+                String[] parts = experiment.split(":");
+                config.experimentBackend = parts[0].trim();
+                try {
+                    config.experimentPercent = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 10;
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Некорректный процент в vector.store.experiment: " + experiment);
+                }
+            }
+            return config;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.aiassistant.service;
+
+import com.example.aiassistant.model.KnowledgeDocument;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Predicate;
+
+// Способ поиска поверх VectorDBService: документы, запись на диск и учет памяти общие с базой,
+// отличается только поиск. Несколько представлений одной базы работают одновременно -
+// на этом построено сравнение способов поиска (ExperimentVectorStore).
+abstract class VectorStoreView implements VectorStore {
+    protected final VectorDBService storage;
+
+    protected VectorStoreView(VectorDBService storage) {
+        this.storage = storage;
+    }
+
+    @Override
+    public void addDocument(KnowledgeDocument document, double[] embedding) {
+        storage.addDocument(document, embedding);
+    }
+
+    @Override
+    public int addDocuments(List<KnowledgeDocument> batch) {
+        return storage.addDocuments(batch);
+    }
+
+    @Override
+    public int removeDocuments(Predicate<KnowledgeDocument> condition) {
+        return storage.removeDocuments(condition);
+    }
+
+    @Override
+    public boolean flush() {
+        return storage.flush();
+    }
+
+    @Override
+    public Collection<KnowledgeDocument> getAllDocuments() {
+        return storage.getAllDocuments();
+    }
+
+    @Override
+    public int getDocumentCount() {
+        return storage.getDocumentCount();
+    }
+
+    @Override
+    public double getMemoryUsagePercentage() {
+        return storage.getMemoryUsagePercentage();
+    }
+
+    // Представление больше не используется (auto сменил способ поиска): отписка от изменений базы
+    void release() {
+    }
+}
@@ -0,0 +1,711 @@
+package com.example.aiassistant.tools;
+
+import com.example.aiassistant.index.DiskAnnIndex;
+import com.example.aiassistant.index.IvfIndex;
+import com.example.aiassistant.io.VectorFile;
+import com.example.aiassistant.model.KnowledgeDocument;
+import com.example.aiassistant.service.VectorDBService;
+import com.example.aiassistant.service.VectorStore;
+import com.example.aiassistant.service.VectorStoreRegistry;
+import com.example.aiassistant.util.LatencyHistogram;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+// Оценка приближенного поиска: точный topK полным перебором (эталон) и перебор параметров
+// каждого режима поиска. Для каждой точки - recall@K, p50/p99 задержки, QPS в один поток,
+// время построения и память индекса. Результаты - таблица в консоли и CSV/JSON для выбора
+// рабочих параметров (например, --lists и --probes для IVF).
+//
+// Корпус и запросы - база знаний/JSONL или наборы векторов .fvecs/.npy; эталон можно взять
+// из файла .ivecs (номера строк корпуса), иначе он считается полным перебором.
+//
+// Запуск: java ... com.example.aiassistant.Main eval-ann --corpus knowledge_base.bin [параметры]
+public class AnnEvaluator {
+
+    private Path corpus;
+    private Path queriesFile;
+    private Path groundTruthFile;
+    private int sampleQueries = 1000;
+    private String metric = "cosine";
+    private double noise = 0.1;
+    private long seed = 42;
+    private int topK = 10;
+    private int warmupPasses = 1;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private List<String> modes = defaultModes();
+    private int[] lists = new int[0]; // пусто - sqrt(N)
+    private int[] probes = {1, 2, 4, 8, 16, 32, 64};
+    private int[] searchLists = {16, 32, 64, 128};
+    private final DiskAnnIndex.BuildParams diskAnnParams = new DiskAnnIndex.BuildParams();
+    private Path csvOutput;
+    private Path jsonOutput;
+
+    public static void main(String[] args) {
+        AnnEvaluator evaluator = new AnnEvaluator();
+        try {
+            evaluator.parseArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(2);
+            return;
+        }
+
+        try {
+            evaluator.run();
+        } catch (Exception e) {
+            System.err.println("Ошибка оценки поиска: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void printUsage() {
+        System.out.println("Использование: eval-ann --corpus <knowledge_base.bin | .fvecs | .npy> [параметры]");
+        System.out.println("  --queries <файл>        запросы: .fvecs, .npy или JSONL с {\"embedding\": [...]} в каждой строке");
+        System.out.println("  --ground-truth <.ivecs> эталонные соседи (номера строк корпуса) вместо полного перебора;");
+        System.out.println("                          найденные по метрике --metric");
+        System.out.println("  --metric <cosine|l2>    метрика эталона (по умолчанию cosine, как ищет база); l2 - для наборов");
+        System.out.println("                          вроде SIFT, где эталон посчитан по евклидову расстоянию");
+        System.out.println("  --sample <n>            без --queries: n документов корпуса с шумом (по умолчанию 1000)");
+        System.out.println("  --noise <x>             шум выборочных запросов относительно нормы вектора (по умолчанию 0.1)");
+        System.out.println("  --seed <n>              seed выборки запросов");
+        System.out.println("  --k <n>                 K для recall@K (по умолчанию 10)");
+        System.out.println("  --modes <список>        режимы поиска через запятую: exact, ivf и способы поиска\n" +
+                "                          базы (" + String.join(", ", VectorStoreRegistry.getBackends()) + "), по умолчанию все");
+        System.out.println("  --lists <список>        числа списков IVF (по умолчанию sqrt(N))");
+        System.out.println("  --probes <список>       числа просматриваемых списков IVF (по умолчанию 1,2,4,...,64)");
+        System.out.println("  --search-lists <список> списки кандидатов DiskANN (режим disk, по умолчанию 16,32,64,128)");
+        System.out.println("  --graph-degree <n>      DiskANN: соседей у узла графа (по умолчанию 32)");
+        System.out.println("  --build-list <n>        DiskANN: список кандидатов при построении (по умолчанию 64)");
+        System.out.println("  --pq-bytes <n>          DiskANN: байт кода PQ на вектор (по умолчанию размерность / 8)");
+        System.out.println("  --warmup <n>            прогревочных проходов по запросам (по умолчанию 1)");
+        System.out.println("  --threads <n>           потоки для эталона и построения индексов");
+        System.out.println("  --csv <файл>            результаты в CSV");
+        System.out.println("  --json <файл>           результаты в JSON");
+    }
+
+    private void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--corpus": corpus = Paths.get(value(args, ++i, arg)); break;
+                case "--queries": queriesFile = Paths.get(value(args, ++i, arg)); break;
+                case "--ground-truth": groundTruthFile = Paths.get(value(args, ++i, arg)); break;
+                case "--sample": sampleQueries = intValue(args, ++i, arg); break;
+                case "--metric": metric = value(args, ++i, arg); break;
+                case "--noise": noise = doubleValue(args, ++i, arg); break;
+                case "--seed": seed = intValue(args, ++i, arg); break;
+                case "--k": topK = intValue(args, ++i, arg); break;
+                case "--modes": modes = Arrays.asList(value(args, ++i, arg).split(",")); break;
+                case "--lists": lists = intList(args, ++i, arg); break;
+                case "--probes": probes = intList(args, ++i, arg); break;
+                case "--search-lists": searchLists = intList(args, ++i, arg); break;
+                case "--graph-degree": diskAnnParams.maxDegree = intValue(args, ++i, arg); break;
+                case "--build-list": diskAnnParams.buildListSize = intValue(args, ++i, arg); break;
+                case "--pq-bytes": diskAnnParams.pqSubspaces = intValue(args, ++i, arg); break;
+                case "--warmup": warmupPasses = intValue(args, ++i, arg); break;
+                case "--threads": threads = intValue(args, ++i, arg); break;
+                case "--csv": csvOutput = Paths.get(value(args, ++i, arg)); break;
+                case "--json": jsonOutput = Paths.get(value(args, ++i, arg)); break;
+                default: throw new IllegalArgumentException("Неизвестный параметр: " + arg);
+            }
+        }
+        if (corpus == null) {
+            throw new IllegalArgumentException("Не указан корпус (--corpus)");
+        }
+        if (groundTruthFile != null && (queriesFile == null || !VectorFile.Format.isSupported(corpus))) {
+            throw new IllegalArgumentException("--ground-truth требует корпус .fvecs/.npy и --queries");
+        }
+        if (!metric.equals("cosine") && !metric.equals("l2")) {
+            throw new IllegalArgumentException("Неизвестная метрика: " + metric + " (cosine или l2)");
+        }
+        if (topK == 0) {
+            throw new IllegalArgumentException("K должно быть больше нуля");
+        }
+        for (String mode : modes) {
+            if (!mode.equals("exact") && !VectorStoreRegistry.getBackends().contains(mode)) {
+                throw new IllegalArgumentException("Неизвестный режим поиска: " + mode);
+            }
+        }
+    }
+
+    private static String value(String[] args, int i, String name) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Не указано значение для " + name);
+        }
+        return args[i];
+    }
+
+    private static int intValue(String[] args, int i, String name) {
+        try {
+            int value = Integer.parseInt(value(args, i, name));
+            if (value < 0) {
+                throw new NumberFormatException();
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Некорректное число для " + name);
+        }
+    }
+
+    private static double doubleValue(String[] args, int i, String name) {
+        try {
+            double value = Double.parseDouble(value(args, i, name));
+            if (value < 0 || Double.isNaN(value)) {
+                throw new NumberFormatException();
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Некорректное число для " + name);
+        }
+    }
+
+    private static int[] intList(String[] args, int i, String name) {
+        try {
+            int[] values = Arrays.stream(value(args, i, name).split(","))
+                    .map(String::trim).mapToInt(Integer::parseInt).toArray();
+            for (int value : values) {
+                if (value <= 0) {
+                    throw new NumberFormatException();
+                }
+            }
+            return values;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Некорректный список чисел для " + name);
+        }
+    }
+
+    private void run() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        try {
+            // 1. Корпус - в том виде, в котором его загружает сервер
+            VectorDBService vectorDB = loadCorpus();
+            vectorDB.setAnnSearchEnabled(false);
+            List<String> ids = new ArrayList<>(vectorDB.getDocumentCount());
+            List<double[]> vectors = new ArrayList<>(vectorDB.getDocumentCount());
+            for (KnowledgeDocument document : vectorDB.getAllDocuments()) {
+                if (document.getEmbedding() != null) {
+                    ids.add(document.getId());
+                    vectors.add(document.getEmbedding());
+                }
+            }
+            if (vectors.isEmpty()) {
+                throw new IllegalStateException("В корпусе нет документов с эмбеддингами: " + corpus);
+            }
+            int dimension = vectors.get(0).length;
+
+            // 2. Запросы
+            List<double[]> queries;
+            if (queriesFile == null) {
+                queries = sampleQueries(vectors, sampleQueries, noise, seed);
+            } else if (VectorFile.Format.isSupported(queriesFile)) {
+                queries = readDatasetQueries(queriesFile, dimension);
+            } else {
+                queries = readQueries(queriesFile, dimension);
+            }
+            if (queries.isEmpty()) {
+                throw new IllegalStateException("Нет запросов для оценки");
+            }
+            System.out.println("Корпус: " + vectors.size() + " векторов, размерность " + dimension +
+                    "; запросов: " + queries.size() + "; K = " + topK);
+
+            // 3. Эталон - точный topK по метрике --metric, параллельно по запросам
+            if (metric.equals("l2") && !sameNorms(vectors)) {
+                System.err.println("Внимание: база ищет по косинусной схожести, а эталон - по l2; у векторов " +
+                        "корпуса разные нормы, поэтому recall занижен расхождением метрик, а не только поиском");
+            }
+            long truthStart = System.currentTimeMillis();
+            List<Set<String>> groundTruth = groundTruthFile != null
+                    ? readGroundTruth(groundTruthFile, queries.size(), topK)
+                    : computeGroundTruth(ids, vectors, queries, topK, metric.equals("l2"), pool);
+            System.out.println("Эталон " + (groundTruthFile != null ? "прочитан" : "посчитан") + " за " +
+                    (System.currentTimeMillis() - truthStart) + " мс");
+
+            // 4. Перебор режимов и параметров
+            List<Result> results = new ArrayList<>();
+            for (String mode : modes) {
+                if (mode.equals("exact")) {
+                    // Память во всех строках - сверх самой базы; перебору индекс не нужен
+                    results.add(measure("exact", new LinkedHashMap<>(), new LinkedHashMap<>(), 0,
+                            0, queries, groundTruth,
+                            query -> toIds(vectorDB.searchSimilar(query, topK, -1))));
+                } else if (mode.equals("ivf")) {
+                    results.addAll(evaluateIvf(ids, vectors, queries, groundTruth, pool));
+                } else if (mode.equals("disk")) {
+                    results.addAll(evaluateDiskAnn(ids, vectors, queries, groundTruth, pool));
+                } else {
+                    results.add(evaluateStore(mode, vectorDB, queries, groundTruth));
+                }
+            }
+
+            printTable(results);
+            if (csvOutput != null) {
+                writeCsv(csvOutput, results);
+                System.out.println("CSV записан: " + csvOutput);
+            }
+            if (jsonOutput != null) {
+                JSONObject report = new JSONObject();
+                report.put("corpus", corpus.toString());
+                report.put("vectors", vectors.size());
+                report.put("dimension", dimension);
+                report.put("queries", queries.size());
+                report.put("k", topK);
+                report.put("metric", metric);
+                JSONArray rows = new JSONArray();
+                for (Result result : results) {
+                    rows.put(result.toJSON());
+                }
+                report.put("results", rows);
+                Files.writeString(jsonOutput, report.toString(2), StandardCharsets.UTF_8);
+                System.out.println("JSON записан: " + jsonOutput);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Набор векторов загружается во временную базу, которая удаляется при выходе
+    private VectorDBService loadCorpus() throws IOException {
+        if (!VectorFile.Format.isSupported(corpus)) {
+            return new VectorDBService(corpus.toString());
+        }
+        Path directory = Files.createTempDirectory("eval-ann");
+        Path basePath = directory.resolve("knowledge_base.bin");
+        // deleteOnExit удаляет в обратном порядке: сначала файл, потом каталог
+        directory.toFile().deleteOnExit();
+        basePath.toFile().deleteOnExit();
+
+        VectorDBService vectorDB = new VectorDBService(basePath.toString());
+        long start = System.currentTimeMillis();
+        try (VectorFile file = VectorFile.open(corpus)) {
+            vectorDB.importVectors(file, IndexBuilder.DATASET_ID_PREFIX);
+        }
+        System.out.println("Набор " + corpus + " загружен за " + (System.currentTimeMillis() - start) + " мс");
+        return vectorDB;
+    }
+
+    private static List<double[]> readDatasetQueries(Path file, int dimension) throws IOException {
+        try (VectorFile queries = VectorFile.open(file)) {
+            if (queries.getDimension() != dimension) {
+                throw new IllegalStateException("Размерность запросов " + queries.getDimension() +
+                        " не совпадает с размерностью корпуса " + dimension);
+            }
+            List<double[]> result = new ArrayList<>(queries.size());
+            for (int i = 0; i < queries.size(); i++) {
+                result.add(queries.readDoubles(i));
+            }
+            return result;
+        }
+    }
+
+    // Строка i файла .ivecs - номера ближайших строк корпуса для запроса i; id строк те же,
+    // что назначил importVectors (из файла .ids или префикс и номер)
+    private List<Set<String>> readGroundTruth(Path file, int queryCount, int k) throws IOException {
+        List<String> rowIds = null;
+        Path idsPath = Paths.get(corpus + VectorDBService.IDS_FILE_EXTENSION);
+        if (Files.exists(idsPath)) {
+            rowIds = Files.readAllLines(idsPath, StandardCharsets.UTF_8);
+        }
+
+        try (VectorFile neighbors = VectorFile.open(file)) {
+            if (neighbors.size() < queryCount) {
+                throw new IllegalStateException("В эталоне " + neighbors.size() + " строк при " + queryCount + " запросах");
+            }
+            if (neighbors.getDimension() < k) {
+                throw new IllegalStateException("В эталоне только " + neighbors.getDimension() + " соседей, K = " + k);
+            }
+            List<Set<String>> truth = new ArrayList<>(queryCount);
+            for (int q = 0; q < queryCount; q++) {
+                int[] rows = neighbors.readInts(q);
+                Set<String> set = new HashSet<>();
+                for (int i = 0; i < k; i++) {
+                    set.add(rowIds != null ? rowIds.get(rows[i]) : IndexBuilder.DATASET_ID_PREFIX + rows[i]);
+                }
+                truth.add(set);
+            }
+            return truth;
+        }
+    }
+
+    // Индекс строится один раз на каждое число списков, пробы перебираются на готовом индексе
+    private List<Result> evaluateIvf(List<String> ids, List<double[]> vectors, List<double[]> queries,
+                                     List<Set<String>> groundTruth, ForkJoinPool pool) {
+        int[] listCounts = lists.length > 0 ? lists : new int[]{IvfIndex.defaultListCount(vectors.size())};
+        List<Result> results = new ArrayList<>();
+        for (int listCount : listCounts) {
+            long heapBefore = usedHeapAfterGc();
+            long buildStart = System.nanoTime();
+            IvfIndex index = IvfIndex.build(ids, vectors, listCount, pool);
+            long buildMs = (System.nanoTime() - buildStart) / 1_000_000;
+            long memory = Math.max(0, usedHeapAfterGc() - heapBefore);
+            System.out.println("Индекс IVF: " + index.getListCount() + " списков, построен за " + buildMs + " мс");
+
+            Map<String, Integer> buildParams = new LinkedHashMap<>();
+            buildParams.put("lists", index.getListCount());
+            for (int probeCount : probes) {
+                if (probeCount > index.getListCount()) {
+                    continue;
+                }
+                Map<String, Integer> searchParams = new LinkedHashMap<>();
+                searchParams.put("probes", probeCount);
+                results.add(measure("ivf", buildParams, searchParams, buildMs, memory, queries, groundTruth,
+                        query -> {
+                            List<String> found = new ArrayList<>(topK);
+                            for (IvfIndex.Result result : index.search(query, topK, probeCount)) {
+                                found.add(result.id);
+                            }
+                            return found;
+                        }));
+            }
+        }
+        return results;
+    }
+
+    // Индекс DiskANN строится во временный файл, списки кандидатов перебираются на готовом индексе.
+    // Память - прирост кучи при открытии (коды PQ и таблица id), векторы и граф читаются из файла
+    private List<Result> evaluateDiskAnn(List<String> ids, List<double[]> vectors, List<double[]> queries,
+                                         List<Set<String>> groundTruth, ForkJoinPool pool) throws IOException {
+        Path file = Files.createTempFile("eval-ann-", VectorDBService.DISKANN_FILE_EXTENSION);
+        List<Result> results = new ArrayList<>();
+        try {
+            long buildStart = System.nanoTime();
+            DiskAnnIndex.build(ids, vectors, diskAnnParams, file, pool);
+            long buildMs = (System.nanoTime() - buildStart) / 1_000_000;
+            long heapBefore = usedHeapAfterGc();
+            try (DiskAnnIndex index = DiskAnnIndex.open(file)) {
+                long memory = Math.max(0, usedHeapAfterGc() - heapBefore);
+                System.out.println("Индекс DiskANN: степень " + index.getMaxDegree() + ", PQ " +
+                        index.getPqSubspaces() + " байт, файл " + index.getFileBytes() / (1024 * 1024) +
+                        " МБ, построен за " + buildMs + " мс");
+                Map<String, Integer> buildParams = new LinkedHashMap<>();
+                buildParams.put("degree", index.getMaxDegree());
+                buildParams.put("build_list", diskAnnParams.buildListSize);
+                buildParams.put("pq_bytes", index.getPqSubspaces());
+                for (int searchList : searchLists) {
+                    if (searchList < topK) {
+                        continue;
+                    }
+                    Map<String, Integer> searchParams = new LinkedHashMap<>();
+                    searchParams.put("list", searchList);
+                    long readsBefore = index.getNodeReads();
+                    long searchesBefore = index.getSearchCount();
+                    results.add(measure("disk", buildParams, searchParams, buildMs, memory,
+                            queries, groundTruth, query -> {
+                                List<String> found = new ArrayList<>(topK);
+                                for (IvfIndex.Result result : index.search(query, topK, searchList,
+                                        DiskAnnIndex.DEFAULT_BEAM_WIDTH, searchList * 2)) {
+                                    found.add(result.id);
+                                }
+                                return found;
+                            }));
+                    System.out.println("    чтений узлов на запрос: " + String.format(Locale.ROOT, "%.1f",
+                            (double) (index.getNodeReads() - readsBefore) / (index.getSearchCount() - searchesBefore)));
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        return results;
+    }
+
+    // Способ поиска базы из VectorStoreRegistry поверх того же корпуса; память - прирост кучи при построении
+    private Result evaluateStore(String backend, VectorDBService vectorDB, List<double[]> queries,
+                                 List<Set<String>> groundTruth) {
+        VectorStoreRegistry.Config config = new VectorStoreRegistry.Config();
+        config.backend = backend;
+        long heapBefore = usedHeapAfterGc();
+        long buildStart = System.nanoTime();
+        VectorStore store = VectorStoreRegistry.create(corpus.getFileName().toString(), vectorDB, config);
+        long buildMs = (System.nanoTime() - buildStart) / 1_000_000;
+        long memory = Math.max(0, usedHeapAfterGc() - heapBefore);
+        return measure(backend, new LinkedHashMap<>(), new LinkedHashMap<>(), buildMs, memory, queries, groundTruth,
+                query -> toIds(store.searchSimilar(query, topK, -1)));
+    }
+
+    // exact, ivf и остальные способы поиска базы; brute совпадает с exact
+    private static List<String> defaultModes() {
+        List<String> result = new ArrayList<>(List.of("exact", "ivf"));
+        for (String backend : VectorStoreRegistry.getBackends()) {
+            if (!backend.equals("brute") && !result.contains(backend)) {
+                result.add(backend);
+            }
+        }
+        return result;
+    }
+
+    // Запросы выполняются по одному в текущем потоке: задержка - время одного запроса,
+    // QPS - пропускная способность одного потока
+    private Result measure(String mode, Map<String, Integer> buildParams, Map<String, Integer> searchParams,
+                           long buildMs, long memoryBytes, List<double[]> queries, List<Set<String>> groundTruth,
+                           Searcher searcher) {
+        for (int pass = 0; pass < warmupPasses; pass++) {
+            for (double[] query : queries) {
+                searcher.search(query);
+            }
+        }
+
+        LatencyHistogram latency = new LatencyHistogram();
+        double recallSum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < queries.size(); i++) {
+            long queryStart = System.nanoTime();
+            List<String> found = searcher.search(queries.get(i));
+            latency.recordNanos(System.nanoTime() - queryStart);
+            recallSum += recall(found, groundTruth.get(i));
+        }
+        long elapsedNanos = System.nanoTime() - start;
+
+        Result result = new Result();
+        result.mode = mode;
+        result.buildParams = buildParams;
+        result.searchParams = searchParams;
+        result.recall = recallSum / queries.size();
+        result.p50Ms = latency.percentileMicros(0.5) / 1000.0;
+        result.p99Ms = latency.percentileMicros(0.99) / 1000.0;
+        result.qps = elapsedNanos > 0 ? queries.size() * 1_000_000_000.0 / elapsedNanos : 0;
+        result.buildMs = buildMs;
+        result.memoryBytes = memoryBytes;
+        System.out.println("  " + result.describe());
+        return result;
+    }
+
+    private static double recall(List<String> found, Set<String> truth) {
+        if (truth.isEmpty()) {
+            return 1.0;
+        }
+        int hits = 0;
+        for (String id : found) {
+            if (truth.contains(id)) {
+                hits++;
+            }
+        }
+        return (double) hits / truth.size();
+    }
+
+    // Схожесть - косинус или, для l2, расстояние со знаком минус (больше - ближе)
+    private static List<Set<String>> computeGroundTruth(List<String> ids, List<double[]> vectors,
+                                                        List<double[]> queries, int k, boolean l2, ForkJoinPool pool)
+            throws Exception {
+        double[] norms = new double[vectors.size()];
+        for (int i = 0; i < norms.length; i++) {
+            norms[i] = norm(vectors.get(i));
+        }
+
+        return pool.submit(() -> IntStream.range(0, queries.size()).parallel().mapToObj(q -> {
+            double[] query = queries.get(q);
+            double queryNorm = norm(query);
+            // Минимальная куча из k лучших: индексы документов по возрастанию схожести
+            double[] scores = new double[vectors.size()];
+            PriorityQueue<Integer> best = new PriorityQueue<>(k + 1,
+                    (a, b) -> Double.compare(scores[a], scores[b]));
+            for (int i = 0; i < vectors.size(); i++) {
+                double[] vector = vectors.get(i);
+                if (vector.length != query.length) {
+                    continue;
+                }
+                double dot = 0;
+                for (int d = 0; d < vector.length; d++) {
+                    dot += query[d] * vector[d];
+                }
+                if (l2) {
+                    scores[i] = -(queryNorm * queryNorm - 2 * dot + norms[i] * norms[i]);
+                } else {
+                    double denominator = queryNorm * norms[i];
+                    scores[i] = denominator > 0 ? dot / denominator : 0;
+                }
+                if (best.size() < k) {
+                    best.add(i);
+                } else if (scores[i] > scores[best.peek()]) {
+                    best.poll();
+                    best.add(i);
+                }
+            }
+            Set<String> set = new HashSet<>();
+            for (int i : best) {
+                set.add(ids.get(i));
+            }
+            return set;
+        }).collect(Collectors.toList())).get();
+    }
+
+    // Нормы равны с точностью 0.1% - ранжирование по l2 и по косинусу совпадает
+    private static boolean sameNorms(List<double[]> vectors) {
+        double min = Double.MAX_VALUE;
+        double max = 0;
+        for (double[] vector : vectors) {
+            double norm = norm(vector);
+            min = Math.min(min, norm);
+            max = Math.max(max, norm);
+        }
+        return max - min <= 0.001 * max;
+    }
+
+    private static double norm(double[] vector) {
+        double sum = 0;
+        for (double value : vector) {
+            sum += value * value;
+        }
+        return Math.sqrt(sum);
+    }
+
+    private static List<String> toIds(List<VectorStore.SearchResult> results) {
+        List<String> found = new ArrayList<>(results.size());
+        for (VectorStore.SearchResult result : results) {
+            found.add(result.document.getId());
+        }
+        return found;
+    }
+
+    private static List<double[]> readQueries(Path file, int dimension) throws IOException {
+        List<double[]> queries = new ArrayList<>();
+        int skipped = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                JSONArray embedding = new JSONObject(line).optJSONArray("embedding");
+                if (embedding == null || embedding.length() != dimension) {
+                    skipped++;
+                    continue;
+                }
+                double[] query = new double[dimension];
+                for (int i = 0; i < dimension; i++) {
+                    query[i] = embedding.getDouble(i);
+                }
+                queries.add(query);
+            }
+        }
+        if (skipped > 0) {
+            System.err.println("Пропущено запросов без эмбеддинга размерности " + dimension + ": " + skipped);
+        }
+        return queries;
+    }
+
+    // Запросы из самого корпуса: случайные документы с гауссовым шумом, чтобы ближайшим
+    // соседом не был всегда сам документ
+    private static List<double[]> sampleQueries(List<double[]> vectors, int count, double noise, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        List<double[]> queries = new ArrayList<>(count);
+        for (int q = 0; q < count; q++) {
+            double[] source = vectors.get(random.nextInt(vectors.size()));
+            double scale = noise * norm(source) / Math.sqrt(source.length);
+            double[] query = new double[source.length];
+            for (int d = 0; d < query.length; d++) {
+                query[d] = source[d] + scale * gaussian(random);
+            }
+            queries.add(query);
+        }
+        return queries;
+    }
+
+    private static double gaussian(SplittableRandom random) {
+        // Преобразование Бокса - Мюллера
+        double u = 1.0 - random.nextDouble();
+        return Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * random.nextDouble());
+    }
+
+    // Приблизительно: занятая куча после сборки мусора
+    private static long usedHeapAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private void printTable(List<Result> results) {
+        System.out.println();
+        System.out.printf("%-9s %-14s %-12s %9s %9s %9s %10s %10s %12s%n",
+                "режим", "построение", "поиск", "recall@" + topK, "p50, мс", "p99, мс", "QPS", "сборка, мс", "память, МБ");
+        for (Result r : results) {
+            System.out.printf("%-9s %-14s %-12s %9.4f %9.3f %9.3f %10.1f %10d %12.1f%n",
+                    r.mode, formatParams(r.buildParams), formatParams(r.searchParams), r.recall, r.p50Ms, r.p99Ms,
+                    r.qps, r.buildMs, r.memoryBytes / (1024.0 * 1024.0));
+        }
+    }
+
+    private void writeCsv(Path file, List<Result> results) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            out.println("mode,build_params,search_params,k,recall,p50_ms,p99_ms,qps,build_ms,memory_bytes");
+            for (Result r : results) {
+                out.printf(Locale.ROOT, "%s,%s,%s,%d,%.6f,%.4f,%.4f,%.2f,%d,%d%n",
+                        r.mode, formatParams(r.buildParams), formatParams(r.searchParams), topK, r.recall,
+                        r.p50Ms, r.p99Ms, r.qps, r.buildMs, r.memoryBytes);
+            }
+        }
+    }
+
+    // "lists=256 probes=16" - без запятых, чтобы не экранировать в CSV
+    private static String formatParams(Map<String, Integer> params) {
+        if (params.isEmpty()) {
+            return "-";
+        }
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Integer> entry : params.entrySet()) {
+            if (text.length() > 0) {
+                text.append(' ');
+            }
+            text.append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return text.toString();
+    }
+
+    private interface Searcher {
+        List<String> search(double[] query);
+    }
+
+    // Одна точка перебора
+    private static class Result {
+        String mode;
+        Map<String, Integer> buildParams;
+        Map<String, Integer> searchParams;
+        double recall;
+        double p50Ms;
+        double p99Ms;
+        double qps;
+        long buildMs;
+        long memoryBytes;
+
+        String describe() {
+            return String.format("%s %s %s: recall %.4f, p50 %.3f мс, p99 %.3f мс, %.1f QPS",
+                    mode, formatParams(buildParams), formatParams(searchParams), recall, p50Ms, p99Ms, qps);
+        }
+
+        JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            json.put("mode", mode);
+            json.put("build_params", new JSONObject(buildParams));
+            json.put("search_params", new JSONObject(searchParams));
+            json.put("recall", recall);
+            json.put("p50_ms", p50Ms);
+            json.put("p99_ms", p99Ms);
+            json.put("qps", qps);
+            json.put("build_ms", buildMs);
+            json.put("memory_bytes", memoryBytes);
+            return json;
+        }
+    }
+}
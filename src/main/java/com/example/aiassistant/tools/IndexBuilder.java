@@ -0,0 +1,381 @@
+package com.example.aiassistant.tools;
+
+import com.example.aiassistant.index.DiskAnnIndex;
+import com.example.aiassistant.index.IvfIndex;
+import com.example.aiassistant.io.VectorFile;
+import com.example.aiassistant.model.KnowledgeDocument;
+import com.example.aiassistant.service.AssistantService;
+import com.example.aiassistant.service.EmbeddingService;
+import com.example.aiassistant.service.VectorDBService;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+// Офлайн-сборка базы знаний из JSONL-корпуса.
+// Каждая строка: {"content": "...", "source": "...", "metadata": {...}, "embedding": [...], "id": "..."},
+// поля embedding и id необязательны. Результат - готовый файл базы (knowledge_base.bin)
+// и заранее построенный IVF-индекс рядом с ним, которые сервер загружает при старте.
+// С --index diskann рядом пишется дисковый индекс DiskANN (способ поиска disk, см. VectorStoreRegistry).
+// Вместо JSONL можно передать набор векторов .fvecs или .npy (SIFT, GloVe и т.п.) - он загружается
+// в базу напрямую, без текстов и JSON (см. VectorDBService.importVectors).
+//
+// Запуск: java ... com.example.aiassistant.Main build-index --input corpus.jsonl [параметры]
+public class IndexBuilder {
+    private static final String DEFAULT_EMBEDDING_MODEL = "all-minilm:22m";
+    // id векторов набора без файла .ids: префикс и номер строки, как в groundtruth.ivecs
+    public static final String DATASET_ID_PREFIX = "vec-";
+    // Строк корпуса, которые читаются и разбираются за раз
+    private static final int PARSE_CHUNK_LINES = 10000;
+
+    private Path input;
+    private String output = "knowledge_base.bin";
+    private String ollamaHost = AssistantService.OLLAMA_HOST;
+    private String embeddingModel = DEFAULT_EMBEDDING_MODEL;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int embedConcurrency = 4;
+    private int batchSize = EmbeddingService.DEFAULT_BATCH_SIZE;
+    private int lists = 0; // 0 - подобрать по размеру корпуса
+    private boolean buildIndex = true;
+    private List<String> indexTypes = List.of("ivf");
+    private final DiskAnnIndex.BuildParams diskAnnParams = new DiskAnnIndex.BuildParams();
+
+    public static void main(String[] args) {
+        IndexBuilder builder = new IndexBuilder();
+        try {
+            builder.parseArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(2);
+            return;
+        }
+
+        try {
+            builder.run();
+        } catch (Exception e) {
+            System.err.println("Ошибка сборки индекса: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void printUsage() {
+        System.out.println("Использование: build-index --input <corpus.jsonl | vectors.fvecs | vectors.npy> [параметры]");
+        System.out.println("  --output <файл>          файл базы знаний (по умолчанию knowledge_base.bin)");
+        System.out.println("  --ollama <url>           адрес OLLAMA для документов без эмбеддингов");
+        System.out.println("  --model <модель>         модель эмбеддингов (по умолчанию " + DEFAULT_EMBEDDING_MODEL + ")");
+        System.out.println("  --threads <n>            потоки для разбора и построения индекса (по умолчанию все ядра)");
+        System.out.println("  --embed-concurrency <n>  одновременных пакетов к OLLAMA (по умолчанию 4)");
+        System.out.println("  --batch-size <n>         текстов в одном запросе /api/embed");
+        System.out.println("  --lists <n>              число списков IVF (по умолчанию sqrt(N))");
+        System.out.println("  --index <ivf|diskann>    какие индексы строить, через запятую (по умолчанию ivf)");
+        System.out.println("  --graph-degree <n>       DiskANN: соседей у узла графа (по умолчанию 32)");
+        System.out.println("  --build-list <n>         DiskANN: список кандидатов при построении (по умолчанию 64)");
+        System.out.println("  --pq-bytes <n>           DiskANN: байт кода PQ на вектор в памяти (по умолчанию размерность / 8)");
+        System.out.println("  --no-index               не строить приближенный индекс");
+    }
+
+    private void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--input": input = Paths.get(value(args, ++i, arg)); break;
+                case "--output": output = value(args, ++i, arg); break;
+                case "--ollama": ollamaHost = value(args, ++i, arg); break;
+                case "--model": embeddingModel = value(args, ++i, arg); break;
+                case "--threads": threads = intValue(args, ++i, arg); break;
+                case "--embed-concurrency": embedConcurrency = intValue(args, ++i, arg); break;
+                case "--batch-size": batchSize = intValue(args, ++i, arg); break;
+                case "--lists": lists = intValue(args, ++i, arg); break;
+                case "--index": indexTypes = parseIndexTypes(value(args, ++i, arg)); break;
+                case "--graph-degree": diskAnnParams.maxDegree = intValue(args, ++i, arg); break;
+                case "--build-list": diskAnnParams.buildListSize = intValue(args, ++i, arg); break;
+                case "--pq-bytes": diskAnnParams.pqSubspaces = intValue(args, ++i, arg); break;
+                case "--no-index": buildIndex = false; break;
+                default: throw new IllegalArgumentException("Неизвестный параметр: " + arg);
+            }
+        }
+        if (input == null) {
+            throw new IllegalArgumentException("Не указан входной файл (--input)");
+        }
+    }
+
+    private static String value(String[] args, int i, String name) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Не указано значение для " + name);
+        }
+        return args[i];
+    }
+
+    private static List<String> parseIndexTypes(String value) {
+        List<String> types = Arrays.asList(value.split(","));
+        for (String type : types) {
+            if (!type.equals("ivf") && !type.equals("diskann")) {
+                throw new IllegalArgumentException("Неизвестный тип индекса: " + type + " (ivf, diskann)");
+            }
+        }
+        return types;
+    }
+
+    private static int intValue(String[] args, int i, String name) {
+        try {
+            int value = Integer.parseInt(value(args, i, name));
+            if (value < 0) {
+                throw new NumberFormatException();
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Некорректное число для " + name);
+        }
+    }
+
+    private void run() throws Exception {
+        long start = System.currentTimeMillis();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+
+        try {
+            if (VectorFile.Format.isSupported(input)) {
+                runDataset(pool);
+                return;
+            }
+
+            // 1. Потоковое чтение корпуса и параллельный разбор пакетами строк: в памяти копятся
+            // только разобранные документы. Повторный id заменяет прежнюю запись, как в базе.
+            Map<String, KnowledgeDocument> byId = new LinkedHashMap<>();
+            AtomicInteger parseErrors = new AtomicInteger();
+            int records = 0;
+            try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+                List<String> chunk = new ArrayList<>(PARSE_CHUNK_LINES);
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    chunk.add(line);
+                    if (chunk.size() == PARSE_CHUNK_LINES) {
+                        records += parseChunk(chunk, byId, pool, parseErrors);
+                        chunk.clear();
+                    }
+                }
+                records += parseChunk(chunk, byId, pool, parseErrors);
+            }
+            System.out.println("Прочитано записей: " + records);
+            if (parseErrors.get() > 0) {
+                System.err.println("Пропущено некорректных записей: " + parseErrors.get());
+            }
+            int duplicates = records - parseErrors.get() - byId.size();
+            if (duplicates > 0) {
+                System.err.println("Записей с повторным id (оставлена последняя): " + duplicates);
+            }
+
+            List<KnowledgeDocument> documents = new ArrayList<>(byId.values());
+            byId.clear();
+            List<KnowledgeDocument> withoutEmbedding = new ArrayList<>();
+            for (KnowledgeDocument document : documents) {
+                if (document.getEmbedding() == null) {
+                    withoutEmbedding.add(document);
+                }
+            }
+
+            // 2. Эмбеддинги для записей без них - параллельными пакетами
+            if (!withoutEmbedding.isEmpty()) {
+                embedDocuments(withoutEmbedding);
+            }
+
+            // 3. Проверка размерности: остаются документы с самой частой размерностью
+            Map<Integer, Integer> dimensionCounts = new HashMap<>();
+            for (KnowledgeDocument document : documents) {
+                dimensionCounts.merge(document.getEmbedding().length, 1, Integer::sum);
+            }
+            int dimension = dimensionCounts.entrySet().stream()
+                    .max(Map.Entry.comparingByValue())
+                    .map(Map.Entry::getKey)
+                    .orElse(0);
+            List<KnowledgeDocument> accepted = new ArrayList<>(documents.size());
+            for (KnowledgeDocument document : documents) {
+                if (document.getEmbedding().length == dimension) {
+                    accepted.add(document);
+                }
+            }
+            if (accepted.size() < documents.size()) {
+                System.err.println("Пропущено документов с другой размерностью эмбеддинга: " +
+                        (documents.size() - accepted.size()));
+            }
+
+            // 4. Файл базы знаний. Индексы прежней базы удаляются: сервер не должен загрузить рядом
+            // с новой базой индекс другого корпуса (--no-index, другой тип индекса, пустой корпус)
+            Files.deleteIfExists(indexPathFor(output, VectorDBService.INDEX_FILE_EXTENSION));
+            Files.deleteIfExists(indexPathFor(output, VectorDBService.DISKANN_FILE_EXTENSION));
+            long writeStart = System.currentTimeMillis();
+            VectorDBService.writeKnowledgeBase(output, accepted);
+            System.out.println("База знаний записана: " + output + " (" + accepted.size() + " документов, " +
+                    (System.currentTimeMillis() - writeStart) + " мс)");
+
+            // 5. Приближенный индекс
+            if (buildIndex && !accepted.isEmpty()) {
+                writeIndex(accepted, pool);
+            }
+
+            System.out.println("Готово за " + (System.currentTimeMillis() - start) + " мс. Размерность: " + dimension);
+
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Разбор пакета строк в пуле; возвращает число строк пакета
+    private static int parseChunk(List<String> lines, Map<String, KnowledgeDocument> byId, ForkJoinPool pool,
+                                  AtomicInteger parseErrors) throws Exception {
+        KnowledgeDocument[] parsed = new KnowledgeDocument[lines.size()];
+        pool.submit(() -> IntStream.range(0, lines.size()).parallel().forEach(i -> {
+            try {
+                parsed[i] = parseRecord(new JSONObject(lines.get(i)));
+            } catch (Exception e) {
+                parseErrors.incrementAndGet();
+            }
+        })).get();
+        for (KnowledgeDocument document : parsed) {
+            if (document != null) {
+                byId.put(document.getId(), document);
+            }
+        }
+        return lines.size();
+    }
+
+    // Набор векторов: файл отображается в память и загружается в новую базу без разбора JSON
+    private void runDataset(ForkJoinPool pool) throws IOException {
+        long start = System.currentTimeMillis();
+        // Существующая база перезаписывается, как и при сборке из JSONL
+        Files.deleteIfExists(Paths.get(output));
+        Files.deleteIfExists(indexPathFor(output, VectorDBService.INDEX_FILE_EXTENSION));
+        Files.deleteIfExists(indexPathFor(output, VectorDBService.DISKANN_FILE_EXTENSION));
+
+        VectorDBService vectorDB = new VectorDBService(output);
+        try (VectorFile file = VectorFile.open(input)) {
+            System.out.println("Набор векторов: " + file.size() + " x " + file.getDimension() + " (" +
+                    file.getFormat().name().toLowerCase() + ")");
+            int added = vectorDB.importVectors(file, DATASET_ID_PREFIX);
+            System.out.println("Загружено векторов: " + added + " за " + (System.currentTimeMillis() - start) + " мс");
+        }
+
+        long writeStart = System.currentTimeMillis();
+        vectorDB.flush();
+        System.out.println("База знаний записана: " + output + " (" + (System.currentTimeMillis() - writeStart) + " мс)");
+
+        if (buildIndex && vectorDB.getDocumentCount() > 0) {
+            writeIndex(vectorDB.getAllDocuments(), pool);
+        }
+        System.out.println("Готово за " + (System.currentTimeMillis() - start) + " мс");
+    }
+
+    private void writeIndex(Collection<KnowledgeDocument> documents, ForkJoinPool pool) throws IOException {
+        List<String> ids = new ArrayList<>(documents.size());
+        List<double[]> vectors = new ArrayList<>(documents.size());
+        for (KnowledgeDocument document : documents) {
+            ids.add(document.getId());
+            vectors.add(document.getEmbedding());
+        }
+
+        if (indexTypes.contains("ivf")) {
+            long indexStart = System.currentTimeMillis();
+            int listCount = lists > 0 ? lists : IvfIndex.defaultListCount(documents.size());
+            IvfIndex index = IvfIndex.build(ids, vectors, listCount, pool);
+            Path indexPath = indexPathFor(output, VectorDBService.INDEX_FILE_EXTENSION);
+            index.writeTo(indexPath);
+            System.out.println("Индекс IVF записан: " + indexPath + " (" + index.getListCount() + " списков, " +
+                    (System.currentTimeMillis() - indexStart) + " мс)");
+        }
+        if (indexTypes.contains("diskann")) {
+            long indexStart = System.currentTimeMillis();
+            Path indexPath = indexPathFor(output, VectorDBService.DISKANN_FILE_EXTENSION);
+            DiskAnnIndex.build(ids, vectors, diskAnnParams, indexPath, pool);
+            System.out.println("Индекс DiskANN записан: " + indexPath + " (" + Files.size(indexPath) / (1024 * 1024) +
+                    " МБ, " + (System.currentTimeMillis() - indexStart) + " мс)");
+        }
+    }
+
+    private static KnowledgeDocument parseRecord(JSONObject json) {
+        String content = json.optString("content", "");
+        if (content.isBlank()) {
+            throw new IllegalArgumentException("Пустой content");
+        }
+
+        JSONObject metadata = json.optJSONObject("metadata");
+        KnowledgeDocument document = new KnowledgeDocument(content, json.optString("source", "corpus"),
+                metadata != null ? metadata : new JSONObject());
+        if (json.has("id")) {
+            document.setId(json.getString("id"));
+        }
+
+        JSONArray embeddingArray = json.optJSONArray("embedding");
+        if (embeddingArray != null && !embeddingArray.isEmpty()) {
+            double[] embedding = new double[embeddingArray.length()];
+            for (int i = 0; i < embedding.length; i++) {
+                embedding[i] = embeddingArray.getDouble(i);
+            }
+            document.setEmbedding(embedding);
+        }
+        return document;
+    }
+
+    private void embedDocuments(List<KnowledgeDocument> documents) throws Exception {
+        System.out.println("Получение эмбеддингов для " + documents.size() + " документов (модель " +
+                embeddingModel + ")...");
+        EmbeddingService embeddingService = new EmbeddingService(ollamaHost, embeddingModel);
+        embeddingService.setBatchSize(batchSize);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, embedConcurrency));
+        AtomicInteger done = new AtomicInteger();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int from = 0; from < documents.size(); from += batchSize) {
+                List<KnowledgeDocument> batch = documents.subList(from, Math.min(from + batchSize, documents.size()));
+                futures.add(executor.submit(() -> {
+                    List<String> texts = new ArrayList<>(batch.size());
+                    for (KnowledgeDocument document : batch) {
+                        texts.add(document.getContent());
+                    }
+                    List<double[]> vectors = embeddingService.getEmbeddings(texts);
+                    for (int i = 0; i < batch.size(); i++) {
+                        batch.get(i).setEmbedding(vectors.get(i));
+                    }
+                    int total = done.addAndGet(batch.size());
+                    if (total % (batchSize * 50) < batch.size() || total == documents.size()) {
+                        System.out.println("  эмбеддинги: " + total + "/" + documents.size());
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+            embeddingService.shutdown();
+        }
+    }
+
+    private static Path indexPathFor(String knowledgeBasePath, String extension) {
+        String base = knowledgeBasePath.endsWith(".bin")
+                ? knowledgeBasePath.substring(0, knowledgeBasePath.length() - 4)
+                : knowledgeBasePath;
+        return Paths.get(base + extension);
+    }
+}
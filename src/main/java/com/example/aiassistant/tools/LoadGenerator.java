@@ -0,0 +1,630 @@
+package com.example.aiassistant.tools;
+
+import com.example.aiassistant.model.KnowledgeDocument;
+import com.example.aiassistant.service.AssistantService;
+import com.example.aiassistant.service.ChatHistoryService;
+import com.example.aiassistant.service.EmbeddingService;
+import com.example.aiassistant.service.VectorDBService;
+import com.example.aiassistant.service.VectorStore;
+import com.example.aiassistant.service.VectorStoreRegistry;
+import com.example.aiassistant.util.LatencyHistogram;
+import com.example.aiassistant.web.AdmissionController;
+import com.example.aiassistant.web.HttpRequestParser;
+import com.example.aiassistant.web.RequestScheduler;
+import com.example.aiassistant.web.WebServer;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+// Нагрузочный тест ассистента: вопросы через POST /api/ask с заданной частотой, ответы - событиями
+// из GET /api/chat_stream, как в браузере. Нагрузка открытая: вопрос отправляется в назначенный
+// момент независимо от того, ответил ли сервер на предыдущие, а задержки считаются от назначенного
+// момента - перегруженный сервер не занижает их, замедляя отправку.
+// Для каждого вопроса измеряются прием (ответ на POST), ожидание до начала генерации, первый токен
+// и полный ответ; итог - пропускная способность, p50/p90/p99 и число отказов 429/503.
+//
+// --mock поднимает все в одном процессе: имитацию OLLAMA (MockOllamaServer), временную базу знаний
+// из синтетических документов и веб-сервер, - тест не зависит от модели и GPU.
+//
+// Запуск: java ... com.example.aiassistant.Main load-test --mock --qps 2 --duration 60
+//     или java ... com.example.aiassistant.Main load-test --url http://localhost:8080 --qps 2
+public class LoadGenerator {
+    private static final String[] VOCABULARY = {
+            "векторная", "база", "знаний", "поиск", "эмбеддинги", "модель", "ответ", "контекст", "документ",
+            "индекс", "память", "запрос", "Java", "сервер", "очередь", "кэш", "история", "чат", "токен",
+            "генерация", "задержка", "пропускная", "способность", "файл", "загрузка", "схожесть"
+    };
+    private static final String[] DEFAULT_QUESTIONS = {
+            "Как устроен поиск по векторной базе знаний?",
+            "Что хранится в истории чата и как она загружается?",
+            "Как модель использует контекст из документов?",
+            "Какая задержка у генерации ответа?",
+            "Как работает очередь запросов на сервере?",
+            "Где хранятся эмбеддинги документов?",
+            "Как загрузить файл в базу знаний?",
+            "Чем индекс отличается от полного перебора?"
+    };
+
+    private String url;
+    private boolean inProcess;
+    private double qps = 1;
+    private int durationSeconds = 60;
+    private int warmupSeconds = 0;
+    private int drainSeconds = 120;
+    private int streams = 4;
+    private boolean streamPerQuestion;
+    private Path questionsFile;
+    private Path jsonOutput;
+    private long maxP99Ms;
+    // Параметры режима --mock
+    private int port = 18080;
+    private int documents = 1000;
+    private final List<String> mockArgs = new ArrayList<>();
+
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+    private final LatencyHistogram acceptLatency = new LatencyHistogram();
+    private final LatencyHistogram queueLatency = new LatencyHistogram();
+    private final LatencyHistogram firstTokenLatency = new LatencyHistogram();
+    private final LatencyHistogram answerLatency = new LatencyHistogram();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong answered = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong overloaded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong answerErrors = new AtomicLong();
+    private final AtomicLong lastAnswerNanos = new AtomicLong();
+
+    private HttpClient client;
+    private List<String> questions;
+    private long measureStartNanos;
+
+    public static void main(String[] args) {
+        LoadGenerator generator = new LoadGenerator();
+        try {
+            generator.parseArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(2);
+            return;
+        }
+
+        int exitCode;
+        try {
+            exitCode = generator.run();
+        } catch (Exception e) {
+            System.err.println("Ошибка нагрузочного теста: " + e.getMessage());
+            exitCode = 1;
+        }
+        // Веб-сервер и имитация OLLAMA режима --mock работают в своих потоках
+        System.exit(exitCode);
+    }
+
+    private static void printUsage() {
+        System.out.println("Использование: load-test (--url <адрес> | --mock) [параметры]");
+        System.out.println("  --url <адрес>             запущенный ассистент, например http://localhost:8080");
+        System.out.println("  --mock                    ассистент, база и имитация OLLAMA в этом процессе");
+        System.out.println("  --qps <x>                 вопросов в секунду (по умолчанию 1)");
+        System.out.println("  --duration <с>            длительность замера (по умолчанию 60)");
+        System.out.println("  --warmup <с>              прогрев перед замером, не учитывается (по умолчанию 0)");
+        System.out.println("  --drain <с>               ожидание ответов после отправки последнего вопроса (по умолчанию 120)");
+        System.out.println("  --streams <n>             общих потоков /api/chat_stream (по умолчанию 4)");
+        System.out.println("  --stream-per-question     новый поток /api/chat_stream на каждый вопрос, как новая вкладка");
+        System.out.println("  --questions <файл>        вопросы, по одному в строке");
+        System.out.println("  --json <файл>             итог в JSON");
+        System.out.println("  --max-p99-ms <n>          код выхода 3, если p99 полного ответа больше n мс");
+        System.out.println("  Режим --mock:");
+        System.out.println("  --port <n>                порт веб-сервера (по умолчанию 18080)");
+        System.out.println("  --documents <n>           синтетических документов в базе (по умолчанию 1000)");
+        System.out.println("  а также параметры mock-ollama: --parallel, --tokens-per-second, --first-token-ms, ...");
+    }
+
+    private void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--url": url = value(args, ++i, arg); break;
+                case "--mock": inProcess = true; break;
+                case "--qps": qps = doubleValue(args, ++i, arg); break;
+                case "--duration": durationSeconds = intValue(args, ++i, arg); break;
+                case "--warmup": warmupSeconds = intValue(args, ++i, arg); break;
+                case "--drain": drainSeconds = intValue(args, ++i, arg); break;
+                case "--streams": streams = intValue(args, ++i, arg); break;
+                case "--stream-per-question": streamPerQuestion = true; break;
+                case "--questions": questionsFile = Paths.get(value(args, ++i, arg)); break;
+                case "--json": jsonOutput = Paths.get(value(args, ++i, arg)); break;
+                case "--max-p99-ms": maxP99Ms = intValue(args, ++i, arg); break;
+                case "--port": port = intValue(args, ++i, arg); break;
+                case "--documents": documents = intValue(args, ++i, arg); break;
+                default:
+                    // Остальное - параметры имитации OLLAMA, проверяются ею
+                    mockArgs.add(arg);
+                    mockArgs.add(value(args, ++i, arg));
+            }
+        }
+        if ((url == null) == !inProcess) {
+            throw new IllegalArgumentException("Укажите либо --url, либо --mock");
+        }
+        if (!inProcess && !mockArgs.isEmpty()) {
+            throw new IllegalArgumentException("Неизвестный параметр: " + mockArgs.get(0));
+        }
+        MockOllamaServer.parseArgs(mockArgs.toArray(new String[0]), new MockOllamaServer.Config());
+        if (qps <= 0 || durationSeconds == 0) {
+            throw new IllegalArgumentException("Частота и длительность должны быть больше нуля");
+        }
+        if (!streamPerQuestion && streams == 0) {
+            throw new IllegalArgumentException("Нужен хотя бы один поток событий (--streams)");
+        }
+    }
+
+    private static String value(String[] args, int i, String name) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Не указано значение для " + name);
+        }
+        return args[i];
+    }
+
+    private static int intValue(String[] args, int i, String name) {
+        try {
+            int value = Integer.parseInt(value(args, i, name));
+            if (value < 0) {
+                throw new NumberFormatException();
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Некорректное число для " + name);
+        }
+    }
+
+    private static double doubleValue(String[] args, int i, String name) {
+        try {
+            return Double.parseDouble(value(args, i, name));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Некорректное число для " + name);
+        }
+    }
+
+    private int run() throws Exception {
+        questions = questionsFile != null ? readQuestions(questionsFile) : List.of(DEFAULT_QUESTIONS);
+        Path workDirectory = null;
+        MockOllamaServer mock = null;
+        if (inProcess) {
+            workDirectory = Files.createTempDirectory("load-test");
+            mock = startMock();
+            startAssistant(mock.getUrl(), workDirectory);
+            url = "http://localhost:" + port;
+        }
+
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .executor(executor)
+                .build();
+        try {
+            waitUntilReady();
+            List<EventStream> sharedStreams = new ArrayList<>();
+            if (!streamPerQuestion) {
+                for (int i = 0; i < streams; i++) {
+                    sharedStreams.add(EventStream.open(this, executor));
+                }
+            }
+
+            System.out.println("Нагрузка: " + qps + " вопросов/с, " + durationSeconds + " с" +
+                    (warmupSeconds > 0 ? " после прогрева " + warmupSeconds + " с" : "") + " -> " + url);
+            generateLoad(executor, sharedStreams);
+
+            // Ожидание ответов на уже отправленные вопросы
+            long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(drainSeconds);
+            while (!pending.isEmpty() && System.nanoTime() < drainDeadline) {
+                Thread.sleep(100);
+            }
+            int unanswered = pending.size();
+            for (EventStream stream : sharedStreams) {
+                stream.close();
+            }
+
+            JSONObject report = buildReport(unanswered);
+            printReport(report);
+            if (mock != null) {
+                report.put("mock_ollama", mock.getStatus());
+            }
+            if (jsonOutput != null) {
+                Files.writeString(jsonOutput, report.toString(2), StandardCharsets.UTF_8);
+                System.out.println("Итог записан: " + jsonOutput);
+            }
+
+            long p99Ms = answerLatency.percentileMicros(0.99) / 1000;
+            if (maxP99Ms > 0 && p99Ms > maxP99Ms) {
+                System.err.println("p99 полного ответа " + p99Ms + " мс больше допустимых " + maxP99Ms + " мс");
+                return 3;
+            }
+            return 0;
+        } finally {
+            executor.shutdownNow();
+            if (mock != null) {
+                mock.stop();
+            }
+            if (workDirectory != null) {
+                deleteRecursively(workDirectory);
+            }
+        }
+    }
+
+    // Вопрос i отправляется в момент start + i / qps; поток отправки только ждет и раздает задачи
+    private void generateLoad(ExecutorService executor, List<EventStream> sharedStreams) {
+        long intervalNanos = (long) (1_000_000_000 / qps);
+        long start = System.nanoTime();
+        measureStartNanos = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = measureStartNanos + TimeUnit.SECONDS.toNanos(durationSeconds);
+        for (long i = 0; ; i++) {
+            long intended = start + i * intervalNanos;
+            if (intended >= end) {
+                break;
+            }
+            long remaining;
+            while ((remaining = intended - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+            }
+            long number = i;
+            EventStream stream = sharedStreams.isEmpty() ? null : sharedStreams.get((int) (i % sharedStreams.size()));
+            executor.execute(() -> ask(number, intended, stream, executor));
+        }
+    }
+
+    private void ask(long number, long intendedNanos, EventStream sharedStream, ExecutorService executor) {
+        boolean measured = intendedNanos >= measureStartNanos;
+        String sessionId = "load-" + number;
+        EventStream stream = sharedStream;
+        Pending question = new Pending(intendedNanos, measured);
+        try {
+            if (stream == null) {
+                stream = EventStream.open(this, executor);
+            }
+            pending.put(sessionId, question);
+            if (measured) {
+                sent.incrementAndGet();
+            }
+
+            JSONObject body = new JSONObject();
+            body.put("question", questions.get((int) (number % questions.size())));
+            body.put("session_id", sessionId);
+            body.put("stream_id", stream.getStreamId());
+            HttpRequest request = HttpRequest.newBuilder(URI.create(url + "/api/ask"))
+                    .header("Content-Type", "application/json")
+                    .timeout(Duration.ofSeconds(30))
+                    .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                    .build();
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+
+            if (measured) {
+                acceptLatency.recordNanos(System.nanoTime() - intendedNanos);
+                switch (response.statusCode()) {
+                    case 200: accepted.incrementAndGet(); break;
+                    case 429: rateLimited.incrementAndGet(); break;
+                    case 503: overloaded.incrementAndGet(); break;
+                    default: failed.incrementAndGet(); break;
+                }
+            }
+            if (response.statusCode() != 200) {
+                pending.remove(sessionId);
+                return;
+            }
+            if (sharedStream == null) {
+                // Своя вкладка закрывается после ответа
+                question.done.get(drainSeconds + durationSeconds + warmupSeconds, TimeUnit.SECONDS);
+            }
+        } catch (Exception e) {
+            pending.remove(sessionId);
+            if (measured) {
+                failed.incrementAndGet();
+            }
+        } finally {
+            if (sharedStream == null && stream != null) {
+                stream.close();
+            }
+        }
+    }
+
+    // События ответа из /api/chat_stream; вопрос определяется по session_id
+    void onEvent(JSONObject event) {
+        String type = event.optString("type");
+        Pending question = pending.get(event.optString("session_id"));
+        if (question == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        switch (type) {
+            case "answer_start":
+                if (question.measured) {
+                    queueLatency.recordNanos(now - question.intendedNanos);
+                }
+                break;
+            case "answer_token":
+                if (!question.firstToken) {
+                    question.firstToken = true;
+                    if (question.measured) {
+                        firstTokenLatency.recordNanos(now - question.intendedNanos);
+                    }
+                }
+                break;
+            case "answer_complete":
+            case "error":
+                if (pending.remove(event.optString("session_id")) == null) {
+                    return;
+                }
+                if (question.measured) {
+                    if (type.equals("error")) {
+                        answerErrors.incrementAndGet();
+                    } else {
+                        answered.incrementAndGet();
+                        answerLatency.recordNanos(now - question.intendedNanos);
+                        lastAnswerNanos.accumulateAndGet(now, Math::max);
+                    }
+                }
+                question.done.complete(null);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private JSONObject buildReport(int unanswered) {
+        JSONObject report = new JSONObject();
+        report.put("url", url);
+        report.put("target_qps", qps);
+        report.put("duration_seconds", durationSeconds);
+        report.put("sent", sent.get());
+        report.put("accepted", accepted.get());
+        report.put("answered", answered.get());
+        report.put("rejected_429", rateLimited.get());
+        report.put("rejected_503", overloaded.get());
+        report.put("failed", failed.get());
+        report.put("answer_errors", answerErrors.get());
+        report.put("unanswered", unanswered);
+
+        // Пропускная способность - за время от начала замера до последнего ответа
+        double elapsedSeconds = Math.max(durationSeconds,
+                (lastAnswerNanos.get() - measureStartNanos) / 1_000_000_000.0);
+        report.put("offered_qps", sent.get() / (double) durationSeconds);
+        report.put("answers_per_second", answered.get() / elapsedSeconds);
+
+        JSONObject latency = new JSONObject();
+        latency.put("accept", latencyJSON(acceptLatency));
+        latency.put("queue", latencyJSON(queueLatency));
+        latency.put("first_token", latencyJSON(firstTokenLatency));
+        latency.put("answer", latencyJSON(answerLatency));
+        report.put("latency_ms", latency);
+        return report;
+    }
+
+    private static JSONObject latencyJSON(LatencyHistogram histogram) {
+        JSONObject json = new JSONObject();
+        json.put("count", histogram.getCount());
+        json.put("p50", histogram.percentileMicros(0.5) / 1000.0);
+        json.put("p90", histogram.percentileMicros(0.9) / 1000.0);
+        json.put("p99", histogram.percentileMicros(0.99) / 1000.0);
+        json.put("max", histogram.getMaxMicros() / 1000.0);
+        return json;
+    }
+
+    private static void printReport(JSONObject report) {
+        System.out.println();
+        System.out.println("=== Итог нагрузочного теста ===");
+        System.out.printf("Отправлено: %d (%.2f вопросов/с), принято: %d, отказов 429: %d, 503: %d, ошибок: %d%n",
+                report.getLong("sent"), report.getDouble("offered_qps"), report.getLong("accepted"),
+                report.getLong("rejected_429"), report.getLong("rejected_503"), report.getLong("failed"));
+        System.out.printf("Ответов: %d (%.2f в секунду), ошибок генерации: %d, без ответа: %d%n",
+                report.getLong("answered"), report.getDouble("answers_per_second"),
+                report.getLong("answer_errors"), report.getInt("unanswered"));
+        System.out.printf("%-16s %8s %10s %10s %10s %10s%n", "задержка, мс", "число", "p50", "p90", "p99", "max");
+        JSONObject latency = report.getJSONObject("latency_ms");
+        String[][] rows = {{"accept", "прием"}, {"queue", "начало ответа"}, {"first_token", "первый токен"},
+                {"answer", "полный ответ"}};
+        for (String[] row : rows) {
+            JSONObject item = latency.getJSONObject(row[0]);
+            System.out.printf("%-16s %8d %10.1f %10.1f %10.1f %10.1f%n", row[1], item.getLong("count"),
+                    item.getDouble("p50"), item.getDouble("p90"), item.getDouble("p99"), item.getDouble("max"));
+        }
+    }
+
+    // --- Режим --mock ---
+
+    private MockOllamaServer startMock() throws IOException {
+        MockOllamaServer.Config config = new MockOllamaServer.Config();
+        config.port = 0;
+        MockOllamaServer.parseArgs(mockArgs.toArray(new String[0]), config);
+        MockOllamaServer mock = new MockOllamaServer(config);
+        mock.start();
+        return mock;
+    }
+
+    // База знаний и история чата - во временном каталоге, рабочие файлы не затрагиваются.
+    // Лимит частоты на клиента снят: вся нагрузка идет с одного адреса.
+    private void startAssistant(String ollamaUrl, Path workDirectory) {
+        VectorDBService vectorDB = new VectorDBService(workDirectory.resolve("knowledge_base.bin").toString());
+        seedKnowledgeBase(vectorDB, ollamaUrl);
+        // Способ поиска - как у приложения, из -Dvector.store и -Dvector.store.experiment
+        VectorStore vectorStore = VectorStoreRegistry.create(VectorStoreRegistry.DEFAULT_COLLECTION, vectorDB,
+                VectorStoreRegistry.Config.fromSystemProperties(VectorStoreRegistry.DEFAULT_COLLECTION));
+
+        AssistantService assistant = new AssistantService(vectorStore, ollamaUrl,
+                new ChatHistoryService(workDirectory.resolve("chat_history.bin").toString()));
+        RequestScheduler.Config schedulerConfig = new RequestScheduler.Config();
+        WebServer server = new WebServer(port, assistant, vectorStore, new HttpRequestParser.Limits(),
+                schedulerConfig);
+        AdmissionController.Config admission = new AdmissionController.Config();
+        admission.concurrency = schedulerConfig.llmConcurrency;
+        admission.clientBurst = 1e9;
+        admission.clientRatePerMinute = 1e9;
+        server.setAdmissionControl(admission);
+        server.setContinuousRecording(false);
+        Thread serverThread = new Thread(server::start, "load-test-web-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+
+    private void seedKnowledgeBase(VectorDBService vectorDB, String ollamaUrl) {
+        if (documents == 0) {
+            return;
+        }
+        SplittableRandom random = new SplittableRandom(42);
+        List<KnowledgeDocument> batch = new ArrayList<>(documents);
+        List<String> texts = new ArrayList<>(documents);
+        for (int i = 0; i < documents; i++) {
+            StringBuilder text = new StringBuilder("Документ ").append(i).append('.');
+            for (int w = 0; w < 60; w++) {
+                text.append(' ').append(VOCABULARY[random.nextInt(VOCABULARY.length)]);
+            }
+            texts.add(text.toString());
+            batch.add(new KnowledgeDocument(text.toString(), "load-test/" + (i % 20)));
+        }
+        EmbeddingService embeddingService = new EmbeddingService(ollamaUrl, "all-minilm:22m");
+        try {
+            List<double[]> vectors = embeddingService.getEmbeddings(texts);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).setEmbedding(vectors.get(i));
+            }
+        } finally {
+            embeddingService.shutdown();
+        }
+        vectorDB.addDocuments(batch);
+        System.out.println("База знаний для теста: " + vectorDB.getDocumentCount() + " документов");
+    }
+
+    private void waitUntilReady() throws InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url + "/api/status"))
+                .timeout(Duration.ofSeconds(5)).GET().build();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (true) {
+            try {
+                if (client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // Сервер еще не слушает порт
+            }
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Сервер " + url + " не отвечает");
+            }
+            Thread.sleep(200);
+        }
+    }
+
+    private static List<String> readQuestions(Path file) throws IOException {
+        List<String> result = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (!line.isBlank()) {
+                result.add(line.trim());
+            }
+        }
+        if (result.isEmpty()) {
+            throw new IllegalArgumentException("В файле " + file + " нет вопросов");
+        }
+        return result;
+    }
+
+    private static void deleteRecursively(Path directory) {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException e) {
+            System.err.println("Не удалось удалить " + directory + ": " + e.getMessage());
+        }
+    }
+
+    // Отправленный вопрос, ожидающий ответа
+    private static class Pending {
+        final long intendedNanos;
+        final boolean measured;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        volatile boolean firstToken;
+
+        Pending(long intendedNanos, boolean measured) {
+            this.intendedNanos = intendedNanos;
+            this.measured = measured;
+        }
+    }
+
+    // Соединение GET /api/chat_stream: id потока приходит первым событием (connected)
+    private static class EventStream {
+        private final CompletableFuture<String> streamId = new CompletableFuture<>();
+        private volatile Stream<String> lines;
+        private volatile boolean closed;
+
+        static EventStream open(LoadGenerator generator, ExecutorService executor) throws Exception {
+            EventStream stream = new EventStream();
+            HttpRequest request = HttpRequest.newBuilder(URI.create(generator.url + "/api/chat_stream"))
+                    .header("Accept", "text/event-stream")
+                    .GET().build();
+            executor.execute(() -> stream.read(generator, request));
+            return stream;
+        }
+
+        private void read(LoadGenerator generator, HttpRequest request) {
+            try {
+                HttpResponse<Stream<String>> response = generator.client.send(request,
+                        HttpResponse.BodyHandlers.ofLines());
+                lines = response.body();
+                if (closed) {
+                    lines.close();
+                    return;
+                }
+                lines.forEach(line -> {
+                    if (!line.startsWith("data: ")) {
+                        return;
+                    }
+                    try {
+                        JSONObject event = new JSONObject(line.substring(6));
+                        if ("connected".equals(event.optString("type"))) {
+                            streamId.complete(event.getString("session_id"));
+                        } else {
+                            generator.onEvent(event);
+                        }
+                    } catch (JSONException e) {
+                        // Неполное или чужое событие
+                    }
+                });
+            } catch (Exception e) {
+                streamId.completeExceptionally(e);
+            }
+        }
+
+        String getStreamId() throws Exception {
+            return streamId.get(10, TimeUnit.SECONDS);
+        }
+
+        void close() {
+            closed = true;
+            Stream<String> current = lines;
+            if (current != null) {
+                current.close();
+            }
+        }
+    }
+}
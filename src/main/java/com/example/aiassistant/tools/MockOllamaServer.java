@@ -0,0 +1,364 @@
+package com.example.aiassistant.tools;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Имитация OLLAMA для нагрузочных тестов без модели и GPU: /api/generate, /api/chat, /api/embeddings,
+// /api/embed и /api/tags в формате OLLAMA. Ответ генерируется с заданными задержкой до первого
+// токена и скоростью, одновременно - не больше parallel генераций (как OLLAMA_NUM_PARALLEL),
+// остальные ждут очереди. Тексты ответов и эмбеддинги детерминированы: одинаковый запрос - одинаковый
+// ответ. Эмбеддинг - сумма псевдослучайных векторов слов, поэтому тексты с общими словами похожи
+// и поиск по базе знаний находит осмысленные документы.
+//
+// Запуск: java ... com.example.aiassistant.Main mock-ollama [--port 11434] [параметры]
+// или в процессе: new MockOllamaServer(config).start()
+public class MockOllamaServer {
+
+    // Параметры имитации
+    public static class Config {
+        public int port = 11434;                 // 0 - свободный порт
+        public int parallel = 1;                 // одновременных генераций
+        public long promptMsPerKiloChar = 20;    // обработка промпта: мс на 1000 символов
+        public long firstTokenMs = 150;          // задержка до первого токена сверх обработки промпта
+        public double tokensPerSecond = 40;      // скорость генерации
+        public int responseTokens = 128;         // токенов в ответе
+        public int embeddingDimension = 384;
+        public long embeddingMs = 5;             // задержка запроса эмбеддингов
+        public double embeddingMsPerText = 0.5;  // и добавка на каждый текст пакета
+        public List<String> models = List.of("deepseek-coder-v2:16b", "all-minilm:22m");
+    }
+
+    private static final String[] WORDS = {
+            "векторная", "база", "знаний", "хранит", "документы", "и", "эмбеддинги", "в", "памяти",
+            "поиск", "выполняется", "по", "косинусной", "схожести", "модель", "отвечает", "с", "учетом",
+            "контекста", "the", "answer", "uses", "retrieved", "context", "Java", "OLLAMA", "ответ", "."
+    };
+
+    private final Config config;
+    private final Semaphore generationSlots;
+    private final AtomicLong generations = new AtomicLong();
+    private final AtomicLong embeddingTexts = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public MockOllamaServer(Config config) {
+        this.config = config;
+        this.generationSlots = new Semaphore(Math.max(1, config.parallel), true);
+    }
+
+    public static void main(String[] args) {
+        Config config = new Config();
+        try {
+            parseArgs(args, config);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(2);
+            return;
+        }
+        MockOllamaServer server = new MockOllamaServer(config);
+        try {
+            server.start();
+        } catch (IOException e) {
+            System.err.println("Не удалось запустить имитацию OLLAMA: " + e.getMessage());
+            System.exit(1);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+    }
+
+    private static void printUsage() {
+        System.out.println("Использование: mock-ollama [параметры]");
+        System.out.println("  --port <n>               порт (по умолчанию 11434)");
+        System.out.println("  --parallel <n>           одновременных генераций (по умолчанию 1)");
+        System.out.println("  --first-token-ms <n>     задержка до первого токена, мс (по умолчанию 150)");
+        System.out.println("  --prompt-ms-per-kchar <n> обработка промпта, мс на 1000 символов (по умолчанию 20)");
+        System.out.println("  --tokens-per-second <x>  скорость генерации (по умолчанию 40)");
+        System.out.println("  --response-tokens <n>    токенов в ответе (по умолчанию 128)");
+        System.out.println("  --embedding-dim <n>      размерность эмбеддингов (по умолчанию 384)");
+        System.out.println("  --embedding-ms <n>       задержка запроса эмбеддингов, мс (по умолчанию 5)");
+        System.out.println("  --models <список>        модели для /api/tags через запятую");
+    }
+
+    static void parseArgs(String[] args, Config config) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Не указано значение для " + arg);
+            }
+            String value = args[++i];
+            try {
+                switch (arg) {
+                    case "--port": config.port = Integer.parseInt(value); break;
+                    case "--parallel": config.parallel = Integer.parseInt(value); break;
+                    case "--first-token-ms": config.firstTokenMs = Long.parseLong(value); break;
+                    case "--prompt-ms-per-kchar": config.promptMsPerKiloChar = Long.parseLong(value); break;
+                    case "--tokens-per-second": config.tokensPerSecond = Double.parseDouble(value); break;
+                    case "--response-tokens": config.responseTokens = Integer.parseInt(value); break;
+                    case "--embedding-dim": config.embeddingDimension = Integer.parseInt(value); break;
+                    case "--embedding-ms": config.embeddingMs = Long.parseLong(value); break;
+                    case "--models": config.models = List.of(value.split(",")); break;
+                    default: throw new IllegalArgumentException("Неизвестный параметр: " + arg);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Некорректное число для " + arg);
+            }
+        }
+        if (config.tokensPerSecond <= 0 || config.embeddingDimension <= 0 || config.parallel <= 0) {
+            throw new IllegalArgumentException("Скорость, размерность и параллельность должны быть больше нуля");
+        }
+    }
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(config.port), 256);
+        // Генерация большую часть времени спит между токенами - по виртуальному потоку на запрос
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/api/generate", exchange -> handle(exchange, this::generate));
+        server.createContext("/api/chat", exchange -> handle(exchange, this::chat));
+        server.createContext("/api/embeddings", exchange -> handle(exchange, this::embeddings));
+        server.createContext("/api/embed", exchange -> handle(exchange, this::embed));
+        server.createContext("/api/tags", exchange -> handle(exchange, this::tags));
+        server.start();
+        System.out.println("Имитация OLLAMA запущена: " + getUrl() + " (" + config.parallel + " генераций, " +
+                config.tokensPerSecond + " токенов/с, первый токен через " + config.firstTokenMs + " мс)");
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            System.out.println("Имитация OLLAMA остановлена: генераций " + generations.get() +
+                    ", текстов эмбеддингов " + embeddingTexts.get());
+        }
+    }
+
+    public String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    public JSONObject getStatus() {
+        JSONObject status = new JSONObject();
+        status.put("requests", requests.get());
+        status.put("generations", generations.get());
+        status.put("embedding_texts", embeddingTexts.get());
+        status.put("generations_waiting", generationSlots.getQueueLength());
+        return status;
+    }
+
+    private interface Handler {
+        void handle(HttpExchange exchange, JSONObject request) throws IOException;
+    }
+
+    private void handle(HttpExchange exchange, Handler handler) throws IOException {
+        requests.incrementAndGet();
+        try (exchange) {
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            JSONObject request;
+            try {
+                request = body.isBlank() ? new JSONObject() : new JSONObject(body);
+            } catch (JSONException e) {
+                sendJson(exchange, 400, new JSONObject().put("error", "invalid JSON: " + e.getMessage()));
+                return;
+            }
+            handler.handle(exchange, request);
+        } catch (IOException e) {
+            // Клиент закрыл соединение посреди ответа - генерация прерывается, как в OLLAMA
+        }
+    }
+
+    private void generate(HttpExchange exchange, JSONObject request) throws IOException {
+        String prompt = request.optString("prompt", "");
+        streamCompletion(exchange, request, prompt, false);
+    }
+
+    private void chat(HttpExchange exchange, JSONObject request) throws IOException {
+        JSONArray messages = request.optJSONArray("messages");
+        StringBuilder prompt = new StringBuilder();
+        if (messages != null) {
+            for (int i = 0; i < messages.length(); i++) {
+                prompt.append(messages.getJSONObject(i).optString("content", "")).append('\n');
+            }
+        }
+        streamCompletion(exchange, request, prompt.toString(), true);
+    }
+
+    // Общая часть /api/generate и /api/chat: NDJSON по токену в строке или один ответ при stream=false
+    private void streamCompletion(HttpExchange exchange, JSONObject request, String prompt, boolean chat)
+            throws IOException {
+        String model = request.optString("model", config.models.isEmpty() ? "mock" : config.models.get(0));
+        boolean stream = request.optBoolean("stream", true);
+        long started = System.nanoTime();
+
+        generationSlots.acquireUninterruptibly();
+        try {
+            generations.incrementAndGet();
+            long loadNanos = System.nanoTime() - started;
+            long promptNanos = (config.promptMsPerKiloChar * prompt.length() / 1000 + config.firstTokenMs) * 1_000_000;
+            long tokenNanos = (long) (1_000_000_000 / config.tokensPerSecond);
+            long deadline = System.nanoTime() + promptNanos;
+            sleepUntil(deadline);
+            long evalStart = System.nanoTime();
+
+            SplittableRandom random = new SplittableRandom(prompt.hashCode() * 31L + model.hashCode());
+            OutputStream out = null;
+            StringBuilder full = new StringBuilder();
+            if (stream) {
+                exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+                exchange.sendResponseHeaders(200, 0);
+                out = exchange.getResponseBody();
+            }
+            for (int i = 0; i < config.responseTokens; i++) {
+                String token = (i == 0 ? "" : " ") + WORDS[random.nextInt(WORDS.length)];
+                full.append(token);
+                if (stream) {
+                    JSONObject chunk = chunk(model, chat, token, false);
+                    out.write((chunk + "\n").getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                }
+                deadline += tokenNanos;
+                sleepUntil(deadline);
+            }
+
+            long now = System.nanoTime();
+            JSONObject last = chunk(model, chat, stream ? "" : full.toString(), true);
+            last.put("done_reason", "stop");
+            last.put("total_duration", now - started);
+            last.put("load_duration", loadNanos);
+            last.put("prompt_eval_count", Math.max(1, prompt.length() / 4));
+            last.put("prompt_eval_duration", evalStart - started - loadNanos);
+            last.put("eval_count", config.responseTokens);
+            last.put("eval_duration", now - evalStart);
+            if (stream) {
+                out.write((last + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            } else {
+                sendJson(exchange, 200, last);
+            }
+        } finally {
+            generationSlots.release();
+        }
+    }
+
+    private static JSONObject chunk(String model, boolean chat, String content, boolean done) {
+        JSONObject chunk = new JSONObject();
+        chunk.put("model", model);
+        chunk.put("created_at", Instant.now().toString());
+        if (chat) {
+            chunk.put("message", new JSONObject().put("role", "assistant").put("content", content));
+        } else {
+            chunk.put("response", content);
+        }
+        chunk.put("done", done);
+        return chunk;
+    }
+
+    private void embeddings(HttpExchange exchange, JSONObject request) throws IOException {
+        String text = request.optString("prompt", "");
+        sleepUntil(System.nanoTime() + embeddingDelayNanos(1));
+        embeddingTexts.incrementAndGet();
+        sendJson(exchange, 200, new JSONObject().put("embedding", new JSONArray(embed(text))));
+    }
+
+    // input - строка или массив строк
+    private void embed(HttpExchange exchange, JSONObject request) throws IOException {
+        List<String> texts = new ArrayList<>();
+        JSONArray input = request.optJSONArray("input");
+        if (input != null) {
+            for (int i = 0; i < input.length(); i++) {
+                texts.add(input.optString(i, ""));
+            }
+        } else {
+            texts.add(request.optString("input", ""));
+        }
+        sleepUntil(System.nanoTime() + embeddingDelayNanos(texts.size()));
+        embeddingTexts.addAndGet(texts.size());
+
+        JSONArray embeddings = new JSONArray();
+        for (String text : texts) {
+            embeddings.put(new JSONArray(embed(text)));
+        }
+        JSONObject response = new JSONObject();
+        response.put("model", request.optString("model", "mock"));
+        response.put("embeddings", embeddings);
+        sendJson(exchange, 200, response);
+    }
+
+    private void tags(HttpExchange exchange, JSONObject request) throws IOException {
+        JSONArray models = new JSONArray();
+        for (String name : config.models) {
+            JSONObject model = new JSONObject();
+            model.put("name", name);
+            model.put("model", name);
+            model.put("modified_at", Instant.now().toString());
+            model.put("size", 0);
+            model.put("digest", "mock");
+            models.put(model);
+        }
+        sendJson(exchange, 200, new JSONObject().put("models", models));
+    }
+
+    private long embeddingDelayNanos(int texts) {
+        return (long) ((config.embeddingMs + config.embeddingMsPerText * texts) * 1_000_000);
+    }
+
+    // Нормированная сумма псевдослучайных векторов слов текста
+    double[] embed(String text) {
+        int dimension = config.embeddingDimension;
+        double[] vector = new double[dimension];
+        for (String word : text.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            SplittableRandom random = new SplittableRandom(word.hashCode());
+            for (int d = 0; d < dimension; d++) {
+                vector[d] += random.nextDouble() * 2 - 1;
+            }
+        }
+        double norm = 0;
+        for (double value : vector) {
+            norm += value * value;
+        }
+        if (norm == 0) {
+            vector[0] = 1;
+            return vector;
+        }
+        norm = Math.sqrt(norm);
+        for (int d = 0; d < dimension; d++) {
+            vector[d] /= norm;
+        }
+        return vector;
+    }
+
+    private static void sleepUntil(long deadlineNanos) {
+        long remaining;
+        // Прерывание (остановка сервера) завершает ожидание сразу
+        while ((remaining = deadlineNanos - System.nanoTime()) > 0 && !Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, JSONObject json) throws IOException {
+        byte[] bytes = json.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.aiassistant.tools;
+
+import com.example.aiassistant.service.VectorDBService;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Выгрузка эмбеддингов базы знаний в .fvecs или .npy (float32) для других систем и ANN-бенчмарков.
+// Рядом пишется <файл>.ids с id документов; build-index и eval-ann подхватывают его при загрузке.
+//
+// Запуск: java ... com.example.aiassistant.Main export-vectors --output vectors.npy [--input knowledge_base.bin]
+public class VectorExporter {
+
+    public static void main(String[] args) {
+        String input = "knowledge_base.bin";
+        Path output = null;
+        boolean valid = args.length % 2 == 0;
+        for (int i = 0; valid && i < args.length; i += 2) {
+            switch (args[i]) {
+                case "--input": input = args[i + 1]; break;
+                case "--output": output = Paths.get(args[i + 1]); break;
+                default: valid = false; break;
+            }
+        }
+        if (!valid || output == null) {
+            System.out.println("Использование: export-vectors --output <vectors.fvecs | vectors.npy> [--input knowledge_base.bin]");
+            System.exit(2);
+            return;
+        }
+
+        try {
+            long start = System.currentTimeMillis();
+            VectorDBService vectorDB = new VectorDBService(input);
+            int written = vectorDB.exportVectors(output);
+            System.out.println("Выгружено векторов: " + written + " в " + output + " за " +
+                    (System.currentTimeMillis() - start) + " мс");
+        } catch (Exception e) {
+            System.err.println("Ошибка выгрузки векторов: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
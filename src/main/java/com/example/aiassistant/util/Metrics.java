@@ -0,0 +1,220 @@
+package com.example.aiassistant.util;
+
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+// Метрики приложения в формате Prometheus (text exposition 0.0.4). Стадии ответа на вопрос
+// пишутся в гистограммы задержек, счетчики - в LongAdder; и то, и другое без блокировок.
+// Значения, которые уже считают сами компоненты (очереди, кэши), регистрируются функциями
+// и читаются только при выгрузке.
+public final class Metrics {
+
+    // Стадии ответа на вопрос
+    public enum Stage {
+        QUERY_EMBEDDING("query_embedding"),
+        VECTOR_SEARCH("vector_search"),
+        CONTEXT_ASSEMBLY("context_assembly"),
+        PROMPT_BUILD("prompt_build"),
+        TIME_TO_FIRST_TOKEN("time_to_first_token"),
+        GENERATION("generation"),
+        TTS("tts"),
+        PERSISTENCE("persistence");
+
+        private final String label;
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        Stage(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public LatencyHistogram getHistogram() {
+            return histogram;
+        }
+    }
+
+    // Границы корзин гистограммы в выгрузке, секунды: от 1 мс до 2 минут
+    private static final double[] BUCKET_BOUNDS = {
+            0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5,
+            1, 2.5, 5, 10, 30, 60, 120
+    };
+
+    private static final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    private static final Counter generatedTokens = counter("ai_generated_tokens_total", "",
+            "Токенов ответа сгенерировано");
+    private static final Counter generationSeconds = counter("ai_generation_seconds_total", "",
+            "Суммарное время генерации ответов, с");
+    private static volatile double lastTokensPerSecond;
+
+    static {
+        gauge("ai_generation_tokens_per_second", "", "Скорость генерации последнего ответа, токенов/с",
+                () -> lastTokensPerSecond);
+    }
+
+    private Metrics() {
+    }
+
+    // Время стадии от startNanos (System.nanoTime()) до текущего момента
+    public static void recordStage(Stage stage, long startNanos) {
+        stage.histogram.recordNanos(System.nanoTime() - startNanos);
+    }
+
+    // Итог генерации: число токенов и время от запроса к модели до последнего токена
+    public static void recordGeneration(int tokens, long nanos) {
+        generatedTokens.add(tokens);
+        generationSeconds.add(nanos / 1_000_000_000.0);
+        if (nanos > 0 && tokens > 0) {
+            lastTokensPerSecond = tokens * 1_000_000_000.0 / nanos;
+        }
+    }
+
+    // labels - метки ряда без фигурных скобок, например class="llm"; пустая строка - без меток.
+    // Повторная регистрация того же ряда возвращает существующий счетчик.
+    public static Counter counter(String name, String labels, String help) {
+        Family family = family(name, help, "counter");
+        Series series = family.series.computeIfAbsent(labels, key -> new Series(new Counter()));
+        return series.counter;
+    }
+
+    // Счетчик, который уже ведет сам компонент; повторная регистрация заменяет функцию
+    public static void counterFunction(String name, String labels, String help, DoubleSupplier value) {
+        family(name, help, "counter").series.put(labels, new Series(value));
+    }
+
+    public static void gauge(String name, String labels, String help, DoubleSupplier value) {
+        family(name, help, "gauge").series.put(labels, new Series(value));
+    }
+
+    public static String toPrometheus() {
+        StringBuilder out = new StringBuilder(8192);
+        for (Stage stage : Stage.values()) {
+            writeHistogram(out, stage);
+        }
+        for (Family family : families.values()) {
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Series> entry : family.series.entrySet()) {
+                out.append(family.name);
+                if (!entry.getKey().isEmpty()) {
+                    out.append('{').append(entry.getKey()).append('}');
+                }
+                out.append(' ').append(formatValue(entry.getValue().value())).append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    // Квантили стадий для /api/status и консоли
+    public static JSONObject getStageSummary() {
+        JSONObject summary = new JSONObject();
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = stage.histogram;
+            JSONObject item = new JSONObject();
+            item.put("count", histogram.getCount());
+            item.put("p50_ms", histogram.percentileMicros(0.5) / 1000.0);
+            item.put("p90_ms", histogram.percentileMicros(0.9) / 1000.0);
+            item.put("p99_ms", histogram.percentileMicros(0.99) / 1000.0);
+            item.put("max_ms", histogram.getMaxMicros() / 1000.0);
+            summary.put(stage.label, item);
+        }
+        return summary;
+    }
+
+    private static void writeHistogram(StringBuilder out, Stage stage) {
+        String name = "ai_stage_duration_seconds";
+        if (stage.ordinal() == 0) {
+            out.append("# HELP ").append(name).append(" Длительность стадий ответа на вопрос, с\n");
+            out.append("# TYPE ").append(name).append(" histogram\n");
+        }
+        LatencyHistogram histogram = stage.histogram;
+        // Общее число читается первым: корзины, записанные позже, не превысят +Inf
+        long count = histogram.getCount();
+        String stageLabel = "stage=\"" + stage.label + "\"";
+        for (double bound : BUCKET_BOUNDS) {
+            long cumulative = Math.min(count, histogram.countAtOrBelow((long) (bound * 1_000_000)));
+            out.append(name).append("_bucket{").append(stageLabel).append(",le=\"")
+                    .append(formatValue(bound)).append("\"} ").append(cumulative).append('\n');
+        }
+        out.append(name).append("_bucket{").append(stageLabel).append(",le=\"+Inf\"} ").append(count).append('\n');
+        out.append(name).append("_sum{").append(stageLabel).append("} ")
+                .append(formatValue(histogram.getSumMicros() / 1_000_000.0)).append('\n');
+        out.append(name).append("_count{").append(stageLabel).append("} ").append(count).append('\n');
+    }
+
+    private static Family family(String name, String help, String type) {
+        return families.computeIfAbsent(name, key -> new Family(name, help, type));
+    }
+
+    private static String formatValue(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    // Монотонный счетчик; дробные значения - для секунд
+    public static class Counter {
+        private final LongAdder whole = new LongAdder();
+        private final DoubleAdder fraction = new DoubleAdder();
+
+        public void increment() {
+            whole.increment();
+        }
+
+        public void add(long delta) {
+            whole.add(delta);
+        }
+
+        public void add(double delta) {
+            fraction.add(delta);
+        }
+
+        public double get() {
+            return whole.sum() + fraction.sum();
+        }
+    }
+
+    private static class Family {
+        final String name;
+        final String help;
+        final String type;
+        final Map<String, Series> series = new ConcurrentSkipListMap<>();
+
+        Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    private static class Series {
+        final Counter counter;
+        final DoubleSupplier supplier;
+
+        Series(Counter counter) {
+            this.counter = counter;
+            this.supplier = null;
+        }
+
+        Series(DoubleSupplier supplier) {
+            this.counter = null;
+            this.supplier = supplier;
+        }
+
+        double value() {
+            return counter != null ? counter.get() : supplier.getAsDouble();
+        }
+    }
+}
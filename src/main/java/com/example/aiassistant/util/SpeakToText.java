@@ -103,9 +103,11 @@ public class SpeakToText {
     }
 
     private static void runCommand(String... command) throws IOException, InterruptedException {
+        long start = System.nanoTime();
         ProcessBuilder processBuilder = new ProcessBuilder(command);
         Process process = processBuilder.start();
         process.waitFor();
+        Metrics.recordStage(Metrics.Stage.TTS, start);
     }
 
     public static void speak(String text) {
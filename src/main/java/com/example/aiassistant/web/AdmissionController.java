@@ -0,0 +1,263 @@
+package com.example.aiassistant.web;
+
+import org.json.JSONObject;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Допуск запросов к генерации (LLM). Модель обслуживает считанные генерации одновременно, поэтому
+// очередь ограничена и по длине, и по ожидаемому времени ожидания: запрос, который заведомо не
+// дождется своей очереди за queueTimeSloMs, получает отказ сразу (503 с Retry-After), а не висит
+// минутами. Частые вопросы одного клиента ограничивает token bucket (429 с Retry-After).
+public class AdmissionController {
+
+    // Параметры допуска
+    public static class Config {
+        public int concurrency = 2;              // генераций одновременно (лимит класса LLM)
+        public int maxQueueDepth = 16;           // ожидающих генераций
+        public long queueTimeSloMs = 60000;      // допустимое ожидание в очереди
+        public double clientBurst = 5;           // вопросов подряд от одного клиента
+        public double clientRatePerMinute = 12;  // устойчивый темп вопросов одного клиента
+    }
+
+    public enum Outcome {
+        ADMITTED,
+        RATE_LIMITED,   // 429 - клиент спрашивает слишком часто
+        OVERLOADED      // 503 - очередь полна или ожидание превысит SLO
+    }
+
+    private static final double SERVICE_TIME_SMOOTHING = 0.2;
+    private static final long IDLE_BUCKET_TTL_MS = 10 * 60 * 1000;
+    private static final int BUCKET_CLEANUP_INTERVAL = 1024;
+
+    private final Config config;
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    // Состояние очереди - под монитором контроллера
+    private int queued;
+    private int active;
+    private double averageServiceMs;
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong overloaded = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong totalQueueMs = new AtomicLong();
+    private final AtomicLong admitCalls = new AtomicLong();
+
+    public AdmissionController(Config config) {
+        this.config = config;
+    }
+
+    public AdmissionController() {
+        this(new Config());
+    }
+
+    Decision admit(String clientKey) {
+        long now = System.currentTimeMillis();
+        if (admitCalls.incrementAndGet() % BUCKET_CLEANUP_INTERVAL == 0) {
+            removeIdleBuckets(now);
+        }
+
+        TokenBucket bucket = buckets.computeIfAbsent(clientKey,
+                k -> new TokenBucket(config.clientBurst, config.clientRatePerMinute / 60000.0));
+        long waitForToken = bucket.tryAcquire(now);
+        if (waitForToken > 0) {
+            rateLimited.incrementAndGet();
+            return new Decision(Outcome.RATE_LIMITED, toRetrySeconds(waitForToken), null,
+                    "Слишком много вопросов, повторите позже");
+        }
+
+        synchronized (this) {
+            long estimatedWaitMs = estimateWaitMs();
+            if (queued >= config.maxQueueDepth || estimatedWaitMs > config.queueTimeSloMs) {
+                bucket.refund();
+                overloaded.incrementAndGet();
+                // Повторять имеет смысл, когда очередь успеет продвинуться
+                long retryMs = Math.max(estimatedWaitMs - config.queueTimeSloMs, (long) averageServiceMs);
+                return new Decision(Outcome.OVERLOADED, toRetrySeconds(retryMs), null,
+                        "Сервер перегружен, повторите позже");
+            }
+            queued++;
+        }
+        admitted.incrementAndGet();
+        return new Decision(Outcome.ADMITTED, 0, new Ticket(), null);
+    }
+
+    // Ожидаемое ожидание нового запроса: сколько генераций должно завершиться до его начала,
+    // деленное на параллельность, умноженное на среднее время генерации. Вызывается под монитором.
+    private long estimateWaitMs() {
+        int concurrency = Math.max(1, config.concurrency);
+        int completionsAhead = queued + active - concurrency + 1;
+        if (completionsAhead <= 0) {
+            return 0;
+        }
+        long rounds = (completionsAhead + concurrency - 1) / concurrency;
+        return (long) (rounds * averageServiceMs);
+    }
+
+    public synchronized int getQueued() {
+        return queued;
+    }
+
+    public synchronized int getActive() {
+        return active;
+    }
+
+    public long getAdmittedCount() { return admitted.get(); }
+    public long getRateLimitedCount() { return rateLimited.get(); }
+    public long getOverloadedCount() { return overloaded.get(); }
+    public long getExpiredCount() { return expired.get(); }
+
+    public JSONObject getStatus() {
+        JSONObject status = new JSONObject();
+        synchronized (this) {
+            status.put("queued", queued);
+            status.put("active", active);
+            status.put("average_service_ms", Math.round(averageServiceMs));
+            status.put("estimated_wait_ms", estimateWaitMs());
+        }
+        status.put("max_queue_depth", config.maxQueueDepth);
+        status.put("queue_time_slo_ms", config.queueTimeSloMs);
+        status.put("admitted", admitted.get());
+        status.put("rejected_rate_limited", rateLimited.get());
+        status.put("rejected_overloaded", overloaded.get());
+        status.put("expired_in_queue", expired.get());
+        long done = completed.get();
+        status.put("average_queue_ms", done > 0 ? totalQueueMs.get() / done : 0);
+        status.put("tracked_clients", buckets.size());
+        return status;
+    }
+
+    private void removeIdleBuckets(long now) {
+        Iterator<TokenBucket> iter = buckets.values().iterator();
+        while (iter.hasNext()) {
+            if (now - iter.next().getLastUsed() > IDLE_BUCKET_TTL_MS) {
+                iter.remove();
+            }
+        }
+    }
+
+    private static long toRetrySeconds(long millis) {
+        return Math.max(1, (millis + 999) / 1000);
+    }
+
+    // Решение о допуске; ticket есть только у допущенного запроса
+    static class Decision {
+        final Outcome outcome;
+        final long retryAfterSeconds;
+        final Ticket ticket;
+        final String reason;
+
+        Decision(Outcome outcome, long retryAfterSeconds, Ticket ticket, String reason) {
+            this.outcome = outcome;
+            this.retryAfterSeconds = retryAfterSeconds;
+            this.ticket = ticket;
+            this.reason = reason;
+        }
+
+        boolean isAdmitted() {
+            return outcome == Outcome.ADMITTED;
+        }
+
+        int getStatusCode() {
+            return outcome == Outcome.RATE_LIMITED ? 429 : 503;
+        }
+    }
+
+    // Место в очереди допущенного запроса
+    // Используется одним потоком: start() или abandon(), затем finish()
+    class Ticket {
+        private final long admittedAt = System.currentTimeMillis();
+        private long startedAt;
+        private boolean dequeued;
+        private boolean started;
+
+        // Начало генерации. false - запрос ждал дольше SLO и снимается: клиент уже не ждет ответа.
+        boolean start() {
+            if (dequeued) {
+                return false;
+            }
+            dequeued = true;
+            long now = System.currentTimeMillis();
+            long waitedMs = now - admittedAt;
+            synchronized (AdmissionController.this) {
+                queued--;
+                if (waitedMs > config.queueTimeSloMs) {
+                    expired.incrementAndGet();
+                    return false;
+                }
+                active++;
+            }
+            started = true;
+            startedAt = now;
+            completed.incrementAndGet();
+            totalQueueMs.addAndGet(waitedMs);
+            return true;
+        }
+
+        // Запрос отменен клиентом, пока ждал очереди
+        void abandon() {
+            if (dequeued) {
+                return;
+            }
+            dequeued = true;
+            synchronized (AdmissionController.this) {
+                queued--;
+            }
+        }
+
+        void finish() {
+            if (!started) {
+                return;
+            }
+            started = false;
+            long serviceMs = System.currentTimeMillis() - startedAt;
+            synchronized (AdmissionController.this) {
+                active--;
+                averageServiceMs = averageServiceMs == 0 ? serviceMs
+                        : averageServiceMs + SERVICE_TIME_SMOOTHING * (serviceMs - averageServiceMs);
+            }
+        }
+    }
+
+    private static class TokenBucket {
+        private final double capacity;
+        private final double refillPerMs;
+        private double tokens;
+        private long lastRefill;
+        private volatile long lastUsed;
+
+        TokenBucket(double capacity, double refillPerMs) {
+            this.capacity = Math.max(1, capacity);
+            this.refillPerMs = refillPerMs;
+            this.tokens = this.capacity;
+            this.lastRefill = System.currentTimeMillis();
+            this.lastUsed = lastRefill;
+        }
+
+        // 0 - жетон получен, иначе через сколько миллисекунд появится следующий
+        synchronized long tryAcquire(long now) {
+            lastUsed = now;
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * refillPerMs);
+            lastRefill = now;
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return refillPerMs > 0 ? (long) Math.ceil((1 - tokens) / refillPerMs) : Long.MAX_VALUE / 2;
+        }
+
+        // Жетон возвращается, если запрос все равно не был принят
+        synchronized void refund() {
+            tokens = Math.min(capacity, tokens + 1);
+        }
+
+        long getLastUsed() {
+            return lastUsed;
+        }
+    }
+}
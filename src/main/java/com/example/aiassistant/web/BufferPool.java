@@ -0,0 +1,85 @@
+package com.example.aiassistant.web;
+
+import org.json.JSONObject;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Пул direct-буферов фиксированного размера для формирования ответов. Ответ кодируется прямо
+// в буферы пула, они стоят в исходящей очереди соединения и возвращаются в пул после отправки.
+// Выделение direct-памяти дорогое, а сборщик мусора освобождает ее с опозданием - повторное
+// использование снимает и то, и другое.
+class BufferPool {
+    private final int slabSize;
+    private final int maxPooled;
+    private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger freeCount = new AtomicInteger();
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong allocated = new AtomicLong();
+
+    BufferPool(int slabSize, int maxPooled) {
+        this.slabSize = slabSize;
+        this.maxPooled = maxPooled;
+    }
+
+    int getSlabSize() {
+        return slabSize;
+    }
+
+    Lease acquire() {
+        acquired.incrementAndGet();
+        ByteBuffer buffer = free.poll();
+        if (buffer != null) {
+            freeCount.decrementAndGet();
+        } else {
+            buffer = ByteBuffer.allocateDirect(slabSize);
+            allocated.incrementAndGet();
+        }
+        return new Lease(this, buffer);
+    }
+
+    private void release(ByteBuffer buffer) {
+        // Лишние буферы не держим - их освободит сборщик мусора
+        if (freeCount.get() < maxPooled) {
+            buffer.clear();
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            free.offer(buffer);
+            freeCount.incrementAndGet();
+        }
+    }
+
+    JSONObject getStatus() {
+        JSONObject status = new JSONObject();
+        status.put("slab_size", slabSize);
+        status.put("free", freeCount.get());
+        status.put("acquired", acquired.get());
+        status.put("allocated", allocated.get());
+        return status;
+    }
+
+    // Буфер, взятый из пула. Возвращается в пул ровно один раз - после отправки или при закрытии соединения.
+    static final class Lease {
+        private final BufferPool pool;
+        private ByteBuffer buffer;
+
+        private Lease(BufferPool pool, ByteBuffer buffer) {
+            this.pool = pool;
+            this.buffer = buffer;
+        }
+
+        ByteBuffer buffer() {
+            return buffer;
+        }
+
+        void release() {
+            if (buffer != null) {
+                pool.release(buffer);
+                buffer = null;
+            }
+        }
+    }
+}
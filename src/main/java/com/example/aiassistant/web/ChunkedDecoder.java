@@ -0,0 +1,154 @@
+package com.example.aiassistant.web;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Инкрементальный декодер Transfer-Encoding: chunked.
+// Принимает байты порциями в том виде, в котором они пришли из сокета,
+// и отдает полезные данные без копирования во внутренние буферы.
+public class ChunkedDecoder {
+    private static final int MAX_SIZE_LINE = 1024;
+
+    private enum State {
+        SIZE,        // шестнадцатеричный размер чанка
+        EXTENSION,   // ;расширения до конца строки
+        SIZE_LF,
+        DATA,
+        DATA_CR,
+        DATA_LF,
+        TRAILER,     // заголовки после последнего чанка
+        DONE
+    }
+
+    // Получатель декодированных данных
+    public interface Sink {
+        void accept(byte[] data, int offset, int length) throws IOException;
+    }
+
+    private State state = State.SIZE;
+    private long chunkRemaining;
+    private int sizeDigits;
+    private int lineLength;
+    private long totalDecoded;
+
+    // Декодирует доступные байты. Возвращает true, когда получен последний (нулевой) чанк.
+    public boolean decode(ByteBuffer in, Sink sink) throws IOException {
+        while (in.hasRemaining() && state != State.DONE) {
+            switch (state) {
+                case SIZE: {
+                    byte b = in.get();
+                    int digit = Character.digit(b, 16);
+                    if (digit >= 0) {
+                        if (++sizeDigits > 15) {
+                            throw new IOException("Слишком большой размер чанка");
+                        }
+                        chunkRemaining = (chunkRemaining << 4) | digit;
+                    } else if (b == ';' || b == ' ' || b == '\t') {
+                        state = State.EXTENSION;
+                    } else if (b == '\r') {
+                        state = State.SIZE_LF;
+                    } else if (b == '\n') {
+                        onSizeLine();
+                    } else {
+                        throw new IOException("Некорректный размер чанка");
+                    }
+                    break;
+                }
+                case EXTENSION: {
+                    byte b = in.get();
+                    if (++lineLength > MAX_SIZE_LINE) {
+                        throw new IOException("Слишком длинная строка размера чанка");
+                    }
+                    if (b == '\r') {
+                        state = State.SIZE_LF;
+                    } else if (b == '\n') {
+                        onSizeLine();
+                    }
+                    break;
+                }
+                case SIZE_LF: {
+                    if (in.get() != '\n') {
+                        throw new IOException("Ожидался LF после размера чанка");
+                    }
+                    onSizeLine();
+                    break;
+                }
+                case DATA: {
+                    int length = (int) Math.min(chunkRemaining, in.remaining());
+                    if (in.hasArray()) {
+                        sink.accept(in.array(), in.arrayOffset() + in.position(), length);
+                        in.position(in.position() + length);
+                    } else {
+                        byte[] copy = new byte[length];
+                        in.get(copy);
+                        sink.accept(copy, 0, length);
+                    }
+                    chunkRemaining -= length;
+                    totalDecoded += length;
+                    if (chunkRemaining == 0) {
+                        state = State.DATA_CR;
+                    }
+                    break;
+                }
+                case DATA_CR: {
+                    byte b = in.get();
+                    if (b == '\r') {
+                        state = State.DATA_LF;
+                    } else if (b == '\n') {
+                        resetForNextChunk();
+                    } else {
+                        throw new IOException("Ожидался CRLF после данных чанка");
+                    }
+                    break;
+                }
+                case DATA_LF: {
+                    if (in.get() != '\n') {
+                        throw new IOException("Ожидался LF после данных чанка");
+                    }
+                    resetForNextChunk();
+                    break;
+                }
+                case TRAILER: {
+                    byte b = in.get();
+                    if (b == '\n') {
+                        if (lineLength == 0) {
+                            state = State.DONE;
+                        }
+                        lineLength = 0;
+                    } else if (b != '\r') {
+                        if (++lineLength > MAX_SIZE_LINE) {
+                            throw new IOException("Слишком длинный trailer-заголовок");
+                        }
+                    }
+                    break;
+                }
+                default:
+                    break;
+            }
+        }
+        return state == State.DONE;
+    }
+
+    private void onSizeLine() throws IOException {
+        if (sizeDigits == 0) {
+            throw new IOException("Пустой размер чанка");
+        }
+        lineLength = 0;
+        state = chunkRemaining == 0 ? State.TRAILER : State.DATA;
+    }
+
+    private void resetForNextChunk() {
+        state = State.SIZE;
+        chunkRemaining = 0;
+        sizeDigits = 0;
+        lineLength = 0;
+    }
+
+    public boolean isDone() {
+        return state == State.DONE;
+    }
+
+    public long getTotalDecoded() {
+        return totalDecoded;
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.aiassistant.web;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+// Согласование и выполнение сжатия тела ответа (Content-Encoding: gzip)
+final class ContentEncoding {
+
+    private ContentEncoding() {
+    }
+
+    // Клиент принимает gzip: "gzip" (или "*", если gzip не назван явно) в Accept-Encoding с ненулевым q
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        double gzipQuality = -1;
+        double anyQuality = -1;
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.split(";");
+            String coding = params[0].trim().toLowerCase();
+            double quality = 1.0;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(param.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (coding.equals("gzip") || coding.equals("x-gzip")) {
+                gzipQuality = quality;
+            } else if (coding.equals("*")) {
+                anyQuality = quality;
+            }
+        }
+        return gzipQuality >= 0 ? gzipQuality > 0 : anyQuality > 0;
+    }
+
+    // Сжимаемые типы содержимого: текст и текстовые форматы. Картинки и архивы уже сжаты.
+    static boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.toLowerCase();
+        return type.startsWith("text/") || type.startsWith("application/javascript") ||
+                type.startsWith("application/json") || type.startsWith("image/svg+xml") ||
+                type.startsWith("image/x-icon");
+    }
+
+    static byte[] gzip(byte[] data, int offset, int length, int level) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(64, length / 3));
+        try (GZIPOutputStream gzip = new GZIPOutputStream(output, 8192) {
+            {
+                def.setLevel(level);
+            }
+        }) {
+            gzip.write(data, offset, length);
+        }
+        return output.toByteArray();
+    }
+
+    static byte[] gzip(byte[] data) throws IOException {
+        return gzip(data, 0, data.length, Deflater.BEST_COMPRESSION);
+    }
+}
@@ -0,0 +1,232 @@
+package com.example.aiassistant.web;
+
+import org.json.JSONObject;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Подписчики потоков событий (SSE). Каждый поток адресуется своим идентификатором сессии,
+// поэтому ответ уходит только во вкладку, которая задала вопрос. Каналы (например, "general")
+// нужны для общих уведомлений - прогресса загрузки и т.п.
+// Отключившиеся клиенты удаляются сразу при закрытии соединения, а зависшие - периодической
+// проверкой, поэтому память и стоимость рассылки зависят только от активных клиентов.
+// События одного клиента склеиваются в пределах короткого окна (или до заполнения пакета)
+// и уходят одной gathering-записью: поток токенов ответа не превращается в системный вызов
+// на каждый токен. Важные для задержки события отправляются сразу, вместе с накопленными.
+class EventStreamRegistry {
+    static final String DEFAULT_CHANNEL = "general";
+
+    // Комментарий SSE: браузер его игнорирует, а прокси и NAT не считают соединение простаивающим.
+    // Заодно неудачная запись обнаруживает отключившегося клиента.
+    private static final long HEARTBEAT_INTERVAL_MS = 15000;
+    // Клиент, не забравший ни байта дольше этого времени при непустой очереди, считается мертвым
+    private static final long STALLED_CLIENT_TIMEOUT_MS = 60000;
+
+    private final Map<String, Client> sessions = new ConcurrentHashMap<>();
+    private final Map<String, Set<Client>> channels = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timerExecutor;
+    private final AtomicLong disconnected = new AtomicLong();
+    private final AtomicLong eventCount = new AtomicLong();
+    private final AtomicLong writeCount = new AtomicLong();
+
+    // Окно склеивания событий; 0 - каждое событие пишется сразу
+    private volatile long coalesceWindowMs = 15;
+    private volatile int maxBatchBytes = 4096;
+
+    EventStreamRegistry() {
+        timerExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "sse-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timerExecutor.scheduleAtFixedRate(this::heartbeat,
+                HEARTBEAT_INTERVAL_MS, HEARTBEAT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    void setCoalescing(long windowMs, int maxBatchBytes) {
+        this.coalesceWindowMs = Math.max(0, windowMs);
+        this.maxBatchBytes = Math.max(1, maxBatchBytes);
+    }
+
+    // Регистрация нового потока событий. Возвращает идентификатор сессии для адресной доставки.
+    String register(HttpConnection connection, String channel) {
+        String sessionId = UUID.randomUUID().toString();
+        Client client = new Client(sessionId, channel, connection);
+
+        sessions.put(sessionId, client);
+        channels.compute(channel, (name, clients) -> {
+            Set<Client> result = clients != null ? clients : ConcurrentHashMap.newKeySet();
+            result.add(client);
+            return result;
+        });
+        connection.setCloseListener(() -> remove(client));
+        return sessionId;
+    }
+
+    // Событие в поток конкретной вкладки (может быть склеено с соседними).
+    // Возвращает false, если такого потока нет.
+    boolean sendTo(String sessionId, JSONObject event) {
+        return sendTo(sessionId, event, false);
+    }
+
+    // Событие, которое нельзя задерживать: уходит сразу вместе с накопленными до него
+    boolean sendNow(String sessionId, JSONObject event) {
+        return sendTo(sessionId, event, true);
+    }
+
+    private boolean sendTo(String sessionId, JSONObject event, boolean immediate) {
+        if (sessionId == null) {
+            return false;
+        }
+        Client client = sessions.get(sessionId);
+        return client != null && send(client, encode(event), immediate);
+    }
+
+    void broadcast(String channel, JSONObject event) {
+        Set<Client> clients = channels.get(channel);
+        if (clients == null) {
+            return;
+        }
+        // Сообщение кодируется один раз для всех подписчиков
+        byte[] data = encode(event);
+        for (Client client : clients) {
+            send(client, data, false);
+        }
+    }
+
+    int getClientCount() {
+        return sessions.size();
+    }
+
+    JSONObject getStatus() {
+        JSONObject status = new JSONObject();
+        status.put("clients", sessions.size());
+        JSONObject channelStatus = new JSONObject();
+        for (Map.Entry<String, Set<Client>> entry : channels.entrySet()) {
+            channelStatus.put(entry.getKey(), entry.getValue().size());
+        }
+        status.put("channels", channelStatus);
+        status.put("disconnected", disconnected.get());
+        status.put("coalesce_window_ms", coalesceWindowMs);
+        status.put("events", eventCount.get());
+        status.put("writes", writeCount.get());
+        return status;
+    }
+
+    void shutdown() {
+        timerExecutor.shutdownNow();
+        sessions.clear();
+        channels.clear();
+    }
+
+    // Запись идет под монитором клиента: накопленные и новые события не переставляются.
+    // writeOrClose не блокируется, поэтому удержание монитора короткое.
+    private boolean send(Client client, byte[] data, boolean immediate) {
+        eventCount.incrementAndGet();
+        boolean scheduleFlush = false;
+        boolean sent = true;
+
+        synchronized (client) {
+            client.pending.add(ByteBuffer.wrap(data));
+            client.pendingBytes += data.length;
+
+            long windowMs = coalesceWindowMs;
+            if (immediate || windowMs == 0 || client.pendingBytes >= maxBatchBytes) {
+                sent = writePending(client);
+            } else if (!client.flushScheduled) {
+                client.flushScheduled = true;
+                scheduleFlush = true;
+            }
+        }
+
+        if (scheduleFlush) {
+            timerExecutor.schedule(() -> flush(client), coalesceWindowMs, TimeUnit.MILLISECONDS);
+        }
+        if (!sent) {
+            remove(client);
+        }
+        return sent;
+    }
+
+    private void flush(Client client) {
+        boolean sent;
+        synchronized (client) {
+            client.flushScheduled = false;
+            sent = writePending(client);
+        }
+        if (!sent) {
+            remove(client);
+        }
+    }
+
+    // Вызывается под монитором клиента
+    private boolean writePending(Client client) {
+        if (client.pending.isEmpty()) {
+            return client.connection.getChannel().isOpen();
+        }
+        ByteBuffer[] batch = client.pending.toArray(new ByteBuffer[0]);
+        client.pending.clear();
+        client.pendingBytes = 0;
+        writeCount.incrementAndGet();
+        return client.connection.writeOrClose(batch);
+    }
+
+    private void heartbeat() {
+        try {
+            long now = System.currentTimeMillis();
+            byte[] ping = (": ping " + now + "\n\n").getBytes(StandardCharsets.UTF_8);
+            for (Client client : sessions.values()) {
+                HttpConnection connection = client.connection;
+                if (!connection.getChannel().isOpen() || connection.isWriteStalled(now, STALLED_CLIENT_TIMEOUT_MS)) {
+                    connection.close();
+                    remove(client);
+                } else {
+                    send(client, ping, true);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Ошибка проверки клиентов событий: " + e.getMessage());
+        }
+    }
+
+    private void remove(Client client) {
+        if (sessions.remove(client.sessionId, client)) {
+            disconnected.incrementAndGet();
+        }
+        // Пустой канал удаляется, чтобы разовые каналы не копились
+        channels.computeIfPresent(client.channel, (name, clients) -> {
+            clients.remove(client);
+            return clients.isEmpty() ? null : clients;
+        });
+    }
+
+    private static byte[] encode(JSONObject event) {
+        return ("data: " + event.toString() + "\n\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static class Client {
+        final String sessionId;
+        final String channel;
+        final HttpConnection connection;
+        // Накопленные, но еще не записанные события; доступ под монитором клиента
+        final List<ByteBuffer> pending = new ArrayList<>();
+        int pendingBytes;
+        boolean flushScheduled;
+
+        Client(String sessionId, String channel, HttpConnection connection) {
+            this.sessionId = sessionId;
+            this.channel = channel;
+            this.connection = connection;
+        }
+    }
+}
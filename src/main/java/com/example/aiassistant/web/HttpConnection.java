@@ -0,0 +1,541 @@
+package com.example.aiassistant.web;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Состояние клиентского соединения между чтениями селектора.
+// Соединение постоянное (keep-alive): запросы обрабатываются строго по одному, конвейерные
+// (pipelined) запросы ждут в очереди, поэтому ответы уходят в порядке запросов.
+// Ответы не пишутся в сокет рабочими потоками до конца: то, что сокет не принял сразу, ждет
+// в исходящей очереди и дописывается потоком-реактором по OP_WRITE.
+class HttpConnection {
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+
+    // Обратное давление медленного клиента: при таком объеме неотправленных данных
+    // пишущий поток ждет, пока очередь не опустится ниже нижней границы
+    private static final long OUTBOUND_HIGH_WATERMARK = 1024 * 1024;
+    private static final long OUTBOUND_LOW_WATERMARK = 256 * 1024;
+    private static final long WRITE_STALL_TIMEOUT_MS = 30000;
+    private static final int MAX_GATHER_BUFFERS = 16;
+
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final HttpRequestParser parser;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private NdjsonIngestSession ingestSession;
+    private volatile WebSocketSession webSocket;
+
+    // Исходящая очередь. Блокировка - ReentrantLock, а не synchronized: ожидающий
+    // виртуальный поток не закрепляет за собой поток-носитель
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Condition outboundDrained = writeLock.newCondition();
+    // Элементы очереди - ByteBuffer, BufferPool.Lease (буфер пула, возвращается после отправки)
+    // или FileRegion (участок файла, отправляемый без копирования)
+    private final Deque<Object> outbound = new ArrayDeque<>();
+    private volatile long outboundBytes;
+    private volatile long lastWriteProgress = System.currentTimeMillis();
+    private boolean closeAfterFlush;
+
+    private final Deque<HttpRequest> pendingRequests = new ArrayDeque<>();
+    private HttpRequest currentRequest;
+    private boolean currentKeepAlive;
+    private boolean currentAcceptsGzip;
+    private HttpParseException deferredError;
+    private int requestCount;
+    private volatile boolean streaming;
+    private volatile boolean readPaused;
+    private volatile boolean writeInterest;
+    private volatile long lastActivity = System.currentTimeMillis();
+    private volatile Runnable closeListener;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final AtomicBoolean listenerCalled = new AtomicBoolean();
+
+    HttpConnection(SocketChannel channel, SelectionKey key, HttpRequestParser parser) {
+        this.channel = channel;
+        this.key = key;
+        this.parser = parser;
+    }
+
+    SocketChannel getChannel() { return channel; }
+
+    // Адрес клиента без порта - ключ для лимитов на клиента
+    String getRemoteHost() {
+        try {
+            SocketAddress address = channel.getRemoteAddress();
+            if (address instanceof InetSocketAddress) {
+                return ((InetSocketAddress) address).getAddress().getHostAddress();
+            }
+            return String.valueOf(address);
+        } catch (IOException e) {
+            return "unknown";
+        }
+    }
+    HttpRequestParser getParser() { return parser; }
+    ByteBuffer getReadBuffer() { return readBuffer; }
+
+    // Потоковая загрузка: дальнейшие байты соединения - тело запроса, их читает сессия
+    NdjsonIngestSession getIngestSession() { return ingestSession; }
+    void setIngestSession(NdjsonIngestSession ingestSession) {
+        this.ingestSession = ingestSession;
+        this.streaming = true;
+    }
+
+    // После рукопожатия WebSocket все байты соединения - кадры WebSocket
+    WebSocketSession getWebSocket() { return webSocket; }
+    void setWebSocket(WebSocketSession webSocket) {
+        this.webSocket = webSocket;
+        this.streaming = true;
+    }
+
+    // Соединение отдано под поток событий (SSE, потоковая загрузка) и не участвует в keep-alive
+    boolean isStreaming() { return streaming; }
+    void setStreaming(boolean streaming) { this.streaming = streaming; }
+
+    // Вызывается один раз при закрытии соединения (например, для удаления подписчика событий);
+    // если соединение уже закрыто - сразу
+    void setCloseListener(Runnable closeListener) {
+        this.closeListener = closeListener;
+        if (closed.get()) {
+            runCloseListener();
+        }
+    }
+
+    void touch() {
+        lastActivity = System.currentTimeMillis();
+    }
+
+    // Добавление разобранного запроса. Возвращает true, если соединение свободно и запрос нужно
+    // обработать сразу; иначе он ждет завершения предыдущего ответа.
+    synchronized boolean enqueue(HttpRequest request) {
+        if (currentRequest == null && deferredError == null) {
+            currentRequest = request;
+            return true;
+        }
+        pendingRequests.addLast(request);
+        return false;
+    }
+
+    synchronized int getPendingCount() {
+        return pendingRequests.size();
+    }
+
+    synchronized boolean isBusy() {
+        return currentRequest != null;
+    }
+
+    // Ошибка разбора следующего запроса: отправляется после ответов на уже принятые запросы.
+    // Возвращает true, если ошибку можно отправить сразу.
+    synchronized boolean deferError(HttpParseException error) {
+        if (currentRequest == null) {
+            return true;
+        }
+        deferredError = error;
+        return false;
+    }
+
+    // Запрос, на который сейчас формируется ответ, и решение о сохранении соединения после него
+    synchronized void beginResponse(boolean keepAlive) {
+        beginResponse(keepAlive, false);
+    }
+
+    synchronized void beginResponse(boolean keepAlive, boolean acceptsGzip) {
+        requestCount++;
+        currentKeepAlive = keepAlive;
+        currentAcceptsGzip = acceptsGzip;
+    }
+
+    // Клиент текущего запроса принимает ответ в gzip
+    synchronized boolean acceptsGzip() {
+        return currentAcceptsGzip;
+    }
+
+    synchronized boolean isKeepAlive() {
+        return currentKeepAlive;
+    }
+
+    synchronized int getRequestCount() {
+        return requestCount;
+    }
+
+    // Ответ на текущий запрос отправлен. Возвращает следующий конвейерный запрос или null.
+    synchronized HttpRequest completeResponse() {
+        currentRequest = pendingRequests.pollFirst();
+        return currentRequest;
+    }
+
+    synchronized HttpParseException takeDeferredError() {
+        HttpParseException error = deferredError;
+        deferredError = null;
+        return error;
+    }
+
+    boolean isReadPaused() { return readPaused; }
+
+    void pauseReading() {
+        if (!readPaused) {
+            readPaused = true;
+            updateInterest();
+        }
+    }
+
+    void resumeReading() {
+        if (readPaused) {
+            readPaused = false;
+            updateInterest();
+        }
+    }
+
+    // Интерес селектора складывается из двух независимых флагов: чтение может быть приостановлено
+    // (обратное давление на клиента), а запись ждать OP_WRITE
+    private synchronized void updateInterest() {
+        if (!key.isValid()) {
+            return;
+        }
+        int ops = (readPaused ? 0 : SelectionKey.OP_READ) | (writeInterest ? SelectionKey.OP_WRITE : 0);
+        if (key.interestOps() != ops) {
+            key.interestOps(ops);
+            if (!(Thread.currentThread() instanceof Reactor)) {
+                key.selector().wakeup();
+            }
+        }
+    }
+
+    // Простаивающее соединение: нет запроса в обработке, нечего отправлять, и клиент ничего не присылал
+    // дольше таймаута. Недополученный запрос тоже считается простоем - медленные клиенты
+    // не держат соединение бесконечно.
+    synchronized boolean isIdleExpired(long now, long timeoutMs) {
+        return !streaming && currentRequest == null && outboundBytes == 0 && now - lastActivity > timeoutMs;
+    }
+
+    // В очереди есть данные, но сокет не принимал их дольше таймаута
+    boolean isWriteStalled(long now, long timeoutMs) {
+        return outboundBytes > 0 && now - lastWriteProgress > timeoutMs;
+    }
+
+    // Постановка данных в исходящую очередь. Что сокет принимает сразу, пишется без ожидания,
+    // остаток дописывает реактор. Если клиент не успевает забирать данные, рабочий поток ждет
+    // (на потоке реактора ожидания нет - он сам разгружает очередь).
+    void write(ByteBuffer... buffers) throws IOException {
+        writeLock.lock();
+        try {
+            if (!(Thread.currentThread() instanceof Reactor)) {
+                awaitOutboundBelowHighWatermark();
+            }
+            enqueueAndFlush(buffers);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Ожидание места в исходящей очереди без записи: отправитель ждет, не удерживая своих
+    // блокировок, а затем ставит данные через writeWithoutWaiting (см. WebSocketSession)
+    void awaitWritable() throws IOException {
+        if (Thread.currentThread() instanceof Reactor) {
+            return;
+        }
+        writeLock.lock();
+        try {
+            awaitOutboundBelowHighWatermark();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Постановка в очередь без ожидания обратного давления
+    void writeWithoutWaiting(ByteBuffer... buffers) throws IOException {
+        writeLock.lock();
+        try {
+            enqueueAndFlush(buffers);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Запись буферов пула. Буферы возвращаются в пул после отправки, а если запись не удалась -
+    // сразу.
+    void write(List<BufferPool.Lease> leases) throws IOException {
+        boolean queued = false;
+        writeLock.lock();
+        try {
+            if (!(Thread.currentThread() instanceof Reactor)) {
+                awaitOutboundBelowHighWatermark();
+            }
+            if (!channel.isOpen()) {
+                throw new IOException("Соединение закрыто");
+            }
+            for (BufferPool.Lease lease : leases) {
+                outbound.addLast(lease);
+                outboundBytes += lease.buffer().remaining();
+            }
+            queued = true;
+            flushAndAwaitWritable();
+        } finally {
+            writeLock.unlock();
+            if (!queued) {
+                for (BufferPool.Lease lease : leases) {
+                    lease.release();
+                }
+            }
+        }
+    }
+
+    // Заголовки и участок файла: файл уходит в сокет через transferTo, минуя память процесса.
+    // Файловый канал закрывается после отправки или при закрытии соединения.
+    void transferFile(ByteBuffer header, FileChannel file, long position, long count) throws IOException {
+        writeLock.lock();
+        try {
+            if (!(Thread.currentThread() instanceof Reactor)) {
+                awaitOutboundBelowHighWatermark();
+            }
+            if (!channel.isOpen()) {
+                throw new IOException("Соединение закрыто");
+            }
+            outbound.addLast(header);
+            outboundBytes += header.remaining();
+            outbound.addLast(new FileRegion(file, position, count));
+            outboundBytes += count;
+            flushAndAwaitWritable();
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Запись для рассылок (SSE): медленный клиент не задерживает отправителя, а отключается
+    boolean writeOrClose(ByteBuffer... buffers) {
+        writeLock.lock();
+        try {
+            if (outboundBytes > OUTBOUND_HIGH_WATERMARK) {
+                close();
+                return false;
+            }
+            enqueueAndFlush(buffers);
+            return true;
+        } catch (IOException e) {
+            close();
+            return false;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Клиент, который медленно, но забирает данные, ждет сколько угодно; соединение закрывается,
+    // только если очередь не двигалась дольше WRITE_STALL_TIMEOUT_MS
+    private void awaitOutboundBelowHighWatermark() throws IOException {
+        while (outboundBytes > OUTBOUND_HIGH_WATERMARK && channel.isOpen()) {
+            long stalledMs = System.currentTimeMillis() - lastWriteProgress;
+            if (stalledMs >= WRITE_STALL_TIMEOUT_MS) {
+                close();
+                throw new IOException("Клиент не принимает данные");
+            }
+            try {
+                outboundDrained.await(WRITE_STALL_TIMEOUT_MS - stalledMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Запись прервана");
+            }
+        }
+    }
+
+    private void enqueueAndFlush(ByteBuffer[] buffers) throws IOException {
+        if (!channel.isOpen()) {
+            throw new IOException("Соединение закрыто");
+        }
+        for (ByteBuffer buffer : buffers) {
+            if (buffer.hasRemaining()) {
+                outbound.addLast(buffer);
+                outboundBytes += buffer.remaining();
+            }
+        }
+        flushAndAwaitWritable();
+    }
+
+    private void flushAndAwaitWritable() throws IOException {
+        try {
+            flushOutbound();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        if (!outbound.isEmpty() && !writeInterest) {
+            writeInterest = true;
+            updateInterest();
+        }
+    }
+
+    // Вызывается реактором, когда сокет снова готов к записи
+    void onWritable() {
+        writeLock.lock();
+        try {
+            flushOutbound();
+            if (outbound.isEmpty()) {
+                writeInterest = false;
+                updateInterest();
+                if (closeAfterFlush) {
+                    close();
+                }
+            }
+        } catch (IOException e) {
+            close();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Запись очереди в сокет до первого отказа (сокетный буфер заполнен). Вызывается под writeLock.
+    // Подряд идущие буферы уходят одной gathering-записью, участки файлов - через transferTo.
+    private void flushOutbound() throws IOException {
+        ByteBuffer[] gather = new ByteBuffer[Math.min(outbound.size(), MAX_GATHER_BUFFERS)];
+        while (!outbound.isEmpty()) {
+            long written;
+            boolean socketFull;
+
+            if (asBuffer(outbound.peekFirst()) == null) {
+                FileRegion region = (FileRegion) outbound.peekFirst();
+                written = region.transferTo(channel);
+                if (region.isDone()) {
+                    region.close();
+                    outbound.pollFirst();
+                }
+                socketFull = !region.isDone();
+            } else {
+                int count = 0;
+                for (Object item : outbound) {
+                    ByteBuffer buffer = asBuffer(item);
+                    if (count == gather.length || buffer == null) break;
+                    gather[count++] = buffer;
+                }
+                written = channel.write(gather, 0, count);
+                while (!outbound.isEmpty()) {
+                    ByteBuffer head = asBuffer(outbound.peekFirst());
+                    if (head == null || head.hasRemaining()) break;
+                    Object done = outbound.pollFirst();
+                    if (done instanceof BufferPool.Lease) {
+                        ((BufferPool.Lease) done).release();
+                    }
+                }
+                socketFull = gather[count - 1].hasRemaining();
+            }
+
+            if (written > 0) {
+                outboundBytes -= written;
+                lastWriteProgress = System.currentTimeMillis();
+                touch();
+            }
+            if (written == 0 || socketFull) {
+                break;
+            }
+        }
+        if (outboundBytes <= OUTBOUND_LOW_WATERMARK) {
+            outboundDrained.signalAll();
+        }
+    }
+
+    private static ByteBuffer asBuffer(Object item) {
+        if (item instanceof ByteBuffer) {
+            return (ByteBuffer) item;
+        }
+        if (item instanceof BufferPool.Lease) {
+            return ((BufferPool.Lease) item).buffer();
+        }
+        return null;
+    }
+
+    // Закрытие после отправки всего, что уже стоит в очереди
+    void closeAfterFlush() {
+        writeLock.lock();
+        try {
+            if (outbound.isEmpty()) {
+                close();
+            } else {
+                closeAfterFlush = true;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Очередь освобождается всегда: канал закрывается до захвата writeLock, поэтому его владелец
+    // (запись в неблокирующий сокет) отпускает блокировку быстро, а ожидающие обратного давления
+    // держат ее только в await. Буферы пула и файлы возвращаются, ожидающие писатели будятся.
+    void close() {
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Игнорируем ошибку закрытия
+        }
+        writeLock.lock();
+        try {
+            for (Object item : outbound) {
+                if (item instanceof FileRegion) {
+                    ((FileRegion) item).close();
+                } else if (item instanceof BufferPool.Lease) {
+                    ((BufferPool.Lease) item).release();
+                }
+            }
+            outbound.clear();
+            outboundBytes = 0;
+            outboundDrained.signalAll();
+        } finally {
+            writeLock.unlock();
+        }
+        if (closed.compareAndSet(false, true)) {
+            runCloseListener();
+        }
+    }
+
+    private void runCloseListener() {
+        Runnable listener = closeListener;
+        if (listener != null && listenerCalled.compareAndSet(false, true)) {
+            listener.run();
+        }
+    }
+
+    private static class FileRegion {
+        private final FileChannel file;
+        private long position;
+        private final long end;
+
+        FileRegion(FileChannel file, long position, long count) {
+            this.file = file;
+            this.position = position;
+            this.end = position + count;
+        }
+
+        long transferTo(SocketChannel target) throws IOException {
+            long written = file.transferTo(position, end - position, target);
+            if (written == 0 && position < end && position >= file.size()) {
+                throw new IOException("Файл укоротился во время отправки");
+            }
+            position += written;
+            return written;
+        }
+
+        boolean isDone() {
+            return position >= end;
+        }
+
+        void close() {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // Игнорируем ошибку закрытия
+            }
+        }
+    }
+}
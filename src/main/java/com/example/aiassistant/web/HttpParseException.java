@@ -0,0 +1,19 @@
+package com.example.aiassistant.web;
+
+import java.io.IOException;
+
+// Ошибка разбора HTTP-запроса с кодом ответа, который нужно вернуть клиенту
+public class HttpParseException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+
+    public HttpParseException(int statusCode, String message) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.aiassistant.web;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Разобранный HTTP-запрос: строка запроса, заголовки (без учета регистра имен) и тело
+public class HttpRequest {
+    private static final byte[] EMPTY_BODY = new byte[0];
+
+    private final String method;
+    private final String target;
+    private final String path;
+    private final Map<String, String> query;
+    private final String version;
+    private final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private byte[] body = EMPTY_BODY;
+    private int bodyLength = 0;
+    private boolean bodyStreamed = false;
+
+    HttpRequest(String method, String target, String version) {
+        this.method = method;
+        this.target = target;
+        this.version = version;
+
+        int queryIndex = target.indexOf('?');
+        if (queryIndex >= 0) {
+            this.path = target.substring(0, queryIndex);
+            this.query = parseQuery(target.substring(queryIndex + 1));
+        } else {
+            this.path = target;
+            this.query = new HashMap<>();
+        }
+    }
+
+    // Повторяющиеся заголовки объединяются через запятую
+    void addHeader(String name, String value) {
+        headers.merge(name, value, (oldValue, newValue) -> oldValue + ", " + newValue);
+    }
+
+    void setBody(byte[] body, int length) {
+        this.body = body;
+        this.bodyLength = length;
+    }
+
+    void setBodyStreamed(boolean bodyStreamed) {
+        this.bodyStreamed = bodyStreamed;
+    }
+
+    public String getMethod() { return method; }
+    public String getTarget() { return target; }
+    public String getPath() { return path; }
+    public Map<String, String> getQuery() { return query; }
+    public String getVersion() { return version; }
+    public Map<String, String> getHeaders() { return headers; }
+    public int getBodyLength() { return bodyLength; }
+
+    // Тело не собрано парсером: его читает обработчик потоком прямо из соединения
+    public boolean isBodyStreamed() { return bodyStreamed; }
+
+    public String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    public byte[] getBody() {
+        return bodyLength == body.length ? body : Arrays.copyOf(body, bodyLength);
+    }
+
+    public String getBodyAsString() {
+        return new String(body, 0, bodyLength, StandardCharsets.UTF_8);
+    }
+
+    static Map<String, String> parseQuery(String queryString) {
+        Map<String, String> params = new HashMap<>();
+        for (String pair : queryString.split("&")) {
+            if (pair.isEmpty()) continue;
+            int eq = pair.indexOf('=');
+            String key = eq >= 0 ? pair.substring(0, eq) : pair;
+            String value = eq >= 0 ? pair.substring(eq + 1) : "";
+            try {
+                params.put(URLDecoder.decode(key, StandardCharsets.UTF_8),
+                        URLDecoder.decode(value, StandardCharsets.UTF_8));
+            } catch (IllegalArgumentException e) {
+                // Некорректная %-последовательность - параметр пропускается
+            }
+        }
+        return params;
+    }
+}
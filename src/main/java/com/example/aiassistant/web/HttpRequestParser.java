@@ -0,0 +1,317 @@
+package com.example.aiassistant.web;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+// Инкрементальный разбор HTTP/1.1-запросов для неблокирующих соединений.
+// Байты подаются порциями в том виде, в котором пришли из сокета; состояние хранится между
+// чтениями, поэтому запрос может прийти любым числом TCP-пакетов. Тело собирается по Content-Length
+// или Transfer-Encoding: chunked. Буфер заголовков переиспользуется между запросами соединения.
+public class HttpRequestParser {
+
+    // Ограничения размеров запроса
+    public static class Limits {
+        public int maxRequestLineLength = 8 * 1024;
+        public int maxHeaderBytes = 64 * 1024;
+        public int maxHeaderCount = 100;
+        public int maxBodyBytes = 32 * 1024 * 1024;
+    }
+
+    private enum State {
+        HEADERS,
+        BODY,
+        CHUNKED_BODY
+    }
+
+    private static final int INITIAL_HEADER_BUFFER = 1024;
+    private static final int INITIAL_CHUNKED_BODY = 8 * 1024;
+
+    private final Limits limits;
+    private final Predicate<HttpRequest> streamingBody;
+
+    private State state = State.HEADERS;
+    private byte[] headerBytes = new byte[INITIAL_HEADER_BUFFER];
+    private int headerLength;
+    private int lineStart;
+    private boolean continueRequested;
+
+    private HttpRequest request;
+    private byte[] body;
+    private int bodyLength;
+    private ChunkedDecoder chunkedDecoder;
+
+    // streamingBody - запросы, тело которых не собирается в память, а читается обработчиком потоком
+    public HttpRequestParser(Limits limits, Predicate<HttpRequest> streamingBody) {
+        this.limits = limits;
+        this.streamingBody = streamingBody;
+    }
+
+    public HttpRequestParser(Limits limits) {
+        this(limits, request -> false);
+    }
+
+    // Разбирает доступные байты. Возвращает запрос, как только он получен целиком, иначе null.
+    // Байты следующего (конвейерного) запроса остаются в буфере для повторного вызова.
+    public HttpRequest parse(ByteBuffer in) throws HttpParseException {
+        while (in.hasRemaining()) {
+            switch (state) {
+                case HEADERS:
+                    if (readHeaders(in)) {
+                        parseHead();
+                        if (startBody()) {
+                            return complete();
+                        }
+                    }
+                    break;
+
+                case BODY: {
+                    int length = Math.min(body.length - bodyLength, in.remaining());
+                    in.get(body, bodyLength, length);
+                    bodyLength += length;
+                    if (bodyLength == body.length) {
+                        return complete();
+                    }
+                    break;
+                }
+
+                case CHUNKED_BODY:
+                    try {
+                        if (chunkedDecoder.decode(in, this::appendChunkedBody)) {
+                            return complete();
+                        }
+                    } catch (HttpParseException e) {
+                        throw e;
+                    } catch (IOException e) {
+                        throw new HttpParseException(400, e.getMessage());
+                    }
+                    break;
+            }
+        }
+        return null;
+    }
+
+    // Клиент прислал Expect: 100-continue и ждет разрешения передавать тело. Флаг сбрасывается при чтении.
+    public boolean takeContinueRequest() {
+        boolean requested = continueRequested;
+        continueRequested = false;
+        return requested;
+    }
+
+    // Идет разбор запроса (получена часть заголовков или тела)
+    public boolean isInProgress() {
+        return state != State.HEADERS || headerLength > 0;
+    }
+
+    // Накопление заголовков до пустой строки. Пустые строки перед строкой запроса пропускаются.
+    private boolean readHeaders(ByteBuffer in) throws HttpParseException {
+        while (in.hasRemaining()) {
+            byte b = in.get();
+            if (headerLength == headerBytes.length) {
+                if (headerLength >= limits.maxHeaderBytes) {
+                    throw new HttpParseException(431, "Request header fields too large");
+                }
+                headerBytes = Arrays.copyOf(headerBytes, Math.min(headerLength * 2, limits.maxHeaderBytes));
+            }
+            headerBytes[headerLength++] = b;
+
+            if (b != '\n') {
+                if (lineStart == 0 && headerLength > limits.maxRequestLineLength) {
+                    throw new HttpParseException(414, "Request line too long");
+                }
+                continue;
+            }
+
+            int lineEnd = headerLength - 1;
+            if (lineEnd > lineStart && headerBytes[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+            if (lineEnd == lineStart) {
+                if (lineStart == 0) {
+                    headerLength = 0;
+                    continue;
+                }
+                return true;
+            }
+            lineStart = headerLength;
+        }
+        return false;
+    }
+
+    // Разбор строки запроса и заголовков прямо из накопленных байтов
+    private void parseHead() throws HttpParseException {
+        int position = 0;
+        int lineEnd = lineEnd(position);
+
+        int firstSpace = indexOf(' ', position, lineEnd);
+        int secondSpace = firstSpace < 0 ? -1 : indexOf(' ', firstSpace + 1, lineEnd);
+        if (firstSpace <= 0 || secondSpace <= firstSpace + 1 || secondSpace == lineEnd - 1) {
+            throw new HttpParseException(400, "Malformed request line");
+        }
+        String method = ascii(position, firstSpace);
+        String target = new String(headerBytes, firstSpace + 1, secondSpace - firstSpace - 1, StandardCharsets.UTF_8);
+        String version = ascii(secondSpace + 1, lineEnd);
+        if (!version.startsWith("HTTP/1.")) {
+            throw new HttpParseException(505, "HTTP version not supported");
+        }
+        request = new HttpRequest(method, target, version);
+
+        int headerCount = 0;
+        position = nextLine(position);
+        while (position < headerLength) {
+            lineEnd = lineEnd(position);
+            if (lineEnd == position) {
+                break;
+            }
+            if (++headerCount > limits.maxHeaderCount) {
+                throw new HttpParseException(431, "Too many header fields");
+            }
+            byte first = headerBytes[position];
+            if (first == ' ' || first == '\t') {
+                throw new HttpParseException(400, "Obsolete header line folding");
+            }
+            int colon = indexOf(':', position, lineEnd);
+            if (colon <= position || headerBytes[colon - 1] == ' ' || headerBytes[colon - 1] == '\t') {
+                throw new HttpParseException(400, "Malformed header field");
+            }
+
+            int valueStart = colon + 1;
+            int valueEnd = lineEnd;
+            while (valueStart < valueEnd && isWhitespace(headerBytes[valueStart])) valueStart++;
+            while (valueEnd > valueStart && isWhitespace(headerBytes[valueEnd - 1])) valueEnd--;
+
+            request.addHeader(ascii(position, colon),
+                    new String(headerBytes, valueStart, valueEnd - valueStart, StandardCharsets.UTF_8));
+            position = nextLine(position);
+        }
+    }
+
+    // Определение способа передачи тела. Возвращает true, если запрос уже завершен.
+    private boolean startBody() throws HttpParseException {
+        String transferEncoding = request.getHeader("Transfer-Encoding");
+        String contentLength = request.getHeader("Content-Length");
+
+        boolean chunked = false;
+        long length = 0;
+        if (transferEncoding != null) {
+            if (contentLength != null) {
+                throw new HttpParseException(400, "Both Content-Length and Transfer-Encoding present");
+            }
+            if (!transferEncoding.trim().equalsIgnoreCase("chunked")) {
+                throw new HttpParseException(501, "Unsupported transfer encoding: " + transferEncoding);
+            }
+            chunked = true;
+        } else if (contentLength != null) {
+            length = parseContentLength(contentLength);
+        }
+
+        if (streamingBody.test(request)) {
+            request.setBodyStreamed(true);
+            return true;
+        }
+
+        if (chunked) {
+            state = State.CHUNKED_BODY;
+            chunkedDecoder = new ChunkedDecoder();
+            body = new byte[INITIAL_CHUNKED_BODY];
+        } else if (length > 0) {
+            if (length > limits.maxBodyBytes) {
+                throw new HttpParseException(413, "Request body too large");
+            }
+            state = State.BODY;
+            body = new byte[(int) length];
+        } else {
+            return true;
+        }
+
+        String expect = request.getHeader("Expect");
+        continueRequested = expect != null && expect.equalsIgnoreCase("100-continue");
+        return false;
+    }
+
+    private static long parseContentLength(String value) throws HttpParseException {
+        // Одинаковые повторы ("10, 10") допустимы, разные значения - нет
+        String[] values = value.split(",");
+        long length = -1;
+        for (String item : values) {
+            String trimmed = item.trim();
+            if (trimmed.isEmpty() || trimmed.length() > 18) {
+                throw new HttpParseException(400, "Invalid Content-Length");
+            }
+            long parsed = 0;
+            for (int i = 0; i < trimmed.length(); i++) {
+                char c = trimmed.charAt(i);
+                if (c < '0' || c > '9') {
+                    throw new HttpParseException(400, "Invalid Content-Length");
+                }
+                parsed = parsed * 10 + (c - '0');
+            }
+            if (length >= 0 && parsed != length) {
+                throw new HttpParseException(400, "Conflicting Content-Length values");
+            }
+            length = parsed;
+        }
+        return length;
+    }
+
+    private void appendChunkedBody(byte[] data, int offset, int length) throws HttpParseException {
+        if ((long) bodyLength + length > limits.maxBodyBytes) {
+            throw new HttpParseException(413, "Request body too large");
+        }
+        if (bodyLength + length > body.length) {
+            int newSize = (int) Math.min(limits.maxBodyBytes, Math.max((long) body.length * 2, bodyLength + length));
+            body = Arrays.copyOf(body, newSize);
+        }
+        System.arraycopy(data, offset, body, bodyLength, length);
+        bodyLength += length;
+    }
+
+    private HttpRequest complete() {
+        HttpRequest result = request;
+        if (body != null) {
+            result.setBody(body, bodyLength);
+        }
+        reset();
+        return result;
+    }
+
+    private void reset() {
+        state = State.HEADERS;
+        headerLength = 0;
+        lineStart = 0;
+        continueRequested = false;
+        request = null;
+        body = null;
+        bodyLength = 0;
+        chunkedDecoder = null;
+    }
+
+    private int lineEnd(int position) {
+        int end = position;
+        while (end < headerLength && headerBytes[end] != '\n') end++;
+        if (end > position && headerBytes[end - 1] == '\r') end--;
+        return end;
+    }
+
+    private int nextLine(int position) {
+        while (position < headerLength && headerBytes[position] != '\n') position++;
+        return position + 1;
+    }
+
+    private int indexOf(char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (headerBytes[i] == c) return i;
+        }
+        return -1;
+    }
+
+    private String ascii(int from, int to) {
+        return new String(headerBytes, from, to - from, StandardCharsets.ISO_8859_1);
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+}
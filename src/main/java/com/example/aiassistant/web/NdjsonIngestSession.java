@@ -0,0 +1,352 @@
+package com.example.aiassistant.web;
+
+import com.example.aiassistant.service.IngestionJob;
+import com.example.aiassistant.service.IngestionPipeline;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Потоковая загрузка NDJSON произвольного размера (POST /api/ingest_stream).
+// Байты из сокета разбираются по мере поступления: chunked/Content-Length -> строки -> JSON ->
+// конвейер загрузки. Если конвейер не успевает, чтение из сокета приостанавливается (OP_READ снимается),
+// и TCP сам притормаживает клиента. В ответ потоком (chunked NDJSON) идут результаты по записям,
+// периодический прогресс задания и итог.
+public class NdjsonIngestSession {
+    private static final int MAX_LINE_BYTES = 16 * 1024 * 1024;
+    private static final int INBOUND_QUEUE_CAPACITY = 64;
+    private static final int RESUME_THRESHOLD = INBOUND_QUEUE_CAPACITY / 4;
+    private static final int RESPONSE_FLUSH_BYTES = 16 * 1024;
+    private static final long PROGRESS_INTERVAL_MS = 1000;
+    private static final long INBOUND_POLL_MS = 100;
+    private static final byte[] END_OF_INPUT = new byte[0];
+
+    private final HttpConnection connection;
+    private final IngestionPipeline pipeline;
+    private final IngestionJob job;
+    private final String defaultSource;
+    private final boolean ackEveryRecord;
+    private final ChunkedDecoder chunkedDecoder;
+    private long contentRemaining; // для chunked не используется
+
+    // Очередь не ограничена, но при INBOUND_QUEUE_CAPACITY элементах чтение из сокета приостанавливается,
+    // поэтому больше одного лишнего буфера в нее не попадает, а поток селектора никогда не ждет
+    private final BlockingQueue<byte[]> inbound = new LinkedBlockingQueue<>();
+
+    // Разбор строк
+    private byte[] lineBuffer = new byte[8192];
+    private int lineLength = 0;
+    private boolean skippingOversizedLine = false;
+    private long lineNumber = 0;
+    private long accepted = 0;
+    private long rejected = 0;
+
+    // Буфер ответа, отправляемый чанками
+    private final StringBuilder responseBuffer = new StringBuilder();
+    private long lastProgressAt = System.currentTimeMillis();
+
+    NdjsonIngestSession(HttpConnection connection, HttpRequest request, IngestionPipeline pipeline) {
+        this.connection = connection;
+        this.pipeline = pipeline;
+        this.defaultSource = request.getQuery().getOrDefault("source", "ndjson_stream");
+        this.ackEveryRecord = !"errors".equals(request.getQuery().get("ack"));
+        this.job = pipeline.createJob(request.getQuery().getOrDefault("name", "ndjson_stream"));
+
+        // Заголовки уже проверены парсером: Transfer-Encoding может быть только chunked и не вместе
+        // с Content-Length. Без обоих тело пустое (RFC 7230, 3.3.3) - чтение до закрытия не допускается.
+        String contentLength = request.getHeader("Content-Length");
+        if (request.getHeader("Transfer-Encoding") != null) {
+            this.chunkedDecoder = new ChunkedDecoder();
+            this.contentRemaining = 0;
+        } else {
+            this.chunkedDecoder = null;
+            this.contentRemaining = contentLength != null ? Long.parseLong(contentLength.trim()) : 0;
+        }
+    }
+
+    // Запуск: отправка заголовков ответа и обработчика в пул. initialBody - часть тела из первого чтения.
+    public void start(boolean expectContinue, ByteBuffer initialBody, Executor executor) throws IOException {
+        StringBuilder head = new StringBuilder();
+        if (expectContinue) {
+            head.append("HTTP/1.1 100 Continue\r\n\r\n");
+        }
+        head.append("HTTP/1.1 200 OK\r\n")
+                .append("Content-Type: application/x-ndjson\r\n")
+                .append("Transfer-Encoding: chunked\r\n")
+                .append("Cache-Control: no-cache\r\n")
+                .append("Access-Control-Allow-Origin: *\r\n")
+                .append("\r\n");
+        connection.write(StandardCharsets.UTF_8.encode(head.toString()));
+
+        JSONObject started = new JSONObject();
+        started.put("type", "started");
+        started.put("job_id", job.getId());
+        emit(started);
+
+        if (initialBody.hasRemaining()) {
+            offer(initialBody);
+        }
+        executor.execute(this::processLoop);
+    }
+
+    // Вызывается потоком селектора и не блокирует его: копия прочитанных байтов уходит в очередь
+    // обработчика, а при заполненной очереди чтение из сокета приостанавливается
+    public void offer(ByteBuffer data) {
+        byte[] copy = new byte[data.remaining()];
+        data.get(copy);
+        inbound.offer(copy);
+        if (inbound.size() >= INBOUND_QUEUE_CAPACITY) {
+            pauseReading();
+        }
+    }
+
+    // Клиент закрыл передачу (read вернул -1)
+    public void endOfInput() {
+        inbound.offer(END_OF_INPUT);
+        pauseReading();
+    }
+
+    private void pauseReading() {
+        connection.pauseReading();
+    }
+
+    private void resumeReadingIfDrained() {
+        if (connection.isReadPaused() && inbound.size() <= RESUME_THRESHOLD) {
+            connection.resumeReading();
+        }
+    }
+
+    private void processLoop() {
+        try {
+            boolean bodyComplete = chunkedDecoder == null && contentRemaining == 0;
+            while (!bodyComplete) {
+                // Ожидание с таймаутом: селектор мог приостановить чтение уже после того, как очередь
+                // была разобрана, и тогда возобновить его может только этот поток
+                byte[] data = inbound.poll(INBOUND_POLL_MS, TimeUnit.MILLISECONDS);
+                resumeReadingIfDrained();
+                if (data == null) {
+                    continue;
+                }
+
+                if (data == END_OF_INPUT) {
+                    if (chunkedDecoder != null || contentRemaining > 0) {
+                        reportError(0, "Соединение закрыто до окончания тела запроса");
+                    }
+                    break;
+                }
+
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                if (chunkedDecoder != null) {
+                    bodyComplete = chunkedDecoder.decode(buffer, this::consumeBody);
+                } else {
+                    int length = (int) Math.min(contentRemaining, data.length);
+                    consumeBody(data, 0, length);
+                    contentRemaining -= length;
+                    bodyComplete = contentRemaining == 0;
+                }
+                maybeEmitProgress();
+            }
+
+            // Последняя строка без завершающего перевода строки
+            if (lineLength > 0 && !skippingOversizedLine) {
+                processLine(lineBuffer, 0, lineLength);
+            }
+            lineLength = 0;
+
+            pipeline.close(job);
+            awaitCompletion();
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pipeline.close(job);
+        } catch (IOException e) {
+            // Некорректный chunked-поток или разрыв соединения
+            pipeline.close(job);
+            try {
+                reportError(lineNumber, "Ошибка разбора потока: " + e.getMessage());
+            } catch (IOException ignored) {
+                // Клиент уже отключился
+            }
+        } finally {
+            finish();
+        }
+    }
+
+    // Разбиение тела на строки без промежуточных строковых буферов
+    private void consumeBody(byte[] data, int offset, int length) throws IOException {
+        int end = offset + length;
+        int start = offset;
+        for (int i = offset; i < end; i++) {
+            if (data[i] != '\n') {
+                continue;
+            }
+            if (skippingOversizedLine) {
+                skippingOversizedLine = false;
+                lineLength = 0;
+            } else if (lineLength == 0) {
+                processLine(data, start, i - start);
+            } else {
+                appendToLine(data, start, i - start);
+                if (!skippingOversizedLine) {
+                    processLine(lineBuffer, 0, lineLength);
+                }
+                lineLength = 0;
+                skippingOversizedLine = false;
+            }
+            start = i + 1;
+        }
+        if (start < end && !skippingOversizedLine) {
+            appendToLine(data, start, end - start);
+        }
+    }
+
+    private void appendToLine(byte[] data, int offset, int length) throws IOException {
+        if (lineLength + length > MAX_LINE_BYTES) {
+            lineNumber++;
+            rejected++;
+            reportError(lineNumber, "Строка длиннее " + MAX_LINE_BYTES + " байт");
+            skippingOversizedLine = true;
+            lineLength = 0;
+            return;
+        }
+        if (lineLength + length > lineBuffer.length) {
+            lineBuffer = Arrays.copyOf(lineBuffer, Math.max(lineBuffer.length * 2, lineLength + length));
+        }
+        System.arraycopy(data, offset, lineBuffer, lineLength, length);
+        lineLength += length;
+    }
+
+    private void processLine(byte[] data, int offset, int length) throws IOException {
+        if (length > 0 && data[offset + length - 1] == '\r') {
+            length--;
+        }
+        if (length == 0) {
+            return;
+        }
+        lineNumber++;
+
+        String content;
+        String source;
+        JSONObject metadata;
+        try {
+            JSONObject record = new JSONObject(new String(data, offset, length, StandardCharsets.UTF_8));
+            content = record.optString("content", "");
+            source = record.optString("source", defaultSource);
+            metadata = record.optJSONObject("metadata");
+        } catch (Exception e) {
+            rejected++;
+            reportError(lineNumber, "Некорректный JSON: " + e.getMessage());
+            return;
+        }
+
+        if (content.isBlank()) {
+            rejected++;
+            reportError(lineNumber, "Пустое поле content");
+            return;
+        }
+
+        try {
+            // Блокирует при заполненном конвейере - это и есть обратное давление на клиента
+            pipeline.submit(job, content, source, metadata != null ? metadata : new JSONObject());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Загрузка прервана");
+        } catch (IllegalStateException e) {
+            rejected++;
+            reportError(lineNumber, e.getMessage());
+            return;
+        }
+        accepted++;
+
+        if (ackEveryRecord) {
+            JSONObject ack = new JSONObject();
+            ack.put("type", "record");
+            ack.put("line", lineNumber);
+            ack.put("status", "accepted");
+            emit(ack);
+        }
+    }
+
+    private void reportError(long line, String error) throws IOException {
+        JSONObject event = new JSONObject();
+        event.put("type", "record");
+        event.put("line", line);
+        event.put("status", "error");
+        event.put("error", error);
+        emit(event);
+    }
+
+    private void maybeEmitProgress() throws IOException {
+        long now = System.currentTimeMillis();
+        if (now - lastProgressAt >= PROGRESS_INTERVAL_MS) {
+            lastProgressAt = now;
+            JSONObject progress = job.toJSON();
+            progress.put("type", "progress");
+            progress.put("lines", lineNumber);
+            emit(progress);
+            flushResponse();
+        }
+    }
+
+    // Ожидание, пока все принятые записи пройдут конвейер, с периодическим прогрессом
+    private void awaitCompletion() throws IOException, InterruptedException {
+        while (true) {
+            try {
+                job.completion().get(PROGRESS_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                break;
+            } catch (TimeoutException e) {
+                lastProgressAt = 0;
+                maybeEmitProgress();
+            } catch (java.util.concurrent.ExecutionException e) {
+                break;
+            }
+        }
+
+        JSONObject done = job.toJSON();
+        done.put("type", "done");
+        done.put("lines", lineNumber);
+        done.put("accepted", accepted);
+        done.put("rejected", rejected);
+        emit(done);
+    }
+
+    private void emit(JSONObject event) throws IOException {
+        responseBuffer.append(event.toString()).append('\n');
+        if (responseBuffer.length() >= RESPONSE_FLUSH_BYTES) {
+            flushResponse();
+        }
+    }
+
+    private void flushResponse() throws IOException {
+        if (responseBuffer.length() == 0) {
+            return;
+        }
+        byte[] payload = responseBuffer.toString().getBytes(StandardCharsets.UTF_8);
+        responseBuffer.setLength(0);
+
+        ByteBuffer chunk = ByteBuffer.allocate(payload.length + 32);
+        chunk.put((Integer.toHexString(payload.length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        chunk.put(payload);
+        chunk.put((byte) '\r').put((byte) '\n');
+        chunk.flip();
+        connection.write(chunk);
+    }
+
+    private void finish() {
+        try {
+            flushResponse();
+            connection.write(StandardCharsets.US_ASCII.encode("0\r\n\r\n"));
+            connection.closeAfterFlush();
+        } catch (IOException e) {
+            // Клиент отключился раньше
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.aiassistant.web;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+// Поток ввода-вывода со своим селектором. Принятые соединения распределяются между несколькими
+// реакторами, каждый обслуживает чтение и дописывание ответов (OP_WRITE) своих соединений.
+class Reactor extends Thread {
+    private static final long SELECT_TIMEOUT_MS = 1000;
+
+    private final Selector selector;
+    private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+    private final BiFunction<SocketChannel, SelectionKey, HttpConnection> connectionFactory;
+    private final Consumer<SelectionKey> readHandler;
+    private final long idleTimeoutMs;
+    private volatile boolean running = true;
+
+    Reactor(int index, BiFunction<SocketChannel, SelectionKey, HttpConnection> connectionFactory,
+            Consumer<SelectionKey> readHandler, long idleTimeoutMs) throws IOException {
+        super("web-reactor-" + index);
+        setDaemon(true);
+        this.selector = Selector.open();
+        this.connectionFactory = connectionFactory;
+        this.readHandler = readHandler;
+        this.idleTimeoutMs = idleTimeoutMs;
+    }
+
+    // Передача принятого соединения реактору (вызывается потоком приема)
+    void register(SocketChannel channel) {
+        pendingChannels.add(channel);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        long lastIdleCheck = System.currentTimeMillis();
+
+        while (running) {
+            try {
+                selector.select(SELECT_TIMEOUT_MS);
+                registerPending();
+
+                Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+                while (iter.hasNext()) {
+                    SelectionKey key = iter.next();
+                    iter.remove();
+
+                    HttpConnection connection = (HttpConnection) key.attachment();
+                    if (key.isValid() && key.isWritable()) {
+                        connection.onWritable();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        readHandler.accept(key);
+                    }
+                }
+
+                long now = System.currentTimeMillis();
+                if (now - lastIdleCheck >= SELECT_TIMEOUT_MS) {
+                    closeIdleConnections(now);
+                    lastIdleCheck = now;
+                }
+
+            } catch (IOException e) {
+                System.err.println("Ошибка реактора " + getName() + ": " + e.getMessage());
+            } catch (RuntimeException e) {
+                // Ошибка одного соединения не должна останавливать обслуживание остальных
+                System.err.println("Ошибка обработки соединения в " + getName() + ": " + e.getMessage());
+            }
+        }
+
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof HttpConnection) {
+                ((HttpConnection) key.attachment()).close();
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // Игнорируем ошибку закрытия
+        }
+    }
+
+    private void registerPending() {
+        SocketChannel channel;
+        while ((channel = pendingChannels.poll()) != null) {
+            try {
+                channel.configureBlocking(false);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                key.attach(connectionFactory.apply(channel, key));
+            } catch (IOException e) {
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    // Игнорируем ошибку закрытия
+                }
+            }
+        }
+    }
+
+    // Закрытие keep-alive соединений, простаивающих дольше таймаута
+    private void closeIdleConnections(long now) {
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof HttpConnection) {
+                HttpConnection connection = (HttpConnection) key.attachment();
+                if (connection.isIdleExpired(now, idleTimeoutMs)) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.aiassistant.web;
+
+import org.json.JSONObject;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Выполнение запросов веб-сервера с раздельными лимитами параллельности по классам нагрузки.
+// По умолчанию каждый запрос получает свой виртуальный поток (Java 21), а ограничение дают семафоры:
+// ожидающий разрешения виртуальный поток не занимает поток ОС, поэтому долгие генерации LLM
+// не мешают дешевым запросам (статус, статистика, статика).
+public class RequestScheduler {
+
+    public enum WorkloadClass {
+        LLM,        // генерация ответа моделью - до минут на запрос
+        EMBEDDING,  // запросы, считающие эмбеддинги или коротко обращающиеся к OLLAMA синхронно
+        BULK,       // подача документов в конвейер загрузки, импорт каталогов, загрузка моделей, дампы JFR
+        STREAM,     // потоковые загрузки NDJSON: поток занят все время передачи тела клиентом
+        CHEAP       // все остальное, без ожидания OLLAMA и диска: статус, статистика, настройки, статика
+    }
+
+    // Параметры планировщика
+    public static class Config {
+        public boolean virtualThreads = true;
+        public int llmConcurrency = 2;
+        public int embeddingConcurrency = 8;
+        public int bulkConcurrency = 4;
+        public int streamConcurrency = 16;
+        public int cheapConcurrency = 64;
+
+        int limitFor(WorkloadClass workloadClass) {
+            switch (workloadClass) {
+                case LLM: return llmConcurrency;
+                case EMBEDDING: return embeddingConcurrency;
+                case BULK: return bulkConcurrency;
+                case STREAM: return streamConcurrency;
+                default: return cheapConcurrency;
+            }
+        }
+    }
+
+    private final ExecutorService virtualExecutor;
+    private final Map<WorkloadClass, Lane> lanes = new EnumMap<>(WorkloadClass.class);
+
+    public RequestScheduler(Config config) {
+        this.virtualExecutor = config.virtualThreads ? Executors.newVirtualThreadPerTaskExecutor() : null;
+
+        for (WorkloadClass workloadClass : WorkloadClass.values()) {
+            int limit = Math.max(1, config.limitFor(workloadClass));
+            // Без виртуальных потоков у каждого класса свой пул: заблокированные потоки одного класса
+            // не отнимают потоки у другого
+            ExecutorService pool = virtualExecutor != null ? virtualExecutor : Executors.newFixedThreadPool(limit);
+            lanes.put(workloadClass, new Lane(limit, pool));
+        }
+    }
+
+    public RequestScheduler() {
+        this(new Config());
+    }
+
+    public void execute(WorkloadClass workloadClass, Runnable task) {
+        Lane lane = lanes.get(workloadClass);
+        lane.submitted.incrementAndGet();
+        lane.waiting.incrementAndGet();
+
+        lane.executor.execute(() -> {
+            try {
+                lane.permits.acquire();
+            } catch (InterruptedException e) {
+                lane.waiting.decrementAndGet();
+                Thread.currentThread().interrupt();
+                return;
+            }
+            lane.waiting.decrementAndGet();
+            lane.active.incrementAndGet();
+            runHoldingPermit(workloadClass, lane, task);
+        });
+    }
+
+    // Разрешение без ожидания: null, если все разрешения класса заняты. Для запросов, которые
+    // нельзя держать в очереди (клиент уже передает тело), - им лучше сразу получить отказ
+    public Reservation tryReserve(WorkloadClass workloadClass) {
+        Lane lane = lanes.get(workloadClass);
+        if (!lane.permits.tryAcquire()) {
+            return null;
+        }
+        lane.submitted.incrementAndGet();
+        lane.active.incrementAndGet();
+        return new Reservation(workloadClass, lane);
+    }
+
+    private static void runHoldingPermit(WorkloadClass workloadClass, Lane lane, Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            System.err.println("Ошибка выполнения запроса (" + workloadClass + "): " + e.getMessage());
+        } finally {
+            lane.active.decrementAndGet();
+            lane.permits.release();
+        }
+    }
+
+    // Занятое разрешение: выполняет одну задачу, а если задача так и не была передана - cancel()
+    // возвращает разрешение
+    public static final class Reservation implements Executor {
+        private final WorkloadClass workloadClass;
+        private final Lane lane;
+        private final AtomicBoolean used = new AtomicBoolean();
+
+        private Reservation(WorkloadClass workloadClass, Lane lane) {
+            this.workloadClass = workloadClass;
+            this.lane = lane;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            if (!used.compareAndSet(false, true)) {
+                throw new IllegalStateException("Разрешение уже использовано");
+            }
+            lane.executor.execute(() -> runHoldingPermit(workloadClass, lane, task));
+        }
+
+        public void cancel() {
+            if (used.compareAndSet(false, true)) {
+                lane.active.decrementAndGet();
+                lane.permits.release();
+            }
+        }
+    }
+
+    // Исполнитель для одного класса нагрузки - для кода, принимающего java.util.concurrent.Executor
+    public Executor executorFor(WorkloadClass workloadClass) {
+        return task -> execute(workloadClass, task);
+    }
+
+    public int getWaiting(WorkloadClass workloadClass) {
+        return lanes.get(workloadClass).waiting.get();
+    }
+
+    public int getActive(WorkloadClass workloadClass) {
+        return lanes.get(workloadClass).active.get();
+    }
+
+    public JSONObject getStatus() {
+        JSONObject status = new JSONObject();
+        status.put("virtual_threads", virtualExecutor != null);
+        for (Map.Entry<WorkloadClass, Lane> entry : lanes.entrySet()) {
+            Lane lane = entry.getValue();
+            JSONObject laneStatus = new JSONObject();
+            laneStatus.put("limit", lane.limit);
+            laneStatus.put("active", lane.active.get());
+            laneStatus.put("waiting", lane.waiting.get());
+            laneStatus.put("submitted", lane.submitted.get());
+            status.put(entry.getKey().name().toLowerCase(), laneStatus);
+        }
+        return status;
+    }
+
+    public void shutdown() {
+        if (virtualExecutor != null) {
+            virtualExecutor.shutdown();
+        } else {
+            for (Lane lane : lanes.values()) {
+                lane.executor.shutdown();
+            }
+        }
+    }
+
+    private static class Lane {
+        final int limit;
+        final Semaphore permits;
+        final ExecutorService executor;
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger waiting = new AtomicInteger();
+        final AtomicLong submitted = new AtomicLong();
+
+        Lane(int limit, ExecutorService executor) {
+            this.limit = limit;
+            this.permits = new Semaphore(limit, true);
+            this.executor = executor;
+        }
+    }
+}
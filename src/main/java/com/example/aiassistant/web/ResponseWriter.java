@@ -0,0 +1,198 @@
+package com.example.aiassistant.web;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// Формирование ответов с телом (JSON, текст ошибок). Тело кодируется в UTF-8 один раз прямо в
+// direct-буферы пула, Content-Length считается в байтах. Если клиент принимает gzip и тело
+// больше порога, оно сжимается из буферов пула в буферы пула без промежуточных массивов.
+class ResponseWriter {
+    private static final int GZIP_LEVEL = 4;
+    private static final int MAX_POOLED_DEFLATERS = 16;
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final BufferPool pool;
+    private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledDeflaters = new AtomicInteger();
+    private volatile int compressionThreshold = 1024;
+
+    private final AtomicLong responses = new AtomicLong();
+    private final AtomicLong compressedResponses = new AtomicLong();
+    private final AtomicLong bodyBytes = new AtomicLong();
+    private final AtomicLong sentBodyBytes = new AtomicLong();
+
+    ResponseWriter(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    // Минимальный размер тела для сжатия; Integer.MAX_VALUE отключает сжатие
+    void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = Math.max(0, compressionThreshold);
+    }
+
+    // headers - дополнительные строки заголовков, каждая с \r\n в конце
+    void send(HttpConnection connection, int statusCode, String statusText, String contentType,
+              String headers, CharSequence body) throws IOException {
+        List<BufferPool.Lease> bodyBuffers = encode(body);
+        long length = remaining(bodyBuffers);
+        long originalLength = length;
+
+        boolean compress = connection.acceptsGzip() && length >= compressionThreshold &&
+                ContentEncoding.isCompressible(contentType);
+        if (compress) {
+            List<BufferPool.Lease> compressed = gzip(bodyBuffers, length);
+            releaseAll(bodyBuffers);
+            bodyBuffers = compressed;
+            length = remaining(bodyBuffers);
+            compressedResponses.incrementAndGet();
+        }
+
+        String head = "HTTP/1.1 " + statusCode + " " + statusText + "\r\n" +
+                "Content-Type: " + contentType + "\r\n" +
+                "Content-Length: " + length + "\r\n" +
+                (compress ? "Content-Encoding: gzip\r\n" : "") +
+                (ContentEncoding.isCompressible(contentType) ? "Vary: Accept-Encoding\r\n" : "") +
+                headers +
+                "\r\n";
+
+        List<BufferPool.Lease> response = encode(head);
+        response.addAll(bodyBuffers);
+
+        responses.incrementAndGet();
+        bodyBytes.addAndGet(originalLength);
+        sentBodyBytes.addAndGet(length);
+        connection.write(response);
+    }
+
+    JSONObject getStatus() {
+        JSONObject status = new JSONObject();
+        status.put("responses", responses.get());
+        status.put("compressed", compressedResponses.get());
+        status.put("body_bytes", bodyBytes.get());
+        status.put("sent_body_bytes", sentBodyBytes.get());
+        status.put("compression_threshold", compressionThreshold);
+        status.put("buffer_pool", pool.getStatus());
+        return status;
+    }
+
+    private List<BufferPool.Lease> encode(CharSequence text) {
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer input = CharBuffer.wrap(text);
+        List<BufferPool.Lease> output = new ArrayList<>();
+        BufferPool.Lease lease = pool.acquire();
+        output.add(lease);
+
+        while (encoder.encode(input, lease.buffer(), true) == CoderResult.OVERFLOW) {
+            lease = pool.acquire();
+            output.add(lease);
+        }
+        while (encoder.flush(lease.buffer()) == CoderResult.OVERFLOW) {
+            lease = pool.acquire();
+            output.add(lease);
+        }
+        for (BufferPool.Lease item : output) {
+            item.buffer().flip();
+        }
+        return output;
+    }
+
+    // gzip = заголовок + сырой deflate + CRC32 и длина исходных данных (little-endian)
+    private List<BufferPool.Lease> gzip(List<BufferPool.Lease> input, long length) {
+        Deflater deflater = acquireDeflater();
+        CRC32 crc = new CRC32();
+        List<BufferPool.Lease> output = new ArrayList<>();
+        BufferPool.Lease lease = pool.acquire();
+        output.add(lease);
+        lease.buffer().put(GZIP_HEADER);
+
+        try {
+            for (BufferPool.Lease item : input) {
+                ByteBuffer source = item.buffer();
+                crc.update(source.duplicate());
+                deflater.setInput(source);
+                while (!deflater.needsInput()) {
+                    lease = ensureSpace(output, lease, 1);
+                    deflater.deflate(lease.buffer());
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                lease = ensureSpace(output, lease, 1);
+                deflater.deflate(lease.buffer());
+            }
+
+            lease = ensureSpace(output, lease, 8);
+            ByteBuffer trailer = lease.buffer().order(ByteOrder.LITTLE_ENDIAN);
+            trailer.putInt((int) crc.getValue());
+            trailer.putInt((int) length);
+            trailer.order(ByteOrder.BIG_ENDIAN);
+        } finally {
+            releaseDeflater(deflater);
+        }
+
+        for (BufferPool.Lease item : output) {
+            item.buffer().flip();
+        }
+        return output;
+    }
+
+    private BufferPool.Lease ensureSpace(List<BufferPool.Lease> output, BufferPool.Lease lease, int bytes) {
+        if (lease.buffer().remaining() >= bytes) {
+            return lease;
+        }
+        BufferPool.Lease next = pool.acquire();
+        output.add(next);
+        return next;
+    }
+
+    private Deflater acquireDeflater() {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            return new Deflater(GZIP_LEVEL, true);
+        }
+        pooledDeflaters.decrementAndGet();
+        return deflater;
+    }
+
+    private void releaseDeflater(Deflater deflater) {
+        if (pooledDeflaters.get() < MAX_POOLED_DEFLATERS) {
+            deflater.reset();
+            deflaters.offer(deflater);
+            pooledDeflaters.incrementAndGet();
+        } else {
+            deflater.end();
+        }
+    }
+
+    private static long remaining(List<BufferPool.Lease> buffers) {
+        long total = 0;
+        for (BufferPool.Lease lease : buffers) {
+            total += lease.buffer().remaining();
+        }
+        return total;
+    }
+
+    private static void releaseAll(List<BufferPool.Lease> buffers) {
+        for (BufferPool.Lease lease : buffers) {
+            lease.release();
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package com.example.aiassistant.web;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Кэш статических файлов веб-интерфейса. Файл читается с диска один раз - при первом запросе -
+// в direct-буфер вместе с заранее сжатым gzip-вариантом и строгим ETag по содержимому.
+// Изменения файлов отслеживает WatchService: измененный или удаленный файл выбрасывается из кэша
+// и перечитывается при следующем запросе. Большие файлы в память не загружаются, а отправляются
+// из файла без копирования (FileChannel.transferTo).
+class StaticAssetCache {
+    private static final long ZERO_COPY_THRESHOLD = 256 * 1024;
+    private static final int GZIP_MIN_SIZE = 512;
+
+    private final Path root;
+    private final Map<Path, Asset> assets = new ConcurrentHashMap<>();
+    private final Set<Path> watchedDirectories = ConcurrentHashMap.newKeySet();
+    private final WatchService watchService;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    // Счетчик сбросов кэша наблюдателем: запись, прочитанная до сброса, в кэш не попадает
+    private final AtomicLong invalidations = new AtomicLong();
+
+    StaticAssetCache(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+
+        WatchService service = null;
+        try {
+            service = FileSystems.getDefault().newWatchService();
+        } catch (IOException | UnsupportedOperationException e) {
+            // Без отслеживания изменений актуальность проверяется по времени изменения файла
+            System.err.println("Отслеживание изменений статических файлов недоступно: " + e.getMessage());
+        }
+        this.watchService = service;
+
+        if (watchService != null) {
+            Thread watcher = new Thread(this::watchLoop, "static-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+    }
+
+    // Файл относительно корня веб-интерфейса; null, если файла нет или путь выходит за корень
+    Asset get(String relativePath, String contentType) throws IOException {
+        Path path = root.resolve(relativePath).normalize();
+        if (!path.startsWith(root)) {
+            return null;
+        }
+
+        Asset asset = assets.get(path);
+        if (asset != null && (watchService != null || asset.isFresh())) {
+            hits.incrementAndGet();
+            return asset;
+        }
+
+        if (!Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)) {
+            assets.remove(path);
+            return null;
+        }
+        // Каталог регистрируется до чтения: изменение во время загрузки тоже сбросит запись
+        watchDirectory(path.getParent());
+        long stamp = invalidations.get();
+        asset = load(path, contentType);
+        assets.put(path, asset);
+        // Сброс мог прийти во время чтения, до put: тогда запись уже устарела. Проверка после put -
+        // наблюдатель увеличивает счетчик до удаления, поэтому его удаление не теряется
+        if (invalidations.get() != stamp) {
+            assets.remove(path, asset);
+        }
+        loads.incrementAndGet();
+        return asset;
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getLoads() {
+        return loads.get();
+    }
+
+    JSONObject getStatus() {
+        long memoryBytes = 0;
+        for (Asset asset : assets.values()) {
+            memoryBytes += asset.getMemoryBytes();
+        }
+        JSONObject status = new JSONObject();
+        status.put("assets", assets.size());
+        status.put("memory_bytes", memoryBytes);
+        status.put("hits", hits.get());
+        status.put("loads", loads.get());
+        status.put("watching", watchService != null);
+        return status;
+    }
+
+    void close() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                // Игнорируем ошибку закрытия
+            }
+        }
+        assets.clear();
+    }
+
+    private Asset load(Path path, String contentType) throws IOException {
+        long lastModified = Files.getLastModifiedTime(path).toMillis();
+        long size = Files.size(path);
+
+        if (size >= ZERO_COPY_THRESHOLD) {
+            return new Asset(path, contentType, size, lastModified, hashFile(path), null, null);
+        }
+
+        byte[] content = Files.readAllBytes(path);
+        String hash = hash(content);
+        ByteBuffer body = toDirectBuffer(content);
+
+        // Сжатый вариант хранится, только если он заметно меньше исходного
+        ByteBuffer gzipBody = null;
+        if (content.length >= GZIP_MIN_SIZE && ContentEncoding.isCompressible(contentType)) {
+            byte[] compressed = ContentEncoding.gzip(content);
+            if (compressed.length < content.length * 9 / 10) {
+                gzipBody = toDirectBuffer(compressed);
+            }
+        }
+        return new Asset(path, contentType, content.length, lastModified, hash, body, gzipBody);
+    }
+
+    private void watchDirectory(Path directory) {
+        if (watchService == null || directory == null || watchedDirectories.contains(directory)) {
+            return;
+        }
+        try {
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            watchedDirectories.add(directory);
+        } catch (IOException e) {
+            System.err.println("Не удалось отслеживать каталог " + directory + ": " + e.getMessage());
+        }
+    }
+
+    private void watchLoop() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Path directory = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    invalidations.incrementAndGet();
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        // События потеряны - безопаснее перечитать все
+                        assets.clear();
+                    } else {
+                        assets.remove(directory.resolve((Path) event.context()));
+                    }
+                }
+                if (!key.reset()) {
+                    invalidations.incrementAndGet();
+                    watchedDirectories.remove(directory);
+                    assets.keySet().removeIf(path -> path.startsWith(directory));
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Кэш закрыт
+        }
+    }
+
+    private static ByteBuffer toDirectBuffer(byte[] content) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(content.length);
+        buffer.put(content).flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    private static String hash(byte[] content) {
+        MessageDigest digest = sha256();
+        return toHex(digest.digest(content));
+    }
+
+    private static String hashFile(Path path) throws IOException {
+        MessageDigest digest = sha256();
+        byte[] chunk = new byte[64 * 1024];
+        try (InputStream input = Files.newInputStream(path)) {
+            int count;
+            while ((count = input.read(chunk)) > 0) {
+                digest.update(chunk, 0, count);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    }
+
+    // Для ETag достаточно первых 16 байт хэша
+    private static String toHex(byte[] digest) {
+        StringBuilder hex = new StringBuilder(32);
+        for (int i = 0; i < 16; i++) {
+            hex.append(Character.forDigit((digest[i] >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(digest[i] & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    static class Asset {
+        private final Path path;
+        private final String contentType;
+        private final long length;
+        private final long lastModified;
+        private final String etag;
+        private final String gzipEtag;
+        private final ByteBuffer body;
+        private final ByteBuffer gzipBody;
+
+        Asset(Path path, String contentType, long length, long lastModified, String hash,
+              ByteBuffer body, ByteBuffer gzipBody) {
+            this.path = path;
+            this.contentType = contentType;
+            this.length = length;
+            this.lastModified = lastModified;
+            // У каждого представления свой строгий ETag
+            this.etag = "\"" + hash + "\"";
+            this.gzipEtag = "\"" + hash + "-gz\"";
+            this.body = body;
+            this.gzipBody = gzipBody;
+        }
+
+        Path getPath() { return path; }
+        String getContentType() { return contentType; }
+        long getLength() { return length; }
+        long getLastModified() { return lastModified; }
+        boolean hasGzip() { return gzipBody != null; }
+        long getGzipLength() { return gzipBody != null ? gzipBody.capacity() : -1; }
+
+        String getEtag(boolean gzip) {
+            return gzip ? gzipEtag : etag;
+        }
+
+        // Содержимое не в памяти - отправляется из файла
+        boolean isZeroCopy() {
+            return body == null;
+        }
+
+        // Каждому ответу - своя копия позиции поверх общего буфера
+        ByteBuffer getBody(boolean gzip) {
+            return (gzip ? gzipBody : body).duplicate();
+        }
+
+        // If-None-Match: список ETag или "*"; сравнение слабое, как требует RFC 9110
+        boolean matches(String ifNoneMatch, boolean gzip) {
+            if (ifNoneMatch == null) {
+                return false;
+            }
+            String current = getEtag(gzip);
+            for (String tag : ifNoneMatch.split(",")) {
+                String value = tag.trim();
+                if (value.startsWith("W/")) {
+                    value = value.substring(2);
+                }
+                if (value.equals("*") || value.equals(current)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        long getMemoryBytes() {
+            return (body != null ? body.capacity() : 0) + (gzipBody != null ? gzipBody.capacity() : 0);
+        }
+
+        // Проверка актуальности, когда изменения не отслеживаются
+        boolean isFresh() {
+            try {
+                return Files.getLastModifiedTime(path).toMillis() == lastModified && Files.size(path) == length;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+}
@@ -1,73 +1,174 @@
 package com.example.aiassistant.web;
 
+import com.example.aiassistant.jfr.RecordingManager;
 import com.example.aiassistant.service.*;
 import com.example.aiassistant.model.ChatMessage;
+import com.example.aiassistant.util.Metrics;
 import com.example.aiassistant.util.SpeakToText;
+import jdk.jfr.Recording;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import java.io.*;
 import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 public class WebServer {
+    // Постоянные соединения (keep-alive)
+    private static final long KEEP_ALIVE_TIMEOUT_MS = 15000;
+    private static final int MAX_REQUESTS_PER_CONNECTION = 1000;
+    private static final int MAX_PIPELINED_REQUESTS = 16;
+    // Ответы кодируются в буферы пула по 16 КБ; в пуле держится до 8 МБ свободных буферов
+    private static final int RESPONSE_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_POOLED_RESPONSE_BUFFERS = 512;
+
     private final int port;
     private final AssistantService assistantService;
-    private final VectorDBService vectorDB;
-    private final ExecutorService executorService;
-    private final Map<String, List<EventSourceClient>> eventSources;
-    private boolean running;
+    private final VectorStore vectorStore;
+    private final RequestScheduler scheduler;
+    private final EventStreamRegistry eventStreams;
+    private final SpeakToText speakToText;
+    private final StaticAssetCache staticAssets;
+    private final ResponseWriter responseWriter;
+    private volatile AdmissionController admission;
+    private final HttpRequestParser.Limits parserLimits;
+    private int ioThreads = Runtime.getRuntime().availableProcessors();
+    private boolean continuousRecording = true;
+    private ServerSocketChannel serverChannel;
+    private Reactor[] reactors;
+    private volatile boolean running;
+
+    public WebServer(int port, AssistantService assistantService, VectorStore vectorStore) {
+        this(port, assistantService, vectorStore, new HttpRequestParser.Limits());
+    }
+
+    public WebServer(int port, AssistantService assistantService, VectorStore vectorStore,
+                     HttpRequestParser.Limits parserLimits) {
+        this(port, assistantService, vectorStore, parserLimits, new RequestScheduler.Config());
+    }
 
-    public WebServer(int port, AssistantService assistantService, VectorDBService vectorDB) {
+    public WebServer(int port, AssistantService assistantService, VectorStore vectorStore,
+                     HttpRequestParser.Limits parserLimits, RequestScheduler.Config schedulerConfig) {
         this.port = port;
+        this.parserLimits = parserLimits;
         this.assistantService = assistantService;
-        this.vectorDB = vectorDB;
-        this.executorService = Executors.newFixedThreadPool(10);
-        this.eventSources = new ConcurrentHashMap<>();
+        this.vectorStore = vectorStore;
+        this.scheduler = new RequestScheduler(schedulerConfig);
+        this.eventStreams = new EventStreamRegistry();
+        this.speakToText = new SpeakToText();
+        this.staticAssets = new StaticAssetCache(Path.of("web"));
+        this.responseWriter = new ResponseWriter(new BufferPool(RESPONSE_BUFFER_SIZE, MAX_POOLED_RESPONSE_BUFFERS));
+        AdmissionController.Config admissionConfig = new AdmissionController.Config();
+        admissionConfig.concurrency = schedulerConfig.llmConcurrency;
+        this.admission = new AdmissionController(admissionConfig);
         this.running = false;
+        registerMetrics();
+    }
+
+    // Очереди, допуск и кэш считают сами компоненты - в метрики они попадают функциями
+    private void registerMetrics() {
+        for (RequestScheduler.WorkloadClass workloadClass : RequestScheduler.WorkloadClass.values()) {
+            String labels = "class=\"" + workloadClass.name().toLowerCase() + "\"";
+            Metrics.gauge("ai_scheduler_waiting", labels, "Запросов в очереди планировщика",
+                    () -> scheduler.getWaiting(workloadClass));
+            Metrics.gauge("ai_scheduler_active", labels, "Запросов в работе",
+                    () -> scheduler.getActive(workloadClass));
+        }
+        Metrics.gauge("ai_admission_queued", "", "Вопросов, допущенных и ожидающих генерации",
+                () -> admission.getQueued());
+        Metrics.counterFunction("ai_admission_decisions_total", "result=\"admitted\"", "Решения о допуске вопросов",
+                () -> admission.getAdmittedCount());
+        Metrics.counterFunction("ai_admission_decisions_total", "result=\"rate_limited\"", "Решения о допуске вопросов",
+                () -> admission.getRateLimitedCount());
+        Metrics.counterFunction("ai_admission_decisions_total", "result=\"overloaded\"", "Решения о допуске вопросов",
+                () -> admission.getOverloadedCount());
+        Metrics.counterFunction("ai_admission_expired_total", "", "Вопросов, снятых после ожидания дольше SLO",
+                () -> admission.getExpiredCount());
+        Metrics.gauge("ai_event_stream_clients", "", "Подключенных клиентов SSE",
+                eventStreams::getClientCount);
+        Metrics.counterFunction("ai_static_cache_requests_total", "result=\"hit\"", "Обращения к кэшу статических файлов",
+                staticAssets::getHits);
+        Metrics.counterFunction("ai_static_cache_requests_total", "result=\"miss\"", "Обращения к кэшу статических файлов",
+                staticAssets::getLoads);
+    }
+
+    // Число потоков ввода-вывода (реакторов); задается до start()
+    public void setIoThreads(int ioThreads) {
+        this.ioThreads = Math.max(1, ioThreads);
     }
 
+    // Окно склеивания событий SSE: события одного клиента, пришедшие в пределах окна или до
+    // заполнения пакета, отправляются одной записью. windowMs = 0 отключает склеивание.
+    public void setEventCoalescing(long windowMs, int maxBatchBytes) {
+        eventStreams.setCoalescing(windowMs, maxBatchBytes);
+    }
+
+    // Минимальный размер JSON-ответа, начиная с которого он сжимается gzip (если клиент принимает)
+    public void setResponseCompressionThreshold(int bytes) {
+        responseWriter.setCompressionThreshold(bytes);
+    }
+
+    // Постоянная фоновая запись JFR (последние 30 минут, не больше 256 МБ); задается до start()
+    public void setContinuousRecording(boolean continuousRecording) {
+        this.continuousRecording = continuousRecording;
+    }
+
+    // Допуск вопросов к генерации: длина очереди, допустимое ожидание и лимиты на клиента.
+    // Задается до start().
+    public void setAdmissionControl(AdmissionController.Config config) {
+        this.admission = new AdmissionController(config);
+    }
+
+    // Поток, вызвавший start(), принимает соединения и раздает их реакторам по кругу.
+    // Чтение запросов и дописывание ответов выполняют реакторы, обработку - планировщик запросов.
     public void start() {
         try {
-            ServerSocketChannel serverChannel = ServerSocketChannel.open();
-            serverChannel.configureBlocking(false);
+            serverChannel = ServerSocketChannel.open();
             serverChannel.bind(new InetSocketAddress(port));
 
-            Selector selector = Selector.open();
-            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            reactors = new Reactor[ioThreads];
+            for (int i = 0; i < ioThreads; i++) {
+                reactors[i] = new Reactor(i, this::createConnection, this::handleRead, KEEP_ALIVE_TIMEOUT_MS);
+                reactors[i].start();
+            }
 
             System.out.println("Веб-сервер запущен на порту " + port);
             System.out.println("Откройте в браузере: http://localhost:" + port);
             System.out.println("Консольный интерфейс также доступен");
             System.out.println("-".repeat(50));
 
+            if (continuousRecording && RecordingManager.isAvailable()) {
+                RecordingManager.startContinuous(Duration.ofMinutes(30), 256L * 1024 * 1024);
+            }
+
             running = true;
+            int next = 0;
 
             while (running) {
-                selector.select();
-                Set<SelectionKey> selectedKeys = selector.selectedKeys();
-                Iterator<SelectionKey> iter = selectedKeys.iterator();
-
-                while (iter.hasNext()) {
-                    SelectionKey key = iter.next();
-
-                    if (key.isAcceptable()) {
-                        handleAccept(serverChannel, selector);
-                    } else if (key.isReadable()) {
-                        handleRead(key);
+                SocketChannel clientChannel;
+                try {
+                    clientChannel = serverChannel.accept();
+                } catch (IOException e) {
+                    // Канал закрыт: stop() мог успеть до running = true, тогда флаг уже не сбросится
+                    if (!running || !serverChannel.isOpen()) {
+                        break;
                     }
-
-                    iter.remove();
+                    System.err.println("Ошибка приема соединения: " + e.getMessage());
+                    continue;
                 }
+                clientChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                reactors[next].register(clientChannel);
+                next = (next + 1) % reactors.length;
             }
 
         } catch (IOException e) {
@@ -75,155 +176,334 @@ public class WebServer {
         }
     }
 
-    private void handleAccept(ServerSocketChannel serverChannel, Selector selector) throws IOException {
-        SocketChannel clientChannel = serverChannel.accept();
-        clientChannel.configureBlocking(false);
-        clientChannel.register(selector, SelectionKey.OP_READ);
+    private HttpConnection createConnection(SocketChannel channel, SelectionKey key) {
+        return new HttpConnection(channel, key, new HttpRequestParser(parserLimits, this::isStreamingUpload));
+    }
+
+    // Запросы, тело которых не собирается парсером в память, а читается обработчиком потоком
+    private boolean isStreamingUpload(HttpRequest request) {
+        return request.getMethod().equals("POST") && request.getPath().equals("/api/ingest_stream");
     }
 
     private void handleRead(SelectionKey key) {
-        SocketChannel clientChannel = (SocketChannel) key.channel();
-        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        HttpConnection connection = (HttpConnection) key.attachment();
+        SocketChannel clientChannel = connection.getChannel();
+        ByteBuffer buffer = connection.getReadBuffer();
 
         try {
             int bytesRead = clientChannel.read(buffer);
+
+            // Соединение потоковой загрузки: байты тела уходят в сессию, а не в парсер
+            NdjsonIngestSession session = connection.getIngestSession();
+            if (session != null) {
+                if (bytesRead == -1) {
+                    session.endOfInput();
+                } else {
+                    buffer.flip();
+                    session.offer(buffer);
+                    buffer.clear();
+                }
+                return;
+            }
+
+            WebSocketSession webSocket = connection.getWebSocket();
+            if (webSocket != null) {
+                if (bytesRead == -1) {
+                    webSocket.endOfInput();
+                } else {
+                    connection.touch();
+                    buffer.flip();
+                    webSocket.offer(buffer);
+                    buffer.clear();
+                }
+                return;
+            }
+
             if (bytesRead == -1) {
-                clientChannel.close();
+                connection.close();
                 return;
             }
+            connection.touch();
 
+            // Запрос может прийти несколькими пакетами: парсер накапливает состояние между чтениями.
+            // Несколько запросов в одном пакете (pipelining) встают в очередь соединения.
             buffer.flip();
-            String request = StandardCharsets.UTF_8.decode(buffer).toString();
-
-            // Обработка запроса в отдельном потоке
-            executorService.submit(() -> {
-                try {
-                    handleRequest(clientChannel, request);
-                } catch (IOException e) {
-                    System.err.println("Ошибка обработки запроса: " + e.getMessage());
+            HttpRequest request;
+            try {
+                while ((request = connection.getParser().parse(buffer)) != null) {
+                    if (request.isBodyStreamed()) {
+                        if (connection.isBusy()) {
+                            // Потоковая загрузка не может ждать в очереди за другими ответами
+                            connection.close();
+                        } else {
+                            startIngestStream(connection, request);
+                        }
+                        return;
+                    }
+                    if (connection.enqueue(request)) {
+                        dispatchRequest(connection, request);
+                    }
                 }
-            });
+                if (connection.getPendingCount() >= MAX_PIPELINED_REQUESTS) {
+                    // Клиент шлет запросы быстрее, чем получает ответы: чтение возобновится после ответа
+                    connection.pauseReading();
+                }
+                if (connection.getParser().takeContinueRequest()) {
+                    connection.write(StandardCharsets.US_ASCII.encode("HTTP/1.1 100 Continue\r\n\r\n"));
+                }
+            } catch (HttpParseException e) {
+                connection.pauseReading();
+                if (connection.deferError(e)) {
+                    sendParseError(connection, e);
+                }
+            } finally {
+                buffer.clear();
+            }
 
         } catch (IOException e) {
+            connection.close();
+        }
+    }
+
+    private void dispatchRequest(HttpConnection connection, HttpRequest request) {
+        connection.beginResponse(isKeepAlive(connection, request),
+                ContentEncoding.acceptsGzip(request.getHeader("Accept-Encoding")));
+
+        // Обработка запроса в отдельном потоке с лимитом своего класса нагрузки
+        scheduler.execute(classify(request), () -> {
             try {
-                clientChannel.close();
-            } catch (IOException ex) {
-                // Игнорируем ошибку закрытия
+                handleRequest(connection, request);
+            } catch (Exception e) {
+                System.err.println("Ошибка обработки запроса: " + e.getMessage());
+                connection.close();
             }
+        });
+    }
+
+    // Класс нагрузки самого запроса. Фоновые генерации и загрузки, запускаемые обработчиками,
+    // ставятся в свои классы отдельно. В CHEAP - только то, что не ждет OLLAMA и файловую систему.
+    private RequestScheduler.WorkloadClass classify(HttpRequest request) {
+        switch (request.getPath()) {
+            case "/api/add_knowledge":
+            case "/api/search_knowledge":
+            case "/api/switch_embedding_model":
+            case "/api/models":
+            case "/api/embedding_models":
+                return RequestScheduler.WorkloadClass.EMBEDDING;
+            case "/api/jfr/dump":
+            case "/api/import_directory":
+            case "/api/pull_model":
+                return RequestScheduler.WorkloadClass.BULK;
+            default:
+                return RequestScheduler.WorkloadClass.CHEAP;
         }
     }
 
-    private void handleRequest(SocketChannel clientChannel, String request) throws IOException {
-        String[] lines = request.split("\r\n");
-        if (lines.length == 0) {
-            sendError(clientChannel, 400, "Bad Request");
-            return;
+    // HTTP/1.1 - постоянное соединение по умолчанию, HTTP/1.0 - только по явному запросу клиента
+    private boolean isKeepAlive(HttpConnection connection, HttpRequest request) {
+        if (!running || connection.getRequestCount() + 1 >= MAX_REQUESTS_PER_CONNECTION) {
+            return false;
         }
+        String header = request.getHeader("Connection");
+        String value = header != null ? header.toLowerCase() : "";
+        if (request.getVersion().equals("HTTP/1.0")) {
+            return value.contains("keep-alive");
+        }
+        return !value.contains("close");
+    }
 
-        String[] requestLine = lines[0].split(" ");
-        if (requestLine.length < 2) {
-            sendError(clientChannel, 400, "Bad Request");
+    // Заголовки управления соединением для текущего ответа
+    private String connectionHeaders(HttpConnection connection) {
+        if (connection.isKeepAlive()) {
+            return "Connection: keep-alive\r\n" +
+                    "Keep-Alive: timeout=" + (KEEP_ALIVE_TIMEOUT_MS / 1000) +
+                    ", max=" + (MAX_REQUESTS_PER_CONNECTION - connection.getRequestCount()) + "\r\n";
+        }
+        return "Connection: close\r\n";
+    }
+
+    // Ответ отправлен: соединение закрывается или переходит к следующему конвейерному запросу
+    private void finishResponse(HttpConnection connection) throws IOException {
+        if (!connection.isKeepAlive()) {
+            connection.closeAfterFlush();
             return;
         }
 
-        String method = requestLine[0];
-        String path = requestLine[1];
+        HttpRequest next = connection.completeResponse();
+        if (next != null) {
+            dispatchRequest(connection, next);
+        } else {
+            HttpParseException error = connection.takeDeferredError();
+            if (error != null) {
+                sendParseError(connection, error);
+                return;
+            }
+        }
+        if (connection.getPendingCount() < MAX_PIPELINED_REQUESTS) {
+            connection.resumeReading();
+        }
+    }
 
-        // Парсинг заголовков
-        Map<String, String> headers = new HashMap<>();
-        for (int i = 1; i < lines.length; i++) {
-            String line = lines[i];
-            if (line.isEmpty()) break;
+    private void sendParseError(HttpConnection connection, HttpParseException error) throws IOException {
+        connection.beginResponse(false);
+        sendError(connection, error.getStatusCode(), error.getMessage());
+    }
 
-            int colonIndex = line.indexOf(":");
-            if (colonIndex > 0) {
-                String key = line.substring(0, colonIndex).trim();
-                String value = line.substring(colonIndex + 1).trim();
-                headers.put(key, value);
-            }
+    // POST /api/ingest_stream: заголовки уже разобраны, тело читается сессией по мере поступления.
+    // Сессия держит поток все время загрузки, поэтому у загрузок свой класс нагрузки (не BULK с
+    // импортом и загрузкой моделей), а при занятых разрешениях клиент сразу получает 503 -
+    // ожидание в очереди с приостановленным сокетом выглядело бы для него как зависание.
+    private void startIngestStream(HttpConnection connection, HttpRequest request) throws IOException {
+        RequestScheduler.Reservation reservation = scheduler.tryReserve(RequestScheduler.WorkloadClass.STREAM);
+        if (reservation == null) {
+            connection.pauseReading();
+            connection.beginResponse(false);
+            sendError(connection, 503, "Too many concurrent ingest streams");
+            return;
         }
+        try {
+            NdjsonIngestSession session = new NdjsonIngestSession(connection, request,
+                    assistantService.getIngestionPipeline());
+            connection.setIngestSession(session);
+            String expect = request.getHeader("Expect");
+            session.start(expect != null && expect.equalsIgnoreCase("100-continue"),
+                    connection.getReadBuffer(), reservation);
+        } catch (NumberFormatException e) {
+            connection.beginResponse(false);
+            sendError(connection, 400, "Invalid Content-Length");
+        } finally {
+            // Если обработчик не был запущен, разрешение возвращается
+            reservation.cancel();
+        }
+    }
 
-        // Парсинг тела запроса
-        String body = "";
-        boolean bodyStart = false;
-        for (int i = 1; i < lines.length; i++) {
-            if (lines[i].isEmpty()) {
-                bodyStart = true;
-                continue;
-            }
-            if (bodyStart) {
-                body += lines[i] + "\n";
-            }
+    // GET /api/ws: рукопожатие WebSocket (RFC 6455). После ответа 101 соединение
+    // обслуживает сессия WebSocket, HTTP-запросов по нему больше нет.
+    private void upgradeToWebSocket(HttpConnection connection, HttpRequest request) throws IOException {
+        String upgrade = request.getHeader("Upgrade");
+        String connectionHeader = request.getHeader("Connection");
+        String key = request.getHeader("Sec-WebSocket-Key");
+        if (upgrade == null || !upgrade.equalsIgnoreCase("websocket") || key == null ||
+                connectionHeader == null || !connectionHeader.toLowerCase().contains("upgrade")) {
+            sendError(connection, 400, "WebSocket upgrade required");
+            return;
         }
-        body = body.trim();
+        if (!"13".equals(request.getHeader("Sec-WebSocket-Version"))) {
+            String response = "HTTP/1.1 426 Upgrade Required\r\n" +
+                    "Sec-WebSocket-Version: 13\r\n" +
+                    "Content-Length: 0\r\n" +
+                    connectionHeaders(connection) +
+                    "\r\n";
+            connection.write(StandardCharsets.UTF_8.encode(response));
+            finishResponse(connection);
+            return;
+        }
+
+        WebSocketSession.DeflateParameters deflate =
+                WebSocketSession.DeflateParameters.negotiate(request.getHeader("Sec-WebSocket-Extensions"));
+        WebSocketSession session = new WebSocketSession(connection,
+                new WebSocketChatHandler(assistantService, scheduler, speakToText, admission,
+                        connection.getRemoteHost()), deflate);
+        // Сессия назначается до ответа 101: клиент шлет кадры только после него
+        connection.setWebSocket(session);
+
+        String response = "HTTP/1.1 101 Switching Protocols\r\n" +
+                "Upgrade: websocket\r\n" +
+                "Connection: Upgrade\r\n" +
+                "Sec-WebSocket-Accept: " + WebSocketSession.acceptKey(key) + "\r\n" +
+                (deflate != null ? "Sec-WebSocket-Extensions: " + deflate.toHeaderValue() + "\r\n" : "") +
+                "\r\n";
+        connection.write(StandardCharsets.UTF_8.encode(response));
+    }
+
+    private void handleRequest(HttpConnection connection, HttpRequest request) throws IOException {
+        String method = request.getMethod();
+        String path = request.getPath();
+        Map<String, String> headers = request.getHeaders();
 
         // Обработка маршрутов
-        if (method.equals("GET")) {
-            handleGetRequest(clientChannel, path, headers);
+        if (method.equals("GET") && path.equals("/api/ws")) {
+            upgradeToWebSocket(connection, request);
+        } else if (method.equals("GET")) {
+            handleGetRequest(connection, path, request.getQuery(), headers);
         } else if (method.equals("POST")) {
-            handlePostRequest(clientChannel, path, headers, body);
+            handlePostRequest(connection, path, headers, request.getBodyAsString());
         } else if (method.equals("OPTIONS")) {
-            handleOptionsRequest(clientChannel);
+            handleOptionsRequest(connection);
         } else {
-            sendError(clientChannel, 405, "Method Not Allowed");
+            sendError(connection, 405, "Method Not Allowed");
         }
     }
 
-    private void handleGetRequest(SocketChannel clientChannel, String path, Map<String, String> headers) throws IOException {
+    private void handleGetRequest(HttpConnection connection, String path, Map<String, String> query,
+                                  Map<String, String> headers) throws IOException {
         // Обслуживание статических файлов
         if (path.equals("/") || path.equals("/index.html")) {
-            serveFile(clientChannel, "index.html", "text/html");
+            serveFile(connection, "index.html", "text/html", headers);
         } else if (path.equals("/easyui/themes/default/easyui.css")) {
-            serveFile(clientChannel, "easyui/themes/default/easyui.css", "text/css");
+            serveFile(connection, "easyui/themes/default/easyui.css", "text/css", headers);
         } else if (path.equals("/easyui/themes/icon.css")) {
-            serveFile(clientChannel, "easyui/themes/icon.css", "text/css");
+            serveFile(connection, "easyui/themes/icon.css", "text/css", headers);
         } else if (path.equals("/easyui/themes/default/images/")) {
             // Обработка изображений
-            serveFile(clientChannel, "easyui/themes/default/images/loading.gif", "image/gif");
+            serveFile(connection, "easyui/themes/default/images/loading.gif", "image/gif", headers);
         } else if (path.equals("/easyui/jquery.min.js")) {
-            serveFile(clientChannel, "easyui/jquery.min.js", "application/javascript");
+            serveFile(connection, "easyui/jquery.min.js", "application/javascript", headers);
         } else if (path.equals("/easyui/jquery.easyui.min.js")) {
-            serveFile(clientChannel, "easyui/jquery.easyui.min.js", "application/javascript");
+            serveFile(connection, "easyui/jquery.easyui.min.js", "application/javascript", headers);
         } else if (path.equals("/js/app.js")) {
-            serveFile(clientChannel, "js/app.js", "application/javascript");
+            serveFile(connection, "js/app.js", "application/javascript", headers);
         } else if (path.equals("/css/style.css")) {
-            serveFile(clientChannel, "css/style.css", "text/css");
+            serveFile(connection, "css/style.css", "text/css", headers);
         } else if (path.startsWith("/api/")) {
-            handleApiGetRequest(clientChannel, path, headers);
+            handleApiGetRequest(connection, path, query, headers);
         } else {
             // Попробовать обслужить как статический файл
             if (path.startsWith("/")) {
                 path = path.substring(1);
             }
-            serveFile(clientChannel, "" + path, getContentType(path));
+            serveFile(connection, "" + path, getContentType(path), headers);
         }
     }
 
-    private void handleApiGetRequest(SocketChannel clientChannel, String path, Map<String, String> headers) throws IOException {
+    private void handleApiGetRequest(HttpConnection connection, String path, Map<String, String> query,
+                                     Map<String, String> headers) throws IOException {
         if (path.equals("/api/status")) {
             JSONObject status = new JSONObject();
             status.put("status", "running");
             status.put("version", "1.0");
             status.put("timestamp", System.currentTimeMillis());
-            sendJsonResponse(clientChannel, status);
+            status.put("scheduler", scheduler.getStatus());
+            status.put("event_streams", eventStreams.getStatus());
+            status.put("admission", admission.getStatus());
+            status.put("static_assets", staticAssets.getStatus());
+            status.put("responses", responseWriter.getStatus());
+            status.put("stages", Metrics.getStageSummary());
+            sendJsonResponse(connection, status);
+
+        } else if (path.equals("/api/metrics")) {
+            // Формат выгрузки Prometheus
+            responseWriter.send(connection, 200, getStatusText(200), "text/plain; version=0.0.4; charset=utf-8",
+                    connectionHeaders(connection), Metrics.toPrometheus());
+            finishResponse(connection);
 
         } else if (path.equals("/api/models")) {
             List<String> models = assistantService.getAvailableModels();
             JSONObject response = new JSONObject();
             response.put("models", new JSONArray(models));
             response.put("current_model", assistantService.getCurrentModel());
-            sendJsonResponse(clientChannel, response);
+            sendJsonResponse(connection, response);
 
         } else if (path.equals("/api/embedding_models")) {
             List<String> models = assistantService.getAvailableEmbeddingModels();
             JSONObject response = new JSONObject();
             response.put("models", new JSONArray(models));
             response.put("current_model", assistantService.getEmbeddingModel());
-            sendJsonResponse(clientChannel, response);
+            sendJsonResponse(connection, response);
 
         } else if (path.equals("/api/statistics")) {
             JSONObject stats = assistantService.getStatistics();
-            sendJsonResponse(clientChannel, stats);
+            sendJsonResponse(connection, stats);
 
         } else if (path.equals("/api/chat_history")) {
             List<ChatMessage> history = assistantService.getChatHistory();
@@ -233,48 +513,82 @@ public class WebServer {
             }
             JSONObject response = new JSONObject();
             response.put("history", historyArray);
-            sendJsonResponse(clientChannel, response);
+            sendJsonResponse(connection, response);
 
         } else if (path.equals("/api/prompts")) {
             JSONObject prompts = assistantService.exportPrompts();
-            sendJsonResponse(clientChannel, prompts);
+            sendJsonResponse(connection, prompts);
+
+        } else if (path.equals("/api/ingest_status")) {
+            IngestionPipeline pipeline = assistantService.getIngestionPipeline();
+            String jobId = query.get("job_id");
+            if (jobId == null) {
+                sendJsonResponse(connection, pipeline.getStatus());
+            } else {
+                IngestionJob job = pipeline.getJob(jobId);
+                if (job == null) {
+                    JSONObject error = new JSONObject();
+                    error.put("error", "Job not found: " + jobId);
+                    sendJsonResponse(connection, error, 404);
+                } else {
+                    sendJsonResponse(connection, job.toJSON());
+                }
+            }
+
+        } else if (path.equals("/api/jfr")) {
+            sendJsonResponse(connection, RecordingManager.getStatus());
+
+        } else if (path.equals("/api/jfr/dump")) {
+            sendRecordingDump(connection, query.get("id"));
+
+        } else if (path.equals("/api/import_directories")) {
+            JSONObject response = new JSONObject();
+            response.put("directories", assistantService.getDirectoryImports());
+            sendJsonResponse(connection, response);
 
         } else if (path.equals("/api/chat_stream")) {
             // Подключение к EventSource
-            String sessionId = UUID.randomUUID().toString();
-            EventSourceClient client = new EventSourceClient(clientChannel, sessionId);
-            String channel = headers.getOrDefault("Last-Event-Id", "general");
-
-            eventSources.computeIfAbsent(channel, k -> new ArrayList<>()).add(client);
+            connection.setStreaming(true);
+            String channel = headers.getOrDefault("Last-Event-Id", EventStreamRegistry.DEFAULT_CHANNEL);
+            String sessionId = eventStreams.register(connection, channel);
+
+            // Заголовки ответа отправляются один раз, дальше по соединению идут только события
+            String streamHeaders = "HTTP/1.1 200 OK\r\n" +
+                    "Content-Type: text/event-stream\r\n" +
+                    "Cache-Control: no-cache\r\n" +
+                    "Connection: keep-alive\r\n" +
+                    "Access-Control-Allow-Origin: *\r\n" +
+                    "\r\n";
+            connection.write(StandardCharsets.UTF_8.encode(streamHeaders));
 
             // Отправляем начальное сообщение
             JSONObject initEvent = new JSONObject();
             initEvent.put("type", "connected");
             initEvent.put("session_id", sessionId);
             initEvent.put("timestamp", System.currentTimeMillis());
-            sendEventSourceMessage(clientChannel, initEvent);
+            eventStreams.sendNow(sessionId, initEvent);
 
             // Не закрываем соединение - оно будет использоваться для отправки событий
 
         } else {
-            sendError(clientChannel, 404, "Not Found");
+            sendError(connection, 404, "Not Found");
         }
     }
 
-    private void handlePostRequest(SocketChannel clientChannel, String path, Map<String, String> headers, String body) throws IOException {
+    private void handlePostRequest(HttpConnection connection, String path, Map<String, String> headers, String body) throws IOException {
         if (path.startsWith("/api/")) {
-            handleApiPostRequest(clientChannel, path, headers, body);
+            handleApiPostRequest(connection, path, headers, body);
         } else {
-            sendError(clientChannel, 404, "Not Found");
+            sendError(connection, 404, "Not Found");
         }
     }
 
-    private void handleApiPostRequest(SocketChannel clientChannel, String path, Map<String, String> headers, String body) throws IOException {
+    private void handleApiPostRequest(HttpConnection connection, String path, Map<String, String> headers, String body) throws IOException {
         JSONObject request;
         try {
             request = new JSONObject(body);
         } catch (Exception e) {
-            sendError(clientChannel, 400, "Invalid JSON");
+            sendError(connection, 400, "Invalid JSON");
             return;
         }
 
@@ -285,21 +599,79 @@ public class WebServer {
             if (question.isEmpty()) {
                 JSONObject error = new JSONObject();
                 error.put("error", "Question cannot be empty");
-                sendJsonResponse(clientChannel, error, 400);
+                sendJsonResponse(connection, error, 400);
+                return;
+            }
+
+            // Отказ - сразу, пока клиент еще ждет ответа, а не после долгого ожидания в очереди
+            AdmissionController.Decision decision = admission.admit(connection.getRemoteHost());
+            if (!decision.isAdmitted()) {
+                JSONObject error = new JSONObject();
+                error.put("error", decision.reason);
+                error.put("retry_after", decision.retryAfterSeconds);
+                sendJsonResponse(connection, error, decision.getStatusCode(),
+                        "Retry-After: " + decision.retryAfterSeconds + "\r\n");
                 return;
             }
+            AdmissionController.Ticket ticket = decision.ticket;
 
             // Отправляем подтверждение
             JSONObject response = new JSONObject();
             response.put("status", "processing");
             response.put("session_id", sessionId);
             response.put("question", question);
-            sendJsonResponse(clientChannel, response);
+            sendJsonResponse(connection, response);
+
+            // Поток событий, открытый этой вкладкой: в него идут токены ответа по мере генерации
+            String streamId = request.optString("stream_id", null);
 
             // Обрабатываем вопрос в фоне
-            executorService.submit(() -> {
+            scheduler.execute(RequestScheduler.WorkloadClass.LLM, () -> {
+                // Слишком долго ждал в очереди - снимается, клиент получает ошибку
+                if (!ticket.start()) {
+                    JSONObject errorEvent = new JSONObject();
+                    errorEvent.put("type", "error");
+                    errorEvent.put("session_id", sessionId);
+                    errorEvent.put("error", "Время ожидания в очереди истекло, повторите вопрос");
+                    errorEvent.put("timestamp", System.currentTimeMillis());
+                    sendAnswerEvent(streamId, errorEvent);
+                    return;
+                }
                 try {
-                    String answer = assistantService.askQuestion(question);
+                    JSONObject startEvent = new JSONObject();
+                    startEvent.put("type", "answer_start");
+                    startEvent.put("session_id", sessionId);
+                    startEvent.put("question", question);
+                    startEvent.put("timestamp", System.currentTimeMillis());
+                    eventStreams.sendNow(streamId, startEvent);
+
+                    String answer = assistantService.askQuestion(question, new AnswerStreamListener() {
+                        @Override
+                        public void onSources(List<VectorStore.SearchResult> sources) {
+                            JSONArray sourcesArray = new JSONArray();
+                            for (VectorStore.SearchResult result : sources) {
+                                JSONObject source = new JSONObject();
+                                source.put("id", result.document.getId());
+                                source.put("source", result.document.getSource());
+                                source.put("similarity", Math.round(result.similarity * 1000) / 1000.0);
+                                sourcesArray.put(source);
+                            }
+                            JSONObject sourcesEvent = new JSONObject();
+                            sourcesEvent.put("type", "answer_sources");
+                            sourcesEvent.put("session_id", sessionId);
+                            sourcesEvent.put("sources", sourcesArray);
+                            eventStreams.sendTo(streamId, sourcesEvent);
+                        }
+
+                        @Override
+                        public void onToken(String token) {
+                            JSONObject tokenEvent = new JSONObject();
+                            tokenEvent.put("type", "answer_token");
+                            tokenEvent.put("session_id", sessionId);
+                            tokenEvent.put("token", token);
+                            eventStreams.sendTo(streamId, tokenEvent);
+                        }
+                    });
 
                     // Отправляем результат через EventSource
                     JSONObject answerEvent = new JSONObject();
@@ -308,7 +680,7 @@ public class WebServer {
                     answerEvent.put("answer", answer);
                     answerEvent.put("timestamp", System.currentTimeMillis());
 
-                    broadcastEvent("general", answerEvent);
+                    sendAnswerEvent(streamId, answerEvent);
 
                 } catch (Exception e) {
                     JSONObject errorEvent = new JSONObject();
@@ -317,7 +689,9 @@ public class WebServer {
                     errorEvent.put("error", e.getMessage());
                     errorEvent.put("timestamp", System.currentTimeMillis());
 
-                    broadcastEvent("general", errorEvent);
+                    sendAnswerEvent(streamId, errorEvent);
+                } finally {
+                    ticket.finish();
                 }
             });
 
@@ -328,7 +702,7 @@ public class WebServer {
             if (content.isEmpty()) {
                 JSONObject error = new JSONObject();
                 error.put("error", "Content cannot be empty");
-                sendJsonResponse(clientChannel, error, 400);
+                sendJsonResponse(connection, error, 400);
                 return;
             }
 
@@ -338,21 +712,98 @@ public class WebServer {
                 JSONObject response = new JSONObject();
                 response.put("status", "success");
                 response.put("message", "Knowledge added successfully");
-                sendJsonResponse(clientChannel, response);
+                sendJsonResponse(connection, response);
 
             } catch (Exception e) {
                 JSONObject error = new JSONObject();
                 error.put("error", "Failed to add knowledge: " + e.getMessage());
-                sendJsonResponse(clientChannel, error, 500);
+                sendJsonResponse(connection, error, 500);
+            }
+
+        } else if (path.equals("/api/ingest")) {
+            JSONArray documents = request.optJSONArray("documents");
+            if (documents == null || documents.isEmpty()) {
+                JSONObject error = new JSONObject();
+                error.put("error", "Documents cannot be empty");
+                sendJsonResponse(connection, error, 400);
+                return;
+            }
+
+            String defaultSource = request.optString("source", "web_interface");
+            IngestionPipeline pipeline = assistantService.getIngestionPipeline();
+            IngestionJob job = pipeline.createJob(request.optString("name", "web_ingest"));
+            job.addListener(this::broadcastIngestProgress);
+
+            JSONObject response = new JSONObject();
+            response.put("status", "processing");
+            response.put("job_id", job.getId());
+            response.put("documents", documents.length());
+            sendJsonResponse(connection, response);
+
+            // Подача документов в фоне: при заполненном конвейере поток ждет (backpressure)
+            scheduler.execute(RequestScheduler.WorkloadClass.BULK, () -> {
+                try {
+                    for (int i = 0; i < documents.length(); i++) {
+                        JSONObject document = documents.optJSONObject(i);
+                        if (document == null || document.optString("content", "").isEmpty()) {
+                            continue;
+                        }
+                        JSONObject metadata = document.optJSONObject("metadata");
+                        pipeline.submit(job,
+                                document.getString("content"),
+                                document.optString("source", defaultSource),
+                                metadata != null ? metadata : new JSONObject());
+                    }
+                } catch (Exception e) {
+                    System.err.println("Ошибка подачи документов в конвейер: " + e.getMessage());
+                } finally {
+                    pipeline.close(job);
+                }
+            });
+
+        } else if (path.equals("/api/import_directory")) {
+            String directory = request.optString("path", "");
+            boolean watch = request.optBoolean("watch", false);
+
+            if (directory.isEmpty()) {
+                JSONObject error = new JSONObject();
+                error.put("error", "Path cannot be empty");
+                sendJsonResponse(connection, error, 400);
+                return;
             }
 
+            try {
+                IngestionJob job = assistantService.importDirectory(directory, watch);
+                job.addListener(this::broadcastIngestProgress);
+
+                JSONObject response = new JSONObject();
+                response.put("status", "processing");
+                response.put("job_id", job.getId());
+                response.put("watch", watch);
+                sendJsonResponse(connection, response);
+
+            } catch (Exception e) {
+                JSONObject error = new JSONObject();
+                error.put("error", "Failed to import directory: " + e.getMessage());
+                sendJsonResponse(connection, error, 500);
+            }
+
+        } else if (path.equals("/api/stop_watch_directory")) {
+            String directory = request.optString("path", "");
+            boolean stopped = assistantService.stopWatchingDirectory(directory);
+
+            JSONObject response = new JSONObject();
+            response.put("status", stopped ? "success" : "error");
+            response.put("message", stopped ? "Watching stopped" : "Directory is not watched");
+            sendJsonResponse(connection, response);
+
         } else if (path.equals("/api/switch_model")) {
             String modelName = request.optString("model_name", "");
 
             if (modelName.isEmpty()) {
                 JSONObject error = new JSONObject();
                 error.put("error", "Model name cannot be empty");
-                sendJsonResponse(clientChannel, error, 400);
+                sendJsonResponse(connection, error, 400);
                 return;
             }
 
@@ -366,7 +817,7 @@ public class WebServer {
                 response.put("status", "error");
                 response.put("message", "Failed to switch model");
             }
-            sendJsonResponse(clientChannel, response);
+            sendJsonResponse(connection, response);
 
         } else if (path.equals("/api/switch_embedding_model")) {
             String modelName = request.optString("model_name", "");
@@ -374,7 +825,7 @@ public class WebServer {
             if (modelName.isEmpty()) {
                 JSONObject error = new JSONObject();
                 error.put("error", "Model name cannot be empty");
-                sendJsonResponse(clientChannel, error, 400);
+                sendJsonResponse(connection, error, 400);
                 return;
             }
 
@@ -388,7 +839,7 @@ public class WebServer {
                 response.put("status", "error");
                 response.put("message", "Failed to switch embedding model");
             }
-            sendJsonResponse(clientChannel, response);
+            sendJsonResponse(connection, response);
 
         } else if (path.equals("/api/pull_model")) {
             String modelName = request.optString("model_name", "");
@@ -396,7 +847,7 @@ public class WebServer {
             if (modelName.isEmpty()) {
                 JSONObject error = new JSONObject();
                 error.put("error", "Model name cannot be empty");
-                sendJsonResponse(clientChannel, error, 400);
+                sendJsonResponse(connection, error, 400);
                 return;
             }
 
@@ -404,10 +855,10 @@ public class WebServer {
             JSONObject response = new JSONObject();
             response.put("status", "started");
             response.put("message", "Started pulling model: " + modelName);
-            sendJsonResponse(clientChannel, response);
+            sendJsonResponse(connection, response);
 
-            // Загружаем модель в фоне
-            executorService.submit(() -> {
+            // Загружаем модель в фоне: скачивание идет минутами и не должно занимать слоты генерации
+            scheduler.execute(RequestScheduler.WorkloadClass.BULK, () -> {
                 try {
                     boolean success = assistantService.pullModel(modelName);
 
@@ -417,7 +868,7 @@ public class WebServer {
                     resultEvent.put("success", success);
                     resultEvent.put("timestamp", System.currentTimeMillis());
 
-                    broadcastEvent("models", resultEvent);
+                    eventStreams.broadcast("models", resultEvent);
 
                 } catch (Exception e) {
                     JSONObject errorEvent = new JSONObject();
@@ -426,7 +877,7 @@ public class WebServer {
                     errorEvent.put("error", e.getMessage());
                     errorEvent.put("timestamp", System.currentTimeMillis());
 
-                    broadcastEvent("models", errorEvent);
+                    eventStreams.broadcast("models", errorEvent);
                 }
             });
 
@@ -437,7 +888,7 @@ public class WebServer {
             JSONObject response = new JSONObject();
             response.put("status", "success");
             response.put("use_chat_mode", useChatMode);
-            sendJsonResponse(clientChannel, response);
+            sendJsonResponse(connection, response);
 
         } else if (path.equals("/api/toggle_cache")) {
             boolean useCache = request.optBoolean("use_cache", true);
@@ -446,7 +897,7 @@ public class WebServer {
             JSONObject response = new JSONObject();
             response.put("status", "success");
             response.put("use_cache", useCache);
-            sendJsonResponse(clientChannel, response);
+            sendJsonResponse(connection, response);
 
         } else if (path.equals("/api/toggle_speech")) {
             boolean speechEnabled = request.optBoolean("speech_enabled", false);
@@ -455,7 +906,7 @@ public class WebServer {
             JSONObject response = new JSONObject();
             response.put("status", "success");
             response.put("speech_enabled", speechEnabled);
-            sendJsonResponse(clientChannel, response);
+            sendJsonResponse(connection, response);
 
         } else if (path.equals("/api/clear_chat_history")) {
             assistantService.clearChatHistory();
@@ -463,7 +914,40 @@ public class WebServer {
             JSONObject response = new JSONObject();
             response.put("status", "success");
             response.put("message", "Chat history cleared");
-            sendJsonResponse(clientChannel, response);
+            sendJsonResponse(connection, response);
+
+        } else if (path.equals("/api/jfr/start")) {
+            if (!RecordingManager.isAvailable()) {
+                sendError(connection, 501, "Java Flight Recorder недоступен");
+                return;
+            }
+            String name = request.optString("name", "ai-assistant-" + System.currentTimeMillis());
+            String settings = request.optString("settings", "default");
+            long maxAgeSeconds = request.optLong("max_age_seconds", 0);
+            long maxSizeMb = request.optLong("max_size_mb", 0);
+            try {
+                Recording recording = RecordingManager.start(name, settings,
+                        maxAgeSeconds > 0 ? Duration.ofSeconds(maxAgeSeconds) : null, maxSizeMb * 1024 * 1024);
+                sendJsonResponse(connection, RecordingManager.toJSON(recording));
+            } catch (IOException | ParseException | IllegalArgumentException e) {
+                JSONObject error = new JSONObject();
+                error.put("error", "Не удалось запустить запись: " + e.getMessage());
+                sendJsonResponse(connection, error, 400);
+            } catch (IllegalStateException e) {
+                JSONObject error = new JSONObject();
+                error.put("error", e.getMessage());
+                sendJsonResponse(connection, error, 429);
+            }
+
+        } else if (path.equals("/api/jfr/stop")) {
+            long id = request.optLong("id", -1);
+            // close - освободить запись совсем; без него остановленную запись еще можно выгрузить
+            boolean success = request.optBoolean("close", false)
+                    ? RecordingManager.close(id) : RecordingManager.stop(id);
+            JSONObject response = new JSONObject();
+            response.put("status", success ? "success" : "error");
+            response.put("id", id);
+            sendJsonResponse(connection, response, success ? 200 : 404);
 
         } else if (path.equals("/api/clear_cache")) {
             boolean success = assistantService.clearCache();
@@ -471,7 +955,7 @@ public class WebServer {
             JSONObject response = new JSONObject();
             response.put("status", success ? "success" : "error");
             response.put("message", success ? "Cache cleared" : "Failed to clear cache");
-            sendJsonResponse(clientChannel, response);
+            sendJsonResponse(connection, response);
 
         } else if (path.equals("/api/search_knowledge")) {
             String query = request.optString("query", "");
@@ -479,17 +963,18 @@ public class WebServer {
             if (query.isEmpty()) {
                 JSONObject error = new JSONObject();
                 error.put("error", "Query cannot be empty");
-                sendJsonResponse(clientChannel, error, 400);
+                sendJsonResponse(connection, error, 400);
                 return;
             }
 
-            // Поиск в базе знаний
-            assistantService.searchKnowledgeBase(query);
+            // Поиск в базе знаний; source - только документы из источников с этим префиксом
+            String source = request.optString("source", "");
+            assistantService.searchKnowledgeBase(query, source.isEmpty() ? null : source);
 
             JSONObject response = new JSONObject();
             response.put("status", "success");
             response.put("message", "Search completed");
-            sendJsonResponse(clientChannel, response);
+            sendJsonResponse(connection, response);
 
         } else if (path.equals("/api/update_prompt")) {
             String promptType = request.optString("type", "current");
@@ -498,7 +983,7 @@ public class WebServer {
             if (newPrompt.isEmpty()) {
                 JSONObject error = new JSONObject();
                 error.put("error", "Prompt cannot be empty");
-                sendJsonResponse(clientChannel, error, 400);
+                sendJsonResponse(connection, error, 400);
                 return;
             }
 
@@ -513,7 +998,7 @@ public class WebServer {
             JSONObject response = new JSONObject();
             response.put("status", "success");
             response.put("message", "Prompt updated");
-            sendJsonResponse(clientChannel, response);
+            sendJsonResponse(connection, response);
 
         } else if (path.equals("/api/reset_prompts")) {
             assistantService.resetPromptsToDefault();
@@ -521,107 +1006,138 @@ public class WebServer {
             JSONObject response = new JSONObject();
             response.put("status", "success");
             response.put("message", "Prompts reset to default");
-            sendJsonResponse(clientChannel, response);
+            sendJsonResponse(connection, response);
 
         } else {
-            sendError(clientChannel, 404, "Not Found");
+            sendError(connection, 404, "Not Found");
         }
     }
 
-    private void handleOptionsRequest(SocketChannel clientChannel) throws IOException {
+    private void handleOptionsRequest(HttpConnection connection) throws IOException {
         String response = "HTTP/1.1 200 OK\r\n" +
                 "Access-Control-Allow-Origin: *\r\n" +
                 "Access-Control-Allow-Methods: GET, POST, OPTIONS\r\n" +
                 "Access-Control-Allow-Headers: Content-Type\r\n" +
                 "Content-Length: 0\r\n" +
+                connectionHeaders(connection) +
                 "\r\n";
 
-        clientChannel.write(StandardCharsets.UTF_8.encode(response));
+        connection.write(StandardCharsets.UTF_8.encode(response));
+        finishResponse(connection);
     }
 
-    private void serveFile(SocketChannel clientChannel, String filePath, String contentType) throws IOException {
-
-        File fileDir = new File("web");
-        File file = new File(fileDir.getAbsolutePath()+"/"+filePath);
-        System.out.println(file);
-        if (!file.exists() || file.isDirectory()) {
-            sendError(clientChannel, 404, "File not found");
+    // Статика отдается из кэша в памяти; совпадение If-None-Match с ETag дает 304 без тела
+    private void serveFile(HttpConnection connection, String filePath, String contentType,
+                           Map<String, String> headers) throws IOException {
+        StaticAssetCache.Asset asset = staticAssets.get(filePath, contentType);
+        if (asset == null) {
+            sendError(connection, 404, "File not found");
             return;
         }
 
-        byte[] fileContent = readAllBytes(file.toPath());
+        boolean gzip = asset.hasGzip() && ContentEncoding.acceptsGzip(headers.get("Accept-Encoding"));
+        String cacheHeaders = "ETag: " + asset.getEtag(gzip) + "\r\n" +
+                "Cache-Control: no-cache\r\n" +
+                (asset.hasGzip() ? "Vary: Accept-Encoding\r\n" : "");
+
+        if (asset.matches(headers.get("If-None-Match"), gzip)) {
+            String response = "HTTP/1.1 304 Not Modified\r\n" +
+                    cacheHeaders +
+                    connectionHeaders(connection) +
+                    "\r\n";
+            connection.write(StandardCharsets.UTF_8.encode(response));
+            finishResponse(connection);
+            return;
+        }
 
         String response = "HTTP/1.1 200 OK\r\n" +
                 "Content-Type: " + contentType + "\r\n" +
-                "Content-Length: " + fileContent.length + "\r\n" +
+                "Content-Length: " + (gzip ? asset.getGzipLength() : asset.getLength()) + "\r\n" +
+                (gzip ? "Content-Encoding: gzip\r\n" : "") +
+                cacheHeaders +
+                connectionHeaders(connection) +
                 "\r\n";
-
         ByteBuffer headerBuffer = StandardCharsets.UTF_8.encode(response);
-        ByteBuffer contentBuffer = ByteBuffer.wrap(fileContent);
-
-        clientChannel.write(new ByteBuffer[]{headerBuffer, contentBuffer});
-    }
 
-    private void sendJsonResponse(SocketChannel clientChannel, JSONObject json) throws IOException {
-        sendJsonResponse(clientChannel, json, 200);
+        if (asset.isZeroCopy()) {
+            FileChannel file = FileChannel.open(asset.getPath(), StandardOpenOption.READ);
+            connection.transferFile(headerBuffer, file, 0, asset.getLength());
+        } else {
+            connection.write(headerBuffer, asset.getBody(gzip));
+        }
+        finishResponse(connection);
     }
 
-    private void sendJsonResponse(SocketChannel clientChannel, JSONObject json, int statusCode) throws IOException {
-        String jsonString = json.toString();
-        String statusText = getStatusText(statusCode);
-
-        String response = "HTTP/1.1 " + statusCode + " " + statusText + "\r\n" +
-                "Content-Type: application/json\r\n" +
-                "Access-Control-Allow-Origin: *\r\n" +
-                "Content-Length: " + jsonString.length() + "\r\n" +
-                "\r\n" +
-                jsonString;
+    // Выгрузка записи JFR файлом; без id - фоновая запись
+    private void sendRecordingDump(HttpConnection connection, String idParam) throws IOException {
+        long id = -1;
+        if (idParam != null) {
+            try {
+                id = Long.parseLong(idParam);
+            } catch (NumberFormatException e) {
+                sendError(connection, 400, "Invalid recording id");
+                return;
+            }
+        } else {
+            id = RecordingManager.getContinuousId();
+        }
 
-        clientChannel.write(StandardCharsets.UTF_8.encode(response));
-        clientChannel.close();
+        Path dump = RecordingManager.dump(id);
+        if (dump == null) {
+            sendError(connection, 404, "Recording not found");
+            return;
+        }
+        // Временный файл удаляется, когда соединение закроет канал после отправки
+        FileChannel file = FileChannel.open(dump, StandardOpenOption.READ, StandardOpenOption.DELETE_ON_CLOSE);
+        long length = file.size();
+        String response = "HTTP/1.1 200 OK\r\n" +
+                "Content-Type: application/octet-stream\r\n" +
+                "Content-Disposition: attachment; filename=\"" + dump.getFileName() + "\"\r\n" +
+                "Content-Length: " + length + "\r\n" +
+                connectionHeaders(connection) +
+                "\r\n";
+        connection.transferFile(StandardCharsets.UTF_8.encode(response), file, 0, length);
+        finishResponse(connection);
     }
 
-    private void sendEventSourceMessage(SocketChannel clientChannel, JSONObject event) throws IOException {
-        String eventString = "data: " + event.toString() + "\n\n";
+    private void sendJsonResponse(HttpConnection connection, JSONObject json) throws IOException {
+        sendJsonResponse(connection, json, 200);
+    }
 
-        String response = "HTTP/1.1 200 OK\r\n" +
-                "Content-Type: text/event-stream\r\n" +
-                "Cache-Control: no-cache\r\n" +
-                "Connection: keep-alive\r\n" +
-                "Access-Control-Allow-Origin: *\r\n" +
-                "\r\n" +
-                eventString;
+    private void sendJsonResponse(HttpConnection connection, JSONObject json, int statusCode) throws IOException {
+        sendJsonResponse(connection, json, statusCode, "");
+    }
 
-        clientChannel.write(StandardCharsets.UTF_8.encode(response));
+    // headers - дополнительные строки заголовков, каждая с \r\n в конце
+    private void sendJsonResponse(HttpConnection connection, JSONObject json, int statusCode,
+                                  String headers) throws IOException {
+        responseWriter.send(connection, statusCode, getStatusText(statusCode), "application/json",
+                "Access-Control-Allow-Origin: *\r\n" + headers + connectionHeaders(connection),
+                json.toString());
+        finishResponse(connection);
     }
 
-    private void broadcastEvent(String channel, JSONObject event) {
-        List<EventSourceClient> clients = eventSources.get(channel);
-        if (clients != null) {
-            Iterator<EventSourceClient> iter = clients.iterator();
-            while (iter.hasNext()) {
-                EventSourceClient client = iter.next();
-                try {
-                    sendEventSourceMessage(client.channel, event);
-                } catch (IOException e) {
-                    // Клиент отключился
-                    iter.remove();
-                }
-            }
+    // Итог ответа. Старые клиенты, не передающие stream_id, получают его через общий канал;
+    // если же вкладка с указанным потоком закрылась, ответ просто некому доставлять.
+    private void sendAnswerEvent(String streamId, JSONObject event) {
+        if (streamId == null) {
+            eventStreams.broadcast(EventStreamRegistry.DEFAULT_CHANNEL, event);
+        } else {
+            eventStreams.sendNow(streamId, event);
         }
     }
 
-    private void sendError(SocketChannel clientChannel, int statusCode, String message) throws IOException {
-        String statusText = getStatusText(statusCode);
-
-        String response = "HTTP/1.1 " + statusCode + " " + statusText + "\r\n" +
-                "Content-Type: text/plain\r\n" +
-                "Content-Length: " + message.length() + "\r\n" +
-                "\r\n" +
-                message;
+    private void broadcastIngestProgress(IngestionJob job) {
+        JSONObject progressEvent = job.toJSON();
+        progressEvent.put("type", "ingest_progress");
+        progressEvent.put("timestamp", System.currentTimeMillis());
+        eventStreams.broadcast(EventStreamRegistry.DEFAULT_CHANNEL, progressEvent);
+    }
 
-        clientChannel.write(StandardCharsets.UTF_8.encode(response));
-        clientChannel.close();
+    private void sendError(HttpConnection connection, int statusCode, String message) throws IOException {
+        responseWriter.send(connection, statusCode, getStatusText(statusCode), "text/plain; charset=utf-8",
+                connectionHeaders(connection), message);
+        finishResponse(connection);
     }
 
     private String getContentType(String filename) {
@@ -638,43 +1154,41 @@ public class WebServer {
 
     private String getStatusText(int statusCode) {
         switch (statusCode) {
+            case 101: return "Switching Protocols";
             case 200: return "OK";
+            case 304: return "Not Modified";
             case 400: return "Bad Request";
             case 404: return "Not Found";
             case 405: return "Method Not Allowed";
+            case 413: return "Payload Too Large";
+            case 426: return "Upgrade Required";
+            case 414: return "URI Too Long";
+            case 429: return "Too Many Requests";
+            case 431: return "Request Header Fields Too Large";
             case 500: return "Internal Server Error";
+            case 501: return "Not Implemented";
+            case 503: return "Service Unavailable";
+            case 505: return "HTTP Version Not Supported";
             default: return "Unknown";
         }
     }
 
     public void stop() {
         running = false;
-        executorService.shutdown();
-    }
-
-    private static class EventSourceClient {
-        SocketChannel channel;
-        String sessionId;
-
-        EventSourceClient(SocketChannel channel, String sessionId) {
-            this.channel = channel;
-            this.sessionId = sessionId;
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            // Игнорируем ошибку закрытия
         }
-    }
-
-    // Вспомогательный метод для чтения файлов
-    private static byte[] readAllBytes(Path path) throws IOException {
-        try (InputStream is = new FileInputStream(path.toFile())) {
-            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-            int nRead;
-            byte[] data = new byte[16384];
-
-            while ((nRead = is.read(data, 0, data.length)) != -1) {
-                buffer.write(data, 0, nRead);
+        if (reactors != null) {
+            for (Reactor reactor : reactors) {
+                reactor.shutdown();
             }
-
-            buffer.flush();
-            return buffer.toByteArray();
         }
+        scheduler.shutdown();
+        eventStreams.shutdown();
+        staticAssets.close();
     }
 }
\ No newline at end of file
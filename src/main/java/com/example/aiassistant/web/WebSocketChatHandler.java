@@ -0,0 +1,280 @@
+package com.example.aiassistant.web;
+
+import com.example.aiassistant.service.AnswerStreamListener;
+import com.example.aiassistant.service.AssistantService;
+import com.example.aiassistant.service.VectorStore;
+import com.example.aiassistant.util.SpeakToText;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Диалог через WebSocket: вопросы, отмена, токены ответа и аудио идут по одному соединению.
+// Сообщения клиента - JSON:
+//   {"type":"ask","session_id":"...","question":"...","audio":false} - задать вопрос
+//   {"type":"cancel","session_id":"..."} - прервать генерацию (без session_id - все генерации)
+//   {"type":"ping"}
+// Ответные события совпадают с событиями SSE (answer_start, answer_sources, answer_token,
+// answer_complete, error). Озвученное предложение приходит парой: текстовое сообщение "audio"
+// с описанием и следующий за ним двоичный кадр с WAV.
+class WebSocketChatHandler implements WebSocketSession.Handler {
+    // Одно соединение не должно занимать все слоты генерации
+    private static final int MAX_ACTIVE_GENERATIONS = 2;
+
+    private final AssistantService assistantService;
+    private final RequestScheduler scheduler;
+    private final SpeakToText speakToText;
+    private final AdmissionController admission;
+    private final String clientKey;
+    private final Map<String, Generation> generations = new ConcurrentHashMap<>();
+
+    WebSocketChatHandler(AssistantService assistantService, RequestScheduler scheduler, SpeakToText speakToText,
+                         AdmissionController admission, String clientKey) {
+        this.assistantService = assistantService;
+        this.scheduler = scheduler;
+        this.speakToText = speakToText;
+        this.admission = admission;
+        this.clientKey = clientKey;
+    }
+
+    // Вызывается потоком-реактором: здесь только разбор и постановка задач
+    @Override
+    public void onText(WebSocketSession session, String message) {
+        JSONObject request;
+        try {
+            request = new JSONObject(message);
+        } catch (JSONException e) {
+            sendError(session, null, "Некорректный JSON: " + e.getMessage());
+            return;
+        }
+
+        String type = request.optString("type", "");
+        switch (type) {
+            case "ask":
+                startGeneration(session, request);
+                break;
+            case "cancel":
+                cancel(request.optString("session_id", null));
+                break;
+            case "ping":
+                JSONObject pong = new JSONObject();
+                pong.put("type", "pong");
+                pong.put("timestamp", System.currentTimeMillis());
+                session.sendText(pong.toString());
+                break;
+            default:
+                sendError(session, null, "Неизвестный тип сообщения: " + type);
+                break;
+        }
+    }
+
+    @Override
+    public void onBinary(WebSocketSession session, byte[] message) {
+        sendError(session, null, "Двоичные сообщения от клиента не поддерживаются");
+    }
+
+    // Клиент ушел - его генерации больше некому показывать
+    @Override
+    public void onClose(WebSocketSession session) {
+        cancel(null);
+    }
+
+    private void startGeneration(WebSocketSession session, JSONObject request) {
+        String question = request.optString("question", "").trim();
+        String sessionId = request.optString("session_id", UUID.randomUUID().toString());
+        if (question.isEmpty()) {
+            sendError(session, sessionId, "Question cannot be empty");
+            return;
+        }
+        if (generations.size() >= MAX_ACTIVE_GENERATIONS) {
+            sendError(session, sessionId, "Слишком много одновременных вопросов");
+            return;
+        }
+        Generation generation = new Generation(sessionId, request.optBoolean("audio", false));
+        if (generations.putIfAbsent(sessionId, generation) != null) {
+            sendError(session, sessionId, "Вопрос с таким session_id уже обрабатывается");
+            return;
+        }
+
+        // Те же лимиты, что и у /api/ask: отказ приходит событием error с кодом и retry_after
+        AdmissionController.Decision decision = admission.admit(clientKey);
+        if (!decision.isAdmitted()) {
+            generations.remove(sessionId, generation);
+            JSONObject errorEvent = event("error", sessionId);
+            errorEvent.put("error", decision.reason);
+            errorEvent.put("status", decision.getStatusCode());
+            errorEvent.put("retry_after", decision.retryAfterSeconds);
+            errorEvent.put("timestamp", System.currentTimeMillis());
+            session.sendText(errorEvent.toString());
+            return;
+        }
+
+        scheduler.execute(RequestScheduler.WorkloadClass.LLM,
+                () -> runGeneration(session, generation, question, decision.ticket));
+    }
+
+    private void runGeneration(WebSocketSession session, Generation generation, String question,
+                               AdmissionController.Ticket ticket) {
+        String sessionId = generation.sessionId;
+        try {
+            // Отменен, пока ждал очереди
+            if (generation.cancelled) {
+                ticket.abandon();
+                sendComplete(session, generation, "");
+                return;
+            }
+            if (!ticket.start()) {
+                sendError(session, sessionId, "Время ожидания в очереди истекло, повторите вопрос");
+                return;
+            }
+
+            JSONObject startEvent = event("answer_start", sessionId);
+            startEvent.put("question", question);
+            startEvent.put("timestamp", System.currentTimeMillis());
+            session.sendText(startEvent.toString());
+
+            String answer = assistantService.askQuestion(question, new AnswerStreamListener() {
+                @Override
+                public void onSources(List<VectorStore.SearchResult> sources) {
+                    JSONArray sourcesArray = new JSONArray();
+                    for (VectorStore.SearchResult result : sources) {
+                        JSONObject source = new JSONObject();
+                        source.put("id", result.document.getId());
+                        source.put("source", result.document.getSource());
+                        source.put("similarity", Math.round(result.similarity * 1000) / 1000.0);
+                        sourcesArray.put(source);
+                    }
+                    JSONObject sourcesEvent = event("answer_sources", sessionId);
+                    sourcesEvent.put("sources", sourcesArray);
+                    session.sendText(sourcesEvent.toString());
+                }
+
+                @Override
+                public void onToken(String token) {
+                    JSONObject tokenEvent = event("answer_token", sessionId);
+                    tokenEvent.put("token", token);
+                    if (!session.sendText(tokenEvent.toString())) {
+                        // Соединение закрыто - дальше генерировать незачем
+                        generation.cancelled = true;
+                    }
+                    if (generation.audio) {
+                        collectSentence(session, generation, token);
+                    }
+                }
+
+                @Override
+                public boolean isCancelled() {
+                    return generation.cancelled;
+                }
+            });
+
+            if (generation.audio && generation.sentence.length() > 0) {
+                speakSentence(session, generation, generation.sentence.toString());
+            }
+            sendComplete(session, generation, answer);
+
+        } catch (Exception e) {
+            sendError(session, sessionId, e.getMessage());
+        } finally {
+            ticket.finish();
+            generations.remove(sessionId, generation);
+        }
+    }
+
+    private void cancel(String sessionId) {
+        if (sessionId == null) {
+            for (Generation generation : generations.values()) {
+                generation.cancelled = true;
+            }
+        } else {
+            Generation generation = generations.get(sessionId);
+            if (generation != null) {
+                generation.cancelled = true;
+            }
+        }
+    }
+
+    // Предложение озвучивается, как только закончилось, не дожидаясь конца ответа
+    private void collectSentence(WebSocketSession session, Generation generation, String token) {
+        generation.sentence.append(token);
+        String text = generation.sentence.toString().trim();
+        if (text.matches("(?s).*[.!?]$")) {
+            generation.sentence.setLength(0);
+            speakSentence(session, generation, text);
+        }
+    }
+
+    // Синтез речи идет вне потока генерации, но строго по порядку предложений
+    private void speakSentence(WebSocketSession session, Generation generation, String text) {
+        generation.audioChain = generation.audioChain.thenRunAsync(() -> {
+            if (generation.cancelled) {
+                return;
+            }
+            File audioFile = speakToText.speakToFile(text, "ws_");
+            if (audioFile == null || !audioFile.exists()) {
+                return;
+            }
+            try {
+                byte[] audio = Files.readAllBytes(audioFile.toPath());
+                JSONObject audioEvent = event("audio", generation.sessionId);
+                audioEvent.put("text", text);
+                audioEvent.put("format", "wav");
+                audioEvent.put("bytes", audio.length);
+                if (session.sendText(audioEvent.toString())) {
+                    session.sendBinary(audio);
+                }
+            } catch (IOException e) {
+                System.err.println("Ошибка чтения аудиофайла: " + e.getMessage());
+            } finally {
+                audioFile.delete();
+            }
+        }, scheduler.executorFor(RequestScheduler.WorkloadClass.CHEAP));
+    }
+
+    private void sendComplete(WebSocketSession session, Generation generation, String answer) {
+        JSONObject answerEvent = event("answer_complete", generation.sessionId);
+        answerEvent.put("answer", answer);
+        answerEvent.put("cancelled", generation.cancelled);
+        answerEvent.put("timestamp", System.currentTimeMillis());
+        // Итог отправляется после аудио уже озвученных предложений
+        generation.audioChain.whenComplete((result, error) -> session.sendText(answerEvent.toString()));
+    }
+
+    private void sendError(WebSocketSession session, String sessionId, String message) {
+        JSONObject errorEvent = event("error", sessionId);
+        errorEvent.put("error", message);
+        errorEvent.put("timestamp", System.currentTimeMillis());
+        session.sendText(errorEvent.toString());
+    }
+
+    private static JSONObject event(String type, String sessionId) {
+        JSONObject event = new JSONObject();
+        event.put("type", type);
+        if (sessionId != null) {
+            event.put("session_id", sessionId);
+        }
+        return event;
+    }
+
+    private static class Generation {
+        final String sessionId;
+        final boolean audio;
+        final StringBuilder sentence = new StringBuilder();
+        volatile boolean cancelled;
+        // Цепочка задач озвучки этого ответа
+        volatile CompletableFuture<Void> audioChain = CompletableFuture.completedFuture(null);
+
+        Generation(String sessionId, boolean audio) {
+            this.sessionId = sessionId;
+            this.audio = audio;
+        }
+    }
+}
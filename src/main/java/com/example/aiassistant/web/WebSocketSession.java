@@ -0,0 +1,605 @@
+package com.example.aiassistant.web;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Соединение WebSocket (RFC 6455) поверх того же NIO-соединения, что и HTTP.
+// Кадры разбираются инкрементально потоком-реактором по мере поступления байтов; собранные
+// сообщения передаются обработчику. Отправка возможна из любого потока: каждый кадр - одна
+// запись в исходящую очередь соединения, поэтому кадры разных потоков не перемешиваются.
+// Рабочий поток ждет места в очереди до захвата sendLock, а реактор не ждет никогда: его кадры
+// (pong, close, ошибки из onText) ставятся в deferred и отправляются им самим или текущим
+// владельцем sendLock.
+// Сжатие permessage-deflate (RFC 7692) включается, если его предложил клиент.
+class WebSocketSession {
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private static final int OPCODE_CONTINUATION = 0x0;
+    private static final int OPCODE_TEXT = 0x1;
+    private static final int OPCODE_BINARY = 0x2;
+    private static final int OPCODE_CLOSE = 0x8;
+    private static final int OPCODE_PING = 0x9;
+    private static final int OPCODE_PONG = 0xA;
+
+    static final int CLOSE_NORMAL = 1000;
+    static final int CLOSE_PROTOCOL_ERROR = 1002;
+    static final int CLOSE_INVALID_DATA = 1007;
+    static final int CLOSE_TOO_BIG = 1009;
+
+    private static final int MAX_MESSAGE_BYTES = 16 * 1024 * 1024;
+    private static final int MAX_CONTROL_PAYLOAD = 125;
+    private static final int INITIAL_MESSAGE_BUFFER = 1024;
+    // Сообщения короче порога не сжимаются: для отдельных токенов сжатие ничего не дает
+    private static final int COMPRESSION_THRESHOLD = 256;
+    private static final byte[] DEFLATE_TAIL = {0, 0, (byte) 0xFF, (byte) 0xFF};
+
+    interface Handler {
+        void onText(WebSocketSession session, String message);
+
+        void onBinary(WebSocketSession session, byte[] message);
+
+        // Соединение закрыто (клиентом, сервером или из-за ошибки); вызывается один раз
+        void onClose(WebSocketSession session);
+    }
+
+    private final HttpConnection connection;
+    private final Handler handler;
+    private final DeflateParameters deflate;
+    private final Inflater inflater;
+    private final Deflater deflater;
+
+    // Состояние разбора кадра - только поток-реактор
+    private final byte[] frameHeader = new byte[14];
+    private int frameHeaderLength;
+    private int frameHeaderNeeded = 2;
+    private boolean inPayload;
+    private boolean frameFin;
+    private boolean frameCompressed;
+    private int frameOpcode;
+    private long framePayloadLength;
+    private long framePayloadRead;
+    private final byte[] mask = new byte[4];
+
+    private byte[] message = new byte[INITIAL_MESSAGE_BUFFER];
+    private int messageLength;
+    private int messageOpcode = -1;
+    private boolean messageCompressed;
+    private final byte[] control = new byte[MAX_CONTROL_PAYLOAD];
+    private int controlLength;
+
+    // Отправка: ReentrantLock, чтобы ожидающий виртуальный поток не закреплял поток-носитель.
+    // Под sendLock только сжатие и постановка кадра в очередь, без ожидания клиента
+    private final ReentrantLock sendLock = new ReentrantLock();
+    private final Queue<PendingFrame> deferred = new ConcurrentLinkedQueue<>();
+    private boolean closeSent;
+    private volatile boolean released;
+    private final AtomicBoolean closeNotified = new AtomicBoolean();
+    // Распаковщик освобождается при закрытии из любого потока, а используется реактором
+    private final ReentrantLock inflateLock = new ReentrantLock();
+    private boolean inflaterEnded;
+
+    WebSocketSession(HttpConnection connection, Handler handler, DeflateParameters deflate) {
+        this.connection = connection;
+        this.handler = handler;
+        this.deflate = deflate;
+        this.inflater = deflate != null ? new Inflater(true) : null;
+        this.deflater = deflate != null ? new Deflater(Deflater.DEFAULT_COMPRESSION, true) : null;
+        connection.setCloseListener(this::notifyClosed);
+    }
+
+    // Значение Sec-WebSocket-Accept для ключа клиента
+    static String acceptKey(String clientKey) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest((clientKey.trim() + ACCEPT_GUID).getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 недоступен", e);
+        }
+    }
+
+    // Байты, прочитанные реактором из сокета
+    void offer(ByteBuffer buffer) {
+        try {
+            while (buffer.hasRemaining() && !closeNotified.get()) {
+                if (!inPayload) {
+                    readFrameHeader(buffer);
+                } else {
+                    readPayload(buffer);
+                }
+            }
+        } catch (ProtocolException e) {
+            if (!closeNotified.get()) {
+                fail(e.closeCode, e.getMessage());
+            }
+        }
+    }
+
+    // Клиент закрыл TCP-соединение без кадра закрытия
+    void endOfInput() {
+        connection.close();
+    }
+
+    boolean sendText(String text) {
+        return sendFrame(OPCODE_TEXT, text.getBytes(StandardCharsets.UTF_8), true);
+    }
+
+    boolean sendBinary(byte[] data) {
+        return sendFrame(OPCODE_BINARY, data, true);
+    }
+
+    // Закрытие по инициативе сервера: кадр закрытия, затем соединение закрывается после отправки
+    // (closeAfterFlush - после постановки кадра в очередь, см. writeFrame)
+    void close(int code, String reason) {
+        sendClose(code, reason);
+    }
+
+    private void readFrameHeader(ByteBuffer buffer) throws ProtocolException {
+        while (frameHeaderLength < frameHeaderNeeded && buffer.hasRemaining()) {
+            frameHeader[frameHeaderLength++] = buffer.get();
+            if (frameHeaderLength == 2) {
+                int lengthCode = frameHeader[1] & 0x7F;
+                frameHeaderNeeded = 2 + (lengthCode == 126 ? 2 : lengthCode == 127 ? 8 : 0)
+                        + ((frameHeader[1] & 0x80) != 0 ? 4 : 0);
+            }
+        }
+        if (frameHeaderLength < frameHeaderNeeded) {
+            return;
+        }
+
+        int b0 = frameHeader[0] & 0xFF;
+        int b1 = frameHeader[1] & 0xFF;
+        frameFin = (b0 & 0x80) != 0;
+        frameCompressed = (b0 & 0x40) != 0;
+        frameOpcode = b0 & 0x0F;
+        boolean masked = (b1 & 0x80) != 0;
+        int lengthCode = b1 & 0x7F;
+
+        int pos = 2;
+        if (lengthCode == 126) {
+            framePayloadLength = ((frameHeader[2] & 0xFF) << 8) | (frameHeader[3] & 0xFF);
+            pos = 4;
+        } else if (lengthCode == 127) {
+            long length = 0;
+            for (int i = 2; i < 10; i++) {
+                length = (length << 8) | (frameHeader[i] & 0xFF);
+            }
+            framePayloadLength = length;
+            pos = 10;
+        } else {
+            framePayloadLength = lengthCode;
+        }
+
+        // Кадры клиента обязаны быть замаскированы
+        if (!masked) {
+            throw new ProtocolException(CLOSE_PROTOCOL_ERROR, "Кадр клиента без маски");
+        }
+        System.arraycopy(frameHeader, pos, mask, 0, 4);
+
+        if ((b0 & 0x30) != 0) {
+            throw new ProtocolException(CLOSE_PROTOCOL_ERROR, "Неизвестные биты RSV");
+        }
+        boolean isControl = (frameOpcode & 0x08) != 0;
+        if (isControl) {
+            if (frameOpcode != OPCODE_CLOSE && frameOpcode != OPCODE_PING && frameOpcode != OPCODE_PONG) {
+                throw new ProtocolException(CLOSE_PROTOCOL_ERROR, "Неизвестный код управляющего кадра");
+            }
+            if (!frameFin || framePayloadLength > MAX_CONTROL_PAYLOAD || frameCompressed) {
+                throw new ProtocolException(CLOSE_PROTOCOL_ERROR, "Некорректный управляющий кадр");
+            }
+            controlLength = 0;
+        } else {
+            if (frameOpcode == OPCODE_CONTINUATION) {
+                if (messageOpcode < 0 || frameCompressed) {
+                    throw new ProtocolException(CLOSE_PROTOCOL_ERROR, "Неожиданный кадр продолжения");
+                }
+            } else if (frameOpcode == OPCODE_TEXT || frameOpcode == OPCODE_BINARY) {
+                if (messageOpcode >= 0) {
+                    throw new ProtocolException(CLOSE_PROTOCOL_ERROR, "Новое сообщение до завершения предыдущего");
+                }
+                if (frameCompressed && deflate == null) {
+                    throw new ProtocolException(CLOSE_PROTOCOL_ERROR, "Сжатие не согласовано");
+                }
+                messageOpcode = frameOpcode;
+                messageCompressed = frameCompressed;
+            } else {
+                throw new ProtocolException(CLOSE_PROTOCOL_ERROR, "Неизвестный код кадра");
+            }
+            if (framePayloadLength < 0 || framePayloadLength > MAX_MESSAGE_BYTES - messageLength) {
+                throw new ProtocolException(CLOSE_TOO_BIG, "Сообщение слишком большое");
+            }
+            ensureMessageCapacity(messageLength + (int) framePayloadLength);
+        }
+
+        framePayloadRead = 0;
+        inPayload = true;
+        if (framePayloadLength == 0) {
+            completeFrame();
+        }
+    }
+
+    private void readPayload(ByteBuffer buffer) throws ProtocolException {
+        int count = (int) Math.min(buffer.remaining(), framePayloadLength - framePayloadRead);
+        boolean isControl = (frameOpcode & 0x08) != 0;
+        byte[] target = isControl ? control : message;
+        int offset = isControl ? controlLength : messageLength;
+
+        buffer.get(target, offset, count);
+        for (int i = 0; i < count; i++) {
+            target[offset + i] ^= mask[(int) ((framePayloadRead + i) & 3)];
+        }
+        framePayloadRead += count;
+        if (isControl) {
+            controlLength += count;
+        } else {
+            messageLength += count;
+        }
+
+        if (framePayloadRead == framePayloadLength) {
+            completeFrame();
+        }
+    }
+
+    private void completeFrame() throws ProtocolException {
+        inPayload = false;
+        frameHeaderLength = 0;
+        frameHeaderNeeded = 2;
+
+        if ((frameOpcode & 0x08) != 0) {
+            handleControlFrame();
+        } else if (frameFin) {
+            deliverMessage();
+        }
+    }
+
+    private void handleControlFrame() throws ProtocolException {
+        switch (frameOpcode) {
+            case OPCODE_PING:
+                sendFrame(OPCODE_PONG, Arrays.copyOf(control, controlLength), false);
+                break;
+            case OPCODE_PONG:
+                break;
+            case OPCODE_CLOSE:
+                if (controlLength == 1) {
+                    throw new ProtocolException(CLOSE_PROTOCOL_ERROR, "Некорректный кадр закрытия");
+                }
+                int code = controlLength >= 2 ? ((control[0] & 0xFF) << 8) | (control[1] & 0xFF) : CLOSE_NORMAL;
+                // Ответный кадр закрытия с тем же кодом, после отправки соединение закрывается
+                close(code, "");
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void deliverMessage() throws ProtocolException {
+        byte[] payload = messageCompressed ? inflate(message, messageLength) : Arrays.copyOf(message, messageLength);
+        int opcode = messageOpcode;
+
+        messageOpcode = -1;
+        messageLength = 0;
+        messageCompressed = false;
+        // Буфер большого сообщения не держим до следующего
+        if (message.length > 64 * 1024) {
+            message = new byte[INITIAL_MESSAGE_BUFFER];
+        }
+
+        if (opcode == OPCODE_TEXT) {
+            String text;
+            try {
+                text = StandardCharsets.UTF_8.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPORT)
+                        .onUnmappableCharacter(CodingErrorAction.REPORT)
+                        .decode(ByteBuffer.wrap(payload))
+                        .toString();
+            } catch (CharacterCodingException e) {
+                throw new ProtocolException(CLOSE_INVALID_DATA, "Текст не в кодировке UTF-8");
+            }
+            handler.onText(this, text);
+        } else {
+            handler.onBinary(this, payload);
+        }
+    }
+
+    // Распаковка сообщения: клиент отбрасывает хвост 00 00 FF FF, его нужно вернуть
+    private byte[] inflate(byte[] data, int length) throws ProtocolException {
+        inflateLock.lock();
+        try {
+            if (inflaterEnded) {
+                throw new ProtocolException(CLOSE_NORMAL, "Соединение закрыто");
+            }
+            return inflateLocked(data, length);
+        } finally {
+            inflateLock.unlock();
+        }
+    }
+
+    private byte[] inflateLocked(byte[] data, int length) throws ProtocolException {
+        byte[] input = Arrays.copyOf(data, length + DEFLATE_TAIL.length);
+        System.arraycopy(DEFLATE_TAIL, 0, input, length, DEFLATE_TAIL.length);
+        inflater.setInput(input);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(64, length * 2));
+        byte[] chunk = new byte[8192];
+        try {
+            while (true) {
+                int count = inflater.inflate(chunk);
+                if (count > 0) {
+                    output.write(chunk, 0, count);
+                    if (output.size() > MAX_MESSAGE_BYTES) {
+                        throw new ProtocolException(CLOSE_TOO_BIG, "Сообщение слишком большое после распаковки");
+                    }
+                } else if (inflater.needsInput() || inflater.finished() || inflater.needsDictionary()) {
+                    break;
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new ProtocolException(CLOSE_INVALID_DATA, "Ошибка распаковки: " + e.getMessage());
+        }
+        if (deflate.clientNoContextTakeover) {
+            inflater.reset();
+        }
+        return output.toByteArray();
+    }
+
+    private byte[] compress(byte[] data) {
+        deflater.setInput(data);
+        ByteArrayOutputStream output = new ByteArrayOutputStream(data.length / 2 + 16);
+        byte[] chunk = new byte[8192];
+        int count;
+        do {
+            count = deflater.deflate(chunk, 0, chunk.length, Deflater.SYNC_FLUSH);
+            output.write(chunk, 0, count);
+        } while (count == chunk.length);
+        if (deflate.serverNoContextTakeover) {
+            deflater.reset();
+        }
+
+        // SYNC_FLUSH завершается блоком 00 00 FF FF, который по RFC 7692 не передается
+        byte[] compressed = output.toByteArray();
+        return Arrays.copyOf(compressed, compressed.length - DEFLATE_TAIL.length);
+    }
+
+    private boolean sendFrame(int opcode, byte[] payload, boolean mayCompress) {
+        if (Thread.currentThread() instanceof Reactor) {
+            // Реактор не ждет ни клиента, ни sendLock: кадр отправит он сам или владелец блокировки
+            if (released) {
+                return false;
+            }
+            deferred.add(new PendingFrame(opcode, payload, mayCompress));
+            drainDeferred();
+            return true;
+        }
+
+        // Ожидание обратного давления - без sendLock, чтобы не задерживать кадры реактора
+        try {
+            connection.awaitWritable();
+        } catch (IOException e) {
+            connection.close();
+            return false;
+        }
+        sendLock.lock();
+        try {
+            return writeFrame(opcode, payload, mayCompress);
+        } finally {
+            sendLock.unlock();
+            drainDeferred();
+        }
+    }
+
+    // Отложенные кадры реактора. Поток, не получивший блокировку, уходит: владелец после
+    // освобождения снова проверит очередь
+    private void drainDeferred() {
+        while (!deferred.isEmpty() && sendLock.tryLock()) {
+            try {
+                PendingFrame frame;
+                while ((frame = deferred.poll()) != null) {
+                    if (frame.payload == null) {
+                        releaseDeflater();
+                    } else {
+                        writeFrame(frame.opcode, frame.payload, frame.mayCompress);
+                    }
+                }
+            } finally {
+                sendLock.unlock();
+            }
+        }
+    }
+
+    // Сжатие и постановка кадра в очередь соединения без ожидания; вызывается под sendLock
+    private boolean writeFrame(int opcode, byte[] payload, boolean mayCompress) {
+        if (closeSent) {
+            if (opcode == OPCODE_CLOSE) {
+                connection.closeAfterFlush();
+            }
+            return false;
+        }
+        try {
+            boolean compressed = mayCompress && deflate != null && payload.length >= COMPRESSION_THRESHOLD;
+            if (compressed) {
+                payload = compress(payload);
+            }
+            if (opcode == OPCODE_CLOSE) {
+                closeSent = true;
+            }
+
+            // Кадры сервера не маскируются
+            byte[] header = new byte[10];
+            int headerLength;
+            header[0] = (byte) (0x80 | (compressed ? 0x40 : 0) | opcode);
+            if (payload.length < 126) {
+                header[1] = (byte) payload.length;
+                headerLength = 2;
+            } else if (payload.length <= 0xFFFF) {
+                header[1] = 126;
+                header[2] = (byte) (payload.length >>> 8);
+                header[3] = (byte) payload.length;
+                headerLength = 4;
+            } else {
+                header[1] = 127;
+                long length = payload.length;
+                for (int i = 0; i < 8; i++) {
+                    header[9 - i] = (byte) (length >>> (8 * i));
+                }
+                headerLength = 10;
+            }
+
+            connection.writeWithoutWaiting(ByteBuffer.wrap(header, 0, headerLength), ByteBuffer.wrap(payload));
+            if (opcode == OPCODE_CLOSE) {
+                connection.closeAfterFlush();
+            }
+            return true;
+        } catch (IOException e) {
+            connection.close();
+            return false;
+        }
+    }
+
+    private void sendClose(int code, String reason) {
+        byte[] reasonBytes = reason.getBytes(StandardCharsets.UTF_8);
+        byte[] payload = new byte[2 + Math.min(reasonBytes.length, MAX_CONTROL_PAYLOAD - 2)];
+        payload[0] = (byte) (code >>> 8);
+        payload[1] = (byte) code;
+        System.arraycopy(reasonBytes, 0, payload, 2, payload.length - 2);
+        sendFrame(OPCODE_CLOSE, payload, false);
+    }
+
+    private void fail(int code, String reason) {
+        System.err.println("Ошибка протокола WebSocket: " + reason);
+        close(code, reason);
+        notifyClosed();
+    }
+
+    private void notifyClosed() {
+        if (closeNotified.compareAndSet(false, true)) {
+            handler.onClose(this);
+            // Дальнейшая отправка невозможна - память упаковщика и распаковщика освобождается сразу.
+            // Упаковщик - через очередь кадров, чтобы не ждать sendLock на потоке реактора
+            released = true;
+            deferred.add(new PendingFrame(0, null, false));
+            drainDeferred();
+            if (inflater != null) {
+                inflateLock.lock();
+                try {
+                    inflaterEnded = true;
+                    inflater.end();
+                } finally {
+                    inflateLock.unlock();
+                }
+            }
+        }
+    }
+
+    // Вызывается под sendLock
+    private void releaseDeflater() {
+        closeSent = true;
+        if (deflater != null) {
+            deflater.end();
+        }
+    }
+
+    private void ensureMessageCapacity(int required) {
+        if (required > message.length) {
+            message = Arrays.copyOf(message, Math.max(required, Math.min(MAX_MESSAGE_BYTES, message.length * 2)));
+        }
+    }
+
+    // Параметры permessage-deflate, согласованные с клиентом
+    static class DeflateParameters {
+        final boolean serverNoContextTakeover;
+        final boolean clientNoContextTakeover;
+
+        private DeflateParameters(boolean serverNoContextTakeover, boolean clientNoContextTakeover) {
+            this.serverNoContextTakeover = serverNoContextTakeover;
+            this.clientNoContextTakeover = clientNoContextTakeover;
+        }
+
+        // Выбор первого приемлемого предложения из Sec-WebSocket-Extensions; null - без сжатия.
+        // Окно сервера меньше 32 КБ java.util.zip задать не позволяет, такие предложения отклоняются.
+        static DeflateParameters negotiate(String extensionsHeader) {
+            if (extensionsHeader == null) {
+                return null;
+            }
+            for (String offer : extensionsHeader.split(",")) {
+                String[] parts = offer.split(";");
+                if (!parts[0].trim().equalsIgnoreCase("permessage-deflate")) {
+                    continue;
+                }
+                boolean serverNoContext = false;
+                boolean clientNoContext = false;
+                boolean acceptable = true;
+                for (int i = 1; i < parts.length && acceptable; i++) {
+                    String param = parts[i].trim();
+                    int eq = param.indexOf('=');
+                    String name = (eq >= 0 ? param.substring(0, eq) : param).trim().toLowerCase();
+                    String value = eq >= 0 ? param.substring(eq + 1).trim().replace("\"", "") : null;
+                    switch (name) {
+                        case "server_no_context_takeover":
+                            serverNoContext = true;
+                            break;
+                        case "client_no_context_takeover":
+                            clientNoContext = true;
+                            break;
+                        case "client_max_window_bits":
+                            // Распаковщик с окном 32 КБ принимает данные с любым меньшим окном
+                            break;
+                        case "server_max_window_bits":
+                            acceptable = "15".equals(value);
+                            break;
+                        default:
+                            acceptable = false;
+                            break;
+                    }
+                }
+                if (acceptable) {
+                    return new DeflateParameters(serverNoContext, clientNoContext);
+                }
+            }
+            return null;
+        }
+
+        String toHeaderValue() {
+            return "permessage-deflate" +
+                    (serverNoContextTakeover ? "; server_no_context_takeover" : "") +
+                    (clientNoContextTakeover ? "; client_no_context_takeover" : "");
+        }
+    }
+
+    private static class PendingFrame {
+        final int opcode;
+        final byte[] payload; // null - освободить упаковщик после закрытия
+        final boolean mayCompress;
+
+        PendingFrame(int opcode, byte[] payload, boolean mayCompress) {
+            this.opcode = opcode;
+            this.payload = payload;
+            this.mayCompress = mayCompress;
+        }
+    }
+
+    private static class ProtocolException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final int closeCode;
+
+        ProtocolException(int closeCode, String message) {
+            super(message);
+            this.closeCode = closeCode;
+        }
+    }
+}
@@ -2,11 +2,16 @@
 var AIAssistant = {
     currentSessionId: null,
     eventSource: null,
+    streamId: null,
+    answerStarted: false,
+    webSocket: null,
+    pendingAudio: null,
 
     // Инициализация
     init: function() {
         this.loadSystemInfo();
         this.connectEventSource();
+        this.connectWebSocket();
         this.loadChatHistory();
     },
 
@@ -91,6 +96,59 @@ var AIAssistant = {
         };
     },
 
+    // WebSocket для вопросов, отмены и токенов ответа. Если он недоступен,
+    // вопросы уходят обычным POST, а ответ приходит через EventSource.
+    connectWebSocket: function() {
+        if (!window.WebSocket) {
+            return;
+        }
+        var protocol = location.protocol === 'https:' ? 'wss://' : 'ws://';
+        var socket = new WebSocket(protocol + location.host + '/api/ws');
+        socket.binaryType = 'arraybuffer';
+
+        socket.onopen = function() {
+            AIAssistant.webSocket = socket;
+        };
+
+        socket.onclose = function() {
+            AIAssistant.webSocket = null;
+            setTimeout(function() {
+                AIAssistant.connectWebSocket();
+            }, 5000);
+        };
+
+        socket.onmessage = function(event) {
+            if (event.data instanceof ArrayBuffer) {
+                // Двоичный кадр - звук предложения, описанного предыдущим сообщением "audio"
+                if (AIAssistant.pendingAudio) {
+                    playAudio(event.data, AIAssistant.pendingAudio.format);
+                    AIAssistant.pendingAudio = null;
+                }
+                return;
+            }
+            try {
+                var data = JSON.parse(event.data);
+                if (data.type === 'audio') {
+                    AIAssistant.pendingAudio = data;
+                } else {
+                    handleEventSourceMessage(data);
+                }
+            } catch (e) {
+                console.error('Ошибка парсинга сообщения WebSocket:', e);
+            }
+        };
+    },
+
+    // Прерывание генерации текущего ответа
+    cancelQuestion: function() {
+        if (this.webSocket && this.currentSessionId) {
+            this.webSocket.send(JSON.stringify({
+                type: 'cancel',
+                session_id: this.currentSessionId
+            }));
+        }
+    },
+
     // Загрузка истории чата
     loadChatHistory: function() {
         $.ajax({
@@ -118,6 +176,7 @@ var AIAssistant = {
         }
 
         this.currentSessionId = 'session_' + Date.now();
+        this.answerStarted = false;
 
         // Показываем вопрос в чате
         addMessageToChat('user', question);
@@ -125,6 +184,15 @@ var AIAssistant = {
         // Очищаем поле ввода
         $('#question-input').textbox('clear');
 
+        if (this.webSocket && this.webSocket.readyState === WebSocket.OPEN) {
+            this.webSocket.send(JSON.stringify({
+                type: 'ask',
+                question: question,
+                session_id: this.currentSessionId
+            }));
+            return;
+        }
+
         // Отправляем запрос
         $.ajax({
             url: '/api/ask',
@@ -132,15 +200,23 @@ var AIAssistant = {
             contentType: 'application/json',
             data: JSON.stringify({
                 question: question,
-                session_id: this.currentSessionId
+                session_id: this.currentSessionId,
+                stream_id: this.streamId
             }),
             success: function(response) {
-                if (response.status === 'processing') {
+                // Ответ мог начать приходить по потоку событий раньше подтверждения
+                if (response.status === 'processing' && !AIAssistant.answerStarted) {
                     // Показываем индикатор обработки
                     addMessageToChat('assistant', '⌛ Обработка запроса...');
                 }
             },
-            error: function() {
+            error: function(xhr) {
+                // 429/503: сервер перегружен или вопросы идут слишком часто
+                if ((xhr.status === 429 || xhr.status === 503) && xhr.responseJSON) {
+                    addMessageToChat('system', '⏳ ' + xhr.responseJSON.error +
+                        ' (через ' + xhr.responseJSON.retry_after + ' с)');
+                    return;
+                }
                 addMessageToChat('system', '❌ Ошибка отправки запроса');
             }
         });
@@ -281,21 +357,54 @@ function handleEventSourceMessage(data) {
     switch (data.type) {
         case 'connected':
             console.log('Connected to event source, session:', data.session_id);
+            // Идентификатор потока передается с вопросом, чтобы токены ответа шли в эту вкладку
+            AIAssistant.streamId = data.session_id;
+            break;
+
+        case 'answer_start':
+            if (data.session_id === AIAssistant.currentSessionId) {
+                AIAssistant.answerStarted = true;
+                removeProcessingMessage();
+                addMessageToChat('assistant', '');
+                $('#response-area').children('.message').last().attr('id', 'streaming-answer');
+            }
+            break;
+
+        case 'answer_sources':
+            if (data.session_id === AIAssistant.currentSessionId && data.sources.length > 0) {
+                var sourcesText = data.sources.map(function(source) {
+                    return source.source + ' (' + source.similarity + ')';
+                }).join(', ');
+                $('#streaming-answer .message-header').append(
+                    $('<div class="message-sources"></div>').text('Источники: ' + sourcesText));
+            }
+            break;
+
+        case 'answer_token':
+            if (data.session_id === AIAssistant.currentSessionId) {
+                var streamingContent = $('#streaming-answer .message-content');
+                streamingContent.text(streamingContent.text() + data.token);
+                var responseArea = $('#response-area');
+                responseArea.scrollTop(responseArea[0].scrollHeight);
+            }
             break;
 
         case 'answer_complete':
             if (data.session_id === AIAssistant.currentSessionId) {
-                // Удаляем индикатор обработки и добавляем ответ
-                var chat = $('#response-area');
-                var messages = chat.children('.message');
-                var lastMessage = messages.last();
-
-                if (lastMessage.hasClass('assistant-message') &&
-                    lastMessage.text().includes('Обработка запроса')) {
-                    lastMessage.remove();
+                AIAssistant.answerStarted = true;
+                var streamingAnswer = $('#streaming-answer');
+                if (streamingAnswer.length > 0) {
+                    // Ответ уже выведен по токенам - заменяем его итоговым текстом
+                    streamingAnswer.find('.message-content').html(data.answer.replace(/\n/g, '<br>'));
+                    streamingAnswer.removeAttr('id');
+                } else {
+                    // Удаляем индикатор обработки и добавляем ответ
+                    removeProcessingMessage();
+                    addMessageToChat('assistant', data.answer);
+                }
+                if (data.cancelled) {
+                    addMessageToChat('system', '⏹ Генерация остановлена');
                 }
-
-                addMessageToChat('assistant', data.answer);
                 AIAssistant.loadChatHistory(); // Обновляем историю
             }
             break;
@@ -321,6 +430,14 @@ function handleEventSourceMessage(data) {
     }
 }
 
+function removeProcessingMessage() {
+    var lastMessage = $('#response-area').children('.message').last();
+    if (lastMessage.hasClass('assistant-message') &&
+        lastMessage.text().includes('Обработка запроса')) {
+        lastMessage.remove();
+    }
+}
+
 function addMessageToChat(role, content) {
     var chat = $('#response-area');
     var messageClass = role + '-message';
@@ -355,6 +472,20 @@ function showStats() {
     AIAssistant.loadSystemInfo();
 }
 
+function cancelQuestion() {
+    AIAssistant.cancelQuestion();
+}
+
+function playAudio(data, format) {
+    var blob = new Blob([data], {type: 'audio/' + (format || 'wav')});
+    var url = URL.createObjectURL(blob);
+    var audio = new Audio(url);
+    audio.onended = function() {
+        URL.revokeObjectURL(url);
+    };
+    audio.play();
+}
+
 function sendQuestion() {
     AIAssistant.sendQuestion();
 }